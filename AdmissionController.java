@@ -0,0 +1,132 @@
+package clustering;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class limits how many runs may be in each heavy stage of the
+ * clustering pipeline at the same time, so that load on the mining engine
+ * stays bounded however many requests arrive. Every stage has a limit of
+ * its own: a run holds a BUILD permit while it builds its model, and an
+ * APPLY permit while it applies the model; the
+ * servlet holds a SCORING permit while it waits for an in-process score.
+ * With separate limits, the apply of one run can proceed while other runs
+ * are building.
+ *
+ *   Permits are handed out in arrival order. A caller that cannot get one
+ * within its timeout is refused, and counted, so that an overloaded stage
+ * sheds work instead of piling it up. The time callers wait for a permit
+ * is summed per stage and exported as the average queue wait.
+ */
+public class AdmissionController {
+  /**
+   * Stages of the pipeline with a concurrency limit.
+   */
+  public enum Stage {
+    /** model build */
+    BUILD,
+    /** model apply and reading back the results */
+    APPLY,
+    /** in-process scoring of single cases */
+    SCORING
+  }
+
+  private static class Gate {
+    final int m_limit;
+    final Semaphore m_permits;
+    final AtomicLong m_admitted = new AtomicLong();
+    final AtomicLong m_rejected = new AtomicLong();
+    final AtomicLong m_totalWaitNanos = new AtomicLong();
+
+    Gate(int limit) {
+      m_limit = limit;
+      m_permits = new Semaphore(limit, true);
+    }
+  }
+
+  private final Gate[] m_gates = new Gate[Stage.values().length];
+
+  /**
+   * @param buildLimit number of runs that may build at once
+   * @param applyLimit number of runs that may apply at once
+   * @param scoringLimit number of score requests that may wait for their
+   *        result at once
+   */
+  public AdmissionController(int buildLimit, int applyLimit, int scoringLimit)
+  {
+    if (buildLimit < 1 || applyLimit < 1 || scoringLimit < 1)
+      throw new IllegalArgumentException("Stage limits must be >= 1");
+    m_gates[Stage.BUILD.ordinal()] = new Gate(buildLimit);
+    m_gates[Stage.APPLY.ordinal()] = new Gate(applyLimit);
+    m_gates[Stage.SCORING.ordinal()] = new Gate(scoringLimit);
+  }
+
+  /**
+   * Enters a stage; every call that returns true must be followed by one
+   * <code>release</code> of the same stage.
+   *
+   * @param timeoutMillis how long to wait for a permit; 0 does not wait
+   * @return whether a permit was obtained
+   * @exception InterruptedException if the thread was interrupted while
+   *            waiting
+   */
+  public boolean tryAcquire(Stage stage, long timeoutMillis)
+    throws InterruptedException
+  {
+    Gate gate = m_gates[stage.ordinal()];
+    long start = System.nanoTime();
+    boolean acquired = timeoutMillis <= 0L ? gate.m_permits.tryAcquire() :
+      gate.m_permits.tryAcquire(timeoutMillis, TimeUnit.MILLISECONDS);
+    gate.m_totalWaitNanos.addAndGet(System.nanoTime() - start);
+    if (acquired)
+      gate.m_admitted.incrementAndGet();
+    else
+      gate.m_rejected.incrementAndGet();
+    return acquired;
+  }
+
+  public void release(Stage stage) {
+    m_gates[stage.ordinal()].m_permits.release();
+  }
+
+  public int getLimit(Stage stage) {
+    return m_gates[stage.ordinal()].m_limit;
+  }
+
+  /**
+   * @return number of permits of the stage currently held
+   */
+  public int getActiveCount(Stage stage) {
+    Gate gate = m_gates[stage.ordinal()];
+    return gate.m_limit - gate.m_permits.availablePermits();
+  }
+
+  /**
+   * @return estimated number of callers waiting for a permit of the stage
+   */
+  public int getWaitingCount(Stage stage) {
+    return m_gates[stage.ordinal()].m_permits.getQueueLength();
+  }
+
+  public long getAdmittedCount(Stage stage) {
+    return m_gates[stage.ordinal()].m_admitted.get();
+  }
+
+  /**
+   * @return number of callers that got no permit within their timeout
+   */
+  public long getRejectedCount(Stage stage) {
+    return m_gates[stage.ordinal()].m_rejected.get();
+  }
+
+  /**
+   * @return mean time in milliseconds a caller waited for a permit of the
+   *         stage, whether it got one or not
+   */
+  public double getAverageWaitMillis(Stage stage) {
+    Gate gate = m_gates[stage.ordinal()];
+    long calls = gate.m_admitted.get() + gate.m_rejected.get();
+    return calls == 0 ? 0.0 : gate.m_totalWaitNanos.get() / 1e6 / calls;
+  }
+}
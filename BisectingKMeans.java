@@ -0,0 +1,316 @@
+package clustering;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class builds a hierarchical k-Means model inside the Java VM by
+ * bisecting k-Means, growing the same kind of cluster tree as the mining
+ * engine: starting from a root that holds all cases, the leaf with the
+ * highest split priority (see <code>KMeansConfig.SplitCriterion</code>) is
+ * split in two by 2-means until there are <code>numberOfClusters</code>
+ * leaves.
+ *
+ *   The rows of each cluster form a contiguous range of one index array,
+ * and a split partitions its range in place, so splitting a cluster only
+ * touches the rows of that cluster and a whole level of the tree costs one
+ * pass over the data, giving O(n log k) work for a balanced tree.
+ *
+ *   The split of a leaf depends only on its rows, so every new leaf starts
+ * its trial split at once on a <code>ForkJoinPool</code> while the
+ * splits are committed in priority order on the calling thread. Independent
+ * subtrees are therefore split in parallel, and the tree is the same as the
+ * one a single thread grows. Trial splits of leaves that are never split
+ * are cancelled. The model reports the total number of 2-means iterations
+ * of the committed splits as its iterations.
+ */
+public class BisectingKMeans {
+  private final KMeansConfig m_config;
+  private final KMeansEngine m_engine;
+
+  public BisectingKMeans(KMeansConfig config) {
+    m_config = config;
+    m_engine = new KMeansEngine(config);
+  }
+
+  public KMeansConfig getConfig() {
+    return m_config;
+  }
+
+  /**
+   * Builds a model whose leaves are the clusters that cases are assigned to.
+   *
+   * @param data build data
+   * @param modelName name given to the model
+   * @return the built model
+   */
+  public LocalClusteringModel build(MiningDataset data, String modelName) {
+    int n = data.getRowCount();
+    int d = data.getAttributeCount();
+    if (n == 0)
+      throw new IllegalArgumentException("Build data " + modelName + " has no rows");
+    double[] x = data.getValues();
+    int[] rows = new int[n];
+    for (int i = 0; i < n; i++)
+      rows[i] = i;
+
+    ForkJoinPool pool = m_config.getParallelism() > 1 ?
+      new ForkJoinPool(m_config.getParallelism()) : null;
+    ClusterTreeBuilder tree = new ClusterTreeBuilder(data.getAttributeNames(),
+      m_config.getNumberOfBins(), true);
+    PriorityQueue<Leaf> queue = new PriorityQueue<Leaf>(11, new Comparator<Leaf>() {
+      public int compare(Leaf a, Leaf b) {
+        int byPriority = Double.compare(b.m_priority, a.m_priority);
+        return byPriority != 0 ? byPriority : a.m_node - b.m_node;
+      }
+    });
+    List<Leaf> leaves = new ArrayList<Leaf>();
+    int iterations = 0;
+    try {
+      double[] mean = new double[d];
+      double sse = SplitTask.moments(x, d, rows, 0, n, mean);
+      queue.add(start(pool, new Leaf(tree.addNode(-1), 0, n, mean, sse,
+        m_config.getRandomSeed()), x, d, rows));
+      int leafCount = 1;
+      while (leafCount < m_config.getNumberOfClusters() && !queue.isEmpty()) {
+        Leaf leaf = queue.poll();
+        Split split = leaf.m_trial.join();
+        if (split == null) {
+          // the rows of this leaf cannot be told apart
+          leaves.add(leaf);
+          continue;
+        }
+        iterations += split.m_iterations;
+        queue.add(start(pool, new Leaf(tree.addNode(leaf.m_node), leaf.m_from,
+          split.m_mid, split.m_leftMean, split.m_leftSse,
+          leaf.m_seed * 0x9E3779B97F4A7C15L + 1), x, d, rows));
+        queue.add(start(pool, new Leaf(tree.addNode(leaf.m_node), split.m_mid,
+          leaf.m_to, split.m_rightMean, split.m_rightSse,
+          leaf.m_seed * 0x9E3779B97F4A7C15L + 2), x, d, rows));
+        leafCount++;
+      }
+      for (Leaf leaf : queue) {
+        leaf.m_trial.cancel(false);
+        leaves.add(leaf);
+      }
+    } finally {
+      if (pool != null)
+        pool.shutdown();
+    }
+    // a trial split that was already running when it was cancelled may
+    // still be reordering the rows of its leaf
+    if (pool != null) {
+      try {
+        pool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+      } catch (InterruptedException interrupted) {
+        Thread.currentThread().interrupt();
+        throw new IllegalStateException("Interrupted while building " + modelName);
+      }
+    }
+
+    // leaves are numbered in tree order
+    leaves.sort(new Comparator<Leaf>() {
+      public int compare(Leaf a, Leaf b) {
+        return a.m_node - b.m_node;
+      }
+    });
+    double[] leafCentroids = new double[leaves.size() * d];
+    int[] assignment = new int[n];
+    for (int c = 0; c < leaves.size(); c++) {
+      Leaf leaf = leaves.get(c);
+      tree.setLeaf(leaf.m_node, c);
+      System.arraycopy(leaf.m_mean, 0, leafCentroids, c * d, d);
+      for (int r = leaf.m_from; r < leaf.m_to; r++)
+        assignment[rows[r]] = c;
+    }
+    return tree.build(modelName, leafCentroids, data, assignment, iterations);
+  }
+
+  private Leaf start(ForkJoinPool pool, Leaf leaf, double[] x, int d, int[] rows) {
+    leaf.m_priority = m_config.getSplitCriterion() == KMeansConfig.SplitCriterion.SIZE ?
+      leaf.m_to - leaf.m_from : leaf.m_sse;
+    SplitTask task = new SplitTask(x, d, rows, leaf.m_from, leaf.m_to,
+      leaf.m_seed, m_config.getMaxNumberOfIterations(), m_engine);
+    if (pool != null)
+      pool.execute(task);
+    else
+      task.invoke();
+    leaf.m_trial = task;
+    return leaf;
+  }
+
+  /**
+   * A leaf of the growing tree: the rows [from, to) of the index array.
+   */
+  private static class Leaf {
+    final int m_node;
+    final int m_from;
+    final int m_to;
+    final double[] m_mean;
+    final double m_sse;
+    final long m_seed;
+    double m_priority;
+    ForkJoinTask<Split> m_trial;
+
+    Leaf(int node, int from, int to, double[] mean, double sse, long seed) {
+      m_node = node;
+      m_from = from;
+      m_to = to;
+      m_mean = mean;
+      m_sse = sse;
+      m_seed = seed;
+    }
+  }
+
+  /**
+   * Outcome of a trial split: the left rows are [from, mid), the right rows
+   * [mid, to).
+   */
+  private static class Split {
+    int m_mid;
+    double[] m_leftMean;
+    double[] m_rightMean;
+    double m_leftSse;
+    double m_rightSse;
+    int m_iterations;
+  }
+
+  /**
+   * Splits the rows [from, to) in two by 2-means and partitions them in
+   * place. The first centroid is a random row, the second a row drawn with
+   * probability proportional to its squared distance to the first
+   * (k-means++). Returns null if all rows are equal.
+   */
+  private static class SplitTask extends RecursiveTask<Split> {
+    private static final long serialVersionUID = 1L;
+    private final double[] m_x;
+    private final int m_d;
+    private final int[] m_rows;
+    private final int m_from;
+    private final int m_to;
+    private final long m_seed;
+    private final int m_maxIterations;
+    private final KMeansEngine m_engine;
+
+    SplitTask(double[] x, int d, int[] rows, int from, int to, long seed,
+      int maxIterations, KMeansEngine engine)
+    {
+      m_x = x;
+      m_d = d;
+      m_rows = rows;
+      m_from = from;
+      m_to = to;
+      m_seed = seed;
+      m_maxIterations = maxIterations;
+      m_engine = engine;
+    }
+
+    protected Split compute() {
+      double[] x = m_x;
+      int d = m_d;
+      int[] rows = m_rows;
+      if (m_to - m_from < 2)
+        return null;
+      Random random = new Random(m_seed);
+      double[] centroids = new double[2 * d];
+      int first = rows[m_from + random.nextInt(m_to - m_from)];
+      System.arraycopy(x, first * d, centroids, 0, d);
+      double total = 0.0;
+      for (int r = m_from; r < m_to; r++)
+        total += DistanceKernel.get().squaredDistance(x, rows[r] * d, centroids, 0, d);
+      if (total == 0.0)
+        return null;
+      double target = random.nextDouble() * total;
+      int second = rows[m_to - 1];
+      for (int r = m_from; r < m_to; r++) {
+        target -= DistanceKernel.get().squaredDistance(x, rows[r] * d, centroids, 0, d);
+        if (target < 0.0) {
+          second = rows[r];
+          break;
+        }
+      }
+      System.arraycopy(x, second * d, centroids, d, d);
+
+      double[] sums = new double[2 * d];
+      long[] counts = new long[2];
+      double previousError = Double.POSITIVE_INFINITY;
+      int iteration = 0;
+      while (iteration < m_maxIterations) {
+        iteration++;
+        Arrays.fill(sums, 0.0);
+        counts[0] = 0;
+        counts[1] = 0;
+        double error = 0.0;
+        for (int r = m_from; r < m_to; r++) {
+          int off = rows[r] * d;
+          double d0 = DistanceKernel.get().squaredDistance(x, off, centroids, 0, d);
+          double d1 = DistanceKernel.get().squaredDistance(x, off, centroids, d, d);
+          int c = d1 < d0 ? 1 : 0;
+          counts[c]++;
+          for (int j = 0; j < d; j++)
+            sums[c * d + j] += x[off + j];
+          error += Math.min(d0, d1);
+        }
+        KMeansEngine.updateCentroids(centroids, sums, counts, 2, d);
+        if (m_engine.hasConverged(previousError, error))
+          break;
+        previousError = error;
+      }
+
+      // partition the rows: closer to the first centroid goes left
+      int left = m_from;
+      int right = m_to - 1;
+      while (left <= right) {
+        int off = rows[left] * d;
+        if (DistanceKernel.get().squaredDistance(x, off, centroids, d, d) <
+            DistanceKernel.get().squaredDistance(x, off, centroids, 0, d)) {
+          int row = rows[left];
+          rows[left] = rows[right];
+          rows[right--] = row;
+        } else {
+          left++;
+        }
+      }
+      if (left == m_from || left == m_to)
+        return null;
+      Split split = new Split();
+      split.m_mid = left;
+      split.m_leftMean = new double[d];
+      split.m_rightMean = new double[d];
+      split.m_leftSse = moments(x, d, rows, m_from, left, split.m_leftMean);
+      split.m_rightSse = moments(x, d, rows, left, m_to, split.m_rightMean);
+      split.m_iterations = iteration;
+      return split;
+    }
+
+    /**
+     * Computes the mean of the rows [from, to) into <code>mean</code>.
+     *
+     * @return sum of the squared distances of the rows to their mean
+     */
+    static double moments(double[] x, int d, int[] rows, int from, int to,
+      double[] mean)
+    {
+      Arrays.fill(mean, 0.0);
+      for (int r = from; r < to; r++) {
+        int off = rows[r] * d;
+        for (int j = 0; j < d; j++)
+          mean[j] += x[off + j];
+      }
+      for (int j = 0; j < d; j++)
+        mean[j] /= (to - from);
+      double sse = 0.0;
+      for (int r = from; r < to; r++)
+        sse += DistanceKernel.get().squaredDistance(x, rows[r] * d, mean, 0, d);
+      return sse;
+    }
+  }
+}
@@ -0,0 +1,192 @@
+package clustering;
+
+/**
+ * This class scores cases against a k-Means model built in-process, in the
+ * Java VM and without an apply task. A case is given to the leaf cluster
+ * with the nearest centroid, as in the build, and gets a probability for
+ * every leaf cluster:
+ * p(c) proportional to exp(-|x - c|^2 / (2 s)),
+ * where s is the within-cluster variance per attribute of the model (the
+ * case-weighted mean of the leaf dispersions, divided by the number of
+ * attributes). The nearest centroid therefore always has the highest
+ * probability, and cases close to a border between clusters share their
+ * probability between them.
+ *
+ *   The centroids and their squared norms are copied from the model once,
+ * when the scorer is created. Scoring reads them only, so one scorer can
+ * be shared by any number of threads. The calls that take a probability
+ * array allocate nothing; the others use a work array per thread.
+ */
+public class ClusterScorer {
+  private final LocalClusteringModel m_model;
+  private final int m_d;
+  private final int m_k;
+  private final double[] m_centroids;
+  private final double[] m_norms;
+  private final int[] m_clusterIds;
+  // 1 / (2 s)
+  private final double m_inverseTwiceVariance;
+  private final ThreadLocal<double[]> m_work = new ThreadLocal<double[]>() {
+    protected double[] initialValue() {
+      return new double[Math.max(DistanceKernel.SCRATCH_LENGTH, m_k)];
+    }
+  };
+
+  /**
+   * @param model model to score with
+   */
+  public ClusterScorer(LocalClusteringModel model) {
+    m_model = model;
+    m_d = model.getAttributeCount();
+    m_k = model.getNumberOfLeafClusters();
+    m_centroids = model.getLeafCentroids();
+    m_norms = new double[m_k];
+    DistanceKernel.get().squaredNorms(m_centroids, m_k, m_d, m_norms);
+    m_clusterIds = new int[m_k];
+    double sse = 0.0;
+    long cases = 0L;
+    for (int c = 0; c < m_k; c++) {
+      LocalCluster leaf = model.getLeafCluster(c);
+      m_clusterIds[c] = leaf.getClusterId();
+      sse += leaf.getDispersion() * leaf.getCaseCount();
+      cases += leaf.getCaseCount();
+    }
+    double variance = cases == 0 ? 0.0 : sse / cases / Math.max(1, m_d);
+    // keep distinct centroids from giving all probability to one cluster
+    // through a zero variance; the floor is tiny next to the data spread
+    LocalCluster root = model.getCluster(1);
+    double floor = 1e-6 * (root == null ? 0.0 : root.getDispersion()) /
+      Math.max(1, m_d);
+    variance = Math.max(variance, floor);
+    m_inverseTwiceVariance = variance > 0.0 ? 0.5 / variance : 0.5;
+  }
+
+  public LocalClusteringModel getModel() {
+    return m_model;
+  }
+
+  /**
+   * @return the normalization a raw case needs before it is scored, or null
+   *         if cases are given normalized; see
+   *         <code>LocalClusteringModel.getNormalizer</code>
+   */
+  public MinMaxNormalizer getNormalizer() {
+    return m_model.getNormalizer();
+  }
+
+  /**
+   * @return number of attribute values a case is made of, in the order of
+   *         <code>LocalClusteringModel.getAttributeNames</code>
+   */
+  public int getAttributeCount() {
+    return m_d;
+  }
+
+  /**
+   * @return number of clusters a case can be given to
+   */
+  public int getNumberOfClusters() {
+    return m_k;
+  }
+
+  /**
+   * @return identifier of the model cluster scored at the given index
+   */
+  public int getClusterId(int index) {
+    return m_clusterIds[index];
+  }
+
+  /**
+   * Scores one case without allocating.
+   *
+   * @param x row-major values holding the case
+   * @param off offset of the case in <code>x</code>
+   * @param probabilities receives the probability of each cluster; its
+   *        length must be at least the number of clusters
+   * @return index of the top cluster, i.e. of the nearest centroid
+   */
+  public int score(double[] x, int off, double[] probabilities) {
+    int k = m_k;
+    DistanceKernel.get().scores(x, off, m_d, m_centroids, m_norms, k,
+      probabilities);
+    int best = 0;
+    for (int c = 1; c < k; c++) {
+      if (probabilities[c] < probabilities[best])
+        best = c;
+    }
+    toProbabilities(probabilities, 0, best);
+    return best;
+  }
+
+  /**
+   * Gives one case to its nearest cluster.
+   *
+   * @return index of the top cluster
+   */
+  public int score(double[] x, int off) {
+    double[] work = m_work.get();
+    DistanceKernel.get().scores(x, off, m_d, m_centroids, m_norms, m_k, work);
+    int best = 0;
+    for (int c = 1; c < m_k; c++) {
+      if (work[c] < work[best])
+        best = c;
+    }
+    return best;
+  }
+
+  /**
+   * Scores the cases [from, to) of a row-major array with the tiled kernel,
+   * which is faster than scoring the cases one at a time. With
+   * probabilities, the distances of each tile are written straight into
+   * <code>probabilities</code> and turned into probabilities there, so they
+   * are computed once per case as for the top clusters alone.
+   *
+   * @param topClusters receives the index of the top cluster of case
+   *        <code>i</code> at <code>i - from</code>
+   * @param probabilities receives the probabilities of case <code>i</code>
+   *        at <code>(i - from) x numberOfClusters</code>, or null
+   */
+  public void score(double[] x, int from, int to, int[] topClusters,
+    double[] probabilities)
+  {
+    int d = m_d;
+    int k = m_k;
+    if (probabilities == null) {
+      double[] work = m_work.get();
+      DistanceKernel kernel = DistanceKernel.get();
+      for (int r0 = from; r0 < to; r0 += DistanceKernel.TILE_ROWS) {
+        int rows = Math.min(to, r0 + DistanceKernel.TILE_ROWS) - r0;
+        kernel.nearestTile(x, r0, rows, d, m_centroids, m_norms, k,
+          topClusters, r0 - from, work);
+      }
+      return;
+    }
+    DistanceKernel kernel = DistanceKernel.get();
+    for (int r0 = from; r0 < to; r0 += DistanceKernel.TILE_ROWS) {
+      int rows = Math.min(to, r0 + DistanceKernel.TILE_ROWS) - r0;
+      kernel.scoresTile(x, r0, rows, d, m_centroids, m_norms, k,
+        probabilities, (r0 - from) * k, topClusters, r0 - from);
+      for (int i = r0 - from; i < r0 - from + rows; i++)
+        toProbabilities(probabilities, i * k, topClusters[i]);
+    }
+  }
+
+  /**
+   * Turns the k scores at <code>p[off..]</code> into probabilities in
+   * place, given the index of the lowest score.
+   */
+  private void toProbabilities(double[] p, int off, int best) {
+    int k = m_k;
+    // |x|^2 is the same for every cluster and cancels out
+    double min = p[off + best];
+    double sum = 0.0;
+    for (int c = off; c < off + k; c++) {
+      double e = Math.exp(-(p[c] - min) * m_inverseTwiceVariance);
+      p[c] = e;
+      sum += e;
+    }
+    double inv = 1.0 / sum;
+    for (int c = off; c < off + k; c++)
+      p[c] *= inv;
+  }
+}
@@ -0,0 +1,360 @@
+package clustering;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * This class turns the outcome of an in-process build - the leaf centroids
+ * and the leaf each case was assigned to - into a
+ * <code>LocalClusteringModel</code> with case counts, dispersions, rules and
+ * histograms for every cluster of the tree.
+ *
+ *   The tree is described by adding nodes parent first. Leaf statistics are
+ * collected in a single pass over the data, either from a whole dataset of
+ * double or compact rows (<code>build</code>) or batch by batch
+ * (<code>begin</code>, <code>accumulate</code>, <code>finish</code>) when
+ * the data is streamed.
+ * Sparse rows are added with <code>accumulateSparse</code>, which only
+ * supports models built without statistics.
+ * The statistics of inner clusters are aggregated from their children
+ * without touching the data again. The dispersion of an inner cluster
+ * follows from its children by
+ * SSE(parent) = sum over children of SSE(child) + n(child) * |c(child) - c(parent)|^2
+ * + 2 (c(child) - c(parent)) . (S(child) - n(child) c(child)),
+ * where S is the sum of the cases of the child; the last term is 0 unless
+ * the leaf centroid is not the mean of its cases, as with mini-batch builds.
+ */
+class ClusterTreeBuilder {
+  private final String[] m_attributeNames;
+  private final int m_numberOfBins;
+  private final boolean m_withStatistics;
+  private final List<Integer> m_parents = new ArrayList<Integer>();
+  private final List<Integer> m_leafIndexes = new ArrayList<Integer>();
+
+  // statistics being collected between begin and finish
+  private double[] m_binStart;
+  private double[] m_binWidth;
+  private long[] m_counts;
+  private double[] m_sse;
+  private double[][] m_centroid;
+  private double[][] m_caseSum;
+  private double[] m_squaredNorm;
+  private double[][] m_min;
+  private double[][] m_max;
+  private long[][] m_histogram;
+  private int[] m_nodeOfLeaf;
+
+  /**
+   * @param withStatistics whether rules and histograms are computed; they
+   *        cost O(clusters x attributes x bins) memory and are skipped for
+   *        very wide data such as text
+   */
+  ClusterTreeBuilder(String[] attributeNames, int numberOfBins,
+    boolean withStatistics)
+  {
+    m_attributeNames = attributeNames;
+    m_numberOfBins = numberOfBins;
+    m_withStatistics = withStatistics;
+  }
+
+  /**
+   * Describes a flat model: one root with one child per leaf centroid.
+   */
+  static ClusterTreeBuilder flat(String[] attributeNames, int numberOfBins,
+    int numberOfLeaves)
+  {
+    ClusterTreeBuilder tree = new ClusterTreeBuilder(attributeNames, numberOfBins, true);
+    int root = tree.addNode(-1);
+    for (int c = 0; c < numberOfLeaves; c++)
+      tree.setLeaf(tree.addNode(root), c);
+    return tree;
+  }
+
+  /**
+   * @param parent index of the parent node, or -1 for the root
+   * @return index of the new node
+   */
+  int addNode(int parent) {
+    if (parent >= m_parents.size() || (parent < 0 && !m_parents.isEmpty()))
+      throw new IllegalArgumentException("Invalid parent node " + parent);
+    m_parents.add(Integer.valueOf(parent));
+    m_leafIndexes.add(Integer.valueOf(-1));
+    return m_parents.size() - 1;
+  }
+
+  /**
+   * Marks a node as the leaf with the given index in the assignment.
+   */
+  void setLeaf(int node, int leafIndex) {
+    m_leafIndexes.set(node, Integer.valueOf(leafIndex));
+  }
+
+  /**
+   * Builds the model from a whole dataset.
+   *
+   * @param name model name
+   * @param leafCentroids row-major centroids of the leaves, one row per
+   *        leaf index
+   * @param data the cases that were clustered
+   * @param assignment leaf index of every case of the dataset
+   * @param iterations iterations the build ran, for the model summary
+   */
+  LocalClusteringModel build(String name, double[] leafCentroids,
+    MiningDataset data, int[] assignment, int iterations)
+  {
+    int n = data.getRowCount();
+    int d = m_attributeNames.length;
+    double[] x = data.getValues();
+    double[] min = new double[d];
+    double[] max = new double[d];
+    Arrays.fill(min, Double.POSITIVE_INFINITY);
+    Arrays.fill(max, Double.NEGATIVE_INFINITY);
+    if (m_withStatistics)
+      updateRanges(x, n, d, min, max);
+    begin(leafCentroids, min, max);
+    accumulate(x, 0, n, assignment, 0);
+    return finish(name, iterations);
+  }
+
+  /**
+   * Builds the model from a compact dataset, decoding one tile of rows at
+   * a time.
+   *
+   * @param assignment leaf index of every case of the dataset
+   */
+  LocalClusteringModel build(String name, double[] leafCentroids,
+    CompactDataset data, int[] assignment, int iterations)
+  {
+    int n = data.getRowCount();
+    int d = m_attributeNames.length;
+    int tileRows = DistanceKernel.TILE_ROWS;
+    double[] tile = new double[tileRows * d];
+    double[] min = new double[d];
+    double[] max = new double[d];
+    Arrays.fill(min, Double.POSITIVE_INFINITY);
+    Arrays.fill(max, Double.NEGATIVE_INFINITY);
+    if (m_withStatistics) {
+      for (int r0 = 0; r0 < n; r0 += tileRows) {
+        int rows = Math.min(n, r0 + tileRows) - r0;
+        data.decode(r0, r0 + rows, tile);
+        updateRanges(tile, rows, d, min, max);
+      }
+    }
+    begin(leafCentroids, min, max);
+    for (int r0 = 0; r0 < n; r0 += tileRows) {
+      int rows = Math.min(n, r0 + tileRows) - r0;
+      data.decode(r0, r0 + rows, tile);
+      accumulate(tile, 0, rows, assignment, r0);
+    }
+    return finish(name, iterations);
+  }
+
+  /**
+   * Widens the per-attribute ranges [min, max] to cover the given rows.
+   */
+  static void updateRanges(double[] x, int rows, int d, double[] min, double[] max) {
+    for (int i = 0; i < rows; i++) {
+      int off = i * d;
+      for (int j = 0; j < d; j++) {
+        double v = x[off + j];
+        if (v < min[j]) min[j] = v;
+        if (v > max[j]) max[j] = v;
+      }
+    }
+  }
+
+  /**
+   * Starts collecting statistics for the given leaf centroids.
+   *
+   * @param attributeMin smallest value of each attribute over all cases
+   * @param attributeMax largest value of each attribute over all cases
+   */
+  void begin(double[] leafCentroids, double[] attributeMin, double[] attributeMax) {
+    int d = m_attributeNames.length;
+    int bins = m_numberOfBins;
+    int nodes = m_parents.size();
+    int leaves = leafCentroids.length / Math.max(1, d);
+
+    // global attribute ranges give the histogram bins
+    m_binStart = new double[d];
+    m_binWidth = new double[d];
+    for (int j = 0; j < d; j++) {
+      boolean empty = attributeMin[j] > attributeMax[j];
+      m_binStart[j] = empty ? 0.0 : attributeMin[j];
+      m_binWidth[j] = !empty && attributeMax[j] > attributeMin[j] ?
+        (attributeMax[j] - attributeMin[j]) / bins : 1.0;
+    }
+
+    m_counts = new long[nodes];
+    m_sse = new double[nodes];
+    m_centroid = new double[nodes][];
+    m_caseSum = new double[nodes][d];
+    m_squaredNorm = new double[nodes];
+    m_min = new double[nodes][];
+    m_max = new double[nodes][];
+    m_histogram = new long[nodes][];
+    m_nodeOfLeaf = new int[leaves];
+    Arrays.fill(m_nodeOfLeaf, -1);
+    for (int node = 0; node < nodes; node++) {
+      int leaf = m_leafIndexes.get(node).intValue();
+      if (leaf >= 0) {
+        m_nodeOfLeaf[leaf] = node;
+        m_centroid[node] = Arrays.copyOfRange(leafCentroids, leaf * d, leaf * d + d);
+        for (int j = 0; j < d; j++)
+          m_squaredNorm[node] += m_centroid[node][j] * m_centroid[node][j];
+      } else {
+        m_centroid[node] = new double[d];
+      }
+      if (m_withStatistics) {
+        m_min[node] = new double[d];
+        m_max[node] = new double[d];
+        Arrays.fill(m_min[node], Double.POSITIVE_INFINITY);
+        Arrays.fill(m_max[node], Double.NEGATIVE_INFINITY);
+        m_histogram[node] = new long[d * bins];
+      }
+    }
+  }
+
+  /**
+   * Adds the rows [from, to) of a row-major array to the leaf statistics.
+   *
+   * @param assignment leaf index of each row
+   * @param assignmentOffset index in <code>assignment</code> of row
+   *        <code>from</code>
+   */
+  void accumulate(double[] x, int from, int to, int[] assignment,
+    int assignmentOffset)
+  {
+    int d = m_attributeNames.length;
+    int bins = m_numberOfBins;
+    DistanceKernel kernel = DistanceKernel.get();
+    for (int i = from; i < to; i++) {
+      int node = m_nodeOfLeaf[assignment[assignmentOffset + i - from]];
+      double[] sum = m_caseSum[node];
+      int off = i * d;
+      double dist = kernel.squaredDistance(x, off, m_centroid[node], 0, d);
+      for (int j = 0; j < d; j++)
+        sum[j] += x[off + j];
+      m_counts[node]++;
+      m_sse[node] += dist;
+      if (m_withStatistics) {
+        double[] lo = m_min[node];
+        double[] hi = m_max[node];
+        long[] h = m_histogram[node];
+        for (int j = 0; j < d; j++) {
+          double v = x[off + j];
+          if (v < lo[j]) lo[j] = v;
+          if (v > hi[j]) hi[j] = v;
+          int b = (int)((v - m_binStart[j]) / m_binWidth[j]);
+          if (b >= bins) b = bins - 1;
+          if (b < 0) b = 0;
+          h[j * bins + b]++;
+        }
+      }
+    }
+  }
+
+  /**
+   * Adds the rows [from, to) of a CSR matrix (see
+   * <code>SparseDataset</code>) to the leaf statistics.
+   *
+   * @param assignment leaf index of each row
+   * @param assignmentOffset index in <code>assignment</code> of row
+   *        <code>from</code>
+   */
+  void accumulateSparse(int[] rowStart, int[] termIndexes, double[] values,
+    int from, int to, int[] assignment, int assignmentOffset)
+  {
+    if (m_withStatistics)
+      throw new IllegalStateException("Sparse rows need a builder without statistics");
+    for (int i = from; i < to; i++) {
+      int node = m_nodeOfLeaf[assignment[assignmentOffset + i - from]];
+      double[] c = m_centroid[node];
+      double[] sum = m_caseSum[node];
+      double dot = 0.0;
+      double norm = 0.0;
+      for (int p = rowStart[i]; p < rowStart[i + 1]; p++) {
+        double v = values[p];
+        int t = termIndexes[p];
+        dot += v * c[t];
+        norm += v * v;
+        sum[t] += v;
+      }
+      m_counts[node]++;
+      m_sse[node] += Math.max(0.0, norm - 2.0 * dot + m_squaredNorm[node]);
+    }
+  }
+
+  /**
+   * Aggregates the inner clusters and creates the model.
+   *
+   * @param name model name
+   * @param iterations iterations the build ran, for the model summary
+   */
+  LocalClusteringModel finish(String name, int iterations) {
+    int d = m_attributeNames.length;
+    int nodes = m_parents.size();
+    double leafError = 0.0;
+    for (int node = 0; node < nodes; node++)
+      leafError += m_sse[node];
+
+    // children were added after their parents, so walking the nodes
+    // backwards completes every child before its parent
+    for (int node = nodes - 1; node >= 0; node--) {
+      if (m_leafIndexes.get(node).intValue() < 0 && m_counts[node] > 0) {
+        for (int j = 0; j < d; j++)
+          m_centroid[node][j] = m_caseSum[node][j] / m_counts[node];
+      }
+      int parent = m_parents.get(node).intValue();
+      if (parent < 0)
+        continue;
+      m_counts[parent] += m_counts[node];
+      for (int j = 0; j < d; j++)
+        m_caseSum[parent][j] += m_caseSum[node][j];
+      if (m_withStatistics) {
+        for (int j = 0; j < d; j++) {
+          m_min[parent][j] = Math.min(m_min[parent][j], m_min[node][j]);
+          m_max[parent][j] = Math.max(m_max[parent][j], m_max[node][j]);
+        }
+        long[] h = m_histogram[parent];
+        for (int b = 0; b < h.length; b++)
+          h[b] += m_histogram[node][b];
+      }
+    }
+    for (int node = nodes - 1; node > 0; node--) {
+      int parent = m_parents.get(node).intValue();
+      double shift = 0.0;
+      double cross = 0.0;
+      for (int j = 0; j < d; j++) {
+        double diff = m_centroid[node][j] - m_centroid[parent][j];
+        shift += diff * diff;
+        cross += diff * (m_caseSum[node][j] - m_counts[node] * m_centroid[node][j]);
+      }
+      m_sse[parent] += m_sse[node] + m_counts[node] * shift + 2.0 * cross;
+    }
+
+    LocalClusteringModel model =
+      new LocalClusteringModel(name, m_attributeNames, m_numberOfBins);
+    LocalCluster[] clusters = new LocalCluster[nodes];
+    LocalCluster[] leafClusters = new LocalCluster[m_nodeOfLeaf.length];
+    for (int node = 0; node < nodes; node++) {
+      int parent = m_parents.get(node).intValue();
+      clusters[node] = model.addCluster(parent < 0 ? null : clusters[parent]);
+      if (m_withStatistics && m_counts[node] == 0) {
+        Arrays.fill(m_min[node], 0.0);
+        Arrays.fill(m_max[node], 0.0);
+      }
+      clusters[node].setStatistics(m_counts[node],
+        m_counts[node] == 0 ? 0.0 : m_sse[node] / m_counts[node],
+        m_centroid[node], m_min[node], m_max[node], m_histogram[node]);
+      int leaf = m_leafIndexes.get(node).intValue();
+      if (leaf >= 0)
+        leafClusters[leaf] = clusters[node];
+    }
+    model.setLeaves(leafClusters);
+    model.setBins(m_binStart, m_binWidth);
+    model.setBuildSummary(iterations, leafError);
+    return model;
+  }
+}
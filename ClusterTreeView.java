@@ -0,0 +1,128 @@
+package clustering;
+
+import javax.datamining.JDMException;
+
+/**
+ * This interface is what the model reports of <code>DMKMDemo</code> read
+ * from a clustering model: its cluster tree, the rule of each leaf cluster
+ * and the attribute histograms of a cluster. <code>EngineClusterTree</code>
+ * adapts a model built by the mining engine and
+ * <code>LocalClusterTree</code> one built in-process, so that both are
+ * printed by the same code.
+ *
+ *   Arrays follow the engine's clusters: <code>getChildren</code> and
+ * <code>getAncestors</code> return null where there are none, and the
+ * cluster collections of the model return null when it has none.
+ */
+public interface ClusterTreeView {
+  String getName() throws JDMException;
+
+  int getNumberOfClusters();
+
+  int getNumberOfLevels();
+
+  /**
+   * @return lines describing how the model was built, e.g. its iterations,
+   *         possibly none
+   */
+  String[] getBuildDetails();
+
+  Node[] getClusters() throws JDMException;
+
+  Node[] getRootClusters() throws JDMException;
+
+  Node[] getLeafClusters() throws JDMException;
+
+  Rule[] getRules() throws JDMException;
+
+  /**
+   * One cluster of the tree.
+   */
+  public interface Node {
+    int getClusterId();
+
+    long getCaseCount() throws JDMException;
+
+    int getLevel() throws JDMException;
+
+    double getDispersion();
+
+    Node getParent() throws JDMException;
+
+    boolean isRoot() throws JDMException;
+
+    boolean isLeaf() throws JDMException;
+
+    Node[] getAncestors() throws JDMException;
+
+    Node[] getChildren() throws JDMException;
+
+    /**
+     * @return the rule of a leaf cluster, or null
+     */
+    Rule getRule() throws JDMException;
+
+    /**
+     * @return the histograms of the attributes in the cluster, an empty
+     *         array if the model lost them, or null if it keeps none
+     */
+    Histogram[] getStatistics() throws JDMException;
+  }
+
+  /**
+   * The rule describing the cases of one cluster.
+   */
+  public interface Rule {
+    int getRuleIdentifier();
+
+    double getSupport();
+
+    double getConfidence();
+
+    /**
+     * @return one condition per line, the lines combined with AND
+     */
+    String[] getAntecedent() throws JDMException;
+
+    String[] getConsequent() throws JDMException;
+  }
+
+  /**
+   * The histogram of one attribute in a cluster: the label of each bin,
+   * a range of a numerical attribute or a category, and its frequency.
+   */
+  public static class Histogram {
+    private final String m_attributeName;
+    private final boolean m_categorical;
+    private final String[] m_labels;
+    private final long[] m_frequencies;
+
+    public Histogram(String attributeName, boolean categorical,
+      String[] labels, long[] frequencies)
+    {
+      if (labels.length != frequencies.length)
+        throw new IllegalArgumentException(
+          "labels and frequencies differ in length");
+      m_attributeName = attributeName;
+      m_categorical = categorical;
+      m_labels = labels;
+      m_frequencies = frequencies;
+    }
+
+    public String getAttributeName() {
+      return m_attributeName;
+    }
+
+    public boolean isCategorical() {
+      return m_categorical;
+    }
+
+    public String[] getLabels() {
+      return m_labels;
+    }
+
+    public long[] getFrequencies() {
+      return m_frequencies;
+    }
+  }
+}
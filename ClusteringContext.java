@@ -0,0 +1,253 @@
+package clustering;
+
+import java.io.File;
+import java.security.SecureRandom;
+import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.datamining.JDMException;
+import javax.datamining.resource.Connection;
+
+import oracle.dmt.jdm.resource.OraConnection;
+
+/**
+ * This class carries everything one clustering run needs: its Data Mining
+ * Engine connection, the object factories of that connection, and a run tag
+ * that is appended to the names of all objects the run creates.
+ *
+ *   Because every run works in its own namespace, two runs on the same
+ * schema no longer overwrite each other's build views, models and apply
+ * output tables, and <code>clean</code> of one run only drops objects of
+ * that run. Shared inputs such as MINING_DATA_BUILD_V are not namespaced.
+ *
+ *   A context either owns its connection (<code>open</code>) or borrows it
+ * from a <code>MiningConnectionPool</code> (<code>borrow</code>); in the
+ * latter case <code>close</code> hands the connection back to the pool, or
+ * discards it if a failure of the run may have broken it (see
+ * <code>recordFailure</code>).
+ *
+ *   A context carries the <code>ClusteringOptions</code> of its run. The
+ * steps of <code>DMKMDemo</code> report the phase, the mining engine tasks
+ * and the iterations of in-process builds to its progress channel,
+ * <code>DMKMDemo.executeTask</code> terminates a mining engine task that
+ * runs longer than its task timeout, and an in-process kMeans build saves
+ * its model to its model file (see <code>ModelFile</code>).
+ */
+public class ClusteringContext {
+  // Oracle identifiers are limited to 30 characters
+  private static final int MAX_OBJECT_NAME_LENGTH = 30;
+  private static final int RUN_TAG_LENGTH = 6;
+  private static final String RUN_TAG_CHARS = "abcdefghijklmnopqrstuvwxyz0123456789";
+  private static final SecureRandom RANDOM = new SecureRandom();
+
+  private final Connection m_dmeConn;
+  private final MiningFactories m_factories;
+  private final String m_runTag;
+  private final MiningConnectionPool m_pool;
+  private final PooledMiningConnection m_pooled;
+  private volatile ClusteringOptions m_options = new ClusteringOptions();
+  private volatile boolean m_failed;
+  private final AtomicBoolean m_closed = new AtomicBoolean();
+
+  public ClusteringContext(Connection dmeConn, MiningFactories factories) {
+    this(dmeConn, factories, newRunTag());
+  }
+
+  public ClusteringContext(Connection dmeConn, MiningFactories factories,
+    String runTag)
+  {
+    this(dmeConn, factories, runTag, null, null);
+  }
+
+  private ClusteringContext(Connection dmeConn, MiningFactories factories,
+    String runTag, MiningConnectionPool pool, PooledMiningConnection pooled)
+  {
+    m_dmeConn = dmeConn;
+    m_factories = factories;
+    m_runTag = runTag;
+    m_pool = pool;
+    m_pooled = pooled;
+  }
+
+  /**
+   * Creates a context on a pooled connection, reusing the factories that
+   * are cached with it.
+   *
+   * @param timeoutMillis how long to wait when all connections are in use
+   * @exception JDMException if no connection could be obtained
+   */
+  public static ClusteringContext borrow(MiningConnectionPool pool,
+    long timeoutMillis) throws JDMException
+  {
+    PooledMiningConnection pooled = pool.borrow(timeoutMillis);
+    return new ClusteringContext(pooled.getConnection(), pooled.getFactories(),
+      newRunTag(), pool, pooled);
+  }
+
+  /**
+   * Borrows a second connection for work of this run that runs at the same
+   * time as work on this context, e.g. on another node of a
+   * <code>PipelineGraph</code>. The peer has the same run tag and options,
+   * so it names and reports the objects of the run alike; it must be
+   * closed on its own.
+   *
+   * @param timeoutMillis how long to wait when all connections are in use
+   * @return the peer, or null if this context does not come from a pool or
+   *         no connection was free in time
+   */
+  public ClusteringContext borrowPeer(long timeoutMillis) {
+    if (m_pool == null)
+      return null;
+    PooledMiningConnection pooled;
+    try {
+      pooled = m_pool.borrow(timeoutMillis);
+    } catch(JDMException jdmExp) {
+      return null;
+    }
+    ClusteringContext peer = new ClusteringContext(pooled.getConnection(),
+      pooled.getFactories(), m_runTag, m_pool, pooled);
+    peer.setOptions(m_options);
+    return peer;
+  }
+
+  /**
+   * Logs in to the Data Mining Engine and initializes the factories of the
+   * new connection.
+   *
+   * @exception JDMException if login or factory initialization failed
+   */
+  public static ClusteringContext open(String username, String password,
+    String url) throws JDMException
+  {
+    Connection dmeConn = MiningConnectionPool.connect(username, password, url);
+    try {
+      return new ClusteringContext(dmeConn, new MiningFactories(dmeConn));
+    } catch(JDMException jdmExp) {
+      try {
+        dmeConn.close();
+      } catch(Exception anyExp) { }//Ignore
+      throw jdmExp;
+    }
+  }
+
+  public Connection getConnection() {
+    return m_dmeConn;
+  }
+
+  public java.sql.Connection getDatabaseConnection() {
+    return ((OraConnection)m_dmeConn).getDatabaseConnection();
+  }
+
+  public MiningFactories getFactories() {
+    return m_factories;
+  }
+
+  public String getRunTag() {
+    return m_runTag;
+  }
+
+  /**
+   * @return the options of the run
+   */
+  public ClusteringOptions getOptions() {
+    return m_options;
+  }
+
+  public void setOptions(ClusteringOptions options) {
+    if (options == null)
+      throw new IllegalArgumentException("options must not be null");
+    m_options = options;
+  }
+
+  /**
+   * @return the progress channel the run reports to, or null
+   */
+  public ClusteringProgress getProgress() {
+    return m_options.getProgress();
+  }
+
+  /**
+   * @return how long a mining engine task of the run may take, 0 for no
+   *         limit
+   */
+  public long getTaskTimeoutMillis() {
+    return m_options.getTaskTimeoutMillis();
+  }
+
+  /**
+   * @return the file an in-process model of the run is saved to, or null
+   */
+  public File getModelFile() {
+    return m_options.getModelFile();
+  }
+
+  /**
+   * Returns the name of an object of this run, e.g. "kmModel_jdm" becomes
+   * "kmModel_jdm_x3k9qa". The base name is shortened when needed so that
+   * the result is still a valid Oracle identifier.
+   *
+   * @param baseName name of the object as used by a single-run demo
+   * @return namespaced object name
+   */
+  public String objectName(String baseName) {
+    String suffix = "_" + m_runTag;
+    int maxBase = MAX_OBJECT_NAME_LENGTH - suffix.length();
+    if (baseName.length() > maxBase)
+      baseName = baseName.substring(0, maxBase);
+    return baseName + suffix;
+  }
+
+  /**
+   * Records a failure of work done on this context. A JDMException or
+   * SQLException among its causes may have left the connection broken, so
+   * <code>close</code> then invalidates a pooled connection instead of
+   * returning it for the next run to find out.
+   *
+   * @param failure the failure, or null
+   */
+  public void recordFailure(Throwable failure) {
+    for (Throwable t = failure; t != null; t = t.getCause()) {
+      if (t instanceof JDMException || t instanceof SQLException) {
+        m_failed = true;
+        return;
+      }
+      if (t.getCause() == t)
+        return;
+    }
+  }
+
+  /**
+   * @return true if a failure recorded on this context may have broken its
+   *         connection
+   */
+  public boolean hasFailed() {
+    return m_failed;
+  }
+
+  /**
+   * Logs out from the Data Mining Engine, or returns a borrowed connection
+   * to its pool; a connection that may be broken is closed and the pool
+   * opens a new one when needed. Closing a context again does nothing.
+   */
+  public void close() {
+    if (!m_closed.compareAndSet(false, true))
+      return;
+    if (m_pool != null) {
+      if (m_failed)
+        m_pool.invalidate(m_pooled);
+      else
+        m_pool.release(m_pooled);
+      return;
+    }
+    try {
+      m_dmeConn.close();
+    } catch(Exception anyExp) { }//Ignore
+  }
+
+  private static String newRunTag() {
+    StringBuffer tag = new StringBuffer(RUN_TAG_LENGTH);
+    for (int i = 0; i < RUN_TAG_LENGTH; i++)
+      tag.append(RUN_TAG_CHARS.charAt(RANDOM.nextInt(RUN_TAG_CHARS.length())));
+    return tag.toString();
+  }
+}
@@ -0,0 +1,234 @@
+package clustering;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * This class describes one asynchronous clustering run submitted through
+ * <code>ClusteringJobManager</code>. A job is created in the QUEUED state,
+ * moves to RUNNING when a worker thread picks it up, and ends as either
+ * SUCCEEDED (with a <code>ClusteringResult</code>) or FAILED (with a
+ * failure description). Clients poll the job by its identifier. The
+ * worker that picks a job up first looks for a cached result; a job
+ * answered from the cache goes from RUNNING to SUCCEEDED without a run.
+ * A job whose run finds no capacity to build goes from RUNNING back to
+ * QUEUED and is picked up again later.
+ *
+ *   One job can answer several identical requests, numbered from 1 in the
+ * order they reach it. A request that no longer wants the result withdraws
+ * from the job; the run is only asked to stop when the last attached
+ * request withdraws, and a run that ends because of it leaves the job
+ * CANCELLED, so every request sees why there is no result.
+ */
+public class ClusteringJob {
+
+  public enum Status { QUEUED, RUNNING, SUCCEEDED, FAILED, CANCELLED }
+
+  /**
+   * Order in which queued jobs get a worker; jobs of the same priority run
+   * in submission order.
+   */
+  public enum Priority { HIGH, NORMAL, LOW }
+
+  private final String m_jobId;
+  private final String m_application;
+  private final String m_algorithm;
+  private final Priority m_priority;
+  private final long m_submittedAt;
+  private volatile long m_startedAt;
+  private volatile long m_finishedAt;
+  private volatile Status m_status = Status.QUEUED;
+  private volatile ClusteringResult m_result;
+  private volatile String m_failureDescription;
+  private volatile boolean m_cached;
+  private volatile int m_requeueCount;
+  // guarded by this
+  private int m_requestCount = 1;
+  private final Set<Integer> m_withdrawn = new HashSet<Integer>();
+  private final ClusteringProgress m_progress = new ClusteringProgress();
+
+  public ClusteringJob(String jobId, String application, String algorithm) {
+    this(jobId, application, algorithm, Priority.NORMAL);
+  }
+
+  public ClusteringJob(String jobId, String application, String algorithm,
+    Priority priority)
+  {
+    m_jobId = jobId;
+    m_application = application;
+    m_algorithm = algorithm;
+    m_priority = priority;
+    m_submittedAt = System.currentTimeMillis();
+  }
+
+  public String getJobId() {
+    return m_jobId;
+  }
+
+  public String getApplication() {
+    return m_application;
+  }
+
+  public String getAlgorithm() {
+    return m_algorithm;
+  }
+
+  public Priority getPriority() {
+    return m_priority;
+  }
+
+  public long getSubmittedAt() {
+    return m_submittedAt;
+  }
+
+  public long getStartedAt() {
+    return m_startedAt;
+  }
+
+  public long getFinishedAt() {
+    return m_finishedAt;
+  }
+
+  public Status getStatus() {
+    return m_status;
+  }
+
+  public boolean isDone() {
+    Status s = m_status;
+    return s == Status.SUCCEEDED || s == Status.FAILED ||
+      s == Status.CANCELLED;
+  }
+
+  /**
+   * @return the result of a successful run, or null while the job is not
+   *         SUCCEEDED
+   */
+  public ClusteringResult getResult() {
+    return m_result;
+  }
+
+  public String getFailureDescription() {
+    return m_failureDescription;
+  }
+
+  /**
+   * @return whether the result was taken from a <code>ModelCache</code>
+   *         instead of being computed by this job
+   */
+  public boolean isCached() {
+    return m_cached;
+  }
+
+  /**
+   * @return the progress channel of the run
+   */
+  public ClusteringProgress getProgress() {
+    return m_progress;
+  }
+
+  /**
+   * @return number of requests this job answers: the one that started it
+   *         and the identical ones that joined it while it was in flight
+   */
+  public synchronized int getRequestCount() {
+    return m_requestCount;
+  }
+
+  /**
+   * @return number of requests that have not withdrawn from the job
+   */
+  public synchronized int getAttachedCount() {
+    return m_requestCount - m_withdrawn.size();
+  }
+
+  /**
+   * Withdraws a request from the job. Withdrawing the last attached request
+   * asks the run to stop (see <code>ClusteringProgress.requestStop</code>);
+   * withdrawing a request again changes nothing.
+   *
+   * @param request number of the request, or 0 for the only attached one
+   * @return number of requests still attached
+   * @exception IllegalArgumentException if the job has no such request
+   * @exception IllegalStateException if <code>request</code> is 0 and more
+   *            than one request is attached
+   */
+  public synchronized int withdraw(int request) {
+    if (request < 0 || request > m_requestCount)
+      throw new IllegalArgumentException("Clustering job " + m_jobId +
+        " has no request " + request);
+    if (request == 0) {
+      if (getAttachedCount() > 1)
+        throw new IllegalStateException("Clustering job " + m_jobId +
+          " is shared by " + getAttachedCount() + " requests");
+      for (request = 1; m_withdrawn.contains(request) &&
+           request < m_requestCount; request++)
+        ;
+    }
+    m_withdrawn.add(request);
+    int attached = getAttachedCount();
+    if (attached == 0)
+      m_progress.requestStop();
+    return attached;
+  }
+
+  /**
+   * @return how often the job went back to the wait queue because its run
+   *         found no capacity to build
+   */
+  public int getRequeueCount() {
+    return m_requeueCount;
+  }
+
+  /**
+   * Attaches one more request to the job, unless every request has
+   * withdrawn and the run is stopping.
+   *
+   * @return number of the new request, or 0 if the job is stopping
+   */
+  synchronized int addRequest() {
+    if (getAttachedCount() == 0)
+      return 0;
+    return ++m_requestCount;
+  }
+
+  void markRunning() {
+    m_startedAt = System.currentTimeMillis();
+    m_status = Status.RUNNING;
+  }
+
+  void markRequeued() {
+    m_requeueCount++;
+    m_status = Status.QUEUED;
+  }
+
+  void markSucceeded(ClusteringResult result) {
+    m_result = result;
+    m_finishedAt = System.currentTimeMillis();
+    m_status = Status.SUCCEEDED;
+    m_progress.finish("succeeded");
+  }
+
+  void markCached(ClusteringResult result) {
+    m_result = result;
+    m_cached = true;
+    m_finishedAt = System.currentTimeMillis();
+    m_status = Status.SUCCEEDED;
+    m_progress.finish("cached");
+  }
+
+  /**
+   * Ends the job of a run that stopped because every request withdrew.
+   */
+  void markCancelled() {
+    m_finishedAt = System.currentTimeMillis();
+    m_status = Status.CANCELLED;
+    m_progress.finish("cancelled");
+  }
+
+  void markFailed(String failureDescription) {
+    m_failureDescription = failureDescription;
+    m_finishedAt = System.currentTimeMillis();
+    m_status = Status.FAILED;
+    m_progress.finish("failed: " + failureDescription);
+  }
+}
@@ -0,0 +1,654 @@
+package clustering;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class runs the prepare/build/apply clustering pipeline of
+ * <code>DMKMDemo</code> on a bounded pool of worker threads, so that the
+ * caller gets a job identifier back immediately instead of waiting for the
+ * whole run to finish.
+ *
+ *   At most <code>workerThreads</code> runs execute at the same time and at
+ * most <code>queueCapacity</code> further runs wait for a worker. When both
+ * are full, <code>submit</code> throws <code>RejectedExecutionException</code>
+ * so that the caller can refuse the request instead of queueing it forever;
+ * <code>getRetryAfterSeconds</code> estimates when a place frees up. Waiting
+ * runs get a worker by priority, and in submission order within a
+ * priority. The time runs wait for a worker is exported as a metric.
+ *
+ *   An <code>AdmissionController</code> further limits how many runs may
+ * build and how many may apply at the same time (see
+ * <code>DMKMDemo.runClustering</code>). A job whose run would find the
+ * build stage full, or finds it full when its build is to start, does not
+ * wait on its worker: it goes back to QUEUED and is put in the wait queue
+ * again after a second, in its place by priority, keeping its place in the
+ * queue capacity so that new requests are refused meanwhile.
+ * Finished jobs are kept for <code>retentionMillis</code> so that clients can
+ * fetch their results, and are then discarded.
+ *
+ *   Runs borrow their Data Mining Engine connection from the shared
+ * <code>MiningConnectionPool</code> given at construction.
+ *
+ *   With a <code>ModelCache</code>, a job first reads the watermark of the
+ * source data and the build settings on its worker, and a repeated
+ * request whose data and settings are unchanged is answered with the
+ * cached result instead of a run. <code>submit</code> itself never touches
+ * the database, so the caller's thread does not wait for a connection or
+ * the watermark queries. Otherwise the result of the run is stored under
+ * the watermark read before it started, so data that changes during a run
+ * only causes one more run.
+ *
+ *   Identical requests are coalesced: while a run for an application and
+ * algorithm is queued or running, <code>submit</code> with the same
+ * application and algorithm returns that job instead of starting another
+ * run, and all callers share its result. A caller that no longer wants
+ * the result withdraws its request (see <code>submitRequest</code>); the
+ * run stops only when every request has withdrawn, and the job then ends
+ * CANCELLED.
+ *
+ *   A mining engine task of a run that takes longer than the task timeout
+ * is terminated, so a stuck build fails its job instead of holding a
+ * worker forever.
+ */
+public class ClusteringJobManager {
+  // a cache lookup waits this long at most for a connection; after that
+  // the request runs without the cache
+  private static final long CACHE_PROBE_TIMEOUT_MILLIS = 1000L;
+  // assumed duration of a run until one has finished
+  private static final long DEFAULT_RUN_MILLIS = 60L * 1000L;
+  // a job that found the build stage full is queued again after this
+  private static final long STAGE_RETRY_MILLIS = 1000L;
+
+  /**
+   * Queue entry of a job; orders the wait queue by priority, then by
+   * submission.
+   */
+  private class JobTask implements Runnable, Comparable<JobTask> {
+    final ClusteringJob m_job;
+    final long m_sequence;
+    final String m_flightKey;
+    final boolean m_refresh;
+
+    JobTask(ClusteringJob job, long sequence, String flightKey,
+      boolean refresh)
+    {
+      m_job = job;
+      m_sequence = sequence;
+      m_flightKey = flightKey;
+      m_refresh = refresh;
+    }
+
+    public void run() {
+      boolean requeued = false;
+      try {
+        requeued = runJob(m_job, m_refresh) && requeue(this);
+      } finally {
+        if (!requeued) {
+          m_inFlight.remove(m_flightKey, m_job);
+          m_places.release();
+        }
+      }
+    }
+
+    public int compareTo(JobTask other) {
+      int c = m_job.getPriority().compareTo(other.m_job.getPriority());
+      if (c != 0)
+        return c;
+      return m_sequence < other.m_sequence ? -1 :
+        (m_sequence == other.m_sequence ? 0 : 1);
+    }
+  }
+
+  /**
+   * A request submitted to a job: the job and the number of the request
+   * within it.
+   */
+  public static class JobRequest {
+    private final ClusteringJob m_job;
+    private final int m_request;
+
+    JobRequest(ClusteringJob job, int request) {
+      m_job = job;
+      m_request = request;
+    }
+
+    public ClusteringJob getJob() {
+      return m_job;
+    }
+
+    public int getRequest() {
+      return m_request;
+    }
+  }
+
+  private final ThreadPoolExecutor m_executor;
+  // puts jobs that found no stage capacity back in the wait queue
+  private final ScheduledThreadPoolExecutor m_retryTimer;
+  private final Set<JobTask> m_requeued =
+    Collections.newSetFromMap(new ConcurrentHashMap<JobTask, Boolean>());
+  private final ConcurrentMap<String, ClusteringJob> m_jobs =
+    new ConcurrentHashMap<String, ClusteringJob>();
+  // queued or running jobs by application and algorithm
+  private final ConcurrentMap<String, ClusteringJob> m_inFlight =
+    new ConcurrentHashMap<String, ClusteringJob>();
+  private final AtomicLong m_jobSequence = new AtomicLong();
+  private final AtomicLong m_coalescedCount = new AtomicLong();
+  private final long m_retentionMillis;
+  private final MiningConnectionPool m_connectionPool;
+  private final long m_connectionTimeoutMillis;
+  private final ModelCache m_cache;
+  private final String m_timestampColumn;
+  private final AdmissionController m_admission;
+  private final int m_workerThreads;
+  // running plus waiting runs; the wait queue itself is unbounded
+  private final Semaphore m_places;
+  private final AtomicLong m_startedCount = new AtomicLong();
+  private final AtomicLong m_totalQueueWaitMillis = new AtomicLong();
+  private final AtomicLong m_maxQueueWaitMillis = new AtomicLong();
+  private final AtomicLong m_finishedCount = new AtomicLong();
+  private final AtomicLong m_totalRunMillis = new AtomicLong();
+  private final AtomicLong m_rejectedCount = new AtomicLong();
+  private volatile long m_taskTimeoutMillis;
+  private volatile File m_modelFile;
+  private volatile ClusteringOptions.InProcessBuild m_inProcessBuild =
+    ClusteringOptions.InProcessBuild.MEMORY;
+
+  public ClusteringJobManager(MiningConnectionPool connectionPool,
+    long connectionTimeoutMillis, int workerThreads, int queueCapacity,
+    long retentionMillis)
+  {
+    this(connectionPool, connectionTimeoutMillis, workerThreads, queueCapacity,
+      retentionMillis, null, null, null);
+  }
+
+  /**
+   * @param cache results of earlier runs, or null to run every request
+   * @param timestampColumn column of the source views holding the time a
+   *        row was last changed, or null to watch the row counts only
+   * @param admission build and apply limits of the runs, or null for none
+   * @exception IllegalArgumentException if <code>timestampColumn</code> is
+   *            not a simple identifier (see
+   *            <code>DMKMDemo.isSimpleIdentifier</code>)
+   */
+  public ClusteringJobManager(MiningConnectionPool connectionPool,
+    long connectionTimeoutMillis, int workerThreads, int queueCapacity,
+    long retentionMillis, ModelCache cache, String timestampColumn,
+    AdmissionController admission)
+  {
+    if (workerThreads < 1 || queueCapacity < 1)
+      throw new IllegalArgumentException("workerThreads and queueCapacity " +
+        "must be >= 1");
+    if (timestampColumn != null && !DMKMDemo.isSimpleIdentifier(timestampColumn))
+      throw new IllegalArgumentException("Invalid timestamp column: " +
+        timestampColumn);
+    m_retentionMillis = retentionMillis;
+    m_connectionPool = connectionPool;
+    m_connectionTimeoutMillis = connectionTimeoutMillis;
+    m_cache = cache;
+    m_timestampColumn = timestampColumn;
+    m_admission = admission;
+    m_workerThreads = workerThreads;
+    m_places = new Semaphore(workerThreads + queueCapacity);
+    m_executor = new ThreadPoolExecutor(workerThreads, workerThreads,
+      0L, TimeUnit.MILLISECONDS,
+      new PriorityBlockingQueue<Runnable>(),
+      new ThreadFactory() {
+        private final AtomicLong threadNumber = new AtomicLong();
+        public Thread newThread(Runnable r) {
+          Thread t = new Thread(r, "clustering-job-" + threadNumber.incrementAndGet());
+          t.setDaemon(true);
+          return t;
+        }
+      },
+      new ThreadPoolExecutor.AbortPolicy());
+    m_retryTimer = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+      public Thread newThread(Runnable r) {
+        Thread t = new Thread(r, "clustering-job-retry");
+        t.setDaemon(true);
+        return t;
+      }
+    });
+  }
+
+  /**
+   * Submits a clustering run and returns without waiting for it.
+   *
+   * @return the queued job, or the job of an identical request that is
+   *         queued or running; poll it with <code>getJob</code>
+   * @exception RejectedExecutionException if all workers are busy and the
+   *            wait queue is full, or the manager has been shut down
+   */
+  public ClusteringJob submit(String application, String algorithm)
+  {
+    return submit(application, algorithm, false);
+  }
+
+  /**
+   * @param refresh whether to run even if a cached result is valid; the
+   *        new result replaces the cached one. An identical request in
+   *        flight is joined all the same.
+   * @see #submit(String, String)
+   */
+  public ClusteringJob submit(String application, String algorithm,
+    boolean refresh)
+  {
+    return submit(application, algorithm, refresh,
+      ClusteringJob.Priority.NORMAL);
+  }
+
+  /**
+   * @param priority place of the run in the wait queue; a request that
+   *        joins an identical one keeps the priority of that one
+   * @see #submit(String, String, boolean)
+   */
+  public ClusteringJob submit(String application, String algorithm,
+    boolean refresh, ClusteringJob.Priority priority)
+  {
+    return submitRequest(application, algorithm, refresh, priority).getJob();
+  }
+
+  /**
+   * Submits a clustering run like <code>submit</code>, and tells the number
+   * of the request within its job, which withdraws it again (see
+   * <code>ClusteringJob.withdraw</code>). A job all of whose requests have
+   * withdrawn is not joined; the request starts a new run.
+   *
+   * @see #submit(String, String, boolean, ClusteringJob.Priority)
+   */
+  public JobRequest submitRequest(String application, String algorithm,
+    boolean refresh, ClusteringJob.Priority priority)
+  {
+    purgeExpiredJobs();
+    String flightKey = application + '\u0000' + algorithm;
+    ClusteringJob inFlight = m_inFlight.get(flightKey);
+    JobRequest joined = join(inFlight);
+    if (joined != null)
+      return joined;
+    long sequence = m_jobSequence.incrementAndGet();
+    ClusteringJob job = new ClusteringJob(nextJobId(sequence), application,
+      algorithm, priority);
+    // an identical request may have been submitted meanwhile, and a
+    // stopping job is replaced
+    while (inFlight == null ? m_inFlight.putIfAbsent(flightKey, job) != null :
+           !m_inFlight.replace(flightKey, inFlight, job)) {
+      inFlight = m_inFlight.get(flightKey);
+      joined = join(inFlight);
+      if (joined != null)
+        return joined;
+    }
+    if (!m_places.tryAcquire()) {
+      m_inFlight.remove(flightKey, job);
+      m_rejectedCount.incrementAndGet();
+      throw new RejectedExecutionException("All workers are busy and " +
+        "the wait queue is full");
+    }
+    m_jobs.put(job.getJobId(), job);
+    try {
+      m_executor.execute(new JobTask(job, sequence, flightKey, refresh));
+    } catch(RejectedExecutionException rejected) {
+      m_jobs.remove(job.getJobId());
+      m_inFlight.remove(flightKey, job);
+      m_places.release();
+      throw rejected;
+    }
+    return new JobRequest(job, 1);
+  }
+
+  /**
+   * @return the request that joined the job, or null if there is no job
+   *         or it is stopping
+   */
+  private JobRequest join(ClusteringJob job) {
+    if (job == null)
+      return null;
+    int request = job.addRequest();
+    if (request == 0)
+      return null;
+    m_coalescedCount.incrementAndGet();
+    System.out.println("Request for application " + job.getApplication() +
+      " joins clustering job " + job.getJobId() + ".");
+    return new JobRequest(job, request);
+  }
+
+  /**
+   * @return the job with the given identifier, or null if it is unknown or
+   *         has already been discarded
+   */
+  public ClusteringJob getJob(String jobId) {
+    return jobId == null ? null : m_jobs.get(jobId);
+  }
+
+  /**
+   * @return the cache of run results, or null
+   */
+  public ModelCache getCache() {
+    return m_cache;
+  }
+
+  /**
+   * @return number of requests that joined the run of an identical request
+   *         instead of starting their own
+   */
+  public long getCoalescedCount() {
+    return m_coalescedCount.get();
+  }
+
+  /**
+   * @return number of requests refused because the wait queue was full
+   */
+  public long getRejectedCount() {
+    return m_rejectedCount.get();
+  }
+
+  /**
+   * @return mean time in milliseconds a run waited for a worker thread
+   */
+  public double getAverageQueueWaitMillis() {
+    long started = m_startedCount.get();
+    return started == 0 ? 0.0 : (double)m_totalQueueWaitMillis.get() / started;
+  }
+
+  /**
+   * @return longest time in milliseconds a run waited for a worker thread
+   */
+  public long getMaxQueueWaitMillis() {
+    return m_maxQueueWaitMillis.get();
+  }
+
+  /**
+   * @return mean duration in milliseconds of the runs that have finished
+   */
+  public double getAverageRunMillis() {
+    long finished = m_finishedCount.get();
+    return finished == 0 ? 0.0 : (double)m_totalRunMillis.get() / finished;
+  }
+
+  /**
+   * Estimates when a refused request should be retried: the time until
+   * the next run finishes and frees a place, from the mean duration of
+   * the finished runs.
+   *
+   * @return seconds to wait before retrying, at least 1
+   */
+  public long getRetryAfterSeconds() {
+    long finished = m_finishedCount.get();
+    double runMillis = finished == 0 ? DEFAULT_RUN_MILLIS :
+      (double)m_totalRunMillis.get() / finished;
+    return Math.max(1L, (long)Math.ceil(runMillis / m_workerThreads / 1000.0));
+  }
+
+  /**
+   * @return the stage limits of the runs, or null
+   */
+  public AdmissionController getAdmissionController() {
+    return m_admission;
+  }
+
+  /**
+   * @return how long a mining engine task of a run may take, 0 for no limit
+   */
+  public long getTaskTimeoutMillis() {
+    return m_taskTimeoutMillis;
+  }
+
+  /**
+   * Sets how long each mining engine task of runs started from now on may
+   * take before it is terminated.
+   *
+   * @param taskTimeoutMillis the limit, 0 for none
+   */
+  public void setTaskTimeoutMillis(long taskTimeoutMillis) {
+    m_taskTimeoutMillis = taskTimeoutMillis;
+  }
+
+  /**
+   * @return the file in-process models are saved to, or null
+   */
+  public File getModelFile() {
+    return m_modelFile;
+  }
+
+  /**
+   * Sets the file that every in-process kMeans model built by runs started
+   * from now on is saved to, replacing the model of the previous run.
+   *
+   * @param modelFile the file, or null to save none
+   */
+  public void setModelFile(File modelFile) {
+    m_modelFile = modelFile;
+  }
+
+  /**
+   * @return how in-process models are built
+   */
+  public ClusteringOptions.InProcessBuild getInProcessBuild() {
+    return m_inProcessBuild;
+  }
+
+  /**
+   * Sets how runs of the in-process kMeans algorithm started from now on
+   * build their models.
+   *
+   * @param inProcessBuild the builder of the models
+   * @exception IllegalArgumentException if <code>inProcessBuild</code> is
+   *            null
+   */
+  public void setInProcessBuild(ClusteringOptions.InProcessBuild inProcessBuild) {
+    if (inProcessBuild == null)
+      throw new IllegalArgumentException("inProcessBuild must not be null");
+    m_inProcessBuild = inProcessBuild;
+  }
+
+  /**
+   * @return number of runs waiting for a worker thread
+   */
+  public int getQueuedCount() {
+    return m_executor.getQueue().size();
+  }
+
+  /**
+   * @return number of runs currently executing
+   */
+  public int getRunningCount() {
+    return m_executor.getActiveCount();
+  }
+
+  /**
+   * Stops accepting new jobs and waits up to the given time for the running
+   * ones to finish.
+   */
+  public void shutdown(long timeoutMillis) {
+    m_executor.shutdown();
+    m_retryTimer.shutdownNow();
+    // jobs waiting to be queued again fail
+    for (JobTask pending : m_requeued) {
+      if (m_requeued.remove(pending))
+        failRequeued(pending);
+    }
+    try {
+      if (!m_executor.awaitTermination(timeoutMillis, TimeUnit.MILLISECONDS))
+        m_executor.shutdownNow();
+    } catch(InterruptedException ie) {
+      m_executor.shutdownNow();
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * @return true if the job found no BUILD capacity and is to be queued
+   *         again
+   */
+  private boolean runJob(ClusteringJob job, boolean refresh) {
+    job.markRunning();
+    if (job.getProgress().isStopRequested()) {
+      job.markCancelled();
+      System.out.println("Clustering job " + job.getJobId() +
+        " is cancelled before it started.");
+      return false;
+    }
+    String cacheKey = null;
+    ModelCache.Watermark watermark = null;
+    if (m_cache != null) {
+      try {
+        ClusteringContext ctx =
+          ClusteringContext.borrow(m_connectionPool, CACHE_PROBE_TIMEOUT_MILLIS);
+        ctx.setOptions(createOptions(job));
+        try {
+          cacheKey = ModelCache.key(job.getApplication(), job.getAlgorithm(),
+            DMKMDemo.describeBuildSettings(ctx, job.getAlgorithm()));
+          watermark = DMKMDemo.readSourceWatermark(ctx, m_timestampColumn);
+        } catch(Exception anyExp) {
+          ctx.recordFailure(anyExp);
+          throw anyExp;
+        } finally {
+          ctx.close();
+        }
+      } catch(Exception anyExp) {
+        System.out.println("Clustering job " + job.getJobId() +
+          " runs without the model cache: " + anyExp);
+        cacheKey = null;
+      }
+    }
+    if (cacheKey != null && !refresh) {
+      ClusteringResult cached = m_cache.get(cacheKey, watermark);
+      if (cached != null) {
+        job.markCached(cached);
+        System.out.println("Clustering job " + job.getJobId() +
+          " is answered from the model cache.");
+        return false;
+      }
+    }
+    // a run that would only find the build stage full waits in the queue,
+    // without a connection; the build step itself takes the permit
+    if (m_admission != null && m_admission.getActiveCount(
+        AdmissionController.Stage.BUILD) >= m_admission.getLimit(
+        AdmissionController.Stage.BUILD))
+      return true;
+    long waited = job.getStartedAt() - job.getSubmittedAt();
+    m_startedCount.incrementAndGet();
+    m_totalQueueWaitMillis.addAndGet(waited);
+    long max;
+    while (waited > (max = m_maxQueueWaitMillis.get()) &&
+      !m_maxQueueWaitMillis.compareAndSet(max, waited))
+      ;
+    System.out.println("Clustering job " + job.getJobId() + " for application " +
+      job.getApplication() + " is started.");
+    boolean requeue = false;
+    try {
+      ClusteringResult result = DMKMDemo.runClustering(m_connectionPool,
+        job.getApplication(), createOptions(job));
+      // a run stopped early is not the model the settings ask for, and
+      // none of the requests waits for it any more
+      if (job.getProgress().isStopRequested()) {
+        job.markCancelled();
+        System.out.println("Clustering job " + job.getJobId() + " is cancelled.");
+      } else {
+        if (cacheKey != null)
+          m_cache.put(cacheKey, job.getApplication(), watermark, result);
+        job.markSucceeded(result);
+        System.out.println("Clustering job " + job.getJobId() + " is successful.");
+      }
+    } catch(StageBusyException busy) {
+      // another run took the permit since the check above
+      System.out.println("Clustering job " + job.getJobId() + " found no " +
+        busy.getStage() + " capacity.");
+      requeue = true;
+    } catch(Exception anyExp) {
+      if (job.getProgress().isStopRequested()) {
+        job.markCancelled();
+        System.out.println("Clustering job " + job.getJobId() + " is cancelled: " +
+          anyExp);
+      } else {
+        anyExp.printStackTrace(System.out);
+        job.markFailed(String.valueOf(anyExp));
+        System.out.println("Clustering job " + job.getJobId() + " is failed.");
+      }
+    } finally {
+      m_finishedCount.incrementAndGet();
+      m_totalRunMillis.addAndGet(System.currentTimeMillis() - job.getStartedAt());
+    }
+    return requeue;
+  }
+
+  /**
+   * Puts a job that found no stage capacity back in the wait queue after
+   * STAGE_RETRY_MILLIS, in its place by priority and submission. The job
+   * keeps its place in the queue capacity meanwhile.
+   *
+   * @return false if the manager has been shut down and the job failed
+   */
+  private boolean requeue(final JobTask task) {
+    task.m_job.markRequeued();
+    System.out.println("Clustering job " + task.m_job.getJobId() +
+      " is queued again (" + task.m_job.getRequeueCount() + ").");
+    m_requeued.add(task);
+    try {
+      m_retryTimer.schedule(new Runnable() {
+        public void run() {
+          if (!m_requeued.remove(task))
+            return;
+          try {
+            m_executor.execute(task);
+          } catch(RejectedExecutionException rejected) {
+            failRequeued(task);
+          }
+        }
+      }, STAGE_RETRY_MILLIS, TimeUnit.MILLISECONDS);
+      return true;
+    } catch(RejectedExecutionException rejected) {
+      m_requeued.remove(task);
+      task.m_job.markFailed("manager shut down");
+      return false;
+    }
+  }
+
+  private void failRequeued(JobTask task) {
+    task.m_job.markFailed("manager shut down");
+    m_inFlight.remove(task.m_flightKey, task.m_job);
+    m_places.release();
+  }
+
+  /**
+   * @return the options of the run of a job: its algorithm and progress,
+   *         and the limits, task timeout, in-process build, model file and
+   *         source timestamp column of this manager
+   */
+  private ClusteringOptions createOptions(ClusteringJob job) {
+    ClusteringOptions options = new ClusteringOptions();
+    options.setAlgorithm(job.getAlgorithm());
+    options.setConnectionTimeoutMillis(m_connectionTimeoutMillis);
+    options.setAdmission(m_admission);
+    options.setProgress(job.getProgress());
+    options.setTaskTimeoutMillis(m_taskTimeoutMillis);
+    options.setInProcessBuild(m_inProcessBuild);
+    options.setModelFile(m_modelFile);
+    options.setTimestampColumn(m_timestampColumn);
+    return options;
+  }
+
+  private String nextJobId(long sequence) {
+    return Long.toString(System.currentTimeMillis(), 36) + "-" + sequence;
+  }
+
+  private void purgeExpiredJobs() {
+    long expiry = System.currentTimeMillis() - m_retentionMillis;
+    for (Iterator<ClusteringJob> it = m_jobs.values().iterator(); it.hasNext(); ) {
+      ClusteringJob job = it.next();
+      if (job.isDone() && job.getFinishedAt() < expiry)
+        it.remove();
+    }
+  }
+}
@@ -0,0 +1,174 @@
+package clustering;
+
+import java.io.File;
+
+/**
+ * This class holds the parameters of one clustering run of
+ * <code>DMKMDemo.runClustering</code>: which algorithm builds the model,
+ * how long the run waits for a connection, the stage limits it runs
+ * within, the progress channel it reports to, how long each mining engine
+ * task may take, how and from what an in-process model is built, the file
+ * it is saved to and where the columnar copies of the source data are
+ * kept. The run's
+ * <code>ClusteringContext</code> carries the options, and a peer context
+ * of the run shares them.
+ *
+ *   The defaults are those of the single-run demo: a kMeans model built by
+ * the mining engine, no waiting for connections or stage permits, no
+ * progress channel, no task timeout, in-process models built in memory,
+ * no model file, and columnar copies
+ * under <code>km_stores</code> in java.io.tmpdir keyed on the row counts
+ * of the views only.
+ */
+public class ClusteringOptions {
+  /**
+   * How the in-process kMeans algorithm (see
+   * <code>DMKMDemo.isInProcessAlgorithm</code>) builds its model.
+   */
+  public static enum InProcessBuild {
+    /** all rows in memory, see <code>DMKMDemo.buildModelInProcess</code> */
+    MEMORY,
+    /** a tree of 2-way splits, see <code>DMKMDemo.buildModelBisecting</code> */
+    BISECTING,
+    /** rows streamed over JDBC, see <code>DMKMDemo.buildModelStreaming</code> */
+    STREAMING,
+    /** rows as 16-bit codes, see <code>DMKMDemo.buildModelCompact</code> */
+    COMPACT,
+    /** rows from a local copy, see <code>DMKMDemo.buildModelFromStore</code> */
+    COLUMNAR
+  }
+
+  private String m_algorithm = DMKMDemo.ALGORITHM_KMEANS;
+  private InProcessBuild m_inProcessBuild = InProcessBuild.MEMORY;
+  private long m_connectionTimeoutMillis;
+  private AdmissionController m_admission;
+  private ClusteringProgress m_progress;
+  private long m_taskTimeoutMillis;
+  private File m_modelFile;
+  private File m_storeDirectory =
+    new File(System.getProperty("java.io.tmpdir"), "km_stores");
+  private String m_timestampColumn;
+
+  /**
+   * @return one of the algorithm choices of demo.jsp (see
+   *         <code>DMKMDemo.isSupportedAlgorithm</code>)
+   */
+  public String getAlgorithm() {
+    return m_algorithm;
+  }
+
+  /**
+   * @param algorithm algorithm choice; null means ALGORITHM_KMEANS
+   * @exception IllegalArgumentException if the algorithm is unknown
+   */
+  public void setAlgorithm(String algorithm) {
+    if (!DMKMDemo.isSupportedAlgorithm(algorithm))
+      throw new IllegalArgumentException("Unknown algorithm: " + algorithm);
+    m_algorithm = algorithm == null ? DMKMDemo.ALGORITHM_KMEANS : algorithm;
+  }
+
+  /**
+   * @return how an in-process model of the run is built
+   */
+  public InProcessBuild getInProcessBuild() {
+    return m_inProcessBuild;
+  }
+
+  public void setInProcessBuild(InProcessBuild inProcessBuild) {
+    if (inProcessBuild == null)
+      throw new IllegalArgumentException("inProcessBuild must not be null");
+    m_inProcessBuild = inProcessBuild;
+  }
+
+  /**
+   * @return how long the run waits for a pooled connection
+   */
+  public long getConnectionTimeoutMillis() {
+    return m_connectionTimeoutMillis;
+  }
+
+  public void setConnectionTimeoutMillis(long connectionTimeoutMillis) {
+    m_connectionTimeoutMillis = connectionTimeoutMillis;
+  }
+
+  /**
+   * @return the stage limits of the run, or null for none
+   */
+  public AdmissionController getAdmission() {
+    return m_admission;
+  }
+
+  public void setAdmission(AdmissionController admission) {
+    m_admission = admission;
+  }
+
+  /**
+   * @return the progress channel the run reports to, or null
+   */
+  public ClusteringProgress getProgress() {
+    return m_progress;
+  }
+
+  public void setProgress(ClusteringProgress progress) {
+    m_progress = progress;
+  }
+
+  /**
+   * @return how long a mining engine task of the run may take, 0 for no
+   *         limit
+   */
+  public long getTaskTimeoutMillis() {
+    return m_taskTimeoutMillis;
+  }
+
+  public void setTaskTimeoutMillis(long taskTimeoutMillis) {
+    if (taskTimeoutMillis < 0L)
+      throw new IllegalArgumentException("taskTimeoutMillis must be >= 0");
+    m_taskTimeoutMillis = taskTimeoutMillis;
+  }
+
+  /**
+   * @return the file an in-process model of the run is saved to, or null
+   */
+  public File getModelFile() {
+    return m_modelFile;
+  }
+
+  public void setModelFile(File modelFile) {
+    m_modelFile = modelFile;
+  }
+
+  /**
+   * @return the directory under which the columnar copies of the source
+   *         views are kept across runs
+   */
+  public File getStoreDirectory() {
+    return m_storeDirectory;
+  }
+
+  public void setStoreDirectory(File storeDirectory) {
+    if (storeDirectory == null)
+      throw new IllegalArgumentException("storeDirectory must not be null");
+    m_storeDirectory = storeDirectory;
+  }
+
+  /**
+   * @return the column of the source views holding the time a row was last
+   *         changed, part of the watermark a columnar copy is kept for, or
+   *         null
+   */
+  public String getTimestampColumn() {
+    return m_timestampColumn;
+  }
+
+  /**
+   * @exception IllegalArgumentException if <code>timestampColumn</code> is
+   *            not a simple identifier
+   */
+  public void setTimestampColumn(String timestampColumn) {
+    if (timestampColumn != null && !DMKMDemo.isSimpleIdentifier(timestampColumn))
+      throw new IllegalArgumentException("Invalid timestamp column: " +
+        timestampColumn);
+    m_timestampColumn = timestampColumn;
+  }
+}
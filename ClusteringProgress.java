@@ -0,0 +1,299 @@
+package clustering;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * This class is the progress channel of one clustering run. The run
+ * reports the phase it enters, a heartbeat while it waits for a mining
+ * engine task, and every iteration of an in-process build; each report
+ * becomes a numbered <code>Event</code> with the time elapsed since the run
+ * and the phase started. Readers fetch the events after the last one they
+ * saw with <code>getEventsAfter</code> when a <code>Listener</code> tells
+ * them that there are new ones, so that e.g. a Server-Sent Events stream
+ * holds no thread while the run is quiet.
+ *
+ *   Only the latest <code>MAX_EVENTS</code> events are kept, so a reader
+ * that falls far behind misses the oldest ones, which it can tell from the
+ * gap in the sequence numbers.
+ *
+ *   <code>requestStop</code> asks the run to stop early: an in-process
+ * build ends after its current iteration and the run goes on with the
+ * model built so far, a mining engine task is terminated.
+ */
+public class ClusteringProgress implements ProgressListener {
+  public static final int MAX_EVENTS = 256;
+
+  public static final String PHASE_QUEUED = "queued";
+  public static final String PHASE_PREPARE = "prepare";
+  public static final String PHASE_BUILD = "build";
+  public static final String PHASE_APPLY = "apply";
+  public static final String PHASE_CLEAN = "clean";
+  public static final String PHASE_DONE = "done";
+
+  /**
+   * Is told that events were added. It is called on the thread of the run,
+   * so it must only hand the work over, e.g. to an executor.
+   */
+  public interface Listener {
+    void eventsAdded(ClusteringProgress progress);
+  }
+
+  /**
+   * One progress report.
+   */
+  public static class Event {
+    private final long m_sequence;
+    private final String m_phase;
+    private final long m_elapsedMillis;
+    private final long m_phaseElapsedMillis;
+    private final int m_iteration;
+    private final double m_error;
+    private final double m_improvement;
+    private final double m_tolerance;
+    private final String m_message;
+
+    Event(long sequence, String phase, long elapsedMillis,
+      long phaseElapsedMillis, int iteration, double error, double improvement,
+      double tolerance, String message)
+    {
+      m_sequence = sequence;
+      m_phase = phase;
+      m_elapsedMillis = elapsedMillis;
+      m_phaseElapsedMillis = phaseElapsedMillis;
+      m_iteration = iteration;
+      m_error = error;
+      m_improvement = improvement;
+      m_tolerance = tolerance;
+      m_message = message;
+    }
+
+    /**
+     * @return number of the event; every event of a run gets a higher one
+     */
+    public long getSequence() {
+      return m_sequence;
+    }
+
+    public String getPhase() {
+      return m_phase;
+    }
+
+    /**
+     * @return milliseconds since the run was created
+     */
+    public long getElapsedMillis() {
+      return m_elapsedMillis;
+    }
+
+    /**
+     * @return milliseconds since the current phase started
+     */
+    public long getPhaseElapsedMillis() {
+      return m_phaseElapsedMillis;
+    }
+
+    /**
+     * @return build iteration, or 0 if the event is not about an iteration
+     */
+    public int getIteration() {
+      return m_iteration;
+    }
+
+    public double getError() {
+      return m_error;
+    }
+
+    public double getImprovement() {
+      return m_improvement;
+    }
+
+    public double getTolerance() {
+      return m_tolerance;
+    }
+
+    /**
+     * @return description of the event, or null
+     */
+    public String getMessage() {
+      return m_message;
+    }
+
+    /**
+     * @return the event as a JSON object
+     */
+    public String toJson() {
+      StringBuffer json = new StringBuffer(160);
+      json.append("{\"sequence\":").append(m_sequence);
+      json.append(",\"phase\":\"").append(m_phase).append('"');
+      json.append(",\"elapsedMillis\":").append(m_elapsedMillis);
+      json.append(",\"phaseElapsedMillis\":").append(m_phaseElapsedMillis);
+      if (m_iteration > 0) {
+        json.append(",\"iteration\":").append(m_iteration);
+        json.append(",\"error\":").append(jsonNumber(m_error));
+        json.append(",\"improvement\":").append(jsonNumber(m_improvement));
+        json.append(",\"tolerance\":").append(jsonNumber(m_tolerance));
+      }
+      if (m_message != null)
+        json.append(",\"message\":\"").append(jsonEscape(m_message)).append('"');
+      return json.append('}').toString();
+    }
+  }
+
+  private final long m_createdAt = System.currentTimeMillis();
+  private final LinkedList<Event> m_events = new LinkedList<Event>();
+  private long m_nextSequence = 1L;
+  private String m_phase = PHASE_QUEUED;
+  private long m_phaseStartedAt = m_createdAt;
+  private boolean m_finished;
+  private volatile boolean m_stopRequested;
+  private final List<Listener> m_listeners =
+    new CopyOnWriteArrayList<Listener>();
+
+  public ClusteringProgress() {
+    synchronized (this) {
+      add(0, Double.NaN, Double.NaN, Double.NaN, null);
+    }
+  }
+
+  /**
+   * Reports that the run enters a phase.
+   */
+  public void phase(String phase) {
+    synchronized (this) {
+      m_phase = phase;
+      m_phaseStartedAt = System.currentTimeMillis();
+      add(0, Double.NaN, Double.NaN, Double.NaN, null);
+    }
+    fireEventsAdded();
+  }
+
+  /**
+   * Reports that the run is still busy in its current phase.
+   *
+   * @param message what it is doing, e.g. the task it waits for
+   */
+  public void heartbeat(String message) {
+    synchronized (this) {
+      add(0, Double.NaN, Double.NaN, Double.NaN, message);
+    }
+    fireEventsAdded();
+  }
+
+  public boolean iterationFinished(int iteration, double error,
+    double improvement, double tolerance)
+  {
+    synchronized (this) {
+      add(iteration, error, improvement, tolerance, null);
+    }
+    fireEventsAdded();
+    return !m_stopRequested;
+  }
+
+  /**
+   * Reports the end of the run; readers get the remaining events and then
+   * no more.
+   *
+   * @param message outcome of the run
+   */
+  public void finish(String message) {
+    synchronized (this) {
+      if (m_finished)
+        return;
+      m_phase = PHASE_DONE;
+      m_phaseStartedAt = System.currentTimeMillis();
+      add(0, Double.NaN, Double.NaN, Double.NaN, message);
+      m_finished = true;
+    }
+    fireEventsAdded();
+  }
+
+  /**
+   * Asks the run to stop early.
+   */
+  public void requestStop() {
+    m_stopRequested = true;
+    heartbeat("stop requested");
+  }
+
+  public boolean isStopRequested() {
+    return m_stopRequested;
+  }
+
+  public synchronized boolean isFinished() {
+    return m_finished;
+  }
+
+  public synchronized String getPhase() {
+    return m_phase;
+  }
+
+  /**
+   * @return the latest event
+   */
+  public synchronized Event getLatestEvent() {
+    return m_events.getLast();
+  }
+
+  public void addListener(Listener listener) {
+    m_listeners.add(listener);
+  }
+
+  public void removeListener(Listener listener) {
+    m_listeners.remove(listener);
+  }
+
+  /**
+   * Returns the kept events after the given one without waiting.
+   *
+   * @param afterSequence sequence number of the last event seen, 0 for all
+   * @return the events, oldest first
+   */
+  public synchronized List<Event> getEventsAfter(long afterSequence) {
+    List<Event> events = new ArrayList<Event>();
+    for (Event event : m_events) {
+      if (event.getSequence() > afterSequence)
+        events.add(event);
+    }
+    return events;
+  }
+
+  private void add(int iteration, double error, double improvement,
+    double tolerance, String message)
+  {
+    if (m_finished)
+      return;
+    long now = System.currentTimeMillis();
+    m_events.addLast(new Event(m_nextSequence++, m_phase, now - m_createdAt,
+      now - m_phaseStartedAt, iteration, error, improvement, tolerance,
+      message));
+    if (m_events.size() > MAX_EVENTS)
+      m_events.removeFirst();
+  }
+
+  private void fireEventsAdded() {
+    for (Listener listener : m_listeners)
+      listener.eventsAdded(this);
+  }
+
+  private static String jsonNumber(double value) {
+    return Double.isNaN(value) || Double.isInfinite(value) ? "null" :
+      Double.toString(value);
+  }
+
+  private static String jsonEscape(String s) {
+    StringBuffer escaped = new StringBuffer(s.length());
+    for (int i = 0; i < s.length(); i++) {
+      char c = s.charAt(i);
+      if (c == '"' || c == '\\')
+        escaped.append('\\').append(c);
+      else if (c < ' ')
+        escaped.append(' ');
+      else
+        escaped.append(c);
+    }
+    return escaped.toString();
+  }
+}
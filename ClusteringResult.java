@@ -0,0 +1,78 @@
+package clustering;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * This class holds the outcome of one clustering run in a form that can be
+ * handed back to a client after the run has finished. It carries the same
+ * two business cases that <code>DMKMDemo.displayScoringResults</code> prints:
+ * the number of cases in each cluster, and the most representative cases of
+ * cluster 2.
+ */
+public class ClusteringResult {
+
+  private final List<ClusterCount> clusterCounts = new ArrayList<ClusterCount>();
+  private final List<RepresentativeCase> representativeCases =
+    new ArrayList<RepresentativeCase>();
+
+  /**
+   * One row of business case 1: a cluster identifier and its case count.
+   */
+  public static class ClusterCount {
+    private final int clusterId;
+    private final int count;
+
+    public ClusterCount(int clusterId, int count) {
+      this.clusterId = clusterId;
+      this.count = count;
+    }
+
+    public int getClusterId() {
+      return clusterId;
+    }
+
+    public int getCount() {
+      return count;
+    }
+  }
+
+  /**
+   * One row of business case 2: a case identifier and its probability.
+   */
+  public static class RepresentativeCase {
+    private final long caseId;
+    private final String probability;
+
+    public RepresentativeCase(long caseId, String probability) {
+      this.caseId = caseId;
+      this.probability = probability;
+    }
+
+    public long getCaseId() {
+      return caseId;
+    }
+
+    public String getProbability() {
+      return probability;
+    }
+  }
+
+  public synchronized void addClusterCount(int clusterId, int count) {
+    clusterCounts.add(new ClusterCount(clusterId, count));
+  }
+
+  public synchronized void addRepresentativeCase(long caseId, String probability) {
+    representativeCases.add(new RepresentativeCase(caseId, probability));
+  }
+
+  public synchronized List<ClusterCount> getClusterCounts() {
+    return Collections.unmodifiableList(new ArrayList<ClusterCount>(clusterCounts));
+  }
+
+  public synchronized List<RepresentativeCase> getRepresentativeCases() {
+    return Collections.unmodifiableList(
+      new ArrayList<RepresentativeCase>(representativeCases));
+  }
+}
@@ -0,0 +1,474 @@
+package clustering;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * This class is a local copy of extracted mining data in columnar form,
+ * so that repeated in-process builds do not read the data over JDBC again.
+ * A store is a directory holding one file per attribute, one file of case
+ * identifiers and a header file <code>store.hdr</code> with the row count
+ * and the attribute names.
+ *
+ *   Each column file starts with a header of HEADER_BYTES bytes (magic
+ * number, format version, column type, row count) followed by the values
+ * as little-endian primitives. Columns are memory-mapped read-only when the
+ * store is opened, so opening costs no more than reading the headers and
+ * the values stay off the Java heap in the page cache. The mappings are
+ * released when the store becomes unreachable; a single column is limited
+ * to 2 GB.
+ *
+ *   <code>newBatchSource</code> reads the rows as a
+ * <code>RowBatchSource</code> straight from the mapped columns;
+ * <code>load</code> copies them into a <code>MiningDataset</code> for the
+ * builds that need all rows in memory. The header file is written last, so
+ * a directory without it is an unfinished extraction and cannot be opened.
+ *
+ *   Missing values (NaN) of the source are replaced by the mean of their
+ * column over all rows once the whole source has been written, the frozen
+ * means <code>JdbcRowBatchSource</code> imputes with after its first pass.
+ * The source must therefore not impute them itself (see
+ * <code>JdbcRowBatchSource.setImputeMissing</code>).
+ */
+public class ColumnarStore {
+  /**
+   * Types of the attribute columns.
+   */
+  public enum ColumnType {
+    /** 8-byte doubles */
+    DOUBLE(1, 8),
+    /** 4-byte floats */
+    FLOAT(2, 4),
+    /** 8-byte longs; used for the case identifiers */
+    LONG(3, 8);
+
+    private final int m_code;
+    private final int m_width;
+
+    ColumnType(int code, int width) {
+      m_code = code;
+      m_width = width;
+    }
+
+    /**
+     * @return bytes per value
+     */
+    public int getWidth() {
+      return m_width;
+    }
+
+    static ColumnType fromCode(int code) throws IOException {
+      ColumnType[] types = values();
+      for (int i = 0; i < types.length; i++) {
+        if (types[i].m_code == code)
+          return types[i];
+      }
+      throw new IOException("Unknown column type " + code);
+    }
+  }
+
+  public static final String HEADER_FILE = "store.hdr";
+  static final String CASE_ID_FILE = "case_id.col";
+  static final int MAGIC = 0x4B4D4353;   // "KMCS"
+  static final int VERSION = 1;
+  static final int HEADER_BYTES = 64;
+
+  private final File m_dir;
+  private final String[] m_attributeNames;
+  private final ColumnType m_columnType;
+  private final int m_rowCount;
+  private final DoubleBuffer[] m_doubleColumns;
+  private final FloatBuffer[] m_floatColumns;
+  private final LongBuffer m_caseIds;
+
+  private ColumnarStore(File dir, String[] attributeNames, ColumnType columnType,
+    int rowCount, DoubleBuffer[] doubleColumns, FloatBuffer[] floatColumns,
+    LongBuffer caseIds)
+  {
+    m_dir = dir;
+    m_attributeNames = attributeNames;
+    m_columnType = columnType;
+    m_rowCount = rowCount;
+    m_doubleColumns = doubleColumns;
+    m_floatColumns = floatColumns;
+    m_caseIds = caseIds;
+  }
+
+  /**
+   * @return whether <code>dir</code> holds a complete store
+   */
+  public static boolean exists(File dir) {
+    return new File(dir, HEADER_FILE).isFile();
+  }
+
+  /**
+   * Copies all rows of a source into a new store. The source is read in
+   * one pass from its current position; missing values are then filled in
+   * with the means of their columns.
+   *
+   * @param dir directory of the store; created if it does not exist, and
+   *        an existing store in it is replaced
+   * @param source rows to store
+   * @param columnType type of the attribute columns; FLOAT halves the size
+   *        and suits normalized data
+   * @param batchSize number of rows read from the source at a time
+   * @return the new store, opened
+   * @exception IOException if the source could not be read or the store
+   *            could not be written
+   */
+  public static ColumnarStore write(File dir, RowBatchSource source,
+    ColumnType columnType, int batchSize) throws IOException
+  {
+    if (columnType == ColumnType.LONG)
+      throw new IllegalArgumentException("Attribute columns must be DOUBLE or FLOAT");
+    if (!dir.isDirectory() && !dir.mkdirs())
+      throw new IOException("Cannot create store directory " + dir);
+    File header = new File(dir, HEADER_FILE);
+    if (header.exists() && !header.delete())
+      throw new IOException("Cannot replace store " + dir);
+
+    String[] names = source.getAttributeNames();
+    int d = names.length;
+    RandomAccessFile[] files = new RandomAccessFile[d + 1];
+    try {
+      ByteBuffer[] buffers = new ByteBuffer[d + 1];
+      for (int j = 0; j <= d; j++) {
+        ColumnType type = j < d ? columnType : ColumnType.LONG;
+        files[j] = new RandomAccessFile(columnFile(dir, j, d), "rw");
+        files[j].setLength(0L);
+        buffers[j] = ByteBuffer.allocateDirect(batchSize * type.getWidth())
+          .order(ByteOrder.LITTLE_ENDIAN);
+        writeColumnHeader(files[j].getChannel(), type, 0L);
+      }
+      double[] values = new double[batchSize * Math.max(1, d)];
+      long[] caseIds = new long[batchSize];
+      double[] sums = new double[d];
+      long[] counts = new long[d];
+      long rowCount = 0L;
+      int rows;
+      while ((rows = source.nextBatch(values, caseIds)) > 0) {
+        for (int j = 0; j < d; j++) {
+          ByteBuffer buffer = buffers[j];
+          buffer.clear();
+          for (int i = 0; i < rows; i++) {
+            double v = values[i * d + j];
+            if (!Double.isNaN(v)) {
+              sums[j] += v;
+              counts[j]++;
+            }
+            if (columnType == ColumnType.DOUBLE)
+              buffer.putDouble(v);
+            else
+              buffer.putFloat((float)v);
+          }
+          writeFully(files[j].getChannel(), buffer);
+        }
+        ByteBuffer buffer = buffers[d];
+        buffer.clear();
+        for (int i = 0; i < rows; i++)
+          buffer.putLong(caseIds[i]);
+        writeFully(files[d].getChannel(), buffer);
+        rowCount += rows;
+      }
+      if (rowCount * ColumnType.DOUBLE.getWidth() > Integer.MAX_VALUE)
+        throw new IOException("Store " + dir + " would have columns over 2 GB");
+      for (int j = 0; j < d; j++) {
+        if (counts[j] < rowCount)
+          fillMissing(files[j].getChannel(), columnType, rowCount,
+            counts[j] == 0 ? 0.0 : sums[j] / counts[j]);
+      }
+      for (int j = 0; j <= d; j++)
+        writeColumnHeader(files[j].getChannel(), j < d ? columnType :
+          ColumnType.LONG, rowCount);
+      for (int j = 0; j <= d; j++)
+        files[j].getChannel().force(false);
+      writeStoreHeader(dir, names, columnType, rowCount);
+    } finally {
+      for (int j = 0; j <= d; j++) {
+        try {
+          if (files[j] != null)
+            files[j].close();
+        } catch(IOException anyIoExp) {}
+      }
+    }
+    return open(dir);
+  }
+
+  /**
+   * Maps the columns of an existing store.
+   *
+   * @param dir directory of the store
+   * @return the opened store
+   * @exception IOException if the store is missing, unfinished or damaged
+   */
+  public static ColumnarStore open(File dir) throws IOException {
+    DataInputStream in = null;
+    String[] names;
+    ColumnType columnType;
+    long rowCount;
+    try {
+      in = new DataInputStream(new FileInputStream(new File(dir, HEADER_FILE)));
+      if (in.readInt() != MAGIC)
+        throw new IOException(dir + " is not a columnar store");
+      int version = in.readInt();
+      if (version != VERSION)
+        throw new IOException("Store " + dir + " has unsupported version " + version);
+      columnType = ColumnType.fromCode(in.readInt());
+      rowCount = in.readLong();
+      names = new String[in.readInt()];
+      for (int j = 0; j < names.length; j++)
+        names[j] = in.readUTF();
+    } finally {
+      try {
+        if (in != null)
+          in.close();
+      } catch(IOException anyIoExp) {}
+    }
+    int d = names.length;
+    DoubleBuffer[] doubles = columnType == ColumnType.DOUBLE ? new DoubleBuffer[d] : null;
+    FloatBuffer[] floats = columnType == ColumnType.FLOAT ? new FloatBuffer[d] : null;
+    for (int j = 0; j < d; j++) {
+      MappedByteBuffer column = mapColumn(columnFile(dir, j, d), columnType, rowCount);
+      if (doubles != null)
+        doubles[j] = column.asDoubleBuffer();
+      else
+        floats[j] = column.asFloatBuffer();
+    }
+    LongBuffer caseIds = mapColumn(columnFile(dir, d, d), ColumnType.LONG,
+      rowCount).asLongBuffer();
+    return new ColumnarStore(dir, names, columnType, (int)rowCount, doubles,
+      floats, caseIds);
+  }
+
+  private static File columnFile(File dir, int column, int attributeCount) {
+    return column == attributeCount ? new File(dir, CASE_ID_FILE) :
+      new File(dir, "attr_" + column + ".col");
+  }
+
+  private static void writeColumnHeader(FileChannel channel, ColumnType type,
+    long rowCount) throws IOException
+  {
+    ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+    header.putInt(MAGIC).putInt(VERSION).putInt(type.m_code).putInt(0)
+      .putLong(rowCount);
+    header.clear();
+    channel.write(header, 0L);
+    channel.position(Math.max(channel.position(), HEADER_BYTES));
+  }
+
+  private static void writeFully(FileChannel channel, ByteBuffer buffer)
+    throws IOException
+  {
+    buffer.flip();
+    while (buffer.hasRemaining())
+      channel.write(buffer);
+  }
+
+  /**
+   * Replaces the NaN values of a written column by <code>mean</code>.
+   */
+  private static void fillMissing(FileChannel channel, ColumnType type,
+    long rowCount, double mean) throws IOException
+  {
+    MappedByteBuffer column = channel.map(FileChannel.MapMode.READ_WRITE,
+      HEADER_BYTES, rowCount * type.getWidth());
+    column.order(ByteOrder.LITTLE_ENDIAN);
+    if (type == ColumnType.DOUBLE) {
+      DoubleBuffer values = column.asDoubleBuffer();
+      for (int i = 0; i < rowCount; i++) {
+        if (Double.isNaN(values.get(i)))
+          values.put(i, mean);
+      }
+    } else {
+      FloatBuffer values = column.asFloatBuffer();
+      for (int i = 0; i < rowCount; i++) {
+        if (Float.isNaN(values.get(i)))
+          values.put(i, (float)mean);
+      }
+    }
+    column.force();
+  }
+
+  private static void writeStoreHeader(File dir, String[] names,
+    ColumnType columnType, long rowCount) throws IOException
+  {
+    File tmp = new File(dir, HEADER_FILE + ".tmp");
+    DataOutputStream out = new DataOutputStream(new FileOutputStream(tmp));
+    try {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeInt(columnType.m_code);
+      out.writeLong(rowCount);
+      out.writeInt(names.length);
+      for (int j = 0; j < names.length; j++)
+        out.writeUTF(names[j]);
+    } finally {
+      out.close();
+    }
+    if (!tmp.renameTo(new File(dir, HEADER_FILE)))
+      throw new IOException("Cannot write store header in " + dir);
+  }
+
+  private static MappedByteBuffer mapColumn(File file, ColumnType type,
+    long rowCount) throws IOException
+  {
+    RandomAccessFile raf = new RandomAccessFile(file, "r");
+    try {
+      FileChannel channel = raf.getChannel();
+      ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+      while (header.hasRemaining() && channel.read(header, header.position()) > 0)
+        ;
+      header.flip();
+      if (header.remaining() < HEADER_BYTES || header.getInt() != MAGIC ||
+        header.getInt() != VERSION || header.getInt() != type.m_code)
+        throw new IOException(file + " is not a " + type + " column");
+      header.getInt();
+      long bytes = rowCount * type.getWidth();
+      if (header.getLong() != rowCount || channel.size() < HEADER_BYTES + bytes)
+        throw new IOException(file + " does not hold " + rowCount + " rows");
+      MappedByteBuffer column = channel.map(FileChannel.MapMode.READ_ONLY,
+        HEADER_BYTES, bytes);
+      column.order(ByteOrder.LITTLE_ENDIAN);
+      return column;
+    } finally {
+      try {
+        raf.close();
+      } catch(IOException anyIoExp) {}
+    }
+  }
+
+  /**
+   * Removes the store in <code>dir</code>, and the directory when nothing
+   * else is left in it. The header goes first, so a store that could only
+   * be removed in part no longer <code>exists</code>.
+   *
+   * @return whether the store and its directory were removed
+   */
+  public static boolean delete(File dir) {
+    File header = new File(dir, HEADER_FILE);
+    if (header.exists() && !header.delete())
+      return false;
+    boolean deleted = true;
+    File[] files = dir.listFiles();
+    for (int i = 0; files != null && i < files.length; i++) {
+      String name = files[i].getName();
+      if (name.equals(CASE_ID_FILE) ||
+          (name.startsWith("attr_") && name.endsWith(".col")))
+        deleted &= files[i].delete();
+    }
+    return dir.delete() && deleted;
+  }
+
+  public File getDirectory() {
+    return m_dir;
+  }
+
+  public int getRowCount() {
+    return m_rowCount;
+  }
+
+  public int getAttributeCount() {
+    return m_attributeNames.length;
+  }
+
+  public String[] getAttributeNames() {
+    return m_attributeNames;
+  }
+
+  public ColumnType getColumnType() {
+    return m_columnType;
+  }
+
+  public long getCaseId(int row) {
+    return m_caseIds.get(row);
+  }
+
+  public double getValue(int row, int attribute) {
+    return m_doubleColumns != null ? m_doubleColumns[attribute].get(row) :
+      m_floatColumns[attribute].get(row);
+  }
+
+  /**
+   * Copies the rows [from, to) into <code>values</code> as row-major rows
+   * and their case identifiers into <code>caseIds</code>.
+   *
+   * @param caseIds receives the case identifiers, or null
+   */
+  public void readRows(int from, int to, double[] values, long[] caseIds) {
+    int d = m_attributeNames.length;
+    for (int j = 0; j < d; j++) {
+      if (m_doubleColumns != null) {
+        DoubleBuffer column = m_doubleColumns[j];
+        for (int i = from; i < to; i++)
+          values[(i - from) * d + j] = column.get(i);
+      } else {
+        FloatBuffer column = m_floatColumns[j];
+        for (int i = from; i < to; i++)
+          values[(i - from) * d + j] = column.get(i);
+      }
+    }
+    if (caseIds != null) {
+      for (int i = from; i < to; i++)
+        caseIds[i - from] = m_caseIds.get(i);
+    }
+  }
+
+  /**
+   * Copies all rows into memory.
+   *
+   * @return dataset with one row per stored row
+   */
+  public MiningDataset load() {
+    int n = m_rowCount;
+    double[] values = new double[n * m_attributeNames.length];
+    long[] caseIds = new long[n];
+    readRows(0, n, values, caseIds);
+    return new MiningDataset(m_attributeNames, caseIds, values, n);
+  }
+
+  /**
+   * @return a source reading the rows from the mapped columns; every
+   *         source has its own position, so several builds can read the
+   *         store at the same time
+   */
+  public RowBatchSource newBatchSource() {
+    return new StoreBatchSource();
+  }
+
+  private class StoreBatchSource implements RowBatchSource {
+    private int m_nextRow;
+
+    public String[] getAttributeNames() {
+      return m_attributeNames;
+    }
+
+    public int nextBatch(double[] values, long[] caseIds) {
+      int d = Math.max(1, m_attributeNames.length);
+      int rows = Math.min(values.length / d, m_rowCount - m_nextRow);
+      if (caseIds != null)
+        rows = Math.min(rows, caseIds.length);
+      readRows(m_nextRow, m_nextRow + rows, values, caseIds);
+      m_nextRow += rows;
+      return rows;
+    }
+
+    public void rewind() {
+      m_nextRow = 0;
+    }
+
+    public void close() {
+    }
+  }
+}
@@ -0,0 +1,292 @@
+package clustering;
+
+import java.util.Arrays;
+
+/**
+ * This class holds mining data like <code>MiningDataset</code>, but stores
+ * the attribute values in fewer bytes: as 32-bit floats, or as 16-bit or
+ * 8-bit codes on an even grid between the smallest and largest value of
+ * each attribute: a float keeps about 7 significant digits, 16-bit codes
+ * are within 1 / 131070 of the range of the true value, and 8-bit codes are
+ * coarser but fit 8 times as many rows as doubles in the same memory.
+ *
+ *   <code>normalize</code> applies a min-max normalization to the stored
+ * data in place. For codes it only moves and scales the grid, so raw data
+ * can be encoded as it is read and normalized afterwards (see
+ * <code>DMKMDemo.buildModelCompact</code>) without losing precision.
+ *
+ *   Rows are read back with <code>decode</code>, a tile at a time, into a
+ * small double array that the distance kernels work on, so all arithmetic
+ * and all accumulators stay in double precision.
+ */
+public class CompactDataset {
+  /**
+   * Ways of storing one attribute value.
+   */
+  public enum Encoding {
+    /** 4 bytes per value */
+    FLOAT32(4, 0),
+    /** 2 bytes per value, 65536 levels per attribute */
+    UINT16(2, 0xFFFF),
+    /** 1 byte per value, 256 levels per attribute */
+    UINT8(1, 0xFF);
+
+    private final int m_bytes;
+    private final int m_maxCode;
+
+    Encoding(int bytes, int maxCode) {
+      m_bytes = bytes;
+      m_maxCode = maxCode;
+    }
+
+    /**
+     * @return bytes used to store one value
+     */
+    public int getBytesPerValue() {
+      return m_bytes;
+    }
+  }
+
+  private final String[] m_attributeNames;
+  private final long[] m_caseIds;
+  private final int m_rowCount;
+  private final Encoding m_encoding;
+  private final float[] m_floats;
+  private final short[] m_shorts;
+  private final byte[] m_bytes;
+  // value of code q of attribute j is m_offset[j] + q * m_step[j]
+  private final double[] m_offset;
+  private final double[] m_step;
+
+  private CompactDataset(String[] attributeNames, long[] caseIds, int rowCount,
+    Encoding encoding, float[] floats, short[] shorts, byte[] bytes,
+    double[] offset, double[] step)
+  {
+    m_attributeNames = attributeNames;
+    m_caseIds = caseIds;
+    m_rowCount = rowCount;
+    m_encoding = encoding;
+    m_floats = floats;
+    m_shorts = shorts;
+    m_bytes = bytes;
+    m_offset = offset;
+    m_step = step;
+  }
+
+  /**
+   * Stores a dataset in the given encoding.
+   *
+   * @param data rows to store
+   * @param encoding storage of the values
+   * @return the compact copy of <code>data</code>
+   */
+  public static CompactDataset encode(MiningDataset data, Encoding encoding) {
+    int n = data.getRowCount();
+    int d = data.getAttributeCount();
+    double[] x = data.getValues();
+    long[] caseIds = new long[n];
+    for (int i = 0; i < n; i++)
+      caseIds[i] = data.getCaseId(i);
+    if (encoding == Encoding.FLOAT32) {
+      float[] floats = new float[n * d];
+      for (int i = 0; i < n * d; i++)
+        floats[i] = (float)x[i];
+      return new CompactDataset(data.getAttributeNames(), caseIds, n, encoding,
+        floats, null, null, null, null);
+    }
+    double[] min = new double[d];
+    double[] max = new double[d];
+    Arrays.fill(min, Double.POSITIVE_INFINITY);
+    Arrays.fill(max, Double.NEGATIVE_INFINITY);
+    ClusterTreeBuilder.updateRanges(x, n, d, min, max);
+    CompactDataset compact = quantized(data.getAttributeNames(), caseIds, n,
+      encoding, min, max);
+    for (int i = 0; i < n; i++)
+      compact.setRow(i, x, i * d);
+    return compact;
+  }
+
+  /**
+   * Stores float rows as they are, or quantizes them into codes.
+   *
+   * @param values row-major values; kept as the storage for FLOAT32
+   */
+  static CompactDataset fromFloats(String[] attributeNames, long[] caseIds,
+    int rowCount, Encoding encoding, float[] values)
+  {
+    if (encoding == Encoding.FLOAT32)
+      return new CompactDataset(attributeNames, caseIds, rowCount, encoding,
+        values, null, null, null, null);
+    int d = attributeNames.length;
+    double[] min = new double[d];
+    double[] max = new double[d];
+    Arrays.fill(min, Double.POSITIVE_INFINITY);
+    Arrays.fill(max, Double.NEGATIVE_INFINITY);
+    for (int i = 0; i < rowCount * d; i++) {
+      double v = values[i];
+      int j = i % d;
+      if (v < min[j]) min[j] = v;
+      if (v > max[j]) max[j] = v;
+    }
+    CompactDataset compact = quantized(attributeNames, caseIds, rowCount,
+      encoding, min, max);
+    double[] row = new double[d];
+    for (int i = 0; i < rowCount; i++) {
+      for (int j = 0; j < d; j++)
+        row[j] = values[i * d + j];
+      compact.setRow(i, row, 0);
+    }
+    return compact;
+  }
+
+  /**
+   * Creates an empty quantized dataset whose codes spread evenly over the
+   * range [min, max] of each attribute.
+   */
+  private static CompactDataset quantized(String[] attributeNames,
+    long[] caseIds, int n, Encoding encoding, double[] min, double[] max)
+  {
+    int d = attributeNames.length;
+    double[] offset = new double[d];
+    double[] step = new double[d];
+    for (int j = 0; j < d; j++) {
+      boolean empty = min[j] > max[j];
+      offset[j] = empty ? 0.0 : min[j];
+      step[j] = !empty && max[j] > min[j] ? (max[j] - min[j]) / encoding.m_maxCode : 0.0;
+    }
+    return new CompactDataset(attributeNames, caseIds, n, encoding, null,
+      encoding == Encoding.UINT16 ? new short[n * d] : null,
+      encoding == Encoding.UINT8 ? new byte[n * d] : null, offset, step);
+  }
+
+  /**
+   * Stores the nearest codes of one row of a quantized dataset.
+   */
+  private void setRow(int row, double[] x, int xOff) {
+    int d = m_attributeNames.length;
+    int off = row * d;
+    int maxCode = m_encoding.m_maxCode;
+    for (int j = 0; j < d; j++) {
+      int q = m_step[j] == 0.0 ? 0 :
+        (int)Math.round((x[xOff + j] - m_offset[j]) / m_step[j]);
+      if (q < 0) q = 0;
+      if (q > maxCode) q = maxCode;
+      if (m_shorts != null)
+        m_shorts[off + j] = (short)q;
+      else
+        m_bytes[off + j] = (byte)q;
+    }
+  }
+
+  /**
+   * Normalizes every value v of attribute j to (v - shift[j]) / scale[j].
+   * Floats are rewritten; for codes, the offset and step of each attribute
+   * are changed instead, so every code decodes to the normalized value.
+   */
+  void normalize(double[] shift, double[] scale) {
+    int d = m_attributeNames.length;
+    if (m_floats != null) {
+      for (int i = 0; i < m_rowCount; i++) {
+        int off = i * d;
+        for (int j = 0; j < d; j++)
+          m_floats[off + j] = (float)((m_floats[off + j] - shift[j]) / scale[j]);
+      }
+      return;
+    }
+    for (int j = 0; j < d; j++) {
+      m_offset[j] = (m_offset[j] - shift[j]) / scale[j];
+      m_step[j] = m_step[j] / scale[j];
+    }
+  }
+
+  public int getRowCount() {
+    return m_rowCount;
+  }
+
+  public int getAttributeCount() {
+    return m_attributeNames.length;
+  }
+
+  public String[] getAttributeNames() {
+    return m_attributeNames;
+  }
+
+  public String getAttributeName(int attribute) {
+    return m_attributeNames[attribute];
+  }
+
+  public Encoding getEncoding() {
+    return m_encoding;
+  }
+
+  /**
+   * @return case identifier of the given row, or the row index when the
+   *         dataset has no case identifiers
+   */
+  public long getCaseId(int row) {
+    return m_caseIds == null ? row : m_caseIds[row];
+  }
+
+  /**
+   * @return bytes used by the stored values
+   */
+  public long getValueBytes() {
+    return (long)m_rowCount * m_attributeNames.length * m_encoding.getBytesPerValue();
+  }
+
+  /**
+   * @return largest difference between a value and its stored value, 0 for
+   *         FLOAT32 beyond float rounding
+   */
+  public double getMaxError(int attribute) {
+    return m_step == null ? 0.0 : m_step[attribute] / 2.0;
+  }
+
+  public double getValue(int row, int attribute) {
+    int i = row * m_attributeNames.length + attribute;
+    switch (m_encoding) {
+      case FLOAT32:
+        return m_floats[i];
+      case UINT16:
+        return m_offset[attribute] + (m_shorts[i] & 0xFFFF) * m_step[attribute];
+      default:
+        return m_offset[attribute] + (m_bytes[i] & 0xFF) * m_step[attribute];
+    }
+  }
+
+  /**
+   * Writes the rows [from, to) as doubles into the start of <code>out</code>,
+   * row-major.
+   *
+   * @param out array of at least (to - from) x attributeCount values
+   */
+  public void decode(int from, int to, double[] out) {
+    int d = m_attributeNames.length;
+    int base = from * d;
+    int length = (to - from) * d;
+    switch (m_encoding) {
+      case FLOAT32: {
+        float[] src = m_floats;
+        for (int i = 0; i < length; i++)
+          out[i] = src[base + i];
+        break;
+      }
+      case UINT16: {
+        short[] src = m_shorts;
+        for (int r = 0; r < length; r += d) {
+          for (int j = 0; j < d; j++)
+            out[r + j] = m_offset[j] + (src[base + r + j] & 0xFFFF) * m_step[j];
+        }
+        break;
+      }
+      default: {
+        byte[] src = m_bytes;
+        for (int r = 0; r < length; r += d) {
+          for (int j = 0; j < d; j++)
+            out[r + j] = m_offset[j] + (src[base + r + j] & 0xFF) * m_step[j];
+        }
+        break;
+      }
+    }
+  }
+}
@@ -51,15 +51,25 @@ package clustering;
 *   for guidelines for executing this demo program.
 */
 // Generic api imports
+import java.io.File;
+import java.io.IOException;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
-import java.util.Collection;
-import java.util.Enumeration;
-import java.util.Iterator;
-import java.util.Set;
-import java.util.TreeMap;
-import java.util.Hashtable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.regex.Pattern;
 // Java Data Mining (JDM) standard imports
 import javax.datamining.ExecutionHandle;
 import javax.datamining.ExecutionState;
@@ -67,64 +77,25 @@ import javax.datamining.ExecutionStatus;
 import javax.datamining.JDMException;
 import javax.datamining.NamedObject;
 import javax.datamining.algorithm.kmeans.ClusteringDistanceFunction;
-import javax.datamining.algorithm.kmeans.KMeansSettingsFactory;
 import javax.datamining.base.Task;
-import javax.datamining.clustering.Cluster;
 import javax.datamining.clustering.ClusteringApplySettings;
-import javax.datamining.clustering.ClusteringApplySettingsFactory;
 import javax.datamining.clustering.ClusteringModel;
 import javax.datamining.clustering.ClusteringSettings;
-import javax.datamining.clustering.ClusteringSettingsFactory;
 import javax.datamining.data.AttributeDataType;
-import javax.datamining.data.AttributeType;
-import javax.datamining.data.Interval;
-import javax.datamining.data.IntervalClosure;
-import javax.datamining.data.ModelSignature;
 import javax.datamining.data.PhysicalAttribute;
-import javax.datamining.data.PhysicalAttributeFactory;
 import javax.datamining.data.PhysicalAttributeRole;
 import javax.datamining.data.PhysicalDataSet;
-import javax.datamining.data.PhysicalDataSetFactory;
-import javax.datamining.data.SignatureAttribute;
-import javax.datamining.resource.ConnectionSpec;
-import javax.datamining.rule.CompoundPredicate;
-import javax.datamining.rule.Rule;
-import javax.datamining.rule.SimplePredicate;
-import javax.datamining.statistics.AttributeStatisticsSet;
-import javax.datamining.statistics.UnivariateStatistics;
 import javax.datamining.task.BuildTask;
-import javax.datamining.task.BuildTaskFactory;
 import javax.datamining.task.apply.DataSetApplyTask;
-import javax.datamining.task.apply.DataSetApplyTaskFactory;
 // Oracle Java Data Mining (JDM) implemented api imports
-import oracle.dmt.jdm.OraPLSQLMappings;
 import oracle.dmt.jdm.algorithm.kmeans.OraKMeansSettings;
 import oracle.dmt.jdm.algorithm.kmeans.OraSplitCriterion;
-import oracle.dmt.jdm.clustering.OraCluster;
-import oracle.dmt.jdm.resource.OraConnection;
-import oracle.dmt.jdm.resource.OraConnectionFactory;
-import oracle.dmt.jdm.rule.OraSimplePredicate;
 import oracle.dmt.jdm.task.OraTransformationTask;
-import oracle.dmt.jdm.task.OraTransformationTaskFactory;
-import oracle.dmt.jdm.transform.normalize.OraNormalizeTransformFactory;
 import oracle.dmt.jdm.transform.normalize.OraNormalizeTransformImpl;
 import oracle.dmt.jdm.transform.normalize.OraNormalizeType;
 import util.DBUtil;
 
 public class DMKMDemo extends Object{
-  //Connection related data members
-  private static javax.datamining.resource.Connection m_dmeConn;
-  private static javax.datamining.resource.ConnectionFactory m_dmeConnFactory;
-  //Object factories used in this demo program
-  private static PhysicalDataSetFactory m_pdsFactory;
-  private static PhysicalAttributeFactory m_paFactory;
-  private static ClusteringSettingsFactory m_clusFactory;
-  private static KMeansSettingsFactory m_kmeansFactory;
-  private static BuildTaskFactory m_buildFactory;
-  private static DataSetApplyTaskFactory m_dsApplyFactory;
-  private static ClusteringApplySettingsFactory m_applySettingsFactory;
-  private static OraNormalizeTransformFactory m_normalizeXformFactory;
-  private static OraTransformationTaskFactory m_xformTaskFactory;
   // Global constants used for formatting output
   private static String TAB = "    ";
   private static String CR = "\n";
@@ -134,64 +105,521 @@ public class DMKMDemo extends Object{
   private static String LEAF_CLUSTERS_HEADER            = "*             Leaf clusters         *";
   private static String RULES_CLUSTERS_HEADER           = "*             Rules                 *";
   private static String RULES_CLUSTERS_HIERARCHY_HEADER = "*     Printing clusters hierarchy   *";
+  // Algorithm choices of demo.jsp
+  public static final String ALGORITHM_KMEANS = "kmeans";
+  public static final String ALGORITHM_BAYESIAN = "bayesian";
+  // kMeans model built and applied in the Java VM from MINING_DATA_BUILD_V 
+  // normalized there, by the builder ClusteringOptions.getInProcessBuild 
+  // selects
+  public static final String ALGORITHM_KMEANS_INPROCESS = "kmeans-inprocess";
+  // attributes prepareData leaves as they are, and the significant digits 
+  // of the shift and scale of the others
+  private static final String[] NORMALIZE_EXCLUDE_COLUMNS = {
+                         "CUST_ID",
+                         "AFFINITY_CARD",
+                         "BULK_PACK_DISKETTES",
+                         "FLAT_PANEL_MONITOR",
+                         "HOME_THEATER_PACKAGE",
+                         "BOOKKEEPING_APPLICATION",
+                         "PRINTER_SUPPLIES",
+                         "Y_BOX_GAMES",
+                         "OS_DOC_SET_KANJI",
+                         };  
+  private static final int NORMALIZE_PRECISION = 6;
+  // ModelFile.write replaces the file through a temporary file of a fixed 
+  // name, so runs must not write at the same time
+  private static final Object MODEL_FILE_LOCK = new Object();
+  // runs share the columnar copies of the source views, so one run at a 
+  // time extracts, opens or removes them
+  private static final Object STORE_LOCK = new Object();
+  private static final Pattern SIMPLE_IDENTIFIER = 
+    Pattern.compile("[A-Za-z][A-Za-z0-9_$#]{0,29}");
+  // threads polling the running mining engine tasks of all runs
+  private static final int TASK_MONITOR_THREADS = 2;
+  private static final TaskMonitor TASK_MONITOR = 
+    new TaskMonitor(TASK_MONITOR_THREADS);
+  // runs the steps of pipeline graphs; they mostly wait for the database
+  private static final ExecutorService PIPELINE_EXECUTOR = 
+    Executors.newCachedThreadPool(new ThreadFactory() {
+      private final AtomicLong threadNumber = new AtomicLong();
+      public Thread newThread(Runnable r) {
+        Thread t = new Thread(r, "clustering-step-" + threadNumber.incrementAndGet());
+        t.setDaemon(true);
+        return t;
+      }
+    });
   
   
 
 public static void beginClustering(String username, String password, String url, String application) {
-  try {      
-        //1. Login to the Data Mining Engine
-        m_dmeConnFactory = new OraConnectionFactory();
-        ConnectionSpec connSpec = m_dmeConnFactory.getConnectionSpec();
-        connSpec.setURI(url); 
-        connSpec.setName(username); 
-        connSpec.setPassword(password);
-        m_dmeConn = m_dmeConnFactory.getConnection(connSpec); 
-        
-        // 2. Clean up all previuosly created demo objects
-        clean();
-        // 3. Initialize factories for mining objects
-        initFactories();
-        // 4. Prepare data
-        prepareData();
-        // 5. Build a model
-        buildModel();
-        // 6. Apply the model
-        applyModel();
+  try {
+    runClustering(username, password, url, application);
+  } catch(Exception anyExp) {
+    anyExp.printStackTrace(System.out);
+  }
+}
+
+  /**
+   * Runs the complete prepare/build/apply pipeline and returns the 
+   * scoring results. Unlike <code>beginClustering</code>, failures are 
+   * propagated to the caller so that an asynchronous job can report them.
+   * 
+   *   All objects are created in a namespace of their own (see 
+   * <code>ClusteringContext</code>), so concurrent runs do not interfere. 
+   * They are dropped again once the results have been read.
+   * 
+   * @return scoring results of the applied model
+   * @exception Exception if any step of the pipeline failed
+   */
+  public static ClusteringResult runClustering(String username, String password, 
+    String url, String application) throws Exception
+  {
+    //1. Login to the Data Mining Engine and initialize factories
+    return runClustering(ClusteringContext.open(username, password, url), 
+      application);
+  }
+
+  /**
+   * Runs the complete pipeline on a connection borrowed from the given pool, 
+   * with the algorithm, limits, progress channel, task timeout and model 
+   * file of <code>options</code>.
+   * 
+   *   Within the stage limits of an admission controller the run holds a 
+   * BUILD permit while it builds the model and an APPLY permit while it 
+   * applies the model. The BUILD permit is taken when the build starts, 
+   * after the data is prepared; if none is free the run ends at once. The run reports the phase it enters, a heartbeat 
+   * while a mining engine task runs, and every iteration of an in-process 
+   * build. A stop requested on the progress ends an in-process build after 
+   * its current iteration, and terminates a running mining engine task, as 
+   * does the task timeout. The model of an in-process kMeans algorithm (see 
+   * <code>isInProcessAlgorithm</code>) is saved to the model file once it 
+   * is built, so that a scoring process can load it (see 
+   * <code>loadModelFile</code>).
+   * 
+   * @param pool pool of logged in Data Mining Engine connections
+   * @param application application the run is for
+   * @param options parameters of the run
+   * @return scoring results of the applied model
+   * @exception StageBusyException if no BUILD permit was free when the 
+   *            build was to start, or no APPLY permit was obtained within 
+   *            the connection timeout
+   * @exception Exception if no connection was available or any step of 
+   *            the pipeline failed
+   */
+  public static ClusteringResult runClustering(MiningConnectionPool pool, 
+    String application, ClusteringOptions options) throws Exception
+  {
+    ClusteringContext ctx = ClusteringContext.borrow(pool, 
+      options.getConnectionTimeoutMillis());
+    ctx.setOptions(options);
+    return runClustering(ctx, application);
+  }
+
+  /**
+   * @return true if <code>algorithm</code> is null or one of the algorithm 
+   *         choices of demo.jsp
+   */
+  public static boolean isSupportedAlgorithm(String algorithm) {
+    return algorithm == null || ALGORITHM_KMEANS.equals(algorithm) || 
+      ALGORITHM_BAYESIAN.equals(algorithm) || isInProcessAlgorithm(algorithm);
+  }
+
+  /**
+   * @return true if <code>algorithm</code> builds a kMeans model in the Java 
+   *         VM and applies it with <code>applyModelInProcess</code>
+   */
+  public static boolean isInProcessAlgorithm(String algorithm) {
+    return ALGORITHM_KMEANS_INPROCESS.equals(algorithm);
+  }
+
+  /**
+   * Describes the build settings a run with the given algorithm uses, so
+   * that cached results of a run are only reused for the same settings. 
+   * For the in-process algorithm they include the builder the options of 
+   * the context select.
+   *
+   * @param ctx context of the current run
+   * @param algorithm as for <code>runClustering</code>
+   * @return description of the settings
+   * @exception JDMException if the settings could not be created
+   */
+  public static String describeBuildSettings(ClusteringContext ctx,
+    String algorithm) throws JDMException
+  {
+      KMeansConfig config = createBuildConfig(ctx);
+      if ( ALGORITHM_BAYESIAN.equals(algorithm) )
+        config.setInitialization(KMeansConfig.Initialization.KMEANS_PARALLEL);
+      if ( isInProcessAlgorithm(algorithm) )
+        return config + ", inProcessBuild=" + 
+          ctx.getOptions().getInProcessBuild();
+      return config.toString();
+  }
+
+  /**
+   * Reads the watermark of the source data of a run: the row counts of
+   * MINING_DATA_BUILD_V and MINING_DATA_APPLY_V and, if a timestamp column
+   * is given, its latest value in either view. A cached result whose
+   * watermark differs was built from other data.
+   *
+   * @param ctx context of the current run
+   * @param timestampColumn column of both views holding the time a row was
+   *        last changed, or null
+   * @return the watermark
+   * @exception SQLException if the views could not be read
+   * @exception IllegalArgumentException if <code>timestampColumn</code> is 
+   *            not a simple identifier
+   */
+  public static ModelCache.Watermark readSourceWatermark(ClusteringContext ctx,
+    String timestampColumn) throws SQLException
+  {
+      // the column name becomes part of the query
+      if ( timestampColumn != null && !isSimpleIdentifier(timestampColumn) )
+        throw new IllegalArgumentException("Invalid timestamp column: " + 
+          timestampColumn);
+      String sql =
+        "SELECT (SELECT COUNT(*) FROM MINING_DATA_BUILD_V), " +
+        "       (SELECT COUNT(*) FROM MINING_DATA_APPLY_V)" +
+        ( timestampColumn == null ? "" :
+        ", (SELECT MAX(" + timestampColumn + ") FROM " +
+        "    (SELECT " + timestampColumn + " FROM MINING_DATA_BUILD_V " +
+        "     UNION ALL " +
+        "     SELECT " + timestampColumn + " FROM MINING_DATA_APPLY_V))" ) +
+        " FROM DUAL";
+      Statement stmt = null;
+      try {
+        stmt = ctx.getDatabaseConnection().createStatement();
+        ResultSet rs = stmt.executeQuery(sql);
+        rs.next();
+        long maxTimestamp = Long.MIN_VALUE;
+        if ( timestampColumn != null ) {
+          java.sql.Timestamp max = rs.getTimestamp(3);
+          if ( max != null )
+            maxTimestamp = max.getTime();
+        }
+        return new ModelCache.Watermark(rs.getLong(1), rs.getLong(2),
+          maxTimestamp);
+      } finally {
+        try {
+          stmt.close();
+        }
+        catch(Exception anySqlExp){}
+      }
+  }
+
+  /**
+   * @return true if <code>name</code> is an unquoted Oracle identifier: a 
+   *         letter followed by letters, digits, _, $ or #, 30 characters 
+   *         at most, so it can be put into SQL as it is
+   */
+  public static boolean isSimpleIdentifier(String name) {
+    return SIMPLE_IDENTIFIER.matcher(name).matches();
+  }
+
+  private static ClusteringResult runClustering(final ClusteringContext ctx, 
+    String application) throws Exception
+  {
+    final String algorithm = ctx.getOptions().getAlgorithm();
+    final AdmissionController admission = ctx.getOptions().getAdmission();
+    final long admissionTimeoutMillis = 
+      ctx.getOptions().getConnectionTimeoutMillis();
+    final boolean bayesian = ALGORITHM_BAYESIAN.equals(algorithm);
+    final boolean inProcess = isInProcessAlgorithm(algorithm);
+    final LocalClusteringModel[] localModel = new LocalClusteringModel[1];
+    final String[] normalizationDefinitionTable = new String[1];
+    final MiningDataset[] buildData = new MiningDataset[1];
+    final MinMaxNormalizer[] normalizer = new MinMaxNormalizer[1];
+    final GaussianMixtureModel[] mixtureModel = new GaussianMixtureModel[1];
+    final ClusteringResult[] result = new ClusteringResult[1];
+    final boolean[] holdsBuildStage = new boolean[1];
+    final ClusteringContext[] applyDataPeer = new ClusteringContext[1];
+    PipelineGraph pipeline = new PipelineGraph(ctx.getProgress());
+    try {
+        // 2. Prepare build data; the in-process build normalizes it in the 
+        //    Java VM and the apply data while it is scored, without views. 
+        //    The mining engine steps are started and left to the task 
+        //    monitor, so no pipeline thread waits for the engine.
+        PipelineGraph.Node prepareBuild;
+        if ( bayesian ) {
+          prepareBuild = pipeline.add("prepareBuildData", 
+            new PipelineGraph.Step() {
+              public void run() throws Exception {
+                reportPhase(ctx, ClusteringProgress.PHASE_PREPARE);
+                buildData[0] = MiningDataLoader.load(
+                  ctx.getDatabaseConnection(), "MINING_DATA_BUILD_V", 
+                  "CUST_ID", null);
+                normalizer[0] = prepareBuildDataInProcess(buildData[0]);
+              }
+            });
+        } else if ( inProcess ) {
+          prepareBuild = pipeline.add("prepareBuildData", 
+            new PipelineGraph.Step() {
+              public void run() {
+                // normalized in the Java VM while the build reads it
+                reportPhase(ctx, ClusteringProgress.PHASE_PREPARE);
+              }
+            });
+        } else {
+          prepareBuild = pipeline.add("prepareBuildData", 
+            new PipelineGraph.AsyncStep() {
+              public CompletableFuture<?> start() throws Exception {
+                reportPhase(ctx, ClusteringProgress.PHASE_PREPARE);
+                return prepareBuildDataAsync(ctx).thenAccept(
+                  new Consumer<String>() {
+                    public void accept(String definitionTable) {
+                      normalizationDefinitionTable[0] = definitionTable;
+                    }
+                  });
+              }
+            });
+        }
+        // 3. Build a model, or a mixture model
+        PipelineGraph.Node build;
+        if ( bayesian || inProcess ) {
+          build = pipeline.add("buildModel", new PipelineGraph.Step() {
+            public void run() throws Exception {
+              enterBuildStage(admission, holdsBuildStage);
+              try {
+                reportPhase(ctx, ClusteringProgress.PHASE_BUILD);
+                if ( bayesian ) {
+                  mixtureModel[0] = buildMixtureModel(ctx, buildData[0]);
+                  buildData[0] = null;
+                } else {
+                  localModel[0] = buildLocalModel(ctx);
+                  if ( ctx.getModelFile() != null )
+                    saveModelFile(localModel[0], ctx.getModelFile());
+                }
+              } finally {
+                exitBuildStage(admission, holdsBuildStage);
+              }
+            }
+          }, prepareBuild);
+        } else {
+          build = pipeline.add("buildModel", new PipelineGraph.AsyncStep() {
+            public CompletableFuture<?> start() throws Exception {
+              enterBuildStage(admission, holdsBuildStage);
+              CompletableFuture<Void> building;
+              try {
+                reportPhase(ctx, ClusteringProgress.PHASE_BUILD);
+                building = buildModelAsync(ctx);
+              } catch(Exception anyExp) {
+                exitBuildStage(admission, holdsBuildStage);
+                throw anyExp;
+              }
+              return building.whenComplete(new BiConsumer<Void, Throwable>() {
+                public void accept(Void ignored, Throwable failure) {
+                  exitBuildStage(admission, holdsBuildStage);
+                }
+              });
+            }
+          }, prepareBuild);
+        }
+        // 2b. Prepare apply data, next to the build when there is a peer. 
+        //     The apply data only needs the normalization definition of the 
+        //     build data, so it is prepared on a second connection while 
+        //     the model is built. Without a free connection the steps share 
+        //     one and run in order.
+        PipelineGraph.Node prepareApply = build;
+        if ( !bayesian && !inProcess ) {
+          applyDataPeer[0] = ctx.borrowPeer(0L);
+          final ClusteringContext applyDataCtx = 
+            applyDataPeer[0] == null ? ctx : applyDataPeer[0];
+          PipelineGraph.AsyncStep prepareApplyStep = new PipelineGraph.AsyncStep() {
+            public CompletableFuture<?> start() throws Exception {
+              CompletableFuture<Boolean> preparing;
+              try {
+                preparing = prepareApplyDataAsync(applyDataCtx, 
+                  normalizationDefinitionTable[0]);
+              } catch(Exception anyExp) {
+                closePeer(applyDataPeer, anyExp);
+                throw anyExp;
+              }
+              return preparing.whenComplete(new BiConsumer<Boolean, Throwable>() {
+                public void accept(Boolean isTaskSuccess, Throwable failure) {
+                  closePeer(applyDataPeer, failure);
+                }
+              });
+            }
+          };
+          prepareApply = applyDataCtx != ctx ? 
+            pipeline.add("prepareApplyData", prepareApplyStep, prepareBuild) : 
+            pipeline.add("prepareApplyData", prepareApplyStep, build);
+        }
+        // 4. Apply the model
+        if ( bayesian || inProcess ) {
+          pipeline.add("applyModel", new PipelineGraph.Step() {
+            public void run() throws Exception {
+              enterStage(admission, AdmissionController.Stage.APPLY, 
+                admissionTimeoutMillis);
+              try {
+                reportPhase(ctx, ClusteringProgress.PHASE_APPLY);
+                result[0] = bayesian ? 
+                  applyMixtureModel(ctx, mixtureModel[0], normalizer[0]) : 
+                  applyModelInProcess(ctx, new ClusterScorer(localModel[0]));
+              } finally {
+                exitStage(admission, AdmissionController.Stage.APPLY);
+              }
+            }
+          }, build, prepareApply);
+        } else {
+          pipeline.add("applyModel", new PipelineGraph.AsyncStep() {
+            public CompletableFuture<?> start() throws Exception {
+              enterStage(admission, AdmissionController.Stage.APPLY, 
+                admissionTimeoutMillis);
+              CompletableFuture<ClusteringResult> applying;
+              try {
+                reportPhase(ctx, ClusteringProgress.PHASE_APPLY);
+                applying = applyModelAsync(ctx);
+              } catch(Exception anyExp) {
+                exitStage(admission, AdmissionController.Stage.APPLY);
+                throw anyExp;
+              }
+              return applying.whenComplete(
+                new BiConsumer<ClusteringResult, Throwable>() {
+                  public void accept(ClusteringResult applied, Throwable failure) {
+                    result[0] = applied;
+                    exitStage(admission, AdmissionController.Stage.APPLY);
+                  }
+                });
+            }
+          }, build, prepareApply);
+        }
+        pipeline.run(PIPELINE_EXECUTOR);
+        return result[0];
     } catch(Exception anyExp) {
-      anyExp.printStackTrace(System.out);
+      // a broken connection goes back to the pool as closed
+      ctx.recordFailure(anyExp);
+      throw anyExp;
     } finally {
+      // steps that were skipped after a failure
+      exitBuildStage(admission, holdsBuildStage);
+      closePeer(applyDataPeer, null);
+      // 5. Clean up the objects created by this run, on two connections 
+      //    if one is free
+      reportPhase(ctx, ClusteringProgress.PHASE_CLEAN);
+      ClusteringContext cleanPeer = ctx.borrowPeer(0L);
       try {
-        // 7. Logout from the Data Mining Engine
-        m_dmeConn.close();
-      } catch(Exception anyExp1) { }//Ignore
+        clean(ctx, cleanPeer);
+      } finally {
+        if ( cleanPeer != null )
+          cleanPeer.close();
+      }
+      // 6. Logout from the Data Mining Engine or return the connection
+      ctx.close();
     }
-}
+  }
+
 
   /**
-   * Initialize all object factories used in the demo program.
+   * Builds the model of the in-process algorithm with the builder 
+   * <code>ClusteringOptions.getInProcessBuild</code> selects. The columnar 
+   * copy of the build data is kept for later runs until the source data 
+   * changes (see <code>getStoreDir</code>).
+   */
+  private static LocalClusteringModel buildLocalModel(ClusteringContext ctx) 
+    throws Exception
+  {
+    switch ( ctx.getOptions().getInProcessBuild() ) {
+      case BISECTING:
+        return buildModelBisecting(ctx);
+      case STREAMING:
+        return buildModelStreaming(ctx, MiniBatchKMeans.DEFAULT_BATCH_SIZE);
+      case COMPACT:
+        return buildModelCompact(ctx, CompactDataset.Encoding.UINT16);
+      case COLUMNAR:
+        return buildModelFromStore(ctx, 
+          getStoreDir(ctx, "MINING_DATA_BUILD_V"));
+      default:
+        return buildModelInProcess(ctx);
+    }
+  }
+
+  /**
+   * Returns the directory of the columnar copy of a source view at the 
+   * current watermark of the source data (see 
+   * <code>readSourceWatermark</code>): 
+   * <code>storeDirectory/dataURI/buildRows_applyRows_maxTimestamp</code>. 
+   * A copy extracted there is opened by every later run until the 
+   * watermark changes; the copies of the view at other watermarks are 
+   * removed here, or by a later run if one is still in use.
    * 
-   * @exception JDMException if factory initalization failed
+   * @param ctx context of the current run
+   * @param dataURI name of the source view
+   * @return the directory of the copy, which may not exist yet
+   * @exception SQLException if the watermark could not be read
    */
-  public static void initFactories() throws JDMException
+  public static File getStoreDir(ClusteringContext ctx, String dataURI) 
+    throws SQLException
   {
-    m_pdsFactory = (PhysicalDataSetFactory)m_dmeConn.getFactory(
-      "javax.datamining.data.PhysicalDataSet");
-    m_paFactory = (PhysicalAttributeFactory)m_dmeConn.getFactory(
-      "javax.datamining.data.PhysicalAttribute");
-    m_clusFactory = (ClusteringSettingsFactory)m_dmeConn.getFactory(
-      "javax.datamining.clustering.ClusteringSettings");
-    m_kmeansFactory = (KMeansSettingsFactory)m_dmeConn.getFactory(
-      "javax.datamining.algorithm.kmeans.KMeansSettings");
-    m_buildFactory = (BuildTaskFactory)m_dmeConn.getFactory(
-      "javax.datamining.task.BuildTask");
-    m_dsApplyFactory = (DataSetApplyTaskFactory)m_dmeConn.getFactory(
-      "javax.datamining.task.apply.DataSetApplyTask");
-    m_applySettingsFactory = (ClusteringApplySettingsFactory)m_dmeConn.getFactory(
-      "javax.datamining.clustering.ClusteringApplySettings");
-    m_normalizeXformFactory = (OraNormalizeTransformFactory)m_dmeConn.getFactory(
-      "oracle.dmt.jdm.transform.normalize.OraNormalizeTransform");
-    m_xformTaskFactory = (OraTransformationTaskFactory)m_dmeConn.getFactory(
-      "oracle.dmt.jdm.task.OraTransformationTask");
+      ClusteringOptions options = ctx.getOptions();
+      ModelCache.Watermark watermark = readSourceWatermark(ctx, 
+        options.getTimestampColumn());
+      File viewDir = new File(options.getStoreDirectory(), dataURI);
+      String current = watermark.getBuildRowCount() + "_" + 
+        watermark.getApplyRowCount() + "_" + 
+        ( watermark.getMaxTimestamp() == Long.MIN_VALUE ? "none" : 
+          String.valueOf(watermark.getMaxTimestamp()) );
+      synchronized ( STORE_LOCK ) {
+        File[] stores = viewDir.listFiles();
+        for ( int i = 0; stores != null && i < stores.length; i++ ) {
+          if ( stores[i].isDirectory() && 
+               !stores[i].getName().equals(current) ) {
+            if ( ColumnarStore.delete(stores[i]) )
+              System.out.println("Removed outdated store " + stores[i]);
+            else
+              System.out.println("Cannot remove store " + stores[i]);
+          }
+        }
+      }
+      return new File(viewDir, current);
+  }
+
+  /**
+   * Takes a BUILD permit if one is free. A run does not wait for one: it 
+   * would hold its connection and a pipeline thread meanwhile, so it fails 
+   * with <code>StageBusyException</code> and its job is queued again.
+   */
+  private static void enterBuildStage(AdmissionController admission, 
+    boolean[] holdsBuildStage) throws InterruptedException
+  {
+    enterStage(admission, AdmissionController.Stage.BUILD, 0L);
+    holdsBuildStage[0] = true;
+  }
+
+  private static void exitBuildStage(AdmissionController admission, 
+    boolean[] holdsBuildStage) 
+  {
+    if ( holdsBuildStage[0] ) {
+      holdsBuildStage[0] = false;
+      exitStage(admission, AdmissionController.Stage.BUILD);
+    }
+  }
+
+  private static void closePeer(ClusteringContext[] peer, Throwable failure) {
+    if ( peer[0] != null ) {
+      peer[0].recordFailure(failure);
+      peer[0].close();
+      peer[0] = null;
+    }
+  }
+
+  private static void reportPhase(ClusteringContext ctx, String phase) {
+    if ( ctx.getProgress() != null )
+      ctx.getProgress().phase(phase);
+  }
+
+  private static void enterStage(AdmissionController admission, 
+    AdmissionController.Stage stage, long timeoutMillis) 
+    throws InterruptedException
+  {
+    if ( admission != null && !admission.tryAcquire(stage, timeoutMillis) )
+      throw new StageBusyException(stage, timeoutMillis);
+  }
+
+  private static void exitStage(AdmissionController admission, 
+    AdmissionController.Stage stage)
+  {
+    if ( admission != null )
+      admission.release(stage);
   }
 
   /**
@@ -206,77 +634,290 @@ public static void beginClustering(String username, String password, String url,
    * 
    *   Unprepared Data        --->  Normalized Data
    *   ---------------------        ---------------------------
-   *   MINING_DATA_BUILD_V          KM_NORM_DATA_BUILD_JDM
-   *   MINING_DATA_TEST_V           KM_NORM_DATA_APPLY_JDM
+   *   MINING_DATA_BUILD_V          KM_NORM_DATA_BUILD_JDM_<run tag>
+   *   MINING_DATA_TEST_V           KM_NORM_DATA_APPLY_JDM_<run tag>
    *   
+   * @param ctx context of the current run
    * @exception JDMException if data normalization failed
    */
-  public static void prepareData() throws JDMException 
+  public static void prepareData(ClusteringContext ctx) throws JDMException 
   {
       System.out.println("---------------------------------------------------");    
       System.out.println("--- Prepare Data                                ---");
       System.out.println("---------------------------------------------------");
+      // 1. Prepare build data
+      String normalizationDefinitionTable = prepareBuildData(ctx);
+      // 2. Prepare apply data
+      prepareApplyData(ctx, normalizationDefinitionTable);
+  }
+
+  /**
+   *   This method normalizes the build data, the first half of 
+   * <code>prepareData</code>. It computes the shift and scale of every 
+   * attribute and creates the view KM_NORM_DATA_BUILD_JDM_<run tag>.
+   * 
+   * @param ctx context of the current run
+   * @return name of the table holding the normalization definition, which 
+   *         is all that the apply data normalization needs
+   * @exception JDMException if data normalization failed
+   */
+  public static String prepareBuildData(ClusteringContext ctx) 
+    throws JDMException 
+  {
+      OraNormalizeTransformImpl buildDataXform = createBuildDataXform(ctx);
+      OraTransformationTask xformTask = 
+        ctx.getFactories().getTransformationTaskFactory().create(buildDataXform);
+      executeTask(ctx, xformTask, ctx.objectName("kmPrepareBuildTask_jdm"));    
+      return buildDataXform.getNormalizationDefinitionTable();
+  }
+
+  /**
+   *   This method starts the build data normalization of 
+   * <code>prepareBuildData</code> and returns without waiting for it.
+   * 
+   * @param ctx context of the current run
+   * @return future of the name of the normalization definition table
+   * @exception JDMException if the normalization could not be started
+   */
+  public static CompletableFuture<String> prepareBuildDataAsync(
+    ClusteringContext ctx) throws JDMException 
+  {
+      final OraNormalizeTransformImpl buildDataXform = createBuildDataXform(ctx);
+      OraTransformationTask xformTask = 
+        ctx.getFactories().getTransformationTaskFactory().create(buildDataXform);
+      return runTaskAsync(ctx, xformTask, 
+        ctx.objectName("kmPrepareBuildTask_jdm")).thenApply(
+        new Function<Boolean, String>() {
+          public String apply(Boolean isTaskSuccess) {
+            return buildDataXform.getNormalizationDefinitionTable();
+          }
+        });
+  }
+
+  private static OraNormalizeTransformImpl createBuildDataXform(
+    ClusteringContext ctx) throws JDMException 
+  {
       boolean isOutputAsView = false;
       String inputDataURI = null;
       String outputDataURI = null; 
-      String inputNormalizationDefinitionTable = null;
-      OraTransformationTask xformTask = null;
-      // 1. Prepare build data
       isOutputAsView = true;
       inputDataURI = "MINING_DATA_BUILD_V";
-      outputDataURI = "KM_NORM_DATA_BUILD_JDM";     
+      outputDataURI = ctx.objectName("KM_NORM_DATA_BUILD_JDM");     
       OraNormalizeTransformImpl buildDataXform = 
-          (OraNormalizeTransformImpl)m_normalizeXformFactory.create(
+          (OraNormalizeTransformImpl)ctx.getFactories().getNormalizeTransformFactory().create(
                               inputDataURI, outputDataURI, 
-                              isOutputAsView, OraNormalizeType.min_max, new Integer(6));
-      String[] excludeColumnList = {
-                         "CUST_ID",
-                         "AFFINITY_CARD",
-                         "BULK_PACK_DISKETTES",
-                         "FLAT_PANEL_MONITOR",
-                         "HOME_THEATER_PACKAGE",
-                         "BOOKKEEPING_APPLICATION",
-                         "PRINTER_SUPPLIES",
-                         "Y_BOX_GAMES",
-                         "OS_DOC_SET_KANJI",
-                         };  
-      
-      buildDataXform.setExcludeColumnList(excludeColumnList);
-      xformTask = m_xformTaskFactory.create(buildDataXform);
-      executeTask(xformTask, "kmPrepareBuildTask_jdm");    
-      // 2. Prepare apply data
-      isOutputAsView = true;
-      inputDataURI = "MINING_DATA_APPLY_V";
-      outputDataURI = "KM_NORM_DATA_APPLY_JDM";
-      inputNormalizationDefinitionTable = buildDataXform.getNormalizationDefinitionTable();
+                              isOutputAsView, OraNormalizeType.min_max, 
+                              new Integer(NORMALIZE_PRECISION));
+      buildDataXform.setExcludeColumnList(NORMALIZE_EXCLUDE_COLUMNS);
+      return buildDataXform;
+  }
+
+  /**
+   *   This method normalizes the apply data with the shift and scale 
+   * computed for the build data, the second half of <code>prepareData</code>, 
+   * and creates the view KM_NORM_DATA_APPLY_JDM_<run tag>. It does not need 
+   * the model, so it can run while the model is built.
+   * 
+   * @param ctx context of the current run
+   * @param inputNormalizationDefinitionTable table returned by 
+   *        <code>prepareBuildData</code>
+   * @exception JDMException if data normalization failed
+   */
+  public static void prepareApplyData(ClusteringContext ctx, 
+    String inputNormalizationDefinitionTable) throws JDMException 
+  {
+      executeTask(ctx, createApplyDataTask(ctx, inputNormalizationDefinitionTable), 
+        ctx.objectName("kmcPrepareApplyTask_jdm"));  
+  }
+
+  /**
+   *   This method starts the apply data normalization of 
+   * <code>prepareApplyData</code> and returns without waiting for it.
+   * 
+   * @param ctx context of the current run
+   * @param inputNormalizationDefinitionTable table returned by 
+   *        <code>prepareBuildData</code>
+   * @return future completed when the apply data is normalized
+   * @exception JDMException if the normalization could not be started
+   */
+  public static CompletableFuture<Boolean> prepareApplyDataAsync(
+    ClusteringContext ctx, String inputNormalizationDefinitionTable) 
+    throws JDMException 
+  {
+      return runTaskAsync(ctx, 
+        createApplyDataTask(ctx, inputNormalizationDefinitionTable), 
+        ctx.objectName("kmcPrepareApplyTask_jdm"));  
+  }
+
+  private static OraTransformationTask createApplyDataTask(
+    ClusteringContext ctx, String inputNormalizationDefinitionTable) 
+    throws JDMException 
+  {
+      boolean isOutputAsView = true;
+      String inputDataURI = "MINING_DATA_APPLY_V";
+      String outputDataURI = ctx.objectName("KM_NORM_DATA_APPLY_JDM");
       OraNormalizeTransformImpl applyDataXform = 
-          (OraNormalizeTransformImpl)m_normalizeXformFactory.create(
+          (OraNormalizeTransformImpl)ctx.getFactories().getNormalizeTransformFactory().create(
                               inputDataURI, outputDataURI, isOutputAsView, 
                               inputNormalizationDefinitionTable);
-      xformTask = m_xformTaskFactory.create(applyDataXform);
-      executeTask(xformTask, "kmcPrepareApplyTask_jdm");  
+      return ctx.getFactories().getTransformationTaskFactory().create(applyDataXform);
+  }
+
+  /**
+   *   This method normalizes build data extracted from MINING_DATA_BUILD_V 
+   * inside the Java VM, with the min_max definition, precision and exclude 
+   * list of <code>prepareBuildData</code> (see <code>MinMaxNormalizer</code>). 
+   * No view and no mining engine task are created, and the apply data 
+   * needs no preparation at all: its cases are normalized with the 
+   * returned definition while they are scored.
+   * 
+   * @param buildData raw build data; it is normalized in place
+   * @return the normalization definition of the build data
+   */
+  public static MinMaxNormalizer prepareBuildDataInProcess(
+    MiningDataset buildData) 
+  {
+      long start = System.currentTimeMillis();
+      MinMaxNormalizer normalizer = MinMaxNormalizer.fit(buildData, 
+        NORMALIZE_EXCLUDE_COLUMNS, NORMALIZE_PRECISION);
+      normalizer.normalize(buildData);
+      System.out.println("Normalized " + buildData.getRowCount() + 
+        " build rows in " + (System.currentTimeMillis() - start) + " ms");
+      return normalizer;
+  }
+
+  /**
+   *   This method normalizes compact build data like the method above. The 
+   * definition is computed from the decoded values; 16-bit and 8-bit codes 
+   * keep their precision, as only their grid is normalized.
+   * 
+   * @param buildData raw build data; it is normalized in place
+   * @return the normalization definition of the build data
+   */
+  public static MinMaxNormalizer prepareBuildDataInProcess(
+    CompactDataset buildData) 
+  {
+      long start = System.currentTimeMillis();
+      MinMaxNormalizer normalizer = MinMaxNormalizer.fit(buildData, 
+        NORMALIZE_EXCLUDE_COLUMNS, NORMALIZE_PRECISION);
+      normalizer.normalize(buildData);
+      System.out.println("Normalized " + buildData.getRowCount() + 
+        " build rows in " + (System.currentTimeMillis() - start) + " ms");
+      return normalizer;
+  }
+
+  /**
+   *   This method computes the normalization definition of streamed build 
+   * data like the methods above, in one pass over the source, which is 
+   * then rewound. The rows are normalized while a build reads them through 
+   * <code>MinMaxNormalizer.normalizing</code>.
+   * 
+   * @param buildData raw build data
+   * @param batchSize number of rows read at a time
+   * @return the normalization definition of the build data
+   * @exception IOException if the build data could not be read
+   */
+  public static MinMaxNormalizer prepareBuildDataInProcess(
+    RowBatchSource buildData, int batchSize) throws IOException 
+  {
+      long start = System.currentTimeMillis();
+      MinMaxNormalizer normalizer = MinMaxNormalizer.fit(buildData, 
+        NORMALIZE_EXCLUDE_COLUMNS, NORMALIZE_PRECISION, batchSize);
+      System.out.println("Computed the normalization of the build rows in " + 
+        (System.currentTimeMillis() - start) + " ms");
+      return normalizer;
   }
 
   /**
    *   This method illustrates how to build a mining model using 
    * "KM_NORM_DATA_BUILD_JDM" dataset with the kMeans algorithm.
    * 
-   * After completing the build task, the model named "kmModel_jdm" will 
-   * be created.
+   * After completing the build task, the model named "kmModel_jdm_<run tag>" 
+   * will be created.
    * 
+   * @param ctx context of the current run
    * @exception JDMException if model build failed
    */
-  public static void buildModel() throws JDMException 
+  public static void buildModel(ClusteringContext ctx) throws JDMException 
+  {
+      executeTask(ctx, createBuildTask(ctx), ctx.objectName("kmBuildTask_jdm")); 
+      // 5. Restore the model from the DME and explore the details of the model
+      retrieveModel(ctx);
+  }
+
+  /**
+   *   This method starts the model build of <code>buildModel</code> and 
+   * returns without waiting for it. The model is retrieved on the pipeline 
+   * executor once the build task has ended.
+   * 
+   * @param ctx context of the current run
+   * @return future completed when the model is built and retrieved
+   * @exception JDMException if the build could not be started
+   */
+  public static CompletableFuture<Void> buildModelAsync(
+    final ClusteringContext ctx) throws JDMException 
+  {
+      return runTaskAsync(ctx, createBuildTask(ctx), 
+        ctx.objectName("kmBuildTask_jdm")).thenApplyAsync(
+        new Function<Boolean, Void>() {
+          public Void apply(Boolean isTaskSuccess) {
+            try {
+              retrieveModel(ctx);
+              return null;
+            } catch(JDMException jdmExp) {
+              throw new CompletionException(jdmExp);
+            }
+          }
+        }, PIPELINE_EXECUTOR);
+  }
+
+  private static void retrieveModel(ClusteringContext ctx) throws JDMException 
   {
+      ClusteringModel model = (ClusteringModel)ctx.getConnection().retrieveObject(
+        ctx.objectName("kmModel_jdm"), NamedObject.model);
+      displayKMModelDetails(model);
+  }
+
+  private static BuildTask createBuildTask(ClusteringContext ctx) 
+    throws JDMException 
+  {
+      MiningFactories factories = ctx.getFactories();
+      javax.datamining.resource.Connection dmeConn = ctx.getConnection();
       // 1. Create & save PhysicalDataSpecification      
-      PhysicalDataSet buildData = m_pdsFactory.create("KM_NORM_DATA_BUILD_JDM", false);
-      PhysicalAttribute pa = m_paFactory.create("cust_id", 
+      PhysicalDataSet buildData = factories.getPhysicalDataSetFactory().create(
+        ctx.objectName("KM_NORM_DATA_BUILD_JDM"), false);
+      PhysicalAttribute pa = factories.getPhysicalAttributeFactory().create("cust_id", 
         AttributeDataType.integerType, PhysicalAttributeRole.caseId );
       buildData.addAttribute(pa);
-      m_dmeConn.saveObject("kmBuildData_jdm", buildData, true);
+      dmeConn.saveObject(ctx.objectName("kmBuildData_jdm"), buildData, true);
       // 2. Create & save Mining Function Settings
+      // 3. Create ClusteringSettings
+      ClusteringSettings buildSettings = createBuildSettings(ctx);
+      dmeConn.saveObject(ctx.objectName("kmBuildSettings_jdm"), buildSettings, true);
+      // 4. Create, save & execute Build Task      
+      BuildTask buildTask = factories.getBuildTaskFactory().create(
+                     ctx.objectName("kmBuildData_jdm"), //Build data specification
+                     ctx.objectName("kmBuildSettings_jdm"), //Mining function settings name
+                     ctx.objectName("kmModel_jdm") //Mining model name
+                     );                          
+      buildTask.setDescription(ctx.objectName("kmBuildTask_jdm"));
+      return buildTask;
+  }        
+  
+  /**
+   * Creates the clustering settings with the kMeans algorithm settings used 
+   * by both the mining engine build and the in-process build.
+   * 
+   * @param ctx context of the current run
+   * @return clustering settings holding the kMeans algorithm settings
+   * @exception JDMException if the settings could not be created
+   */
+  public static ClusteringSettings createBuildSettings(ClusteringContext ctx) 
+    throws JDMException 
+  {
+      MiningFactories factories = ctx.getFactories();
       // Create kMeans algorithm settings
-      OraKMeansSettings kmAlgo = (OraKMeansSettings)m_kmeansFactory.create();
+      OraKMeansSettings kmAlgo = (OraKMeansSettings)factories.getKMeansSettingsFactory().create();
       kmAlgo.setDistanceFunction(ClusteringDistanceFunction.euclidean);
       kmAlgo.setMaxNumberOfIterations(10);
       kmAlgo.setMinErrorTolerance(0.01);
@@ -285,66 +926,652 @@ public static void beginClustering(String username, String password, String url,
       kmAlgo.setBlockGrowth(2);
       kmAlgo.setMinPercentageAtrrSupport(0.1);
       
-      // 3. Create ClusteringSettings
-      ClusteringSettings buildSettings = m_clusFactory.create();
+      ClusteringSettings buildSettings = factories.getClusteringSettingsFactory().create();
       buildSettings.setAlgorithmSettings(kmAlgo);
       buildSettings.setMaxNumberOfClusters(10);
-      m_dmeConn.saveObject("kmBuildSettings_jdm", buildSettings, true);
-      // 4. Create, save & execute Build Task      
-      BuildTask buildTask = m_buildFactory.create(
-                     "kmBuildData_jdm", //Build data specification
-                     "kmBuildSettings_jdm", //Mining function settings name
-                     "kmModel_jdm" //Mining model name
-                     );                          
-      buildTask.setDescription("kmBuildTask_jdm");
-      executeTask(buildTask, "kmBuildTask_jdm"); 
-      // 5. Restore the model from the DME and explore the details of the model
-      ClusteringModel model = (ClusteringModel)
-        m_dmeConn.retrieveObject("kmModel_jdm", NamedObject.model);
+      return buildSettings;
+  }
+
+  /**
+   * Creates the configuration of the in-process builds from the settings of 
+   * <code>createBuildSettings</code>, so that every builder uses the values 
+   * of the mining engine build.
+   * 
+   * @param ctx context of the current run
+   * @return configuration with the cluster count, iterations and error 
+   *         tolerance of the kMeans build settings
+   * @exception JDMException if the settings could not be created
+   */
+  public static KMeansConfig createBuildConfig(ClusteringContext ctx) 
+    throws JDMException 
+  {
+      ClusteringSettings buildSettings = createBuildSettings(ctx);
+      return KMeansConfig.fromSettings(
+        (OraKMeansSettings)buildSettings.getAlgorithmSettings(), buildSettings);
+  }
+
+  /**
+   *   This method builds a kMeans model inside the Java VM instead of the 
+   * mining engine. The raw build data MINING_DATA_BUILD_V is read once over 
+   * JDBC, normalized by <code>prepareBuildDataInProcess</code> and clustered 
+   * by <code>KMeansEngine</code> with the same settings as 
+   * <code>buildModel</code>. No view and no model object are created in 
+   * the database. The model keeps the normalization definition, so 
+   * <code>applyModelInProcess</code>, a <code>MicroBatchScorer</code> and a 
+   * model file written from it score raw cases.
+   * 
+   * @param ctx context of the current run
+   * @return the model built in-process
+   * @exception JDMException if the settings could not be created
+   * @exception SQLException if the build data could not be read
+   */
+  public static LocalClusteringModel buildModelInProcess(ClusteringContext ctx) 
+    throws JDMException, SQLException 
+  {
+      KMeansConfig config = createBuildConfig(ctx);
+      config.setAccelerated(true);
+      config.setInitialization(KMeansConfig.Initialization.KMEANS_PARALLEL);
+      // 1. Extract and normalize the build data
+      MiningDataset buildData = MiningDataLoader.load(ctx.getDatabaseConnection(), 
+        "MINING_DATA_BUILD_V", "CUST_ID", null);
+      MinMaxNormalizer normalizer = prepareBuildDataInProcess(buildData);
+      // 2. Build the model and explore its details
+      KMeansEngine engine = new KMeansEngine(config);
+      engine.setProgressListener(ctx.getProgress());
+      LocalClusteringModel model = engine.build(buildData, 
+        ctx.objectName("kmModel_jdm"));
+      model.setNormalizer(normalizer.forAttributes(model.getAttributeNames()));
       displayKMModelDetails(model);
-  }        
-  
+      return model;
+  }
+
+  /**
+   *   This method builds a hierarchical kMeans model inside the Java VM 
+   * from the build data normalized like in <code>buildModelInProcess</code>. 
+   * Like the mining engine build configured in 
+   * <code>createBuildSettings</code>, it grows a cluster tree by splitting 
+   * the cluster with the largest variance until there are 
+   * MaxNumberOfClusters leaves (see <code>BisectingKMeans</code>), so the 
+   * tree can be explored like the one of a database model.
+   * 
+   * @param ctx context of the current run
+   * @return the model built in-process
+   * @exception JDMException if the settings could not be created
+   * @exception SQLException if the build data could not be read
+   */
+  public static LocalClusteringModel buildModelBisecting(ClusteringContext ctx) 
+    throws JDMException, SQLException 
+  {
+      KMeansConfig config = createBuildConfig(ctx);
+      // Same as OraSplitCriterion.clusterVariance
+      config.setSplitCriterion(KMeansConfig.SplitCriterion.VARIANCE);
+      // 1. Extract and normalize the build data
+      MiningDataset buildData = MiningDataLoader.load(ctx.getDatabaseConnection(), 
+        "MINING_DATA_BUILD_V", "CUST_ID", null);
+      MinMaxNormalizer normalizer = prepareBuildDataInProcess(buildData);
+      // 2. Build the model and explore its details
+      LocalClusteringModel model = new BisectingKMeans(config).build(buildData, 
+        ctx.objectName("kmModel_jdm"));
+      model.setNormalizer(normalizer.forAttributes(model.getAttributeNames()));
+      displayKMModelDetails(model);
+      return model;
+  }
+
+  /**
+   *   This method builds a kMeans model inside the Java VM like 
+   * <code>buildModelInProcess</code>, but streams the rows of 
+   * MINING_DATA_BUILD_V in batches instead of loading them, so the build 
+   * data does not need to fit in memory. A first pass computes the 
+   * normalization definition, and every later pass normalizes the rows as 
+   * they are read. The model is built by <code>MiniBatchKMeans</code>, where 
+   * one iteration is one pass over the data.
+   * 
+   * @param ctx context of the current run
+   * @param batchSize number of rows read and assigned at a time
+   * @return the model built in-process
+   * @exception JDMException if the settings could not be created
+   * @exception SQLException if the build data could not be opened
+   * @exception IOException if the build data could not be read
+   */
+  public static LocalClusteringModel buildModelStreaming(ClusteringContext ctx, 
+    int batchSize) throws JDMException, SQLException, IOException 
+  {
+      KMeansConfig config = createBuildConfig(ctx);
+      // 1. Open the build data as a stream of row batches
+      RowBatchSource buildData = new JdbcRowBatchSource(
+        ctx.getDatabaseConnection(), "MINING_DATA_BUILD_V", "CUST_ID", null, 
+        batchSize);
+      try {
+        // 2. Build the model from the normalized rows and explore its details
+        return buildModelFromBatches(ctx, config, buildData, batchSize);
+      } finally {
+        buildData.close();
+      }
+  }
+
+  /**
+   * Normalizes streamed build data while <code>MiniBatchKMeans</code> builds 
+   * a model from it, and keeps the normalization definition with the model.
+   */
+  private static LocalClusteringModel buildModelFromBatches(
+    ClusteringContext ctx, KMeansConfig config, RowBatchSource buildData, 
+    int batchSize) throws IOException 
+  {
+      MinMaxNormalizer normalizer = prepareBuildDataInProcess(buildData, 
+        batchSize);
+      MiniBatchKMeans engine = new MiniBatchKMeans(config, batchSize);
+      engine.setProgressListener(ctx.getProgress());
+      LocalClusteringModel model = engine.build(
+        normalizer.normalizing(buildData), ctx.objectName("kmModel_jdm"));
+      model.setNormalizer(normalizer.forAttributes(model.getAttributeNames()));
+      displayKMModelDetails(model);
+      return model;
+  }
+
+  /**
+   *   This method saves an in-process model with <code>ModelFile.write</code>, 
+   * so that a scoring node can load it with <code>loadModelFile</code>. 
+   * Runs that save to the same file do so one at a time; the last one 
+   * replaces the models of the others.
+   * 
+   * @param model model to save
+   * @param modelFile file to write
+   * @exception IOException if the file could not be written
+   */
+  public static void saveModelFile(LocalClusteringModel model, File modelFile) 
+    throws IOException
+  {
+      long start = System.currentTimeMillis();
+      synchronized ( MODEL_FILE_LOCK ) {
+        ModelFile.write(model, modelFile);
+      }
+      System.out.println("Saved model " + model.getName() + " to " + 
+        modelFile + " in " + (System.currentTimeMillis() - start) + " ms");
+  }
+
+  /**
+   *   This method loads an in-process model saved with 
+   * <code>ModelFile.write</code>, e.g. by the node that built it, so that a 
+   * scoring node can start from the file without retrieving "kmModel_jdm" 
+   * from the mining engine.
+   * 
+   * @param modelFile file written by <code>ModelFile.write</code>
+   * @return the loaded model
+   * @exception IOException if the file could not be read or is damaged
+   */
+  public static LocalClusteringModel loadModelFile(File modelFile) 
+    throws IOException
+  {
+      long start = System.currentTimeMillis();
+      LocalClusteringModel model = ModelFile.load(modelFile);
+      System.out.println("Loaded model " + model.getName() + " from " + 
+        modelFile + " in " + (System.currentTimeMillis() - start) + " ms");
+      return model;
+  }
+
+  /**
+   *   This method builds a kMeans model inside the Java VM from a local 
+   * columnar copy of MINING_DATA_BUILD_V (see <code>ColumnarStore</code>). 
+   * The first call extracts the raw data over JDBC into 
+   * <code>storeDir</code>; later builds with the same directory (see 
+   * <code>getStoreDir</code>), e.g. what-if experiments with other 
+   * settings, open the memory-mapped columns in milliseconds and stream the 
+   * rows from them with <code>MiniBatchKMeans</code>, without holding them 
+   * on the heap. The rows are normalized in the Java VM like in 
+   * <code>buildModelStreaming</code>.
+   * 
+   * @param ctx context of the current run
+   * @param storeDir directory of the columnar copy of the build data
+   * @return the model built in-process
+   * @exception JDMException if the settings could not be created
+   * @exception SQLException if the build data could not be extracted
+   * @exception IOException if the store could not be written or read
+   */
+  public static LocalClusteringModel buildModelFromStore(ClusteringContext ctx, 
+    File storeDir) throws JDMException, SQLException, IOException 
+  {
+      KMeansConfig config = createBuildConfig(ctx);
+      // 1. Open the columnar copy of the build data, extracting it if needed
+      ColumnarStore store = openStore(ctx, "MINING_DATA_BUILD_V", storeDir);
+      // 2. Build the model from the mapped columns and explore its details
+      RowBatchSource buildData = store.newBatchSource();
+      try {
+        return buildModelFromBatches(ctx, config, buildData, 
+          MiniBatchKMeans.DEFAULT_BATCH_SIZE);
+      } finally {
+        buildData.close();
+      }
+  }
+
+  /**
+   * Opens the columnar copy of a table or view in <code>storeDir</code>, 
+   * extracting the table into it first if there is no complete copy yet. 
+   * Other runs wait while a copy is extracted rather than extracting it 
+   * again. 
+   * The values are stored as floats, about 7 significant digits, which is 
+   * more than the precision of the normalization definition.
+   * 
+   * @param ctx context of the current run
+   * @param dataURI name of the table or view
+   * @param storeDir directory of the columnar copy
+   * @return the opened store
+   * @exception SQLException if the data could not be extracted
+   * @exception IOException if the store could not be written or read
+   */
+  public static ColumnarStore openStore(ClusteringContext ctx, String dataURI, 
+    File storeDir) throws SQLException, IOException
+  {
+      synchronized ( STORE_LOCK ) {
+        return openStoreLocked(ctx, dataURI, storeDir);
+      }
+  }
+
+  private static ColumnarStore openStoreLocked(ClusteringContext ctx, 
+    String dataURI, File storeDir) throws SQLException, IOException
+  {
+      long start = System.currentTimeMillis();
+      if ( ColumnarStore.exists(storeDir) ) {
+        ColumnarStore store = ColumnarStore.open(storeDir);
+        System.out.println("Opened store " + storeDir + " (" + 
+          store.getRowCount() + " rows) in " + 
+          (System.currentTimeMillis() - start) + " ms");
+        return store;
+      }
+      JdbcRowBatchSource source = new JdbcRowBatchSource(
+        ctx.getDatabaseConnection(), dataURI, "CUST_ID", null, 
+        MiniBatchKMeans.DEFAULT_BATCH_SIZE);
+      // the store fills in missing values with the means of whole columns
+      source.setImputeMissing(false);
+      try {
+        ColumnarStore store = ColumnarStore.write(storeDir, source, 
+          ColumnarStore.ColumnType.FLOAT, MiniBatchKMeans.DEFAULT_BATCH_SIZE);
+        System.out.println("Extracted " + dataURI + " (" + store.getRowCount() + 
+          " rows) into " + storeDir + " in " + 
+          (System.currentTimeMillis() - start) + " ms");
+        return store;
+      } finally {
+        source.close();
+      }
+  }
+
+  /**
+   *   This method builds a kMeans model inside the Java VM like 
+   * <code>buildModelInProcess</code>, but keeps the build data as floats or 
+   * as 16-bit or 8-bit codes (see <code>CompactDataset</code>), so 2 to 8 
+   * times as many rows fit in memory. The raw data is encoded while it is 
+   * read and then normalized, which moves the grid of the codes but keeps 
+   * their precision.
+   * 
+   * @param ctx context of the current run
+   * @param encoding storage of the build data values
+   * @return the model built in-process
+   * @exception JDMException if the settings could not be created
+   * @exception SQLException if the build data could not be read
+   */
+  public static LocalClusteringModel buildModelCompact(ClusteringContext ctx, 
+    CompactDataset.Encoding encoding) throws JDMException, SQLException 
+  {
+      KMeansConfig config = createBuildConfig(ctx);
+      config.setInitialization(KMeansConfig.Initialization.KMEANS_PARALLEL);
+      // 1. Extract the build data in the compact encoding and normalize it
+      CompactDataset buildData = MiningDataLoader.loadCompact(
+        ctx.getDatabaseConnection(), "MINING_DATA_BUILD_V", "CUST_ID", null, 
+        encoding);
+      System.out.println("Build data: " + buildData.getRowCount() + " rows, " + 
+        buildData.getValueBytes() + " bytes as " + encoding);
+      MinMaxNormalizer normalizer = prepareBuildDataInProcess(buildData);
+      // 2. Build the model and explore its details
+      KMeansEngine engine = new KMeansEngine(config);
+      engine.setProgressListener(ctx.getProgress());
+      LocalClusteringModel model = engine.build(buildData, 
+        ctx.objectName("kmModel_jdm"));
+      model.setNormalizer(normalizer.forAttributes(model.getAttributeNames()));
+      displayKMModelDetails(model);
+      return model;
+  }
+
   /**
    * 
    *    For a descriptive mining function like Clustering, "Scoring" involves
    *  providing the probability values for each cluster.
    *    After completing the apply task, an apply output table 
-   * "km_apply_output_jdm" will be created at the user specfied location.
+   * "km_apply_output_jdm_<run tag>" will be created at the user specfied 
+   * location.
    * 
+   * @param ctx context of the current run
+   * @return scoring results read back from the apply output table
    * @exception JDMException if model apply failed
    */
-  public static void applyModel() throws JDMException
+  public static ClusteringResult applyModel(ClusteringContext ctx) throws JDMException
+  {    
+      executeTask(ctx, createApplyTask(ctx), ctx.objectName("kmApplyTask_jdm"));
+      //4. Display results
+      ClusteringResult result = new ClusteringResult();
+      displayScoringResults(ctx, result);
+      return result;
+  } 
+
+  /**
+   *   This method starts the apply task of <code>applyModel</code> and 
+   * returns without waiting for it. The results are read on the pipeline 
+   * executor once the task has ended.
+   * 
+   * @param ctx context of the current run
+   * @return future of the scoring results
+   * @exception JDMException if the apply task could not be started
+   */
+  public static CompletableFuture<ClusteringResult> applyModelAsync(
+    final ClusteringContext ctx) throws JDMException
+  {    
+      return runTaskAsync(ctx, createApplyTask(ctx), 
+        ctx.objectName("kmApplyTask_jdm")).thenApplyAsync(
+        new Function<Boolean, ClusteringResult>() {
+          public ClusteringResult apply(Boolean isTaskSuccess) {
+            ClusteringResult result = new ClusteringResult();
+            displayScoringResults(ctx, result);
+            return result;
+          }
+        }, PIPELINE_EXECUTOR);
+  } 
+
+  private static DataSetApplyTask createApplyTask(ClusteringContext ctx) 
+    throws JDMException
   {    
+      MiningFactories factories = ctx.getFactories();
+      javax.datamining.resource.Connection dmeConn = ctx.getConnection();
       //1. Create & save PhysicalDataSpecification      
-      PhysicalDataSet applyData = m_pdsFactory.create(
-        "KM_NORM_DATA_APPLY_JDM", false );
-      PhysicalAttribute pa = m_paFactory.create("cust_id", 
+      PhysicalDataSet applyData = factories.getPhysicalDataSetFactory().create(
+        ctx.objectName("KM_NORM_DATA_APPLY_JDM"), false );
+      PhysicalAttribute pa = factories.getPhysicalAttributeFactory().create("cust_id", 
         AttributeDataType.integerType, PhysicalAttributeRole.caseId );
       applyData.addAttribute( pa );
-      m_dmeConn.saveObject( "kmApplyData_jdm", applyData, true );
+      dmeConn.saveObject( ctx.objectName("kmApplyData_jdm"), applyData, true );
       //2. Create & save ClassificationApplySettings
-      ClusteringApplySettings clusAS = m_applySettingsFactory.create();
-      m_dmeConn.saveObject( "kmApplySettings_jdm", clusAS, true);
+      ClusteringApplySettings clusAS = factories.getApplySettingsFactory().create();
+      dmeConn.saveObject( ctx.objectName("kmApplySettings_jdm"), clusAS, true);
             
       //3. Create, store & execute apply Task
-      DataSetApplyTask applyTask = m_dsApplyFactory.create(
-          "kmApplyData_jdm", 
-          "kmModel_jdm", 
-          "kmApplySettings_jdm", "km_apply_output_jdm");
-      executeTask(applyTask, "kmApplyTask_jdm");
-      //4. Display results
-      displayScoringResults();
+      DataSetApplyTask applyTask = factories.getDataSetApplyTaskFactory().create(
+          ctx.objectName("kmApplyData_jdm"), 
+          ctx.objectName("kmModel_jdm"), 
+          ctx.objectName("kmApplySettings_jdm"), 
+          ctx.objectName("km_apply_output_jdm"));
+      return applyTask;
   } 
 
+  /**
+   *   This method builds the probabilistic clustering model of the "bayesian" 
+   * algorithm choice from "KM_NORM_DATA_BUILD_JDM": a Gaussian mixture with 
+   * diagonal covariances fitted by EM inside the Java VM (see 
+   * <code>GaussianMixtureEM</code>), with as many components, iterations and 
+   * the same tolerance as the kMeans build.
+   * 
+   * @param ctx context of the current run
+   * @return the mixture model
+   * @exception JDMException if the settings could not be created
+   * @exception SQLException if the build data could not be read
+   */
+  public static GaussianMixtureModel buildMixtureModel(ClusteringContext ctx) 
+    throws JDMException, SQLException 
+  {
+      // 1. Extract the normalized build data
+      MiningDataset buildData = MiningDataLoader.load(ctx.getDatabaseConnection(), 
+        ctx.objectName("KM_NORM_DATA_BUILD_JDM"), "CUST_ID", null);
+      // 2. Build the model
+      return buildMixtureModel(ctx, buildData);
+  }
+
+  /**
+   *   This method builds the mixture model of <code>buildMixtureModel</code> 
+   * from build data that is already normalized, e.g. by 
+   * <code>prepareBuildDataInProcess</code>.
+   * 
+   * @param ctx context of the current run
+   * @param buildData normalized build data
+   * @return the mixture model
+   * @exception JDMException if the settings could not be created
+   */
+  public static GaussianMixtureModel buildMixtureModel(ClusteringContext ctx, 
+    MiningDataset buildData) throws JDMException 
+  {
+      KMeansConfig config = createBuildConfig(ctx);
+      config.setInitialization(KMeansConfig.Initialization.KMEANS_PARALLEL);
+      // Build the model and explore its details
+      GaussianMixtureEM em = new GaussianMixtureEM(config);
+      em.setProgressListener(ctx.getProgress());
+      GaussianMixtureModel model = em.build(buildData, 
+        ctx.objectName("emModel_jdm"));
+      displayMixtureModelDetails(model);
+      return model;
+  }
+
+  /**
+   *   This method scores "KM_NORM_DATA_APPLY_JDM" with a mixture model and 
+   * writes the most probable cluster of each case to the apply output table 
+   * "km_apply_output_jdm_<run tag>", with the CUST_ID, CLUSTER_ID and 
+   * PROBABILITY columns of the table the mining engine apply creates, so 
+   * that the results are read back by the same queries.
+   * 
+   * @param ctx context of the current run
+   * @param model mixture model to apply
+   * @return scoring results read back from the apply output table
+   * @exception SQLException if the apply data could not be read or the 
+   *            output could not be written
+   */
+  public static ClusteringResult applyMixtureModel(ClusteringContext ctx, 
+    GaussianMixtureModel model) throws SQLException
+  {
+      return applyMixtureModel(ctx, model, null);
+  }
+
+  /**
+   *   This method scores the apply data with a mixture model like the 
+   * method above. With a normalization definition it reads the raw 
+   * MINING_DATA_APPLY_V instead of "KM_NORM_DATA_APPLY_JDM" and normalizes 
+   * every case just before it is scored.
+   * 
+   * @param ctx context of the current run
+   * @param model mixture model to apply
+   * @param normalizer definition returned by 
+   *        <code>prepareBuildDataInProcess</code>, or null to read the 
+   *        view of <code>prepareData</code>
+   * @return scoring results read back from the apply output table
+   * @exception SQLException if the apply data could not be read or the 
+   *            output could not be written
+   */
+  public static ClusteringResult applyMixtureModel(ClusteringContext ctx, 
+    final GaussianMixtureModel model, MinMaxNormalizer normalizer) 
+    throws SQLException
+  {
+      if ( normalizer != null )
+        normalizer = normalizer.forAttributes(model.getAttributeNames());
+      return applyCases(ctx, model.getAttributeNames(), 
+        model.getNumberOfComponents(), normalizer, new CaseScorer() {
+          public int score(double[] row, double[] probabilities) {
+            return model.score(row, 0, probabilities);
+          }
+          public int getClusterId(int index) {
+            return model.getClusterId(index);
+          }
+        });
+  }
+
+  /**
+   *   This method scores the apply data with an in-process kMeans model and 
+   * writes the top cluster of each case to the apply output table 
+   * "km_apply_output_jdm_<run tag>" like <code>applyMixtureModel</code>. 
+   * Unlike <code>applyModel</code> no apply task runs in the mining engine: 
+   * the scorer is created once from the model and scores each case in the 
+   * Java VM (see <code>ClusterScorer</code>), the same way an online request 
+   * for a single customer is scored. The in-process builders keep the 
+   * normalization definition with the model, so the raw MINING_DATA_APPLY_V 
+   * is read and every case is normalized just before it is scored; a model 
+   * without one scores "KM_NORM_DATA_APPLY_JDM".
+   * 
+   * @param ctx context of the current run
+   * @param scorer scorer of the model to apply
+   * @return scoring results read back from the apply output table
+   * @exception SQLException if the apply data could not be read or the 
+   *            output could not be written
+   */
+  public static ClusteringResult applyModelInProcess(ClusteringContext ctx, 
+    final ClusterScorer scorer) throws SQLException
+  {
+      return applyCases(ctx, scorer.getModel().getAttributeNames(), 
+        scorer.getNumberOfClusters(), scorer.getNormalizer(), new CaseScorer() {
+          public int score(double[] row, double[] probabilities) {
+            return scorer.score(row, 0, probabilities);
+          }
+          public int getClusterId(int index) {
+            return scorer.getClusterId(index);
+          }
+        });
+  }
+
+  /**
+   * Scores one case of the apply data for <code>applyCases</code>.
+   */
+  private interface CaseScorer {
+    /**
+     * @param row values of the case, in model attribute order and normalized
+     * @param probabilities receives the probability of each cluster
+     * @return index of the most probable cluster
+     */
+    int score(double[] row, double[] probabilities);
+
+    int getClusterId(int index);
+  }
+
+  /**
+   * Scores every case of the apply data and writes its top cluster to the 
+   * apply output table "km_apply_output_jdm_<run tag>", with the CUST_ID, 
+   * CLUSTER_ID and PROBABILITY columns of the table the mining engine apply 
+   * creates. Without a normalization definition the cases are read from 
+   * "KM_NORM_DATA_APPLY_JDM", with one from the raw MINING_DATA_APPLY_V, 
+   * each normalized just before it is scored.
+   */
+  private static ClusteringResult applyCases(ClusteringContext ctx, 
+    String[] attributeNames, int clusterCount, MinMaxNormalizer normalizer, 
+    CaseScorer scorer) throws SQLException
+  {
+      java.sql.Connection dbConn = ctx.getDatabaseConnection();
+      //1. Extract the apply data, normalized or raw
+      MiningDataset applyData = MiningDataLoader.load(dbConn, 
+        normalizer == null ? ctx.objectName("KM_NORM_DATA_APPLY_JDM") : 
+        "MINING_DATA_APPLY_V", "CUST_ID", null);
+      int[] columns = attributeColumns(attributeNames, applyData);
+      //2. Create the apply output table
+      String applyOutputTable = ctx.objectName("km_apply_output_jdm");
+      createApplyOutputTable(dbConn, applyOutputTable);
+      //3. Score the cases and insert the top cluster of each
+      int d = attributeNames.length;
+      double[] row = new double[d];
+      double[] probabilities = new double[clusterCount];
+      PreparedStatement insert = null;
+      try {
+        insert = dbConn.prepareStatement("INSERT INTO " + applyOutputTable + 
+          " (CUST_ID, CLUSTER_ID, PROBABILITY) VALUES (?, ?, ?)");
+        for ( int i = 0; i < applyData.getRowCount(); i++ ) {
+          for ( int j = 0; j < d; j++ )
+            row[j] = applyData.getValue(i, columns[j]);
+          if ( normalizer != null )
+            normalizer.normalize(row, 0);
+          int best = scorer.score(row, probabilities);
+          insert.setLong(1, applyData.getCaseId(i));
+          insert.setInt(2, scorer.getClusterId(best));
+          insert.setDouble(3, probabilities[best]);
+          insert.addBatch();
+          if ( (i + 1) % 1000 == 0 )
+            insert.executeBatch();
+        }
+        insert.executeBatch();
+      } finally {
+        try {
+          if ( insert != null )
+            insert.close();
+        } catch(Exception anySqlExp) {}
+      }
+      //4. Display results
+      ClusteringResult result = new ClusteringResult();
+      displayScoringResults(ctx, result);
+      return result;
+  }
+
+  /**
+   * Creates an apply output table with the columns of the table the mining 
+   * engine apply creates.
+   */
+  private static void createApplyOutputTable(java.sql.Connection dbConn, 
+    String applyOutputTable) throws SQLException
+  {
+      Statement stmt = null;
+      try {
+        stmt = dbConn.createStatement();
+        stmt.executeUpdate("CREATE TABLE " + applyOutputTable + 
+          " (CUST_ID NUMBER, CLUSTER_ID NUMBER, PROBABILITY NUMBER)");
+      } finally {
+        try {
+          if ( stmt != null )
+            stmt.close();
+        } catch(Exception anySqlExp) {}
+      }
+  }
+
+  /**
+   * @return for each model attribute, its column in <code>data</code>
+   * @exception IllegalArgumentException if a model attribute is missing
+   */
+  static int[] attributeColumns(String[] modelAttributes, MiningDataset data) {
+    int[] columns = new int[modelAttributes.length];
+    for ( int j = 0; j < modelAttributes.length; j++ ) {
+      columns[j] = -1;
+      for ( int a = 0; a < data.getAttributeCount(); a++ ) {
+        if ( data.getAttributeName(a).equals(modelAttributes[j]) )
+          columns[j] = a;
+      }
+      if ( columns[j] < 0 )
+        throw new IllegalArgumentException("Apply data has no attribute " + 
+          modelAttributes[j]);
+    }
+    return columns;
+  }
+
+  /**
+   * This method shows the components of a Gaussian mixture model.
+   * 
+   * @param model model to be presented
+   */
+  public static void displayMixtureModelDetails(GaussianMixtureModel model)
+  {
+    System.out.println("Model Name: " + model.getName());
+    System.out.println("Gaussian mixture model details:");
+    System.out.println(TAB+"Number of clusters: "+ model.getNumberOfComponents());
+    System.out.println(TAB+"Number of iterations: "+ model.getIterations());
+    System.out.println(TAB+"Log-likelihood: "+ model.getLogLikelihood());
+    for ( int c = 0; c < model.getNumberOfComponents(); c++ ) {
+      System.out.println(CR+"Cluster Id: " + model.getClusterId(c) + 
+        CR_TAB+"Weight: " + model.getWeight(c));
+      for ( int j = 0; j < model.getAttributeCount(); j++ )
+        System.out.println(TAB+TAB+model.getAttributeNames()[j] + 
+          ": mean " + model.getMean(c, j) + 
+          ", variance " + model.getVariance(c, j));
+    }
+  }
+
   /**
    * Shows scoring results.
    *   BUSINESS CASE 1: List the clusters into which the customers in this 
    * dataset have been grouped. 
    *   BUSINESS CASE 2: List ten most representative (based on likelihood) 
    * customers of cluster 2.
+   * 
+   * @param ctx context of the current run
+   * @param result collects the displayed rows of both business cases
    */
-  public static void displayScoringResults()
+  public static void displayScoringResults(ClusteringContext ctx, 
+    ClusteringResult result)
   {
+      String applyOutputTable = ctx.objectName("km_apply_output_jdm");
       // BUSINESS CASE 1: List the clusters into which the customers in this
       // dataset have been grouped. 
       String sqlCase1 = 
@@ -352,14 +1579,13 @@ public static void beginClustering(String username, String password, String url,
         " (SELECT cluster_id CLUS, " +
         "   ROW_NUMBER() OVER " +
         "          (PARTITION BY CUST_ID ORDER BY PROBABILITY DESC) CLUS_RNK " +
-        " FROM km_apply_output_jdm) " +
+        " FROM " + applyOutputTable + ") " +
         "WHERE CLUS_RNK = 1 " +
         "GROUP BY CLUS ORDER BY CNT DESC";
 
       Statement stmt = null;
       ResultSet rs = null;
-      java.sql.Connection dbConn = 
-        ((OraConnection)m_dmeConn).getDatabaseConnection();
+      java.sql.Connection dbConn = ctx.getDatabaseConnection();
       try {
         stmt = dbConn.createStatement();
         rs = stmt.executeQuery(sqlCase1); 
@@ -369,6 +1595,7 @@ public static void beginClustering(String username, String password, String url,
           int clus = rs.getInt(1);
           int cnt  = rs.getInt(2);
           System.out.println(TAB + clus + TAB + TAB + cnt);
+          result.addClusterCount(clus, cnt);
         }
       } catch(SQLException anySqlExp) {
         System.out.println(anySqlExp);
@@ -385,7 +1612,7 @@ public static void beginClustering(String username, String password, String url,
      
       String sqlCase2 = 
         "SELECT * from " + 
-        " (SELECT cust_id, probability from km_apply_output_jdm " +
+        " (SELECT cust_id, probability from " + applyOutputTable + " " +
         " WHERE CLUSTER_ID = 2 ORDER BY probability DESC) " +
         "WHERE ROWNUM < 11";
 
@@ -400,6 +1627,7 @@ public static void beginClustering(String username, String password, String url,
           int custid = rs.getInt(1);
           String probability  = rs.getString(2);
           System.out.println(TAB + custid + TAB + TAB + probability);
+          result.addRepresentativeCase(custid, probability);
         }
       } catch(SQLException anySqlExp) {
         System.out.println(anySqlExp);
@@ -418,26 +1646,62 @@ public static void beginClustering(String username, String password, String url,
    * completing the task successfully it returns true. If there is a task 
    * failure, then it prints the error description and returns false.
    * 
+   *   A task that does not end by itself fails the run instead: when it 
+   * runs longer than the task timeout of the context, when a stop is 
+   * requested on the progress of the context, or when the waiting thread 
+   * is interrupted, the task is terminated and a JDMException naming the 
+   * task and the reason is thrown, so the run does not go on to look for 
+   * objects the task never created.
+   * 
+   * @param ctx context of the current run
    * @param taskObj task object
    * @param taskName name of the task
    * 
    * @return boolean returns true when the task is successful
-   * @exception JDMException if task execution failed
+   * @exception JDMException if task execution failed, or the task timed 
+   *            out or was terminated
    */
-  public static boolean executeTask(Task taskObj, String taskName)
-    throws JDMException 
+  public static boolean executeTask(ClusteringContext ctx, Task taskObj, 
+    String taskName) throws JDMException 
   {
-    boolean isTaskSuccess = false;
-    m_dmeConn.saveObject(taskName, taskObj, true);
-    ExecutionHandle execHandle = m_dmeConn.execute(taskName);
+    CompletableFuture<ExecutionStatus> execution = 
+      executeTaskAsync(ctx, taskObj, taskName);
     System.out.print(taskName + " is started, please wait. ");
-    //Wait for completion of the task
-    ExecutionStatus status = execHandle.waitForCompletion(Integer.MAX_VALUE);    
+    ExecutionStatus status;
+    try {
+      //Wait for completion of the task
+      status = execution.get();
+    } catch(InterruptedException intExp) {
+      execution.cancel(true);
+      Thread.currentThread().interrupt();
+      System.out.println(taskName + " is cancelled.");
+      throw new JDMException(taskName + " is cancelled: interrupted while " + 
+        "waiting for it");
+    } catch(ExecutionException execExp) {
+      throw taskFailure(taskName, execExp.getCause());
+    }
+    return checkTaskStatus(taskName, status);
+  }
+
+  /**
+   * Reports the final status of a task.
+   * 
+   * @return true when the task is successful
+   * @exception JDMException if the task was terminated
+   */
+  private static boolean checkTaskStatus(String taskName, 
+    ExecutionStatus status) throws JDMException 
+  {
     //Check the status of the task after completion
-    isTaskSuccess = status.getState().equals(ExecutionState.success);
+    boolean isTaskSuccess = status.getState().equals(ExecutionState.success);
     if( isTaskSuccess ) {
       //Task completed successfully
       System.out.println(taskName + " is successful.");
+    } else if ( status.getState().equals(ExecutionState.terminated) ) {
+      System.out.println(taskName + " is terminated.");
+      throw new JDMException(taskName + " is terminated" + 
+        ( status.getDescription() == null ? "" : 
+          ": " + status.getDescription() ));
     } else {//Task failed
       System.out.println(taskName + " is failed.\nFailure Description: " + 
         status.getDescription() );
@@ -445,6 +1709,81 @@ public static void beginClustering(String username, String password, String url,
     return isTaskSuccess;
   }
 
+  /**
+   * @return the failure of a task future as a JDMException, unless it is 
+   *         one already or a RuntimeException, which are rethrown
+   */
+  private static JDMException taskFailure(String taskName, Throwable cause) 
+  {
+    if ( cause instanceof JDMException )
+      return (JDMException)cause;
+    if ( cause instanceof RuntimeException )
+      throw (RuntimeException)cause;
+    if ( cause instanceof Error )
+      throw (Error)cause;
+    if ( cause instanceof TimeoutException ) {
+      System.out.println(taskName + " is terminated.");
+      return new JDMException("Timed out: " + cause.getMessage());
+    }
+    System.out.println(taskName + " is failed.\nFailure Description: " + 
+      cause.getMessage() );
+    return new JDMException(taskName + " is failed: " + cause.getMessage());
+  }
+
+  /**
+   * Stores and starts the given task like <code>executeTask</code>, but 
+   * does not wait for it: a shared <code>TaskMonitor</code> polls it and 
+   * completes the returned future with its final status. The task is 
+   * terminated when it runs longer than the task timeout of the context, 
+   * when a stop is requested on the progress of the context, or when the 
+   * future is cancelled; after a timeout the future fails with a 
+   * <code>TimeoutException</code>.
+   * 
+   * @param ctx context of the current run
+   * @param taskObj task object
+   * @param taskName name of the task
+   * 
+   * @return future of the final status of the task
+   * @exception JDMException if the task could not be stored or started
+   */
+  public static CompletableFuture<ExecutionStatus> executeTaskAsync(
+    ClusteringContext ctx, Task taskObj, String taskName) throws JDMException 
+  {
+    ctx.getConnection().saveObject(taskName, taskObj, true);
+    ExecutionHandle execHandle = ctx.getConnection().execute(taskName);
+    ClusteringProgress progress = ctx.getProgress();
+    if ( progress != null )
+      progress.heartbeat(taskName + " is started");
+    return TASK_MONITOR.watch(taskName, execHandle, 
+      ctx.getTaskTimeoutMillis(), progress);
+  }
+
+  /**
+   * Starts the given task like <code>executeTaskAsync</code> and reports 
+   * its outcome like <code>executeTask</code>: the future completes with 
+   * true when the task is successful and false when it failed in the 
+   * engine, and fails with a JDMException when the task timed out or was 
+   * terminated.
+   */
+  private static CompletableFuture<Boolean> runTaskAsync(ClusteringContext ctx, 
+    Task taskObj, final String taskName) throws JDMException 
+  {
+    CompletableFuture<ExecutionStatus> execution = 
+      executeTaskAsync(ctx, taskObj, taskName);
+    System.out.println(taskName + " is started.");
+    return execution.handle(new BiFunction<ExecutionStatus, Throwable, Boolean>() {
+      public Boolean apply(ExecutionStatus status, Throwable failure) {
+        try {
+          if ( failure != null )
+            throw taskFailure(taskName, failure);
+          return Boolean.valueOf(checkTaskStatus(taskName, status));
+        } catch(JDMException jdmExp) {
+          throw new CompletionException(jdmExp);
+        }
+      }
+    });
+  }
+
   /**
    * This method displayes KM model details.
    * 
@@ -453,31 +1792,59 @@ public static void beginClustering(String username, String password, String url,
    * @exception JDMException if failed to retrieve model details
    */  
   public static void displayKMModelDetails(ClusteringModel model)throws JDMException
+  {
+    displayKMModelDetails(new EngineClusterTree(model));
+  }
+
+  /**
+   * This method displays details of a KM model built in-process, in the 
+   * same layout as for a model built by the mining engine.
+   * 
+   * @param model to be presented
+   */  
+  public static void displayKMModelDetails(LocalClusteringModel model)
+  {
+    try {
+      displayKMModelDetails(new LocalClusterTree(model));
+    } catch(JDMException jdmExp) {
+      // LocalClusterTree reads the model without the mining engine
+      throw new IllegalStateException(jdmExp);
+    }
+  }
+
+  /**
+   * This method displayes the details of a KM model read through 
+   * <code>ClusterTreeView</code>, whichever way it was built.
+   * 
+   * @param model to be presented
+   * 
+   * @exception JDMException if failed to retrieve model details
+   */  
+  public static void displayKMModelDetails(ClusterTreeView model)
+    throws JDMException
   {
     String modelName = model.getName();
     System.out.println("Model Name: " + modelName);
     System.out.println("Clustering model details:");
     System.out.println(TAB+"Number of clusters: "+ model.getNumberOfClusters());
     System.out.println(TAB+"Number of tree levels: "+ model.getNumberOfLevels());
-    Collection clusters = model.getClusters();
-    if ( clusters == null || clusters.isEmpty() == true ){
+    String[] buildDetails = model.getBuildDetails();
+    for ( int ln = 0; ln < buildDetails.length; ln++ )
+      System.out.println(TAB+buildDetails[ln]);
+    ClusterTreeView.Node[] clusters = model.getClusters();
+    if ( clusters == null ){
       System.out.println("Unable to retrieve clusters.");
       return;
     }
     
     // Display root cluster(s)
-    Collection vRootClusters = model.getRootClusters(); 
-    Cluster[] rootCluster = null;
-    if ( vRootClusters != null && vRootClusters.isEmpty() == false ){
-      rootCluster =(Cluster[])vRootClusters.toArray(new Cluster[vRootClusters.size()]);
-      if ( rootCluster != null )
-        System.out.println(TAB+"Root Cluster Id: " + rootCluster[0].getClusterId());
-    }
+    ClusterTreeView.Node[] rootCluster = model.getRootClusters();
+    if ( rootCluster != null )
+      System.out.println(TAB+"Root Cluster Id: " + rootCluster[0].getClusterId());
     
     // Display leaf clusters
-    Collection vLeafClusters = model.getLeafClusters();
-    if ( vLeafClusters != null && vLeafClusters.isEmpty() == false ){
-      Cluster[] leafClusters =(Cluster[])vLeafClusters.toArray(new Cluster[vLeafClusters.size()]);
+    ClusterTreeView.Node[] leafClusters = model.getLeafClusters();
+    if ( leafClusters != null ){
       System.out.println(UNDERLINE);
       System.out.println(LEAF_CLUSTERS_HEADER);
       System.out.println(UNDERLINE);
@@ -485,15 +1852,14 @@ public static void beginClustering(String username, String password, String url,
         printSingleClusterDetails(leafClusters[ni]);
         if ( ni == 0 ){
           // display first leaf cluster statistics
-          printClusterStatistics(model, leafClusters[ni], 1);          
+          printClusterStatistics(leafClusters[ni], 1);          
         }
       }
     }
     
     // Display all model rules
-    Collection vRules = model.getRules();
-    if ( vRules != null && vRules.isEmpty() == false ){
-      Rule[] rules =(Rule[])vRules.toArray(new Rule[vRules.size()]);
+    ClusterTreeView.Rule[] rules = model.getRules();
+    if ( rules != null ){
       System.out.println(CR+CR+UNDERLINE);
       System.out.println(RULES_CLUSTERS_HEADER);
       System.out.println(UNDERLINE);
@@ -510,24 +1876,22 @@ public static void beginClustering(String username, String password, String url,
       // 1.print root
       printRootClusterDetails(rootCluster[0]);
       // 1.print children
-      Cluster[] children = rootCluster[0].getChildren();
+      ClusterTreeView.Node[] children = rootCluster[0].getChildren();
       int indent = 0;
       if ( children != null ){
         for (int k=0 ; k<children.length ; k++ ){
-          printRecursiveClusterDetails(model, children[k], indent);
+          printRecursiveClusterDetails(children[k], indent);
         }
       }
-      return;
     }
-      
-    // print flat structure
-    Cluster[] arrayClusters = (Cluster[])clusters.toArray(new Cluster[clusters.size()]);
-    for ( int ni = 0; ni < arrayClusters.length ; ni++ )  {
-      printSingleClusterDetails(arrayClusters[ni]);
+    else {
+      // print flat structure
+      for ( int ni = 0; ni < clusters.length ; ni++ )  {
+        printSingleClusterDetails(clusters[ni]);
+      }
     }
     System.out.println(CR+UNDERLINE+CR);
   }
-  
 
   private static String getIndentation(int indent, String sText){
     StringBuffer sbIndent = new StringBuffer(TAB);
@@ -542,51 +1906,48 @@ public static void beginClustering(String username, String password, String url,
   /**
    * This method recursively displayes Cluster details.
    * 
-   * @param model model to be presented
    * @param cluster current cluster which details are being presented
    * @param indent indentation level to illustrate cluster parent-child relation
    * 
    * @exception JDMException if failed to retrieve cluster details
    */  
   public static void printRecursiveClusterDetails(
-    ClusteringModel model, Cluster cluster, int indent) throws JDMException
+    ClusterTreeView.Node cluster, int indent) throws JDMException
   {
     indent++;
+    ClusterTreeView.Node parent = cluster.getParent();
     System.out.println(getIndentation (indent, "Cluster Id: " + cluster.getClusterId()) + 
         CR+ getIndentation (indent,"Case Count: " + cluster.getCaseCount()) +
         CR+ getIndentation (indent, "Tree Level: " + cluster.getLevel()) + 
-        CR+ getIndentation (indent, "Dispersion: " + ((OraCluster)cluster).getDispersion()) + 
-        CR+ getIndentation (indent, "Parent's id: " + ( cluster.getParent() != null ? 
-          String.valueOf(cluster.getParent().getClusterId()) : "" ) )
+        CR+ getIndentation (indent, "Dispersion: " + cluster.getDispersion()) + 
+        CR+ getIndentation (indent, "Parent's id: " + ( parent != null ? 
+          String.valueOf(parent.getClusterId()) : "" ) )
       );
     
-    Cluster[] ancestors = cluster.getAncestors();
+    ClusterTreeView.Node[] ancestors = cluster.getAncestors();
     if ( ancestors != null ){
       StringBuffer sbTab = new StringBuffer("Anchestors");
       if ( ancestors.length == 0 )
         sbTab.append(" : None");
-      for (int j=0 ; j<ancestors.length ; j++ ){
-        for ( int sp = 0; sp < j; sp++ )
-          sbTab.append(":" + ancestors[j].getClusterId() + " ");
-      }
+      for (int j=0 ; j<ancestors.length ; j++ )
+        sbTab.append(":" + ancestors[j].getClusterId() + " ");
       System.out.print(getIndentation (indent, sbTab.toString() ) ); 
     }
     
-    Cluster[] children = cluster.getChildren();
+    ClusterTreeView.Node[] children = cluster.getChildren();
     if ( children != null ){
       System.out.println(CR+ getIndentation (indent,"Children:") );
       for (int k=0 ; k<children.length ; k++ ){
-        Cluster childCluster = children[k];
-        printRecursiveClusterDetails(model, childCluster, indent);
+        printRecursiveClusterDetails(children[k], indent);
       }
     }
     else{
       System.out.print(CR+ getIndentation (indent,"No child clusters"+CR) );
-      Rule rule = cluster.getRule();
       //Print Rule Details for leaf clusters only
-      printRuleDetails(rule, indent);
+      ClusterTreeView.Rule rule = cluster.getRule();
+      if ( rule != null )
+        printRuleDetails(rule, indent);
     }
-    indent--;
   }
   
   /**
@@ -594,22 +1955,23 @@ public static void beginClustering(String username, String password, String url,
    * 
    * @param rule rule which details are being presented
    * @param indent indentation level to illustrate cluster parent-child relation
-   * 
-   * @exception JDMException if failed to retrieve cluster details
    */  
-  public static void printRuleDetails(Rule rule, int indent){
-    System.out.println (  
-        CR_TAB+ getIndentation ( indent,"Rule number:" + rule.getRuleIdentifier() ) + 
-        CR_TAB + TAB + getIndentation ( indent, "Support: "    + rule.getSupport() )+ 
-        CR_TAB + TAB + getIndentation ( indent, "Confidence: " + rule.getConfidence() )
-        );
-     CompoundPredicate antecedent = (CompoundPredicate)rule.getAntecedent();
-     System.out.println( CR_TAB + TAB + getIndentation ( indent,("Antecedent: ")));
-     printAntecedent(antecedent, indent);
-
-     CompoundPredicate consequent = (CompoundPredicate)rule.getConsequent();
-     System.out.println( CR_TAB + TAB + getIndentation ( indent,("Consequent: ")));
-     printConsequent(consequent, indent);
+  public static void printRuleDetails(ClusterTreeView.Rule rule, int indent){
+    printRuleNoDetails(rule, indent);
+    System.out.println( CR_TAB + TAB + getIndentation ( indent,("Antecedent: ")));
+    try{
+      printPredicates(rule.getAntecedent(), indent);
+    }
+    catch(Exception e){
+      System.out.println("Error printing Antecedant");
+    }
+    System.out.println( CR_TAB + TAB + getIndentation ( indent,("Consequent: ")));
+    try{
+      printPredicates(rule.getConsequent(), indent);
+    }
+    catch(Exception e){
+      System.out.println("Error printing Consequent");
+    }
   }
 
   /**
@@ -618,7 +1980,7 @@ public static void beginClustering(String username, String password, String url,
    * @param rule rule which details are being presented
    * @param indent indentation level to illustrate cluster parent-child relation
    */  
-  public static void printRuleNoDetails(Rule rule, int indent){
+  public static void printRuleNoDetails(ClusterTreeView.Rule rule, int indent){
     System.out.println (  
         CR_TAB+ getIndentation ( indent,"Rule number:" + rule.getRuleIdentifier() ) + 
         CR_TAB + TAB + getIndentation ( indent, "Support: "    + rule.getSupport() )+ 
@@ -626,105 +1988,9 @@ public static void beginClustering(String username, String password, String url,
         );
   }
 
-  /**
-   * This method prints antecedent information.
-   * 
-   * @param predicate antecedent being presented
-   * @param indent indentation level to illustrate cluster parent-child relation
-   * 
-   * @exception JDMException if failed to retrieve antecedent details
-   */  
-  public static void printAntecedent(CompoundPredicate predicate, int indent) {
-    try{
-      SimplePredicate[] sps = (SimplePredicate[])predicate.getPredicates();
-      if ( sps == null )
-        return;
-      
-      // combine predicates by attribute name
-      Hashtable htNamePredicateMap = new Hashtable();
-      for ( int i = 0 ; i < sps.length; i++ ){
-        StringBuffer simplePredicate = printSimplePredicate(sps[i]);
-        String attrName = sps[i].getAttributeName();
-        StringBuffer attrTotalPredicate = (StringBuffer)htNamePredicateMap.get(attrName);
-        if ( attrTotalPredicate == null )
-          htNamePredicateMap.put(attrName, simplePredicate);
-        else{
-          attrTotalPredicate.append(" AND " + simplePredicate);
-        }
-      }
-      Enumeration en = htNamePredicateMap.keys();
-      while ( en.hasMoreElements() ){
-        String name = (String)en.nextElement();
-        StringBuffer sb = (StringBuffer)htNamePredicateMap.get(name);
-        System.out.println( getIndentation ( indent,(TAB+TAB+TAB+sb.toString())));
-      }
-    }
-    catch(Exception e){
-      System.out.println("Error printing Antecedant");
-    }
-  }
-
-  /**
-   * This method prints consequent information.
-   * 
-   * @param predicate consequent being presented
-   * @param indent indentation level to illustrate cluster parent-child relation
-   * 
-   * @exception JDMException if failed to retrieve consequent details
-   */  
-  public static void printConsequent(CompoundPredicate predicate, int indent) {
-    try{
-      SimplePredicate[] sps = (SimplePredicate[])predicate.getPredicates();
-      if ( sps == null )
-        return;
-      
-      for ( int i = 0 ; i < sps.length; i++ ){
-        StringBuffer simplePredicate = printSimplePredicate(sps[i]);
-        if ( i < sps.length - 1)
-          simplePredicate.append( " AND ");
-        System.out.println( getIndentation ( indent,TAB+TAB+TAB+simplePredicate.toString()));
-      }
-    }
-    catch(Exception e){
-      System.out.println("Error printing Consequent");
-    }
-  }
-  
-  /**
-   * This method prints <code>SimplePredicate</code> information.
-   * 
-   * @param predicate <code>SimplePredicate</code> being presented
-   * 
-   * @exception JDMException if failed to retrieve <code>SimplePredicate</code> details
-   */  
-  public static StringBuffer printSimplePredicate(SimplePredicate predicate) 
-    throws JDMException
-  {
-    StringBuffer sb = new StringBuffer();
-    if ( predicate.isNumericalValue() ){
-      sb.append( 
-        predicate.getAttributeName() + " " + 
-        //((OraSimplePredicate)predicate).getComparisonOperatorValue() + " " + 
-        OraPLSQLMappings.getComparisonOperatorValue_tree(((OraSimplePredicate)predicate).getComparisonOperator()) + " " + 
-        predicate.getNumericalValue()
-      );
-    }
-    else{
-      sb = new StringBuffer( 
-        predicate.getAttributeName() + " " + 
-        //((OraSimplePredicate)predicate).getComparisonOperatorValue() + " "
-        OraPLSQLMappings.getComparisonOperatorValue_tree(((OraSimplePredicate)predicate).getComparisonOperator()) + " " 
-      );
-      Object[] inValues = predicate.getCategoryValues();
-      if ( inValues != null ){
-        for (int i=0 ; i < inValues.length; i++ )  {
-          sb.append(inValues[i] );
-          if ( i != inValues.length - 1)
-            sb.append(",");
-        }
-      }
-    }
-    return sb;
+  private static void printPredicates(String[] lines, int indent) {
+    for ( int i = 0 ; i < lines.length; i++ )
+      System.out.println( getIndentation ( indent,TAB+TAB+TAB+lines[i]));
   }
   
   /**
@@ -734,11 +2000,13 @@ public static void beginClustering(String username, String password, String url,
    * 
    * @exception JDMException if failed to retrieve root cluster details
    */  
-  public static void printRootClusterDetails(Cluster cluster) throws JDMException{
+  public static void printRootClusterDetails(ClusterTreeView.Node cluster) 
+    throws JDMException
+  {
     System.out.println(CR+"Root Cluster Id: " + cluster.getClusterId() + 
         CR_TAB + "Case Count: " + cluster.getCaseCount() +
         CR_TAB + "Tree Level: " + cluster.getLevel() + 
-        CR_TAB + "Dispersion: " + ((OraCluster)cluster).getDispersion() +
+        CR_TAB + "Dispersion: " + cluster.getDispersion() +
         CR_TAB + "Children:"
       );
   }
@@ -750,36 +2018,36 @@ public static void beginClustering(String username, String password, String url,
    * 
    * @exception JDMException if failed to retrieve this cluster details
    */  
-  public static void printSingleClusterDetails(Cluster cluster) throws JDMException{
+  public static void printSingleClusterDetails(ClusterTreeView.Node cluster) 
+    throws JDMException
+  {
+    ClusterTreeView.Node parent = cluster.getParent();
     System.out.println(CR+"Cluster Id: " + cluster.getClusterId() + 
         CR_TAB+"Case Count: " + cluster.getCaseCount() +
         CR_TAB+"Tree Level: " + cluster.getLevel() + 
-        CR_TAB+"Dispersion: " + ((OraCluster)cluster).getDispersion() + 
-        CR_TAB+"Parent's id: " + ( cluster.getParent() != null ? 
-          String.valueOf(cluster.getParent().getClusterId()) : "") +
+        CR_TAB+"Dispersion: " + cluster.getDispersion() + 
+        CR_TAB+"Parent's id: " + ( parent != null ? 
+          String.valueOf(parent.getClusterId()) : "") +
         CR_TAB + "Is root Cluster: " + cluster.isRoot() +
         CR_TAB + "Is leaf Cluster: " + cluster.isLeaf()
       );
     
-    Cluster[] ancestors = cluster.getAncestors();
+    ClusterTreeView.Node[] ancestors = cluster.getAncestors();
     StringBuffer sbTab = new StringBuffer(TAB+"Anchestors ");
     if ( ancestors != null ){
-      for (int j=0 ; j<ancestors.length ; j++ ){
-        for ( int sp = 0; sp < j; sp++ )
-          sbTab.append(":" + ancestors[j].getClusterId() + " ");
-      }
+      for (int j=0 ; j<ancestors.length ; j++ )
+        sbTab.append(":" + ancestors[j].getClusterId() + " ");
     }
     else{
       sbTab.append("None");
     }
     System.out.print(sbTab.toString() ); 
     
-    Cluster[] children = cluster.getChildren();
+    ClusterTreeView.Node[] children = cluster.getChildren();
     System.out.println(CR_TAB+"Children:");
     if ( children != null ){
       for (int k=0 ; k<children.length ; k++ ){
-        Cluster childCluster = children[k];
-        System.out.print(TAB+TAB+"Child: " + childCluster.getClusterId() +CR ); 
+        System.out.print(TAB+TAB+"Child: " + children[k].getClusterId() +CR ); 
       }
       System.out.println(CR);
     }
@@ -791,76 +2059,50 @@ public static void beginClustering(String username, String password, String url,
   /**
    * This method shows cluster statistics.
    * 
-   * @param model model being presented
    * @param cluster cluster being presented
    * @param indent indentation level to illustrate cluster parent-child relation
-   * 
-   * @exception JDMException if failed to retrieve this cluster statistics
    */  
   public static void printClusterStatistics(
-    ClusteringModel model, Cluster cluster, int indent)
+    ClusterTreeView.Node cluster, int indent)
   {
     try{
-      ModelSignature modelSignature = model.getSignature();
-    
-      AttributeStatisticsSet attrStat = cluster.getStatistics();
-      if ( attrStat == null )
+      ClusterTreeView.Histogram[] histograms = cluster.getStatistics();
+      if ( histograms == null )
         return;
-      TreeMap centroids = ((OraCluster)cluster).getCentroids();
-      if ( centroids == null || centroids.isEmpty() ){
+      if ( histograms.length == 0 ){
         System.out.println("Error: cluster " + cluster.getClusterId() + 
           " does not contain statsitics");
         return;
       }
-      Set centroidKeys = centroids.keySet();
-      Iterator attributesNames = centroidKeys.iterator();
-       while ( attributesNames.hasNext() )  {
-        String attributeName = (String)attributesNames.next();
-        SignatureAttribute sa = modelSignature.getAttribute(attributeName);
-        AttributeType aType = sa.getAttributeType();
-        UnivariateStatistics stats =  attrStat.getStatistics(attributeName);  
-        double[] frequencies = stats.getProbabilities();
+      for ( int at = 0; at < histograms.length; at++ )  {
+        String[] labels = histograms[at].getLabels();
+        long[] frequencies = histograms[at].getFrequencies();
         System.out.println(CR_TAB+getIndentation (indent,
-          "Statistics for attribute: " + attributeName) ); 
+          "Statistics for attribute: " + histograms[at].getAttributeName()) ); 
         System.out.println(TAB+getIndentation (indent,UNDERLINE));
-        if ( aType.equals(AttributeType.numerical) ){
-          Interval[] ranges = (Interval[])stats.getValues();
-          if ( ranges != null ) {
-            System.out.println(TAB+TAB+getIndentation (indent,
-              "Bin Id" + TAB+TAB+TAB+ "Range" + TAB+TAB+TAB+TAB+ "Frequency") ); 
-            for ( int in = 0 ; in < ranges.length ; in++ )  {
-              Interval bin = ranges[in];
-              IntervalClosure closure = bin.getIntervalClosure();
-              String openParenthesis = ( ( closure.equals(IntervalClosure.openClosed) || 
-                    closure.equals(IntervalClosure.openOpen ) ) ? "( " : "[ " );
-              String closeParenthesis = ( ( closure.equals(IntervalClosure.openOpen) || 
-                    closure.equals(IntervalClosure.closedOpen ) ) ? " )" : " ]" );
-              System.out.println( 
-                TAB+TAB + getIndentation (indent, String.valueOf(in+1) ) +  // bin Id
-                // range
-                TAB+TAB + getIndentation (indent, openParenthesis + 
-                  bin.getStartPoint() + " - " + 
-                  bin.getEndPoint() + closeParenthesis) + 
-                //frequency
-                TAB+TAB + getIndentation (indent, String.valueOf((int)frequencies[in] ) ) 
-                );
-            }
+        if ( !histograms[at].isCategorical() ){
+          System.out.println(TAB+TAB+getIndentation (indent,
+            "Bin Id" + TAB+TAB+TAB+ "Range" + TAB+TAB+TAB+TAB+ "Frequency") ); 
+          for ( int in = 0 ; in < labels.length ; in++ )  {
+            System.out.println( 
+              TAB+TAB + getIndentation (indent, String.valueOf(in+1) ) +  // bin Id
+              TAB+TAB + getIndentation (indent, labels[in]) + // range
+              //frequency
+              TAB+TAB + getIndentation (indent, String.valueOf(frequencies[in]) ) 
+              );
           }
         }
-        else if ( aType.equals(AttributeType.categorical) ){
-          Object[] values = stats.getValues();
-          if ( values != null ) {
-            System.out.println(TAB+TAB+getIndentation (indent,
-              "Bin Id" + TAB+"Category" + TAB+"Frequency") ); 
-            for ( int in = 0 ; in < values.length ; in++ )  {
-              System.out.println( 
-                // bin Id
-                TAB+TAB + getIndentation (indent, String.valueOf(in+1) ) +  
-                TAB+TAB + values[in] + //value
-                //frequency
-                TAB+TAB + getIndentation (indent, String.valueOf((int)frequencies[in] ) ) 
-                );
-            }
+        else {
+          System.out.println(TAB+TAB+getIndentation (indent,
+            "Bin Id" + TAB+"Category" + TAB+"Frequency") ); 
+          for ( int in = 0 ; in < labels.length ; in++ )  {
+            System.out.println( 
+              // bin Id
+              TAB+TAB + getIndentation (indent, String.valueOf(in+1) ) +  
+              TAB+TAB + labels[in] + //value
+              //frequency
+              TAB+TAB + getIndentation (indent, String.valueOf(frequencies[in]) ) 
+              );
           }
         }
       }
@@ -871,44 +2113,97 @@ public static void beginClustering(String username, String password, String url,
     }
   }
   
-  private static void clean() 
+  /**
+   * Drops all objects created by the run of the given context. Objects of 
+   * other runs are left untouched.
+   * 
+   * @param ctx context of the run to clean up
+   */
+  public static void clean(ClusteringContext ctx) 
+  {
+    System.out.println("inside clean");
+    dropMiningObjects(ctx);
+    dropRunTables(ctx);
+  }
+
+  /**
+   * Drops all objects created by the run like <code>clean</code>, but drops 
+   * the mining objects and the views and tables at the same time, the 
+   * latter on a second connection of the run.
+   * 
+   * @param ctx context of the run to clean up
+   * @param peer second context of the run (see 
+   *        <code>ClusteringContext.borrowPeer</code>), or null to drop 
+   *        everything on <code>ctx</code> in order
+   */
+  public static void clean(final ClusteringContext ctx, 
+    final ClusteringContext peer) 
+  {
+    if ( peer == null ) {
+      clean(ctx);
+      return;
+    }
+    System.out.println("inside clean");
+    PipelineGraph drops = new PipelineGraph(ctx.getProgress());
+    drops.add("dropMiningObjects", new PipelineGraph.Step() {
+      public void run() {
+        dropMiningObjects(ctx);
+      }
+    });
+    drops.add("dropRunTables", new PipelineGraph.Step() {
+      public void run() {
+        dropRunTables(peer);
+      }
+    });
+    try {
+      drops.run(PIPELINE_EXECUTOR);
+    } catch(Exception anyExp) {}//Ignore, as clean does
+  }
+
+  private static void dropMiningObjects(ClusteringContext ctx) 
   {
-	  
-	  System.out.println("inside clean");
+    javax.datamining.resource.Connection dmeConn = ctx.getConnection();
     //Drop the model
     try {
-      m_dmeConn.removeObject("kmModel_jdm", NamedObject.model);
+      dmeConn.removeObject(ctx.objectName("kmModel_jdm"), NamedObject.model);
     } catch(JDMException jdmExp) {}
-    //Drop apply output table
-    java.sql.Connection dbConn = 
-      ((OraConnection)m_dmeConn).getDatabaseConnection();
-    Statement stmt = null;
-    try 
-    {
-      stmt = dbConn.createStatement();
-      stmt.executeUpdate("DROP VIEW KM_NORM_DATA_BUILD_JDM");   
-    } catch(SQLException anySqlExp) {}//Ignore
-    finally{
-      try {
-        stmt.close();
-      }
-      catch(Exception anySqlExp){}
-    }
-    try 
-    {
-      stmt = dbConn.createStatement();
-      stmt.executeUpdate("DROP VIEW KM_NORM_DATA_APPLY_JDM"); 
-    } catch(SQLException anySqlExp) {}//Ignore
-    finally{
+    //Drop the saved tasks, settings and data specifications
+    String[] taskNames = { "kmPrepareBuildTask_jdm", "kmcPrepareApplyTask_jdm", 
+                           "kmBuildTask_jdm", "kmApplyTask_jdm" };
+    for ( int i = 0; i < taskNames.length; i++ ) {
       try {
-        stmt.close();
-      }
-      catch(Exception anySqlExp){}
+        dmeConn.removeObject(ctx.objectName(taskNames[i]), NamedObject.task);
+      } catch(JDMException jdmExp) {}
     }
+    try {
+      dmeConn.removeObject(ctx.objectName("kmBuildSettings_jdm"), NamedObject.buildSettings);
+    } catch(JDMException jdmExp) {}
+    try {
+      dmeConn.removeObject(ctx.objectName("kmApplySettings_jdm"), NamedObject.applySettings);
+    } catch(JDMException jdmExp) {}
+    try {
+      dmeConn.removeObject(ctx.objectName("kmBuildData_jdm"), NamedObject.physicalDataSet);
+    } catch(JDMException jdmExp) {}
+    try {
+      dmeConn.removeObject(ctx.objectName("kmApplyData_jdm"), NamedObject.physicalDataSet);
+    } catch(JDMException jdmExp) {}
+  }
+
+  private static void dropRunTables(ClusteringContext ctx) 
+  {
+    //Drop views and apply output table
+    dropDatabaseObject(ctx, "DROP VIEW " + ctx.objectName("KM_NORM_DATA_BUILD_JDM"));
+    dropDatabaseObject(ctx, "DROP VIEW " + ctx.objectName("KM_NORM_DATA_APPLY_JDM"));
+    dropDatabaseObject(ctx, "DROP TABLE " + ctx.objectName("KM_APPLY_OUTPUT_JDM"));
+  }
+
+  static void dropDatabaseObject(ClusteringContext ctx, String ddl) 
+  {
+    Statement stmt = null;
     try 
     {
-      stmt = dbConn.createStatement();
-      stmt.executeUpdate("DROP TABLE KM_APPLY_OUTPUT_JDM");      
+      stmt = ctx.getDatabaseConnection().createStatement();
+      stmt.executeUpdate(ddl);   
     } catch(SQLException anySqlExp) {}//Ignore
     finally{
       try {
@@ -0,0 +1,38 @@
+package clustering;
+
+/**
+ * This class reads the rows of a <code>MiningDataset</code> that is already
+ * in memory as a <code>RowBatchSource</code>.
+ */
+public class DatasetRowBatchSource implements RowBatchSource {
+  private final MiningDataset m_data;
+  private int m_nextRow;
+
+  public DatasetRowBatchSource(MiningDataset data) {
+    m_data = data;
+  }
+
+  public String[] getAttributeNames() {
+    return m_data.getAttributeNames();
+  }
+
+  public int nextBatch(double[] values, long[] caseIds) {
+    int d = m_data.getAttributeCount();
+    int rows = Math.min(values.length / d,
+      m_data.getRowCount() - m_nextRow);
+    System.arraycopy(m_data.getValues(), m_nextRow * d, values, 0, rows * d);
+    if (caseIds != null) {
+      for (int i = 0; i < rows; i++)
+        caseIds[i] = m_data.getCaseId(m_nextRow + i);
+    }
+    m_nextRow += rows;
+    return rows;
+  }
+
+  public void rewind() {
+    m_nextRow = 0;
+  }
+
+  public void close() {
+  }
+}
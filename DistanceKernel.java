@@ -0,0 +1,213 @@
+package clustering;
+
+import java.util.Arrays;
+
+/**
+ * This class provides the distance and dot product kernels that every
+ * in-process build and apply path spends its time in. One implementation is
+ * selected when the class is loaded: <code>VectorDistanceKernel</code>,
+ * which uses the SIMD instructions of the machine through the
+ * jdk.incubator.vector module, or <code>ScalarDistanceKernel</code> when the
+ * module is not available (the JVM must be started with
+ * <code>--add-modules jdk.incubator.vector</code> to use it) or the system
+ * property <code>clustering.kernel</code> is set to <code>scalar</code>.
+ *
+ *   The nearest centroid search works like a small matrix multiply: with
+ * the squared centroid norms computed once per iteration,
+ * |x - c|^2 = |x|^2 - 2 x.c + |c|^2, and the centroid minimizing
+ * |c|^2 - 2 x.c is found from dot products alone. Rows and centroids are
+ * processed in tiles that stay in cache, and dot products are taken four
+ * centroids at a time so each chunk of a row is loaded once for four
+ * centroids. Ties go to the lowest centroid index.
+ */
+public abstract class DistanceKernel {
+  /** rows per tile of <code>nearest</code> */
+  public static final int TILE_ROWS = 64;
+  /** centroids per tile of <code>nearest</code>; a multiple of 4 */
+  public static final int TILE_CENTROIDS = 64;
+  /** length of the scratch array <code>nearest</code> and <code>scores</code> need */
+  public static final int SCRATCH_LENGTH = TILE_ROWS + 4;
+
+  private static final DistanceKernel INSTANCE = select();
+
+  /**
+   * @return the kernel selected for this JVM
+   */
+  public static DistanceKernel get() {
+    return INSTANCE;
+  }
+
+  private static DistanceKernel select() {
+    if (!"scalar".equals(System.getProperty("clustering.kernel"))) {
+      try {
+        DistanceKernel vector = (DistanceKernel)Class.forName(
+          "clustering.VectorDistanceKernel").getDeclaredConstructor().newInstance();
+        if (vector.isSupported())
+          return vector;
+      } catch (Throwable unavailable) {
+        // jdk.incubator.vector is not resolved in this JVM
+      }
+    }
+    return new ScalarDistanceKernel();
+  }
+
+  /**
+   * @return name of the implementation, for logging
+   */
+  public abstract String getName();
+
+  /**
+   * @return whether the implementation can run on this machine
+   */
+  boolean isSupported() {
+    return true;
+  }
+
+  public abstract double dot(double[] a, int aOff, double[] b, int bOff, int d);
+
+  public abstract double squaredDistance(double[] a, int aOff, double[] b,
+    int bOff, int d);
+
+  /**
+   * @return sum over j of (a[j] - b[j])^2 * w[j]
+   */
+  public abstract double weightedSquaredDistance(double[] a, int aOff,
+    double[] b, int bOff, double[] w, int wOff, int d);
+
+  /**
+   * Dot products of the row at <code>x[xOff..]</code> with the four
+   * consecutive rows at <code>c[cOff..]</code>, into <code>out[outOff..outOff+3]</code>.
+   */
+  abstract void dot4(double[] x, int xOff, double[] c, int cOff, int d,
+    double[] out, int outOff);
+
+  /**
+   * Computes the squared euclidean norm of each of the k row-major rows.
+   */
+  public void squaredNorms(double[] centroids, int k, int d, double[] norms) {
+    for (int c = 0; c < k; c++)
+      norms[c] = dot(centroids, c * d, centroids, c * d, d);
+  }
+
+  /**
+   * Computes |c|^2 - 2 x.c of one row for every centroid; adding |x|^2
+   * gives the squared distances.
+   *
+   * @param out receives k scores
+   */
+  public void scores(double[] x, int xOff, int d, double[] centroids,
+    double[] norms, int k, double[] out)
+  {
+    int c = 0;
+    for (; c + 4 <= k; c += 4) {
+      dot4(x, xOff, centroids, c * d, d, out, c);
+      for (int q = c; q < c + 4; q++)
+        out[q] = norms[q] - 2.0 * out[q];
+    }
+    for (; c < k; c++)
+      out[c] = norms[c] - 2.0 * dot(x, xOff, centroids, c * d, d);
+  }
+
+  /**
+   * Computes the scores of one tile of at most TILE_ROWS rows, starting at
+   * row <code>xRow</code> of <code>x</code>, like <code>scores</code> for
+   * each row, and assigns each row to its nearest centroid like
+   * <code>nearestTile</code>. The centroids are visited in the same tiles,
+   * so a tile of rows loads each centroid once.
+   *
+   * @param out receives the k scores of row r of the tile at
+   *        <code>out[outOffset + r * k]</code>
+   * @param assignment receives the centroid index of each row, from
+   *        <code>assignment[assignmentOffset]</code> on
+   */
+  public void scoresTile(double[] x, int xRow, int rows, int d,
+    double[] centroids, double[] norms, int k, double[] out, int outOffset,
+    int[] assignment, int assignmentOffset)
+  {
+    for (int c0 = 0; c0 < k; c0 += TILE_CENTROIDS) {
+      int c1 = Math.min(k, c0 + TILE_CENTROIDS);
+      for (int r = 0; r < rows; r++) {
+        int off = (xRow + r) * d;
+        int o = outOffset + r * k;
+        int c = c0;
+        for (; c + 4 <= c1; c += 4) {
+          dot4(x, off, centroids, c * d, d, out, o + c);
+          for (int q = c; q < c + 4; q++)
+            out[o + q] = norms[q] - 2.0 * out[o + q];
+        }
+        for (; c < c1; c++)
+          out[o + c] = norms[c] - 2.0 * dot(x, off, centroids, c * d, d);
+      }
+    }
+    for (int r = 0; r < rows; r++) {
+      int o = outOffset + r * k;
+      int best = 0;
+      for (int c = 1; c < k; c++) {
+        if (out[o + c] < out[o + best])
+          best = c;
+      }
+      assignment[assignmentOffset + r] = best;
+    }
+  }
+
+  /**
+   * Assigns each of the rows [from, to) to its nearest centroid.
+   *
+   * @param norms squared norms of the centroids
+   * @param assignment receives the centroid index of each row
+   * @param scratch work array of at least SCRATCH_LENGTH values
+   */
+  public void nearest(double[] x, int from, int to, int d, double[] centroids,
+    double[] norms, int k, int[] assignment, double[] scratch)
+  {
+    for (int r0 = from; r0 < to; r0 += TILE_ROWS)
+      nearestTile(x, r0, Math.min(to, r0 + TILE_ROWS) - r0, d, centroids, norms,
+        k, assignment, r0, scratch);
+  }
+
+  /**
+   * Assigns one tile of at most TILE_ROWS rows, starting at row
+   * <code>xRow</code> of <code>x</code>, to their nearest centroid. Rows
+   * decoded from a <code>CompactDataset</code> are passed one tile at a time
+   * this way.
+   *
+   * @param assignment receives the centroid index of each row, from
+   *        <code>assignment[assignmentOffset]</code> on
+   * @param scratch work array of at least SCRATCH_LENGTH values
+   */
+  public void nearestTile(double[] x, int xRow, int rows, int d,
+    double[] centroids, double[] norms, int k, int[] assignment,
+    int assignmentOffset, double[] scratch)
+  {
+    Arrays.fill(scratch, 0, rows, Double.POSITIVE_INFINITY);
+    for (int c0 = 0; c0 < k; c0 += TILE_CENTROIDS) {
+      int c1 = Math.min(k, c0 + TILE_CENTROIDS);
+      for (int r = 0; r < rows; r++) {
+        int off = (xRow + r) * d;
+        int a = assignmentOffset + r;
+        double best = scratch[r];
+        int bestCentroid = c0 == 0 ? 0 : assignment[a];
+        int c = c0;
+        for (; c + 4 <= c1; c += 4) {
+          dot4(x, off, centroids, c * d, d, scratch, TILE_ROWS);
+          for (int q = 0; q < 4; q++) {
+            double s = norms[c + q] - 2.0 * scratch[TILE_ROWS + q];
+            if (s < best) {
+              best = s;
+              bestCentroid = c + q;
+            }
+          }
+        }
+        for (; c < c1; c++) {
+          double s = norms[c] - 2.0 * dot(x, off, centroids, c * d, d);
+          if (s < best) {
+            best = s;
+            bestCentroid = c;
+          }
+        }
+        scratch[r] = best;
+        assignment[a] = bestCentroid;
+      }
+    }
+  }
+}
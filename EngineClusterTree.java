@@ -0,0 +1,272 @@
+package clustering;
+
+import java.util.Collection;
+import java.util.Enumeration;
+import java.util.Hashtable;
+import java.util.Iterator;
+import java.util.TreeMap;
+
+import javax.datamining.JDMException;
+import javax.datamining.clustering.Cluster;
+import javax.datamining.clustering.ClusteringModel;
+import javax.datamining.data.AttributeType;
+import javax.datamining.data.Interval;
+import javax.datamining.data.IntervalClosure;
+import javax.datamining.data.ModelSignature;
+import javax.datamining.rule.CompoundPredicate;
+import javax.datamining.rule.SimplePredicate;
+import javax.datamining.statistics.AttributeStatisticsSet;
+import javax.datamining.statistics.UnivariateStatistics;
+
+import oracle.dmt.jdm.OraPLSQLMappings;
+import oracle.dmt.jdm.clustering.OraCluster;
+import oracle.dmt.jdm.rule.OraSimplePredicate;
+
+/**
+ * This class adapts a clustering model built by the mining engine to the
+ * <code>ClusterTreeView</code> the model reports print. Clusters and rules
+ * are wrapped as they are read; predicates of the same attribute in an
+ * antecedent are combined into one line.
+ */
+class EngineClusterTree implements ClusterTreeView {
+  private final ClusteringModel m_model;
+
+  EngineClusterTree(ClusteringModel model) {
+    m_model = model;
+  }
+
+  public String getName() throws JDMException {
+    return m_model.getName();
+  }
+
+  public int getNumberOfClusters() {
+    return m_model.getNumberOfClusters();
+  }
+
+  public int getNumberOfLevels() {
+    return m_model.getNumberOfLevels();
+  }
+
+  public String[] getBuildDetails() {
+    return new String[0];
+  }
+
+  public Node[] getClusters() throws JDMException {
+    return wrap(m_model.getClusters());
+  }
+
+  public Node[] getRootClusters() throws JDMException {
+    return wrap(m_model.getRootClusters());
+  }
+
+  public Node[] getLeafClusters() throws JDMException {
+    return wrap(m_model.getLeafClusters());
+  }
+
+  public Rule[] getRules() throws JDMException {
+    Collection rules = m_model.getRules();
+    if (rules == null || rules.isEmpty())
+      return null;
+    Rule[] wrapped = new Rule[rules.size()];
+    Iterator it = rules.iterator();
+    for (int i = 0; i < wrapped.length; i++)
+      wrapped[i] = new EngineRule((javax.datamining.rule.Rule)it.next());
+    return wrapped;
+  }
+
+  private Node[] wrap(Collection clusters) {
+    if (clusters == null || clusters.isEmpty())
+      return null;
+    return wrap((Cluster[])clusters.toArray(new Cluster[clusters.size()]));
+  }
+
+  private Node[] wrap(Cluster[] clusters) {
+    if (clusters == null)
+      return null;
+    Node[] wrapped = new Node[clusters.length];
+    for (int i = 0; i < clusters.length; i++)
+      wrapped[i] = new EngineNode(clusters[i]);
+    return wrapped;
+  }
+
+  private class EngineNode implements Node {
+    private final Cluster m_cluster;
+
+    EngineNode(Cluster cluster) {
+      m_cluster = cluster;
+    }
+
+    public int getClusterId() {
+      return m_cluster.getClusterId();
+    }
+
+    public long getCaseCount() throws JDMException {
+      return m_cluster.getCaseCount();
+    }
+
+    public int getLevel() throws JDMException {
+      return m_cluster.getLevel();
+    }
+
+    public double getDispersion() {
+      return ((OraCluster)m_cluster).getDispersion();
+    }
+
+    public Node getParent() throws JDMException {
+      Cluster parent = m_cluster.getParent();
+      return parent == null ? null : new EngineNode(parent);
+    }
+
+    public boolean isRoot() throws JDMException {
+      return m_cluster.isRoot();
+    }
+
+    public boolean isLeaf() throws JDMException {
+      return m_cluster.isLeaf();
+    }
+
+    public Node[] getAncestors() throws JDMException {
+      return wrap(m_cluster.getAncestors());
+    }
+
+    public Node[] getChildren() throws JDMException {
+      return wrap(m_cluster.getChildren());
+    }
+
+    public Rule getRule() throws JDMException {
+      javax.datamining.rule.Rule rule = m_cluster.getRule();
+      return rule == null ? null : new EngineRule(rule);
+    }
+
+    public Histogram[] getStatistics() throws JDMException {
+      AttributeStatisticsSet attrStat = m_cluster.getStatistics();
+      if (attrStat == null)
+        return null;
+      TreeMap centroids = ((OraCluster)m_cluster).getCentroids();
+      if (centroids == null || centroids.isEmpty())
+        return new Histogram[0];
+      ModelSignature modelSignature = m_model.getSignature();
+      Histogram[] histograms = new Histogram[centroids.size()];
+      int count = 0;
+      Iterator attributesNames = centroids.keySet().iterator();
+      while (attributesNames.hasNext()) {
+        String attributeName = (String)attributesNames.next();
+        AttributeType aType =
+          modelSignature.getAttribute(attributeName).getAttributeType();
+        UnivariateStatistics stats = attrStat.getStatistics(attributeName);
+        double[] probabilities = stats.getProbabilities();
+        Object[] values = stats.getValues();
+        boolean categorical = aType.equals(AttributeType.categorical);
+        if (values == null || !(categorical ||
+            aType.equals(AttributeType.numerical)))
+          continue;
+        String[] labels = new String[values.length];
+        long[] frequencies = new long[values.length];
+        for (int in = 0; in < values.length; in++) {
+          labels[in] = categorical ? String.valueOf(values[in]) :
+            rangeLabel((Interval)values[in]);
+          frequencies[in] = (int)probabilities[in];
+        }
+        histograms[count++] = new Histogram(attributeName, categorical,
+          labels, frequencies);
+      }
+      Histogram[] result = new Histogram[count];
+      System.arraycopy(histograms, 0, result, 0, count);
+      return result;
+    }
+  }
+
+  private static String rangeLabel(Interval bin) {
+    IntervalClosure closure = bin.getIntervalClosure();
+    String openParenthesis = ( ( closure.equals(IntervalClosure.openClosed) ||
+          closure.equals(IntervalClosure.openOpen ) ) ? "( " : "[ " );
+    String closeParenthesis = ( ( closure.equals(IntervalClosure.openOpen) ||
+          closure.equals(IntervalClosure.closedOpen ) ) ? " )" : " ]" );
+    return openParenthesis + bin.getStartPoint() + " - " + bin.getEndPoint() +
+      closeParenthesis;
+  }
+
+  private static class EngineRule implements Rule {
+    private final javax.datamining.rule.Rule m_rule;
+
+    EngineRule(javax.datamining.rule.Rule rule) {
+      m_rule = rule;
+    }
+
+    public int getRuleIdentifier() {
+      return m_rule.getRuleIdentifier();
+    }
+
+    public double getSupport() {
+      return m_rule.getSupport();
+    }
+
+    public double getConfidence() {
+      return m_rule.getConfidence();
+    }
+
+    /**
+     * @return the predicates of the antecedent, those of one attribute
+     *         combined with AND on one line
+     */
+    public String[] getAntecedent() throws JDMException {
+      SimplePredicate[] sps = (SimplePredicate[])
+        ((CompoundPredicate)m_rule.getAntecedent()).getPredicates();
+      if (sps == null)
+        return new String[0];
+      Hashtable htNamePredicateMap = new Hashtable();
+      for (int i = 0; i < sps.length; i++) {
+        StringBuffer simplePredicate = toString(sps[i]);
+        String attrName = sps[i].getAttributeName();
+        StringBuffer attrTotalPredicate =
+          (StringBuffer)htNamePredicateMap.get(attrName);
+        if (attrTotalPredicate == null)
+          htNamePredicateMap.put(attrName, simplePredicate);
+        else
+          attrTotalPredicate.append(" AND " + simplePredicate);
+      }
+      String[] lines = new String[htNamePredicateMap.size()];
+      Enumeration en = htNamePredicateMap.elements();
+      for (int i = 0; i < lines.length; i++)
+        lines[i] = en.nextElement().toString();
+      return lines;
+    }
+
+    public String[] getConsequent() throws JDMException {
+      SimplePredicate[] sps = (SimplePredicate[])
+        ((CompoundPredicate)m_rule.getConsequent()).getPredicates();
+      if (sps == null)
+        return new String[0];
+      String[] lines = new String[sps.length];
+      for (int i = 0; i < sps.length; i++) {
+        StringBuffer simplePredicate = toString(sps[i]);
+        if (i < sps.length - 1)
+          simplePredicate.append(" AND ");
+        lines[i] = simplePredicate.toString();
+      }
+      return lines;
+    }
+
+    private static StringBuffer toString(SimplePredicate predicate)
+      throws JDMException
+    {
+      StringBuffer sb = new StringBuffer(predicate.getAttributeName() + " " +
+        OraPLSQLMappings.getComparisonOperatorValue_tree(
+          ((OraSimplePredicate)predicate).getComparisonOperator()) + " ");
+      if (predicate.isNumericalValue()) {
+        sb.append(predicate.getNumericalValue());
+      }
+      else {
+        Object[] inValues = predicate.getCategoryValues();
+        if (inValues != null) {
+          for (int i = 0; i < inValues.length; i++) {
+            sb.append(inValues[i]);
+            if (i != inValues.length - 1)
+              sb.append(",");
+          }
+        }
+      }
+      return sb;
+    }
+  }
+}
@@ -0,0 +1,316 @@
+package clustering;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * This class builds a <code>GaussianMixtureModel</code> inside the Java VM
+ * with the expectation-maximization (EM) algorithm. It is the engine behind
+ * the "bayesian" algorithm choice.
+ *
+ *   The settings of a <code>KMeansConfig</code> are reused: the number of
+ * clusters is the number of components, the build stops after
+ * <code>maxNumberOfIterations</code> EM iterations or once an iteration
+ * improves the log-likelihood by less than <code>minErrorTolerance</code>
+ * relative to the previous one, and the random seed and initialization
+ * drive the k-Means build that gives the starting means. The starting
+ * weights are the k-Means cluster sizes and the starting variances those
+ * of the whole data. Variances are kept above a small fraction of the
+ * attribute's overall variance so that a component cannot collapse onto a
+ * single case.
+ *
+ *   The E-step runs in row blocks on a <code>ForkJoinPool</code> like the
+ * k-Means assignment step (see <code>ParallelAssignment</code>): each block
+ * owns its sufficient statistics and its scratch row of log densities, the
+ * partials are merged pairwise, and no iteration allocates.
+ */
+public class GaussianMixtureEM {
+  // variances never drop below this fraction of the overall variance
+  private static final double VARIANCE_FLOOR = 1e-6;
+  private static final double MIN_VARIANCE = 1e-12;
+  private static final int MIN_BLOCK_ROWS = 1024;
+  private static final int BLOCKS_PER_WORKER = 4;
+
+  private final KMeansConfig m_config;
+  private ProgressListener m_listener;
+
+  public GaussianMixtureEM(KMeansConfig config) {
+    m_config = config;
+  }
+
+  public KMeansConfig getConfig() {
+    return m_config;
+  }
+
+  /**
+   * @param listener is told about every EM iteration, with the negative
+   *        log-likelihood as the error, and can end the build early; the
+   *        k-Means build that gives the starting point is not reported
+   */
+  public void setProgressListener(ProgressListener listener) {
+    m_listener = listener;
+  }
+
+  /**
+   * @param data build data
+   * @param modelName name given to the model
+   * @return the built model
+   */
+  public GaussianMixtureModel build(MiningDataset data, String modelName) {
+    int n = data.getRowCount();
+    int d = data.getAttributeCount();
+    if (n == 0)
+      throw new IllegalArgumentException("Build data " + modelName + " has no rows");
+    double[] x = data.getValues();
+
+    // starting point: k-Means centroids and cluster sizes
+    LocalClusteringModel kmeans = new KMeansEngine(m_config).build(data, modelName);
+    int k = kmeans.getNumberOfLeafClusters();
+    double[] means = kmeans.getLeafCentroids();
+    double[] weights = new double[k];
+    for (int c = 0; c < k; c++)
+      weights[c] = Math.max(1.0, kmeans.getLeafCluster(c).getCaseCount()) / n;
+    normalize(weights);
+    double[] floor = new double[d];
+    double[] variances = new double[k * d];
+    overallVariances(x, n, d, floor);
+    for (int c = 0; c < k; c++)
+      System.arraycopy(floor, 0, variances, c * d, d);
+    for (int j = 0; j < d; j++)
+      floor[j] = Math.max(MIN_VARIANCE, floor[j] * VARIANCE_FLOOR);
+
+    EStep step = new EStep(x, n, d, k, m_config.getParallelism());
+    double[] inverseVariances = new double[k * d];
+    double[] logNormalizers = new double[k];
+    double previous = Double.NaN;
+    double logLikelihood = Double.NaN;
+    int iteration = 0;
+    try {
+      while (iteration < m_config.getMaxNumberOfIterations()) {
+        iteration++;
+        GaussianMixtureModel.fillScoringTerms(weights, variances, d,
+          inverseVariances, logNormalizers);
+        logLikelihood = step.run(means, inverseVariances, logNormalizers);
+        step.maximize(weights, means, variances, floor);
+        boolean proceed = m_listener == null ||
+          m_listener.iterationFinished(iteration, -logLikelihood,
+            Double.isNaN(previous) ? Double.NaN :
+            (logLikelihood - previous) / Math.abs(previous),
+            m_config.getMinErrorTolerance());
+        if (!Double.isNaN(previous) && logLikelihood - previous <=
+            m_config.getMinErrorTolerance() * Math.abs(previous) || !proceed)
+          break;
+        previous = logLikelihood;
+      }
+    } finally {
+      step.shutdown();
+    }
+    return new GaussianMixtureModel(modelName, data.getAttributeNames(),
+      weights, means, variances, iteration, logLikelihood);
+  }
+
+  static void overallVariances(double[] x, int n, int d, double[] variances) {
+    double[] mean = new double[d];
+    for (int i = 0; i < n; i++) {
+      for (int j = 0; j < d; j++)
+        mean[j] += x[i * d + j];
+    }
+    for (int j = 0; j < d; j++)
+      mean[j] /= n;
+    Arrays.fill(variances, 0.0);
+    for (int i = 0; i < n; i++) {
+      for (int j = 0; j < d; j++) {
+        double diff = x[i * d + j] - mean[j];
+        variances[j] += diff * diff;
+      }
+    }
+    for (int j = 0; j < d; j++)
+      variances[j] = Math.max(MIN_VARIANCE, variances[j] / n);
+  }
+
+  private static void normalize(double[] weights) {
+    double sum = 0.0;
+    for (int c = 0; c < weights.length; c++)
+      sum += weights[c];
+    for (int c = 0; c < weights.length; c++)
+      weights[c] /= sum;
+  }
+
+  /**
+   * The E-step over row blocks, with the sufficient statistics of each
+   * block: the sum of responsibilities, and the responsibility-weighted sums
+   * of values and squared values of every component.
+   */
+  private static class EStep {
+    private final ForkJoinPool m_pool;
+    private final double[] m_x;
+    private final int m_d;
+    private final int m_k;
+    private final int[] m_blockStart;
+    private final double[][] m_weightSums;
+    private final double[][] m_sums;
+    private final double[][] m_squareSums;
+    private final double[] m_logLikelihood;
+    private final double[][] m_scratch;
+    private final BlockTask m_root;
+    private double[] m_means;
+    private double[] m_inverseVariances;
+    private double[] m_logNormalizers;
+
+    EStep(double[] x, int n, int d, int k, int parallelism) {
+      m_x = x;
+      m_d = d;
+      m_k = k;
+      int blocks = (int)Math.max(1L, Math.min(
+        (long)parallelism * BLOCKS_PER_WORKER, n / MIN_BLOCK_ROWS));
+      if (parallelism == 1)
+        blocks = 1;
+      m_pool = blocks > 1 ? new ForkJoinPool(parallelism) : null;
+      m_blockStart = new int[blocks + 1];
+      for (int b = 0; b <= blocks; b++)
+        m_blockStart[b] = (int)((long)n * b / blocks);
+      m_weightSums = new double[blocks][k];
+      m_sums = new double[blocks][k * d];
+      m_squareSums = new double[blocks][k * d];
+      m_logLikelihood = new double[blocks];
+      m_scratch = new double[blocks][k];
+      m_root = buildTree(0, blocks);
+    }
+
+    /**
+     * @return log-likelihood of the data under the given parameters
+     */
+    double run(double[] means, double[] inverseVariances, double[] logNormalizers) {
+      m_means = means;
+      m_inverseVariances = inverseVariances;
+      m_logNormalizers = logNormalizers;
+      m_root.reinitializeTree();
+      if (m_pool != null)
+        m_pool.invoke(m_root);
+      else
+        m_root.compute();
+      return m_logLikelihood[0];
+    }
+
+    /**
+     * The M-step: new weights, means and variances from the statistics of
+     * the last <code>run</code>. A component without cases keeps its
+     * parameters.
+     */
+    void maximize(double[] weights, double[] means, double[] variances,
+      double[] floor)
+    {
+      int d = m_d;
+      double total = 0.0;
+      for (int c = 0; c < m_k; c++)
+        total += m_weightSums[0][c];
+      for (int c = 0; c < m_k; c++) {
+        double w = m_weightSums[0][c];
+        if (w <= 0.0 || Double.isNaN(w))
+          continue;
+        weights[c] = w / total;
+        for (int j = 0; j < d; j++) {
+          double mean = m_sums[0][c * d + j] / w;
+          double variance = m_squareSums[0][c * d + j] / w - mean * mean;
+          means[c * d + j] = mean;
+          variances[c * d + j] = Math.max(floor[j], variance);
+        }
+      }
+      normalize(weights);
+    }
+
+    void shutdown() {
+      if (m_pool != null)
+        m_pool.shutdown();
+    }
+
+    private BlockTask buildTree(int fromBlock, int toBlock) {
+      if (toBlock - fromBlock == 1)
+        return new BlockTask(fromBlock, null, null);
+      int mid = (fromBlock + toBlock) >>> 1;
+      return new BlockTask(fromBlock, buildTree(fromBlock, mid),
+        buildTree(mid, toBlock));
+    }
+
+    private void expect(int b) {
+      double[] x = m_x;
+      int d = m_d;
+      int k = m_k;
+      double[] weightSums = m_weightSums[b];
+      double[] sums = m_sums[b];
+      double[] squareSums = m_squareSums[b];
+      double[] resp = m_scratch[b];
+      Arrays.fill(weightSums, 0.0);
+      Arrays.fill(sums, 0.0);
+      Arrays.fill(squareSums, 0.0);
+      double logLikelihood = 0.0;
+      for (int i = m_blockStart[b]; i < m_blockStart[b + 1]; i++) {
+        int off = i * d;
+        logLikelihood += GaussianMixtureModel.responsibilities(x, off, d, k,
+          m_means, m_inverseVariances, m_logNormalizers, resp);
+        for (int c = 0; c < k; c++) {
+          double r = resp[c];
+          if (r == 0.0)
+            continue;
+          weightSums[c] += r;
+          int coff = c * d;
+          for (int j = 0; j < d; j++) {
+            double v = x[off + j];
+            sums[coff + j] += r * v;
+            squareSums[coff + j] += r * v * v;
+          }
+        }
+      }
+      m_logLikelihood[b] = logLikelihood;
+    }
+
+    private void merge(int into, int from) {
+      add(m_weightSums[into], m_weightSums[from]);
+      add(m_sums[into], m_sums[from]);
+      add(m_squareSums[into], m_squareSums[from]);
+      m_logLikelihood[into] += m_logLikelihood[from];
+    }
+
+    private static void add(double[] into, double[] from) {
+      for (int i = 0; i < into.length; i++)
+        into[i] += from[i];
+    }
+
+    /**
+     * Handles the blocks of its subtree; the result ends up in the partials
+     * of its first block.
+     */
+    private class BlockTask extends RecursiveAction {
+      private static final long serialVersionUID = 1L;
+      private final int m_fromBlock;
+      private final BlockTask m_left;
+      private final BlockTask m_right;
+
+      BlockTask(int fromBlock, BlockTask left, BlockTask right) {
+        m_fromBlock = fromBlock;
+        m_left = left;
+        m_right = right;
+      }
+
+      void reinitializeTree() {
+        reinitialize();
+        if (m_left != null) {
+          m_left.reinitializeTree();
+          m_right.reinitializeTree();
+        }
+      }
+
+      protected void compute() {
+        if (m_left == null) {
+          expect(m_fromBlock);
+          return;
+        }
+        m_right.fork();
+        m_left.compute();
+        m_right.join();
+        merge(m_left.m_fromBlock, m_right.m_fromBlock);
+      }
+    }
+  }
+}
@@ -0,0 +1,173 @@
+package clustering;
+
+/**
+ * This class is a probabilistic clustering model: a mixture of Gaussian
+ * components with diagonal covariances, built by
+ * <code>GaussianMixtureEM</code>. Component <code>c</code> has cluster
+ * identifier <code>c + 1</code>.
+ *
+ *   Scoring a case gives the probability that it belongs to each component
+ * (its responsibilities), computed in log space with log-sum-exp so that
+ * cases far from every component do not underflow. Instances are not
+ * modified after they are built, so a model can score from many threads.
+ */
+public class GaussianMixtureModel {
+  private static final double LOG_2PI = Math.log(2.0 * Math.PI);
+
+  private final String m_name;
+  private final String[] m_attributeNames;
+  private final double[] m_weights;
+  private final double[] m_means;
+  private final double[] m_variances;
+  private final double[] m_inverseVariances;
+  private final double[] m_logNormalizers;
+  private final int m_iterations;
+  private final double m_logLikelihood;
+
+  /**
+   * @param weights mixing weight of each component
+   * @param means row-major components x attributes means
+   * @param variances row-major components x attributes variances
+   * @param iterations EM iterations the build ran
+   * @param logLikelihood log-likelihood of the build data
+   */
+  GaussianMixtureModel(String name, String[] attributeNames, double[] weights,
+    double[] means, double[] variances, int iterations, double logLikelihood)
+  {
+    int k = weights.length;
+    int d = attributeNames.length;
+    m_name = name;
+    m_attributeNames = attributeNames;
+    m_weights = weights;
+    m_means = means;
+    m_variances = variances;
+    m_iterations = iterations;
+    m_logLikelihood = logLikelihood;
+    m_inverseVariances = new double[k * d];
+    m_logNormalizers = new double[k];
+    fillScoringTerms(weights, variances, d, m_inverseVariances, m_logNormalizers);
+  }
+
+  /**
+   * Computes 1 / variance and log(weight) - 0.5 * sum of log(2 pi variance)
+   * of every component, the per-component constants of the log density.
+   */
+  static void fillScoringTerms(double[] weights, double[] variances, int d,
+    double[] inverseVariances, double[] logNormalizers)
+  {
+    for (int c = 0; c < weights.length; c++) {
+      double logNorm = Math.log(weights[c]);
+      for (int j = 0; j < d; j++) {
+        double v = variances[c * d + j];
+        inverseVariances[c * d + j] = 1.0 / v;
+        logNorm -= 0.5 * (LOG_2PI + Math.log(v));
+      }
+      logNormalizers[c] = logNorm;
+    }
+  }
+
+  /**
+   * Computes log(weight x density) of the case at <code>x[off..off+d)</code>
+   * for every component into <code>logDensity</code>.
+   *
+   * @return log of the sum of the exponentials, i.e. the log-likelihood of
+   *         the case; the values of <code>logDensity</code> are replaced by
+   *         the probabilities of the components
+   */
+  static double responsibilities(double[] x, int off, int d, int k,
+    double[] means, double[] inverseVariances, double[] logNormalizers,
+    double[] logDensity)
+  {
+    DistanceKernel kernel = DistanceKernel.get();
+    double max = Double.NEGATIVE_INFINITY;
+    for (int c = 0; c < k; c++) {
+      int coff = c * d;
+      double q = kernel.weightedSquaredDistance(x, off, means, coff,
+        inverseVariances, coff, d);
+      double lp = logNormalizers[c] - 0.5 * q;
+      logDensity[c] = lp;
+      if (lp > max)
+        max = lp;
+    }
+    double sum = 0.0;
+    for (int c = 0; c < k; c++) {
+      double e = Math.exp(logDensity[c] - max);
+      logDensity[c] = e;
+      sum += e;
+    }
+    double inv = 1.0 / sum;
+    for (int c = 0; c < k; c++)
+      logDensity[c] *= inv;
+    return max + Math.log(sum);
+  }
+
+  /**
+   * Scores one case without allocating.
+   *
+   * @param x row-major values holding the case
+   * @param off offset of the case in <code>x</code>
+   * @param probabilities receives the probability of each component; its
+   *        length must be at least the number of components
+   * @return index of the most probable component
+   */
+  public int score(double[] x, int off, double[] probabilities) {
+    int k = m_weights.length;
+    responsibilities(x, off, m_attributeNames.length, k, m_means,
+      m_inverseVariances, m_logNormalizers, probabilities);
+    int best = 0;
+    for (int c = 1; c < k; c++) {
+      if (probabilities[c] > probabilities[best])
+        best = c;
+    }
+    return best;
+  }
+
+  public String getName() {
+    return m_name;
+  }
+
+  public String[] getAttributeNames() {
+    return m_attributeNames;
+  }
+
+  public int getAttributeCount() {
+    return m_attributeNames.length;
+  }
+
+  public int getNumberOfComponents() {
+    return m_weights.length;
+  }
+
+  /**
+   * @return cluster identifier of a component index
+   */
+  public int getClusterId(int component) {
+    return component + 1;
+  }
+
+  public double getWeight(int component) {
+    return m_weights[component];
+  }
+
+  public double getMean(int component, int attribute) {
+    return m_means[component * m_attributeNames.length + attribute];
+  }
+
+  public double getVariance(int component, int attribute) {
+    return m_variances[component * m_attributeNames.length + attribute];
+  }
+
+  /**
+   * @return number of EM iterations the build ran
+   */
+  public int getIterations() {
+    return m_iterations;
+  }
+
+  /**
+   * @return log-likelihood of the build data under the model
+   */
+  public double getLogLikelihood() {
+    return m_logLikelihood;
+  }
+}
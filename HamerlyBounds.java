@@ -0,0 +1,150 @@
+package clustering;
+
+/**
+ * This class speeds up the assignment step of k-Means with Hamerly's
+ * triangle inequality bounds, giving the same assignment as a plain Lloyd
+ * iteration while skipping most distance evaluations once cases stop
+ * changing cluster.
+ *
+ *   For every case it keeps a lower bound on the distance to the second
+ * closest centroid, and for every centroid half the distance to its nearest
+ * other centroid. The distance of a case to its own centroid is always
+ * computed, since the iteration error needs it anyway; when that distance
+ * is below both bounds no other centroid can be closer and the remaining
+ * k - 1 distances are skipped. Otherwise the case is scored against all
+ * centroids with the same <code>DistanceKernel</code> scores as
+ * <code>KMeansEngine.assignAndAccumulate</code>, so ties are broken the
+ * same way. After the centroids move, each lower bound is lowered by the
+ * largest move of any other centroid.
+ *
+ *   <code>prepare</code> runs once per iteration on the calling thread;
+ * <code>assign</code> may then run concurrently on disjoint row ranges.
+ */
+class HamerlyBounds {
+  private final double[] m_x;
+  private final int m_d;
+  private final int m_k;
+  private final int[] m_assignment;
+  private final double[] m_lower;
+  private final double[] m_halfMinDistance;
+  private final double[] m_previous;
+  private final double[] m_norms;
+  private final DistanceKernel m_kernel = DistanceKernel.get();
+  private int m_iterations;
+  private double m_maxDrift;
+  private int m_maxDriftCluster;
+  private double m_secondDrift;
+
+  HamerlyBounds(double[] x, int n, int d, int k, int[] assignment) {
+    m_x = x;
+    m_d = d;
+    m_k = k;
+    m_assignment = assignment;
+    m_lower = new double[n];
+    m_halfMinDistance = new double[k];
+    m_previous = new double[k * d];
+    m_norms = new double[k];
+  }
+
+  /**
+   * Updates the centroid bounds for the centroids of the coming iteration.
+   */
+  void prepare(double[] centroids) {
+    int d = m_d;
+    int k = m_k;
+    m_maxDrift = 0.0;
+    m_secondDrift = 0.0;
+    m_maxDriftCluster = -1;
+    // there are bounds to update once an assignment has used them
+    if (m_iterations++ > 0) {
+      for (int c = 0; c < k; c++) {
+        double drift = Math.sqrt(m_kernel.squaredDistance(m_previous, c * d,
+          centroids, c * d, d));
+        if (drift > m_maxDrift) {
+          m_secondDrift = m_maxDrift;
+          m_maxDrift = drift;
+          m_maxDriftCluster = c;
+        } else if (drift > m_secondDrift) {
+          m_secondDrift = drift;
+        }
+      }
+    }
+    for (int c = 0; c < k; c++)
+      m_halfMinDistance[c] = Double.POSITIVE_INFINITY;
+    for (int c = 0; c < k; c++) {
+      for (int o = c + 1; o < k; o++) {
+        double half = 0.5 * Math.sqrt(m_kernel.squaredDistance(centroids, c * d,
+          centroids, o * d, d));
+        if (half < m_halfMinDistance[c]) m_halfMinDistance[c] = half;
+        if (half < m_halfMinDistance[o]) m_halfMinDistance[o] = half;
+      }
+    }
+    System.arraycopy(centroids, 0, m_previous, 0, centroids.length);
+    m_kernel.squaredNorms(centroids, k, d, m_norms);
+  }
+
+  /**
+   * Assigns the rows [from, to) like
+   * <code>KMeansEngine.assignAndAccumulate</code>.
+   *
+   * @param skipped receives, at <code>slot</code>, the number of distance
+   *        evaluations skipped
+   * @param scratch work array of at least k values
+   * @return sum of the squared distances of the rows to their centroid
+   */
+  double assign(int from, int to, double[] centroids, double[] sums,
+    long[] counts, long[] skipped, int slot, double[] scratch)
+  {
+    DistanceKernel kernel = m_kernel;
+    double[] x = m_x;
+    int d = m_d;
+    int k = m_k;
+    boolean bounded = m_iterations > 1;
+    double error = 0.0;
+    long saved = 0L;
+    for (int i = from; i < to; i++) {
+      int off = i * d;
+      int a = -1;
+      double own = 0.0;
+      if (bounded) {
+        a = m_assignment[i];
+        double lower = m_lower[i] - (a == m_maxDriftCluster ? m_secondDrift : m_maxDrift);
+        m_lower[i] = lower;
+        own = kernel.squaredDistance(x, off, centroids, a * d, d);
+        if (Math.sqrt(own) >= Math.max(lower, m_halfMinDistance[a]))
+          a = -1;
+      }
+      int best;
+      double bestDist;
+      if (a >= 0) {
+        best = a;
+        bestDist = own;
+        saved += k - 1;
+      } else {
+        kernel.scores(x, off, d, centroids, m_norms, k, scratch);
+        best = 0;
+        int second = -1;
+        for (int c = 1; c < k; c++) {
+          if (scratch[c] < scratch[best]) {
+            second = best;
+            best = c;
+          } else if (second < 0 || scratch[c] < scratch[second]) {
+            second = c;
+          }
+        }
+        m_assignment[i] = best;
+        bestDist = kernel.squaredDistance(x, off, centroids, best * d, d);
+        // the exact distance, less a margin for the rounding of the scores
+        m_lower[i] = second < 0 ? Double.POSITIVE_INFINITY : Math.sqrt(
+          kernel.squaredDistance(x, off, centroids, second * d, d)) * (1.0 - 1e-9);
+      }
+      counts[best]++;
+      int soff = best * d;
+      for (int j = 0; j < d; j++)
+        sums[soff + j] += x[off + j];
+      error += bestDist;
+    }
+    skipped[slot] += saved;
+    return error;
+  }
+}
@@ -0,0 +1,159 @@
+package clustering;
+
+import java.io.IOException;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class streams the numerical attributes of a table or view as a
+ * <code>RowBatchSource</code>. Every pass runs one query whose rows are
+ * fetched from the database in batches, so only one batch of rows is held
+ * in memory at a time.
+ *
+ *   Columns are picked as in <code>MiningDataLoader</code>. A missing
+ * value is replaced by the mean of its attribute. Until one pass has been
+ * read to its end, this is the mean of the values read so far; from then
+ * on the means are frozen at those of the whole column. A pass rewound
+ * before its end goes on adding to the means from the first row the
+ * earlier passes did not reach, so each row is counted once.
+ */
+public class JdbcRowBatchSource implements RowBatchSource {
+  private final java.sql.Connection m_dbConn;
+  private final String m_query;
+  private final String m_caseIdColumn;
+  private final int m_fetchSize;
+  private final String[] m_attributeNames;
+  private final int[] m_columnIndex;
+  private final double[] m_columnSums;
+  private final long[] m_columnCounts;
+  private int m_caseIdIndex;
+  private long m_rowNumber;
+  // rows of the first pass added to the means so far
+  private long m_rowsAccumulated;
+  private boolean m_meansFrozen;
+  private boolean m_imputeMissing = true;
+  private Statement m_stmt;
+  private ResultSet m_rs;
+
+  /**
+   * @param dbConn database connection to read from; it stays open when the
+   *        source is closed
+   * @param dataURI name of the table or view, e.g. MINING_DATA_BUILD_V
+   * @param caseIdColumn name of the case identifier column, or null
+   * @param excludeColumnList columns that must not be used as attributes
+   * @param fetchSize number of rows fetched from the database at a time
+   * @exception SQLException if the data could not be read
+   */
+  public JdbcRowBatchSource(java.sql.Connection dbConn, String dataURI,
+    String caseIdColumn, String[] excludeColumnList, int fetchSize)
+    throws SQLException
+  {
+    m_dbConn = dbConn;
+    m_query = "SELECT * FROM " + dataURI;
+    m_caseIdColumn = caseIdColumn;
+    m_fetchSize = fetchSize;
+    List<String> names = new ArrayList<String>();
+    try {
+      open();
+      m_columnIndex = MiningDataLoader.selectAttributeColumns(m_rs.getMetaData(),
+        caseIdColumn, excludeColumnList, names);
+    } catch (SQLException sqlExp) {
+      close();
+      throw sqlExp;
+    }
+    m_attributeNames = names.toArray(new String[names.size()]);
+    m_columnSums = new double[m_columnIndex.length];
+    m_columnCounts = new long[m_columnIndex.length];
+  }
+
+  public String[] getAttributeNames() {
+    return m_attributeNames;
+  }
+
+  /**
+   * @param imputeMissing false to return missing values as NaN instead of
+   *        replacing them with the mean of their attribute, e.g. for a
+   *        reader that sees the whole column before it fills them in
+   *        (see <code>ColumnarStore.write</code>)
+   */
+  public void setImputeMissing(boolean imputeMissing) {
+    m_imputeMissing = imputeMissing;
+  }
+
+  public int nextBatch(double[] values, long[] caseIds) throws IOException {
+    int cols = m_columnIndex.length;
+    int capacity = values.length / cols;
+    int rows = 0;
+    try {
+      while (rows < capacity) {
+        if (!m_rs.next()) {
+          // a complete pass has been read
+          m_meansFrozen = true;
+          break;
+        }
+        if (caseIds != null)
+          caseIds[rows] = m_caseIdIndex > 0 ? m_rs.getLong(m_caseIdIndex) :
+            m_rowNumber;
+        boolean accumulate = !m_meansFrozen && m_rowNumber >= m_rowsAccumulated;
+        int offset = rows * cols;
+        for (int j = 0; j < cols; j++) {
+          double v = m_rs.getDouble(m_columnIndex[j]);
+          if (m_rs.wasNull()) {
+            if (!m_imputeMissing)
+              v = Double.NaN;
+            else
+              v = m_columnCounts[j] == 0 ? 0.0 : m_columnSums[j] / m_columnCounts[j];
+          } else if (accumulate) {
+            m_columnSums[j] += v;
+            m_columnCounts[j]++;
+          }
+          values[offset + j] = v;
+        }
+        if (accumulate)
+          m_rowsAccumulated++;
+        rows++;
+        m_rowNumber++;
+      }
+    } catch (SQLException sqlExp) {
+      throw new IOException("Could not read " + m_query, sqlExp);
+    }
+    return rows;
+  }
+
+  public void rewind() throws IOException {
+    closeQuery();
+    try {
+      open();
+    } catch (SQLException sqlExp) {
+      throw new IOException("Could not read " + m_query, sqlExp);
+    }
+  }
+
+  public void close() {
+    closeQuery();
+  }
+
+  private void open() throws SQLException {
+    m_rowNumber = 0;
+    m_stmt = m_dbConn.createStatement();
+    m_stmt.setFetchSize(m_fetchSize);
+    m_rs = m_stmt.executeQuery(m_query);
+    m_caseIdIndex = MiningDataLoader.findColumn(m_rs.getMetaData(), m_caseIdColumn);
+  }
+
+  private void closeQuery() {
+    try {
+      if (m_rs != null)
+        m_rs.close();
+    } catch(Exception anySqlExp) {}
+    try {
+      if (m_stmt != null)
+        m_stmt.close();
+    } catch(Exception anySqlExp) {}
+    m_rs = null;
+    m_stmt = null;
+  }
+}
@@ -0,0 +1,227 @@
+package clustering;
+
+import javax.datamining.algorithm.kmeans.ClusteringDistanceFunction;
+import javax.datamining.algorithm.kmeans.KMeansSettings;
+import javax.datamining.clustering.ClusteringSettings;
+
+/**
+ * This class holds the settings of the in-process k-Means engine. The
+ * defaults are the ones <code>DMKMDemo.buildModel</code> gives to the mining
+ * engine: euclidean distance, 10 clusters, at most 10 iterations and a
+ * minimum error tolerance of 0.01.
+ *
+ *   The build stops after <code>maxNumberOfIterations</code> iterations, or
+ * earlier once an iteration improves the total within-cluster squared error
+ * by less than <code>minErrorTolerance</code> relative to the previous one.
+ *
+ *   <code>parallelism</code> sets how many worker threads the build uses;
+ * it defaults to the number of available processors. <code>accelerated</code>
+ * skips distance evaluations with triangle inequality bounds (see
+ * <code>HamerlyBounds</code>); it does not change the result.
+ *
+ *   <code>initialization</code> chooses how the first centroids are picked:
+ * distinct random cases, or k-means|| seeding (see
+ * <code>KMeansParallelSeeder</code>), which usually needs fewer iterations.
+ * <code>splitCriterion</code> chooses the leaf that a hierarchical build
+ * (see <code>BisectingKMeans</code>) splits next, like
+ * <code>OraKMeansSettings.setSplitCriterion</code> does for the engine.
+ */
+public class KMeansConfig {
+  /**
+   * Methods for picking the initial centroids.
+   */
+  public enum Initialization {
+    /** distinct cases picked uniformly at random */
+    RANDOM,
+    /** k-means|| oversampling followed by weighted k-means++ */
+    KMEANS_PARALLEL
+  }
+
+  /**
+   * Criteria for choosing the next cluster to split.
+   */
+  public enum SplitCriterion {
+    /** the cluster with the largest sum of squared distances to its mean */
+    VARIANCE,
+    /** the cluster with the most cases */
+    SIZE
+  }
+
+  private ClusteringDistanceFunction m_distanceFunction =
+    ClusteringDistanceFunction.euclidean;
+  private int m_numberOfClusters = 10;
+  private int m_maxNumberOfIterations = 10;
+  private double m_minErrorTolerance = 0.01;
+  private int m_numberOfBins = 10;
+  private long m_randomSeed = 0L;
+  private int m_parallelism = Runtime.getRuntime().availableProcessors();
+  private boolean m_accelerated = false;
+  private Initialization m_initialization = Initialization.RANDOM;
+  private int m_initializationRounds = KMeansParallelSeeder.DEFAULT_ROUNDS;
+  private SplitCriterion m_splitCriterion = SplitCriterion.VARIANCE;
+
+  /**
+   * Creates a configuration from the settings used for a mining engine
+   * build, so that both engines are driven by the same values.
+   *
+   * @param algoSettings k-Means algorithm settings
+   * @param buildSettings clustering function settings
+   */
+  public static KMeansConfig fromSettings(KMeansSettings algoSettings,
+    ClusteringSettings buildSettings)
+  {
+    KMeansConfig config = new KMeansConfig();
+    config.setDistanceFunction(algoSettings.getDistanceFunction());
+    config.setMaxNumberOfIterations(algoSettings.getMaxNumberOfIterations());
+    config.setMinErrorTolerance(algoSettings.getMinErrorTolerance());
+    config.setNumberOfClusters(buildSettings.getMaxNumberOfClusters());
+    return config;
+  }
+
+  public ClusteringDistanceFunction getDistanceFunction() {
+    return m_distanceFunction;
+  }
+
+  /**
+   * Only euclidean distance is supported by the dense engines.
+   */
+  public void setDistanceFunction(ClusteringDistanceFunction distanceFunction) {
+    if (!ClusteringDistanceFunction.euclidean.equals(distanceFunction))
+      throw new IllegalArgumentException("Unsupported distance function: " +
+        distanceFunction);
+    m_distanceFunction = distanceFunction;
+  }
+
+  public int getNumberOfClusters() {
+    return m_numberOfClusters;
+  }
+
+  public void setNumberOfClusters(int numberOfClusters) {
+    if (numberOfClusters < 1)
+      throw new IllegalArgumentException("numberOfClusters must be >= 1");
+    m_numberOfClusters = numberOfClusters;
+  }
+
+  public int getMaxNumberOfIterations() {
+    return m_maxNumberOfIterations;
+  }
+
+  public void setMaxNumberOfIterations(int maxNumberOfIterations) {
+    if (maxNumberOfIterations < 1)
+      throw new IllegalArgumentException("maxNumberOfIterations must be >= 1");
+    m_maxNumberOfIterations = maxNumberOfIterations;
+  }
+
+  public double getMinErrorTolerance() {
+    return m_minErrorTolerance;
+  }
+
+  public void setMinErrorTolerance(double minErrorTolerance) {
+    if (minErrorTolerance < 0.0)
+      throw new IllegalArgumentException("minErrorTolerance must be >= 0");
+    m_minErrorTolerance = minErrorTolerance;
+  }
+
+  /**
+   * @return number of histogram bins used for the per-cluster statistics
+   */
+  public int getNumberOfBins() {
+    return m_numberOfBins;
+  }
+
+  public void setNumberOfBins(int numberOfBins) {
+    if (numberOfBins < 1)
+      throw new IllegalArgumentException("numberOfBins must be >= 1");
+    m_numberOfBins = numberOfBins;
+  }
+
+  public long getRandomSeed() {
+    return m_randomSeed;
+  }
+
+  /**
+   * Seed for the choice of the initial centroids; the same seed on the same
+   * data gives the same model.
+   */
+  public void setRandomSeed(long randomSeed) {
+    m_randomSeed = randomSeed;
+  }
+
+  public int getParallelism() {
+    return m_parallelism;
+  }
+
+  /**
+   * @param parallelism number of worker threads for the build; 1 runs the
+   *        build on the calling thread
+   */
+  public void setParallelism(int parallelism) {
+    if (parallelism < 1)
+      throw new IllegalArgumentException("parallelism must be >= 1");
+    m_parallelism = parallelism;
+  }
+
+  public boolean isAccelerated() {
+    return m_accelerated;
+  }
+
+  /**
+   * @param accelerated whether the build keeps triangle inequality bounds
+   *        to skip distance evaluations; it costs one lower bound per case
+   */
+  public void setAccelerated(boolean accelerated) {
+    m_accelerated = accelerated;
+  }
+
+  public Initialization getInitialization() {
+    return m_initialization;
+  }
+
+  public void setInitialization(Initialization initialization) {
+    if (initialization == null)
+      throw new IllegalArgumentException("initialization must not be null");
+    m_initialization = initialization;
+  }
+
+  public int getInitializationRounds() {
+    return m_initializationRounds;
+  }
+
+  /**
+   * @param initializationRounds number of oversampling rounds of k-means||
+   *        initialization
+   */
+  public void setInitializationRounds(int initializationRounds) {
+    if (initializationRounds < 1)
+      throw new IllegalArgumentException("initializationRounds must be >= 1");
+    m_initializationRounds = initializationRounds;
+  }
+
+  public SplitCriterion getSplitCriterion() {
+    return m_splitCriterion;
+  }
+
+  public void setSplitCriterion(SplitCriterion splitCriterion) {
+    if (splitCriterion == null)
+      throw new IllegalArgumentException("splitCriterion must not be null");
+    m_splitCriterion = splitCriterion;
+  }
+
+  /**
+   * @return the settings that decide the model a build produces, e.g. as
+   *         part of a cache key; <code>parallelism</code> and
+   *         <code>accelerated</code> do not change the model and are left
+   *         out
+   */
+  public String toString() {
+    return "distance=" + m_distanceFunction +
+      ",clusters=" + m_numberOfClusters +
+      ",iterations=" + m_maxNumberOfIterations +
+      ",tolerance=" + m_minErrorTolerance +
+      ",bins=" + m_numberOfBins +
+      ",seed=" + m_randomSeed +
+      ",initialization=" + m_initialization +
+      ",rounds=" + m_initializationRounds +
+      ",split=" + m_splitCriterion;
+  }
+}
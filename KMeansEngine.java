@@ -0,0 +1,360 @@
+package clustering;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * This class builds a k-Means clustering model inside the Java VM, using
+ * the same settings as the mining engine build (see
+ * <code>KMeansConfig</code>). It works on the flat row-major arrays of a
+ * <code>MiningDataset</code>.
+ *
+ *   Each iteration assigns every case to its nearest centroid by squared
+ * euclidean distance and then moves every centroid to the mean of its
+ * cases (Lloyd's algorithm). The distances are computed by the tiled
+ * kernels of <code>DistanceKernel</code>. All working arrays are allocated once before
+ * the first iteration, so the assignment/update loop allocates nothing.
+ * A centroid that loses all of its cases keeps its previous position.
+ *
+ *   With a parallelism above 1 the assignment step is split over row
+ * blocks on a <code>ForkJoinPool</code> of that many workers (see
+ * <code>ParallelAssignment</code>); the result is the same as on a single
+ * thread up to floating point summation order.
+ *
+ *   When the configuration is accelerated, the assignment goes through
+ * <code>HamerlyBounds</code>, which gives the same assignment while
+ * skipping distance evaluations; the number skipped in each iteration is
+ * reported by <code>LocalClusteringModel.getSkippedDistances</code>.
+ *
+ *   A <code>CompactDataset</code> is clustered without converting it back
+ * to doubles: each tile of rows is decoded into a small buffer right before
+ * its distances are computed, and the centroids, sums and errors stay in
+ * double precision. Builds on compact data are not accelerated, since the
+ * bounds need a lower bound per case, which would undo much of the saving.
+ */
+public class KMeansEngine {
+  private final KMeansConfig m_config;
+  private ProgressListener m_listener;
+
+  public KMeansEngine(KMeansConfig config) {
+    m_config = config;
+  }
+
+  public KMeansConfig getConfig() {
+    return m_config;
+  }
+
+  /**
+   * @param listener is told about every iteration and can end the build
+   *        early, or null
+   */
+  public void setProgressListener(ProgressListener listener) {
+    m_listener = listener;
+  }
+
+  /**
+   * Builds a model with one root cluster and one leaf per centroid.
+   *
+   * @param data build data
+   * @param modelName name given to the model
+   * @return the built model
+   */
+  public LocalClusteringModel build(MiningDataset data, String modelName)
+  {
+    int n = data.getRowCount();
+    int d = data.getAttributeCount();
+    if (n == 0)
+      throw new IllegalArgumentException("Build data " + modelName + " has no rows");
+    int k = Math.min(m_config.getNumberOfClusters(), n);
+    double[] x = data.getValues();
+
+    int[] assignment = new int[n];
+    double[] sums = new double[k * d];
+    long[] counts = new long[k];
+    double[] norms = new double[k];
+    double[] scratch = new double[Math.max(DistanceKernel.SCRATCH_LENGTH, k)];
+    DistanceKernel kernel = DistanceKernel.get();
+    HamerlyBounds bounds = m_config.isAccelerated() ?
+      new HamerlyBounds(x, n, d, k, assignment) : null;
+    long[] skipped = new long[m_config.getMaxNumberOfIterations()];
+
+    ForkJoinPool pool = null;
+    ParallelAssignment parallel = null;
+    if (m_config.getParallelism() > 1) {
+      pool = new ForkJoinPool(m_config.getParallelism());
+      parallel = new ParallelAssignment(pool, x, n, d, k, assignment, bounds);
+      if (parallel.getBlockCount() == 1)
+        parallel = null;
+    }
+
+    double[] centroids;
+    double previousError = Double.POSITIVE_INFINITY;
+    int iteration = 0;
+    try {
+      centroids = initialCentroids(x, n, d, k, pool);
+      while (iteration < m_config.getMaxNumberOfIterations()) {
+        iteration++;
+        double error;
+        if (bounds != null)
+          bounds.prepare(centroids);
+        else
+          kernel.squaredNorms(centroids, k, d, norms);
+        if (parallel != null) {
+          error = parallel.assign(centroids, norms, sums, counts);
+          skipped[iteration - 1] = parallel.getSkipped();
+        } else {
+          Arrays.fill(sums, 0.0);
+          Arrays.fill(counts, 0L);
+          if (bounds != null)
+            error = bounds.assign(0, n, centroids, sums, counts, skipped,
+              iteration - 1, scratch);
+          else
+            error = assignAndAccumulate(x, 0, n, d, centroids, norms, k,
+              assignment, sums, counts, scratch);
+        }
+        updateCentroids(centroids, sums, counts, k, d);
+        boolean proceed = reportIteration(iteration, previousError, error);
+        if (hasConverged(previousError, error) || !proceed)
+          break;
+        previousError = error;
+      }
+    } finally {
+      if (pool != null)
+        pool.shutdown();
+    }
+    LocalClusteringModel model = ClusterTreeBuilder.flat(data.getAttributeNames(),
+      m_config.getNumberOfBins(), k)
+      .build(modelName, centroids, data, assignment, iteration);
+    if (bounds != null)
+      model.setSkippedDistances((long)n * k, Arrays.copyOf(skipped, iteration));
+    return model;
+  }
+
+  /**
+   * Builds a model with one root cluster and one leaf per centroid from
+   * rows stored in a compact encoding.
+   *
+   * @param data build data
+   * @param modelName name given to the model
+   * @return the built model
+   */
+  public LocalClusteringModel build(CompactDataset data, String modelName)
+  {
+    int n = data.getRowCount();
+    int d = data.getAttributeCount();
+    if (n == 0)
+      throw new IllegalArgumentException("Build data " + modelName + " has no rows");
+    int k = Math.min(m_config.getNumberOfClusters(), n);
+
+    int[] assignment = new int[n];
+    double[] sums = new double[k * d];
+    long[] counts = new long[k];
+    double[] norms = new double[k];
+    double[] tile = new double[DistanceKernel.TILE_ROWS * d];
+    double[] scratch = new double[DistanceKernel.SCRATCH_LENGTH];
+    DistanceKernel kernel = DistanceKernel.get();
+
+    ForkJoinPool pool = null;
+    ParallelAssignment parallel = null;
+    if (m_config.getParallelism() > 1) {
+      pool = new ForkJoinPool(m_config.getParallelism());
+      parallel = new ParallelAssignment(pool, data, k, assignment);
+      if (parallel.getBlockCount() == 1)
+        parallel = null;
+    }
+
+    double[] centroids;
+    double previousError = Double.POSITIVE_INFINITY;
+    int iteration = 0;
+    try {
+      centroids = initialCentroids(data, k, pool);
+      while (iteration < m_config.getMaxNumberOfIterations()) {
+        iteration++;
+        double error;
+        kernel.squaredNorms(centroids, k, d, norms);
+        if (parallel != null) {
+          error = parallel.assign(centroids, norms, sums, counts);
+        } else {
+          Arrays.fill(sums, 0.0);
+          Arrays.fill(counts, 0L);
+          error = assignAndAccumulate(data, 0, n, centroids, norms, k,
+            assignment, sums, counts, tile, scratch);
+        }
+        updateCentroids(centroids, sums, counts, k, d);
+        boolean proceed = reportIteration(iteration, previousError, error);
+        if (hasConverged(previousError, error) || !proceed)
+          break;
+        previousError = error;
+      }
+    } finally {
+      if (pool != null)
+        pool.shutdown();
+    }
+    return ClusterTreeBuilder.flat(data.getAttributeNames(),
+      m_config.getNumberOfBins(), k)
+      .build(modelName, centroids, data, assignment, iteration);
+  }
+
+  /**
+   * @return false if the listener asked to stop the build
+   */
+  boolean reportIteration(int iteration, double previousError,
+    double error)
+  {
+    if (m_listener == null)
+      return true;
+    double improvement = Double.isInfinite(previousError) ? Double.NaN :
+      (previousError == 0.0 ? 0.0 : (previousError - error) / previousError);
+    return m_listener.iterationFinished(iteration, error, improvement,
+      m_config.getMinErrorTolerance());
+  }
+
+  /**
+   * @return true when the error improved by less than the minimum error
+   *         tolerance, relative to the previous iteration
+   */
+  boolean hasConverged(double previousError, double error) {
+    if (Double.isInfinite(previousError))
+      return false;
+    if (previousError == 0.0)
+      return true;
+    return (previousError - error) / previousError < m_config.getMinErrorTolerance();
+  }
+
+  /**
+   * Picks the initial centroids by the configured initialization, running
+   * k-means|| passes on <code>pool</code> if it is not null.
+   */
+  double[] initialCentroids(double[] x, int n, int d, int k, ForkJoinPool pool) {
+    if (m_config.getInitialization() == KMeansConfig.Initialization.KMEANS_PARALLEL)
+      return new KMeansParallelSeeder(x, n, d, pool).seed(k,
+        m_config.getInitializationRounds(), m_config.getRandomSeed());
+    return randomCentroids(x, n, d, k);
+  }
+
+  /**
+   * Picks the initial centroids of a compact build like
+   * <code>initialCentroids</code> does for double rows.
+   */
+  double[] initialCentroids(CompactDataset data, int k, ForkJoinPool pool) {
+    if (m_config.getInitialization() == KMeansConfig.Initialization.KMEANS_PARALLEL)
+      return new KMeansParallelSeeder(data, pool).seed(k,
+        m_config.getInitializationRounds(), m_config.getRandomSeed());
+    int n = data.getRowCount();
+    int d = data.getAttributeCount();
+    Random random = new Random(m_config.getRandomSeed());
+    int[] rows = new int[n];
+    for (int i = 0; i < n; i++)
+      rows[i] = i;
+    double[] centroids = new double[k * d];
+    double[] row = new double[d];
+    for (int c = 0; c < k; c++) {
+      int pick = c + random.nextInt(n - c);
+      int r = rows[pick];
+      rows[pick] = rows[c];
+      rows[c] = r;
+      data.decode(r, r + 1, row);
+      System.arraycopy(row, 0, centroids, c * d, d);
+    }
+    return centroids;
+  }
+
+  /**
+   * Picks k distinct cases at random as initial centroids.
+   */
+  double[] randomCentroids(double[] x, int n, int d, int k) {
+    Random random = new Random(m_config.getRandomSeed());
+    int[] rows = new int[n];
+    for (int i = 0; i < n; i++)
+      rows[i] = i;
+    double[] centroids = new double[k * d];
+    for (int c = 0; c < k; c++) {
+      int pick = c + random.nextInt(n - c);
+      int row = rows[pick];
+      rows[pick] = rows[c];
+      rows[c] = row;
+      System.arraycopy(x, row * d, centroids, c * d, d);
+    }
+    return centroids;
+  }
+
+  /**
+   * Assigns the rows [from, to) to their nearest centroid and adds each row
+   * to the sum and count of its centroid.
+   *
+   * @param norms squared norms of the centroids
+   * @param scratch work array of DistanceKernel.SCRATCH_LENGTH values
+   * @return sum of the squared distances of the rows to their centroid
+   */
+  static double assignAndAccumulate(double[] x, int from, int to, int d,
+    double[] centroids, double[] norms, int k, int[] assignment, double[] sums,
+    long[] counts, double[] scratch)
+  {
+    DistanceKernel kernel = DistanceKernel.get();
+    kernel.nearest(x, from, to, d, centroids, norms, k, assignment, scratch);
+    double error = 0.0;
+    for (int i = from; i < to; i++) {
+      int off = i * d;
+      int best = assignment[i];
+      counts[best]++;
+      int soff = best * d;
+      for (int j = 0; j < d; j++)
+        sums[soff + j] += x[off + j];
+      error += kernel.squaredDistance(x, off, centroids, soff, d);
+    }
+    return error;
+  }
+
+  /**
+   * Assigns the compact rows [from, to) to their nearest centroid and adds
+   * each row to the sum and count of its centroid, decoding one tile of
+   * rows at a time.
+   *
+   * @param norms squared norms of the centroids
+   * @param tile work array of DistanceKernel.TILE_ROWS x attributeCount values
+   * @param scratch work array of DistanceKernel.SCRATCH_LENGTH values
+   * @return sum of the squared distances of the decoded rows to their
+   *         centroid
+   */
+  static double assignAndAccumulate(CompactDataset data, int from, int to,
+    double[] centroids, double[] norms, int k, int[] assignment, double[] sums,
+    long[] counts, double[] tile, double[] scratch)
+  {
+    DistanceKernel kernel = DistanceKernel.get();
+    int d = data.getAttributeCount();
+    double error = 0.0;
+    for (int r0 = from; r0 < to; r0 += DistanceKernel.TILE_ROWS) {
+      int rows = Math.min(to, r0 + DistanceKernel.TILE_ROWS) - r0;
+      data.decode(r0, r0 + rows, tile);
+      kernel.nearestTile(tile, 0, rows, d, centroids, norms, k, assignment, r0,
+        scratch);
+      for (int r = 0; r < rows; r++) {
+        int off = r * d;
+        int best = assignment[r0 + r];
+        counts[best]++;
+        int soff = best * d;
+        for (int j = 0; j < d; j++)
+          sums[soff + j] += tile[off + j];
+        error += kernel.squaredDistance(tile, off, centroids, soff, d);
+      }
+    }
+    return error;
+  }
+
+  /**
+   * Moves every centroid with at least one case to the mean of its cases.
+   */
+  static void updateCentroids(double[] centroids, double[] sums, long[] counts,
+    int k, int d)
+  {
+    for (int c = 0; c < k; c++) {
+      if (counts[c] == 0)
+        continue;
+      int off = c * d;
+      double inv = 1.0 / counts[c];
+      for (int j = 0; j < d; j++)
+        centroids[off + j] = sums[off + j] * inv;
+    }
+  }
+}
@@ -0,0 +1,325 @@
+package clustering;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * This class picks the initial centroids of a k-Means build with the
+ * k-means|| (scalable k-means++) method of Bahmani et al.
+ *
+ *   One case is picked at random as the first candidate. Each of a few
+ * rounds then samples every case independently with probability
+ * oversampling x D(case)^2 / sum of D^2, where D is the distance to the
+ * nearest candidate so far, and adds the sampled cases to the candidates.
+ * Each candidate is weighted by the number of cases closest to it, and
+ * weighted k-means++ on the few candidates picks the k centroids.
+ *
+ *   The passes over the data run in row blocks on a
+ * <code>ForkJoinPool</code> when one is given. The random draw of a case
+ * depends only on the seed, the round and the row, so the centroids do not
+ * depend on the parallelism. Rows of a <code>CompactDataset</code> are
+ * decoded one tile at a time during the passes.
+ */
+class KMeansParallelSeeder {
+  // number of sampling rounds; 5 is enough in practice (Bahmani et al.)
+  static final int DEFAULT_ROUNDS = 5;
+  private static final int MIN_BLOCK_ROWS = 1024;
+  private static final int BLOCKS_PER_WORKER = 4;
+
+  private final double[] m_x;
+  private final CompactDataset m_data;
+  private final int m_n;
+  private final int m_d;
+  private final ForkJoinPool m_pool;
+  private final int[] m_blockStart;
+  private final double[] m_minDist;
+  private final int[] m_nearest;
+  private double[] m_candidates;
+  private int m_candidateCount;
+
+  /**
+   * @param pool pool for the passes over the data, or null to run them on
+   *        the calling thread
+   */
+  KMeansParallelSeeder(double[] x, int n, int d, ForkJoinPool pool) {
+    this(x, null, n, d, pool);
+  }
+
+  /**
+   * Seeds from compact rows.
+   */
+  KMeansParallelSeeder(CompactDataset data, ForkJoinPool pool) {
+    this(null, data, data.getRowCount(), data.getAttributeCount(), pool);
+  }
+
+  private KMeansParallelSeeder(double[] x, CompactDataset data, int n, int d,
+    ForkJoinPool pool)
+  {
+    m_x = x;
+    m_data = data;
+    m_n = n;
+    m_d = d;
+    m_pool = pool;
+    int workers = pool == null ? 1 : pool.getParallelism();
+    int blocks = (int)Math.max(1L, Math.min((long)workers * BLOCKS_PER_WORKER,
+      n / MIN_BLOCK_ROWS));
+    m_blockStart = new int[blocks + 1];
+    for (int b = 0; b <= blocks; b++)
+      m_blockStart[b] = (int)((long)n * b / blocks);
+    m_minDist = new double[n];
+    m_nearest = new int[n];
+  }
+
+  /**
+   * @param k number of centroids, at most the number of cases
+   * @param rounds number of sampling rounds
+   * @param seed random seed
+   * @return row-major k x d centroids
+   */
+  double[] seed(int k, int rounds, long seed) {
+    int d = m_d;
+    double oversampling = 2.0 * k;
+    Random random = new Random(seed);
+    m_candidates = new double[Math.max(16, 2 * k * (rounds + 1)) * d];
+    m_candidateCount = 0;
+    Arrays.fill(m_minDist, Double.POSITIVE_INFINITY);
+    addCandidate(random.nextInt(m_n));
+    updateDistances(0);
+
+    for (int r = 0; r < rounds; r++) {
+      double cost = totalCost();
+      if (cost == 0.0)
+        break;
+      int[][] sampled = sample(oversampling / cost, seed, r);
+      int first = m_candidateCount;
+      for (int b = 0; b < sampled.length; b++) {
+        for (int i = 1; i <= sampled[b][0]; i++)
+          addCandidate(sampled[b][i]);
+      }
+      if (m_candidateCount == first)
+        continue;
+      updateDistances(first);
+    }
+
+    double[] weights = new double[m_candidateCount];
+    for (int i = 0; i < m_n; i++)
+      weights[m_nearest[i]]++;
+    return weightedKMeansPlusPlus(k, weights, random);
+  }
+
+  private void addCandidate(int row) {
+    int d = m_d;
+    if ((m_candidateCount + 1) * d > m_candidates.length)
+      m_candidates = Arrays.copyOf(m_candidates, m_candidates.length * 2);
+    copyRow(row, m_candidates, m_candidateCount * d);
+    m_candidateCount++;
+  }
+
+  private void copyRow(int row, double[] dest, int destOff) {
+    int d = m_d;
+    if (m_data == null) {
+      System.arraycopy(m_x, row * d, dest, destOff, d);
+    } else {
+      double[] decoded = new double[d];
+      m_data.decode(row, row + 1, decoded);
+      System.arraycopy(decoded, 0, dest, destOff, d);
+    }
+  }
+
+  private double totalCost() {
+    double cost = 0.0;
+    for (int i = 0; i < m_n; i++)
+      cost += m_minDist[i];
+    return cost;
+  }
+
+  /**
+   * Lowers the distance of every case to its nearest candidate with the
+   * candidates from <code>first</code> on.
+   */
+  private void updateDistances(final int first) {
+    final double[] candidates = m_candidates;
+    final int count = m_candidateCount;
+    run(new BlockPass(0, blockCount()) {
+      private static final long serialVersionUID = 1L;
+      void pass(int from, int to) {
+        int d = m_d;
+        DistanceKernel kernel = DistanceKernel.get();
+        double[] x = m_x;
+        int tileRows = to - from;
+        if (m_data != null) {
+          tileRows = DistanceKernel.TILE_ROWS;
+          x = new double[tileRows * d];
+        }
+        for (int r0 = from; r0 < to; r0 += tileRows) {
+          int r1 = Math.min(to, r0 + tileRows);
+          int base = r0;
+          if (m_data != null) {
+            m_data.decode(r0, r1, x);
+            base = 0;
+          }
+          for (int i = r0; i < r1; i++) {
+            int off = (i - r0 + base) * d;
+            double best = m_minDist[i];
+            int nearest = m_nearest[i];
+            for (int c = first; c < count; c++) {
+              double dist = kernel.squaredDistance(x, off, candidates, c * d, d);
+              if (dist < best) {
+                best = dist;
+                nearest = c;
+              }
+            }
+            m_minDist[i] = best;
+            m_nearest[i] = nearest;
+          }
+        }
+      }
+    });
+  }
+
+  /**
+   * @return per block, the number of sampled rows followed by the rows
+   */
+  private int[][] sample(final double scale, final long seed, final int round) {
+    final int[][] sampled = new int[blockCount()][];
+    run(new BlockPass(0, blockCount()) {
+      private static final long serialVersionUID = 1L;
+      void pass(int from, int to) {
+        int block = Arrays.binarySearch(m_blockStart, from);
+        int[] rows = new int[9];
+        int count = 0;
+        for (int i = from; i < to; i++) {
+          if (uniform(seed, round, i) < scale * m_minDist[i]) {
+            if (++count == rows.length)
+              rows = Arrays.copyOf(rows, rows.length * 2);
+            rows[count] = i;
+          }
+        }
+        rows[0] = count;
+        sampled[block] = rows;
+      }
+    });
+    return sampled;
+  }
+
+  /**
+   * k-means++ on the candidates, drawing candidates with probability
+   * proportional to weight x D^2.
+   */
+  private double[] weightedKMeansPlusPlus(int k, double[] weights, Random random) {
+    int d = m_d;
+    int m = m_candidateCount;
+    double[] centroids = new double[k * d];
+    double[] minDist = new double[m];
+    Arrays.fill(minDist, Double.POSITIVE_INFINITY);
+    int pick = pickWeighted(weights, null, random);
+    for (int c = 0; c < k; c++) {
+      if (c > 0)
+        pick = pickWeighted(weights, minDist, random);
+      if (pick < 0) {
+        // fewer distinct candidates than centroids: fall back to random cases
+        copyRow(random.nextInt(m_n), centroids, c * d);
+        continue;
+      }
+      System.arraycopy(m_candidates, pick * d, centroids, c * d, d);
+      for (int j = 0; j < m; j++) {
+        double dist = DistanceKernel.get().squaredDistance(m_candidates, j * d,
+          centroids, c * d, d);
+        if (dist < minDist[j])
+          minDist[j] = dist;
+      }
+    }
+    return centroids;
+  }
+
+  /**
+   * @return index drawn with probability proportional to weight (x minDist
+   *         if given), or -1 if all products are 0
+   */
+  private int pickWeighted(double[] weights, double[] minDist, Random random) {
+    double total = 0.0;
+    for (int j = 0; j < weights.length; j++)
+      total += minDist == null ? weights[j] : weights[j] * minDist[j];
+    if (total <= 0.0)
+      return -1;
+    double target = random.nextDouble() * total;
+    int last = -1;
+    for (int j = 0; j < weights.length; j++) {
+      double p = minDist == null ? weights[j] : weights[j] * minDist[j];
+      if (p <= 0.0)
+        continue;
+      last = j;
+      target -= p;
+      if (target < 0.0)
+        return j;
+    }
+    return last;
+  }
+
+  /**
+   * @return a uniform value in [0, 1) that depends only on its arguments
+   *         (SplitMix64 finalizer)
+   */
+  static double uniform(long seed, int round, int row) {
+    long z = seed + 0x9E3779B97F4A7C15L * (((long)round << 32) + row + 1);
+    z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+    z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+    z = z ^ (z >>> 31);
+    return (z >>> 11) * 0x1.0p-53;
+  }
+
+  private int blockCount() {
+    return m_blockStart.length - 1;
+  }
+
+  private void run(BlockPass pass) {
+    if (m_pool != null) {
+      m_pool.invoke(pass);
+      return;
+    }
+    // compute() would fork into the common pool
+    for (int b = 0; b < blockCount(); b++)
+      pass.pass(m_blockStart[b], m_blockStart[b + 1]);
+  }
+
+  /**
+   * Runs <code>pass</code> over the rows of the blocks [fromBlock, toBlock),
+   * one block per leaf task.
+   */
+  private abstract class BlockPass extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+    private final int m_fromBlock;
+    private final int m_toBlock;
+
+    BlockPass(int fromBlock, int toBlock) {
+      m_fromBlock = fromBlock;
+      m_toBlock = toBlock;
+    }
+
+    abstract void pass(int from, int to);
+
+    protected void compute() {
+      if (m_toBlock - m_fromBlock == 1) {
+        pass(m_blockStart[m_fromBlock], m_blockStart[m_toBlock]);
+        return;
+      }
+      final BlockPass outer = this;
+      int mid = (m_fromBlock + m_toBlock) >>> 1;
+      BlockPass left = new BlockPass(m_fromBlock, mid) {
+        private static final long serialVersionUID = 1L;
+        void pass(int from, int to) {
+          outer.pass(from, to);
+        }
+      };
+      BlockPass right = new BlockPass(mid, m_toBlock) {
+        private static final long serialVersionUID = 1L;
+        void pass(int from, int to) {
+          outer.pass(from, to);
+        }
+      };
+      invokeAll(left, right);
+    }
+  }
+}
@@ -0,0 +1,139 @@
+package clustering;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class is one node of the cluster tree of a model built in-process.
+ * Its accessors are named after the ones of the mining engine's
+ * <code>Cluster</code> so that the same reports can be printed for both
+ * kinds of models: <code>getChildren</code> and <code>getAncestors</code>
+ * return null where the engine's clusters do.
+ */
+public class LocalCluster {
+  private final LocalClusteringModel m_model;
+  private final int m_clusterId;
+  private final int m_level;
+  private final LocalCluster m_parent;
+  private final List<LocalCluster> m_children = new ArrayList<LocalCluster>();
+  private long m_caseCount;
+  private double m_dispersion;
+  private double[] m_centroid;
+  private double[] m_minValues;
+  private double[] m_maxValues;
+  private long[] m_histogram;
+
+  LocalCluster(LocalClusteringModel model, int clusterId, LocalCluster parent) {
+    m_model = model;
+    m_clusterId = clusterId;
+    m_parent = parent;
+    m_level = parent == null ? 1 : parent.getLevel() + 1;
+    if (parent != null)
+      parent.m_children.add(this);
+  }
+
+  void setStatistics(long caseCount, double dispersion, double[] centroid,
+    double[] minValues, double[] maxValues, long[] histogram)
+  {
+    m_caseCount = caseCount;
+    m_dispersion = dispersion;
+    m_centroid = centroid;
+    m_minValues = minValues;
+    m_maxValues = maxValues;
+    m_histogram = histogram;
+  }
+
+  public LocalClusteringModel getModel() {
+    return m_model;
+  }
+
+  public int getClusterId() {
+    return m_clusterId;
+  }
+
+  public long getCaseCount() {
+    return m_caseCount;
+  }
+
+  /**
+   * @return depth of this cluster in the tree; the root is at level 1
+   */
+  public int getLevel() {
+    return m_level;
+  }
+
+  /**
+   * @return mean squared euclidean distance of the member cases to the
+   *         centroid
+   */
+  public double getDispersion() {
+    return m_dispersion;
+  }
+
+  public LocalCluster getParent() {
+    return m_parent;
+  }
+
+  /**
+   * @return child clusters, or null for a leaf cluster
+   */
+  public LocalCluster[] getChildren() {
+    if (m_children.isEmpty())
+      return null;
+    return m_children.toArray(new LocalCluster[m_children.size()]);
+  }
+
+  /**
+   * @return ancestors from the root down to the parent, or null for the
+   *         root cluster
+   */
+  public LocalCluster[] getAncestors() {
+    if (m_parent == null)
+      return null;
+    LocalCluster[] ancestors = new LocalCluster[m_level - 1];
+    LocalCluster c = m_parent;
+    for (int i = ancestors.length - 1; i >= 0; i--) {
+      ancestors[i] = c;
+      c = c.getParent();
+    }
+    return ancestors;
+  }
+
+  public boolean isRoot() {
+    return m_parent == null;
+  }
+
+  public boolean isLeaf() {
+    return m_children.isEmpty();
+  }
+
+  /**
+   * @return centroid coordinates, one per model attribute
+   */
+  public double[] getCentroid() {
+    return m_centroid;
+  }
+
+  /**
+   * @return the rule describing the member cases of this cluster, or null
+   *         when the model was built without statistics
+   */
+  public LocalClusterRule getRule() {
+    if (m_minValues == null)
+      return null;
+    return new LocalClusterRule(this, m_minValues, m_maxValues);
+  }
+
+  /**
+   * @return number of member cases in each histogram bin of the attribute,
+   *         or null when the model was built without statistics
+   */
+  public long[] getHistogram(int attribute) {
+    if (m_histogram == null)
+      return null;
+    int bins = m_model.getNumberOfBins();
+    long[] frequencies = new long[bins];
+    System.arraycopy(m_histogram, attribute * bins, frequencies, 0, bins);
+    return frequencies;
+  }
+}
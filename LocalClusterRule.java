@@ -0,0 +1,49 @@
+package clustering;
+
+/**
+ * This class is the rule of a cluster built in-process. The antecedent is
+ * the bounding box of the member cases: one closed range per attribute.
+ * The consequent is membership in the cluster. Because every member lies
+ * inside its bounding box, the confidence of such a rule is always 1.
+ */
+public class LocalClusterRule {
+  private final LocalCluster m_cluster;
+  private final double[] m_minValues;
+  private final double[] m_maxValues;
+
+  LocalClusterRule(LocalCluster cluster, double[] minValues, double[] maxValues) {
+    m_cluster = cluster;
+    m_minValues = minValues;
+    m_maxValues = maxValues;
+  }
+
+  /**
+   * @return rule number; equal to the identifier of its cluster
+   */
+  public int getRuleIdentifier() {
+    return m_cluster.getClusterId();
+  }
+
+  public LocalCluster getCluster() {
+    return m_cluster;
+  }
+
+  /**
+   * @return number of cases the rule applies to
+   */
+  public long getSupport() {
+    return m_cluster.getCaseCount();
+  }
+
+  public double getConfidence() {
+    return 1.0;
+  }
+
+  public double getMinValue(int attribute) {
+    return m_minValues[attribute];
+  }
+
+  public double getMaxValue(int attribute) {
+    return m_maxValues[attribute];
+  }
+}
@@ -0,0 +1,182 @@
+package clustering;
+
+import java.util.Collection;
+
+/**
+ * This class adapts a clustering model built in-process to the
+ * <code>ClusterTreeView</code> the model reports print. The antecedent of
+ * a rule is the range of each attribute in its cluster; the histograms are
+ * those of the model's bins, the last bin closed.
+ */
+class LocalClusterTree implements ClusterTreeView {
+  private final LocalClusteringModel m_model;
+
+  LocalClusterTree(LocalClusteringModel model) {
+    m_model = model;
+  }
+
+  public String getName() {
+    return m_model.getName();
+  }
+
+  public int getNumberOfClusters() {
+    return m_model.getNumberOfClusters();
+  }
+
+  public int getNumberOfLevels() {
+    return m_model.getNumberOfLevels();
+  }
+
+  public String[] getBuildDetails() {
+    long[] skipped = m_model.getSkippedDistances();
+    int iterations = skipped == null ? 0 : skipped.length;
+    String[] lines = new String[2 + iterations];
+    lines[0] = "Number of iterations: " + m_model.getIterations();
+    lines[1] = "Total squared error: " + m_model.getError();
+    for (int it = 0; it < iterations; it++)
+      lines[2 + it] = "Iteration " + (it + 1) + ": skipped " + skipped[it] +
+        " of " + m_model.getDistancesPerIteration() +
+        " distance evaluations";
+    return lines;
+  }
+
+  public Node[] getClusters() {
+    return wrap(m_model.getClusters());
+  }
+
+  public Node[] getRootClusters() {
+    return wrap(m_model.getRootClusters());
+  }
+
+  public Node[] getLeafClusters() {
+    return wrap(m_model.getLeafClusters());
+  }
+
+  public Rule[] getRules() {
+    Collection<LocalClusterRule> rules = m_model.getRules();
+    if (rules.isEmpty())
+      return null;
+    Rule[] wrapped = new Rule[rules.size()];
+    int i = 0;
+    for (LocalClusterRule rule : rules)
+      wrapped[i++] = new LocalRule(rule);
+    return wrapped;
+  }
+
+  private Node[] wrap(Collection<LocalCluster> clusters) {
+    if (clusters.isEmpty())
+      return null;
+    return wrap(clusters.toArray(new LocalCluster[clusters.size()]));
+  }
+
+  private Node[] wrap(LocalCluster[] clusters) {
+    if (clusters == null)
+      return null;
+    Node[] wrapped = new Node[clusters.length];
+    for (int i = 0; i < clusters.length; i++)
+      wrapped[i] = new LocalNode(clusters[i]);
+    return wrapped;
+  }
+
+  private class LocalNode implements Node {
+    private final LocalCluster m_cluster;
+
+    LocalNode(LocalCluster cluster) {
+      m_cluster = cluster;
+    }
+
+    public int getClusterId() {
+      return m_cluster.getClusterId();
+    }
+
+    public long getCaseCount() {
+      return m_cluster.getCaseCount();
+    }
+
+    public int getLevel() {
+      return m_cluster.getLevel();
+    }
+
+    public double getDispersion() {
+      return m_cluster.getDispersion();
+    }
+
+    public Node getParent() {
+      LocalCluster parent = m_cluster.getParent();
+      return parent == null ? null : new LocalNode(parent);
+    }
+
+    public boolean isRoot() {
+      return m_cluster.isRoot();
+    }
+
+    public boolean isLeaf() {
+      return m_cluster.isLeaf();
+    }
+
+    public Node[] getAncestors() {
+      return wrap(m_cluster.getAncestors());
+    }
+
+    public Node[] getChildren() {
+      return wrap(m_cluster.getChildren());
+    }
+
+    public Rule getRule() {
+      LocalClusterRule rule = m_cluster.getRule();
+      return rule == null ? null : new LocalRule(rule);
+    }
+
+    public Histogram[] getStatistics() {
+      if (m_cluster.getHistogram(0) == null)
+        return null;
+      String[] names = m_model.getAttributeNames();
+      Histogram[] histograms = new Histogram[names.length];
+      for (int j = 0; j < names.length; j++) {
+        long[] frequencies = m_cluster.getHistogram(j);
+        String[] labels = new String[frequencies.length];
+        for (int in = 0; in < frequencies.length; in++) {
+          String closeParenthesis = in == frequencies.length - 1 ? " ]" : " )";
+          labels[in] = "[ " + m_model.getBinStartPoint(j, in) + " - " +
+            m_model.getBinEndPoint(j, in) + closeParenthesis;
+        }
+        histograms[j] = new Histogram(names[j], false, labels, frequencies);
+      }
+      return histograms;
+    }
+  }
+
+  private class LocalRule implements Rule {
+    private final LocalClusterRule m_rule;
+
+    LocalRule(LocalClusterRule rule) {
+      m_rule = rule;
+    }
+
+    public int getRuleIdentifier() {
+      return m_rule.getRuleIdentifier();
+    }
+
+    public double getSupport() {
+      return m_rule.getSupport();
+    }
+
+    public double getConfidence() {
+      return m_rule.getConfidence();
+    }
+
+    public String[] getAntecedent() {
+      String[] names = m_model.getAttributeNames();
+      String[] lines = new String[names.length];
+      for (int j = 0; j < names.length; j++)
+        lines[j] = names[j] + " >= " + m_rule.getMinValue(j) + " AND " +
+          names[j] + " <= " + m_rule.getMaxValue(j);
+      return lines;
+    }
+
+    public String[] getConsequent() {
+      return new String[] {
+        "Cluster Id = " + m_rule.getCluster().getClusterId() };
+    }
+  }
+}
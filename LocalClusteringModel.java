@@ -0,0 +1,220 @@
+package clustering;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * This class is a clustering model built in the Java VM instead of the
+ * mining engine. Like the engine's k-Means models it is a tree of clusters:
+ * the root holds all cases and the leaves are the clusters that cases are
+ * assigned to. Cluster identifiers are numbered from 1 in creation order.
+ *
+ *   Instances are created by <code>ClusterTreeBuilder</code> and are not
+ * modified afterwards, so a model can be shared between threads.
+ */
+public class LocalClusteringModel {
+  private final String m_name;
+  private final String[] m_attributeNames;
+  private final int m_numberOfBins;
+  private final List<LocalCluster> m_clusters = new ArrayList<LocalCluster>();
+  private LocalCluster[] m_leaves;
+  private double[] m_binStart;
+  private double[] m_binWidth;
+  private int m_iterations;
+  private double m_error;
+  private long m_distancesPerIteration;
+  private long[] m_skippedDistances;
+  private MinMaxNormalizer m_normalizer;
+
+  LocalClusteringModel(String name, String[] attributeNames, int numberOfBins) {
+    m_name = name;
+    m_attributeNames = attributeNames;
+    m_numberOfBins = numberOfBins;
+  }
+
+  LocalCluster addCluster(LocalCluster parent) {
+    LocalCluster cluster = new LocalCluster(this, m_clusters.size() + 1, parent);
+    m_clusters.add(cluster);
+    return cluster;
+  }
+
+  void setLeaves(LocalCluster[] leaves) {
+    m_leaves = leaves;
+  }
+
+  void setBins(double[] binStart, double[] binWidth) {
+    m_binStart = binStart;
+    m_binWidth = binWidth;
+  }
+
+  double[] getBinStart() {
+    return m_binStart;
+  }
+
+  double[] getBinWidth() {
+    return m_binWidth;
+  }
+
+  void setBuildSummary(int iterations, double error) {
+    m_iterations = iterations;
+    m_error = error;
+  }
+
+  void setSkippedDistances(long distancesPerIteration, long[] skippedDistances) {
+    m_distancesPerIteration = distancesPerIteration;
+    m_skippedDistances = skippedDistances;
+  }
+
+  public String getName() {
+    return m_name;
+  }
+
+  public String[] getAttributeNames() {
+    return m_attributeNames;
+  }
+
+  public int getAttributeCount() {
+    return m_attributeNames.length;
+  }
+
+  /**
+   * @return total number of clusters in the tree, including the root and
+   *         the inner clusters
+   */
+  public int getNumberOfClusters() {
+    return m_clusters.size();
+  }
+
+  public int getNumberOfLevels() {
+    int levels = 0;
+    for (int i = 0; i < m_clusters.size(); i++)
+      levels = Math.max(levels, m_clusters.get(i).getLevel());
+    return levels;
+  }
+
+  public Collection<LocalCluster> getClusters() {
+    return Collections.unmodifiableList(m_clusters);
+  }
+
+  /**
+   * @return the cluster with the given identifier, or null
+   */
+  public LocalCluster getCluster(int clusterId) {
+    if (clusterId < 1 || clusterId > m_clusters.size())
+      return null;
+    return m_clusters.get(clusterId - 1);
+  }
+
+  public Collection<LocalCluster> getRootClusters() {
+    return m_clusters.isEmpty() ? Collections.<LocalCluster>emptyList() :
+      Collections.singletonList(m_clusters.get(0));
+  }
+
+  /**
+   * @return leaf clusters in the order of their index in
+   *         <code>getLeafCentroids</code>
+   */
+  public Collection<LocalCluster> getLeafClusters() {
+    List<LocalCluster> leaves = new ArrayList<LocalCluster>(m_leaves.length);
+    for (int i = 0; i < m_leaves.length; i++)
+      leaves.add(m_leaves[i]);
+    return leaves;
+  }
+
+  public int getNumberOfLeafClusters() {
+    return m_leaves.length;
+  }
+
+  public LocalCluster getLeafCluster(int leafIndex) {
+    return m_leaves[leafIndex];
+  }
+
+  /**
+   * @return centroids of the leaf clusters as one row-major array of
+   *         numberOfLeafClusters x attributeCount values
+   */
+  public double[] getLeafCentroids() {
+    int d = m_attributeNames.length;
+    double[] centroids = new double[m_leaves.length * d];
+    for (int c = 0; c < m_leaves.length; c++)
+      System.arraycopy(m_leaves[c].getCentroid(), 0, centroids, c * d, d);
+    return centroids;
+  }
+
+  /**
+   * @return rules of the leaf clusters; empty if the model was built
+   *         without statistics
+   */
+  public Collection<LocalClusterRule> getRules() {
+    List<LocalClusterRule> rules = new ArrayList<LocalClusterRule>();
+    for (int i = 0; i < m_leaves.length; i++) {
+      LocalClusterRule rule = m_leaves[i].getRule();
+      if (rule != null)
+        rules.add(rule);
+    }
+    return rules;
+  }
+
+  public int getNumberOfBins() {
+    return m_numberOfBins;
+  }
+
+  /**
+   * @return lower bound of the given histogram bin of an attribute
+   */
+  public double getBinStartPoint(int attribute, int bin) {
+    return m_binStart[attribute] + bin * m_binWidth[attribute];
+  }
+
+  /**
+   * @return upper bound of the given histogram bin of an attribute
+   */
+  public double getBinEndPoint(int attribute, int bin) {
+    return m_binStart[attribute] + (bin + 1) * m_binWidth[attribute];
+  }
+
+  /**
+   * @return number of iterations the build ran
+   */
+  public int getIterations() {
+    return m_iterations;
+  }
+
+  /**
+   * @return total within-cluster squared error of the final assignment
+   */
+  public double getError() {
+    return m_error;
+  }
+
+  /**
+   * @return distance evaluations a plain Lloyd iteration makes, i.e.
+   *         cases x leaf clusters
+   */
+  public long getDistancesPerIteration() {
+    return m_distancesPerIteration;
+  }
+
+  /**
+   * @return distance evaluations skipped by the accelerated build in each
+   *         iteration, or null if the build was not accelerated
+   */
+  public long[] getSkippedDistances() {
+    return m_skippedDistances;
+  }
+
+  void setNormalizer(MinMaxNormalizer normalizer) {
+    m_normalizer = normalizer;
+  }
+
+  /**
+   * @return the normalization of the raw values of a case, in the order of
+   *         <code>getAttributeNames</code>, or null if the model was built
+   *         from data normalized in the database
+   */
+  public MinMaxNormalizer getNormalizer() {
+    return m_normalizer;
+  }
+}
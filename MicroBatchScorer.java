@@ -0,0 +1,346 @@
+package clustering;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * This class scores single cases submitted by many threads in small
+ * batches, so that the per-call overhead is paid once per batch. Submitted
+ * cases go on a lock-free queue; one flusher thread takes them off as a
+ * batch when <code>maxBatchSize</code> cases are waiting or the oldest one
+ * has waited <code>maxDelayMicros</code>, scores the whole batch with one
+ * call of <code>ClusterScorer</code> and completes the future of every
+ * case. The model is taken from a <code>ModelRegistry</code> once per
+ * batch, so a model published meanwhile is used from the next batch on
+ * while the current batch finishes on the version it started with. When
+ * the model has a normalization definition, the cases are submitted raw
+ * and normalized as they are copied into the batch, with the definition
+ * of the version that scores them.
+ *
+ *   A larger batch size and delay give more throughput under load; a
+ * smaller delay bounds the latency added at low load, where a case waits
+ * at most the delay before it is scored. The queue is bounded: once
+ * <code>queueCapacity</code> cases are waiting, new cases are refused with
+ * a <code>RejectedExecutionException</code> so that an overloaded scorer
+ * sheds load instead of queueing without limit; concurrent submitters can
+ * overshoot the capacity by a few cases.
+ */
+public class MicroBatchScorer {
+  public static final int DEFAULT_MAX_BATCH_SIZE = 256;
+  public static final long DEFAULT_MAX_DELAY_MICROS = 2000L;
+
+  /**
+   * Outcome of scoring one case.
+   */
+  public static class Result {
+    private final int m_clusterId;
+    private final double m_probability;
+    private final long m_modelVersion;
+
+    Result(int clusterId, double probability, long modelVersion) {
+      m_clusterId = clusterId;
+      m_probability = probability;
+      m_modelVersion = modelVersion;
+    }
+
+    /**
+     * @return identifier of the top cluster
+     */
+    public int getClusterId() {
+      return m_clusterId;
+    }
+
+    /**
+     * @return probability of the top cluster
+     */
+    public double getProbability() {
+      return m_probability;
+    }
+
+    /**
+     * @return registry version of the model that scored the case
+     */
+    public long getModelVersion() {
+      return m_modelVersion;
+    }
+  }
+
+  private static class Request {
+    final double[] m_row;
+    final long m_enqueuedNanos;
+    final CompletableFuture<Result> m_future = new CompletableFuture<Result>();
+
+    Request(double[] row, long enqueuedNanos) {
+      m_row = row;
+      m_enqueuedNanos = enqueuedNanos;
+    }
+  }
+
+  private final ModelRegistry m_registry;
+  private final int m_maxBatchSize;
+  private final long m_maxDelayNanos;
+  private final int m_queueCapacity;
+  private final ConcurrentLinkedQueue<Request> m_queue =
+    new ConcurrentLinkedQueue<Request>();
+  private final AtomicInteger m_depth = new AtomicInteger();
+  private final AtomicInteger m_peakDepth = new AtomicInteger();
+  private final AtomicLong m_requestCount = new AtomicLong();
+  private final AtomicLong m_rejectedCount = new AtomicLong();
+  private final AtomicLong m_batchCount = new AtomicLong();
+  private final AtomicLong m_totalWaitNanos = new AtomicLong();
+  private final Thread m_flusher;
+  private volatile boolean m_closed;
+
+  /**
+   * Scores with one fixed model.
+   */
+  public MicroBatchScorer(ClusterScorer scorer) {
+    this(singleModel(scorer), DEFAULT_MAX_BATCH_SIZE, DEFAULT_MAX_DELAY_MICROS,
+      64 * DEFAULT_MAX_BATCH_SIZE);
+  }
+
+  /**
+   * @param registry publishes the model to score with
+   * @param maxBatchSize number of cases that are scored together at most
+   * @param maxDelayMicros longest time a case waits for its batch to fill
+   * @param queueCapacity number of waiting cases above which new cases are
+   *        refused
+   */
+  public MicroBatchScorer(ModelRegistry registry, int maxBatchSize,
+    long maxDelayMicros, int queueCapacity)
+  {
+    if (maxBatchSize < 1)
+      throw new IllegalArgumentException("maxBatchSize must be >= 1");
+    if (maxDelayMicros < 0L)
+      throw new IllegalArgumentException("maxDelayMicros must be >= 0");
+    if (queueCapacity < maxBatchSize)
+      throw new IllegalArgumentException("queueCapacity must be >= maxBatchSize");
+    m_registry = registry;
+    m_maxBatchSize = maxBatchSize;
+    m_maxDelayNanos = TimeUnit.MICROSECONDS.toNanos(maxDelayMicros);
+    m_queueCapacity = queueCapacity;
+    m_flusher = new Thread(new Runnable() {
+      public void run() {
+        flushLoop();
+      }
+    }, "micro-batch-scorer");
+    m_flusher.setDaemon(true);
+    m_flusher.start();
+  }
+
+  private static ModelRegistry singleModel(ClusterScorer scorer) {
+    ModelRegistry registry = new ModelRegistry();
+    registry.publish(scorer);
+    return registry;
+  }
+
+  public ModelRegistry getRegistry() {
+    return m_registry;
+  }
+
+  /**
+   * Queues one case for scoring.
+   *
+   * @param row attribute values of the case in model attribute order, raw
+   *        if the model has a normalization definition; it must not be
+   *        modified until the future is complete
+   * @return future completed with the top cluster of the case; it fails
+   *         with a <code>RejectedExecutionException</code> if the queue is
+   *         full, the scorer is closed or no model is published, and with
+   *         an <code>IllegalArgumentException</code> if the row is shorter
+   *         than the attributes of the model
+   */
+  public CompletableFuture<Result> submit(double[] row) {
+    Request request = new Request(row, System.nanoTime());
+    if (m_closed) {
+      request.m_future.completeExceptionally(
+        new RejectedExecutionException("Scorer is closed"));
+      return request.m_future;
+    }
+    if (m_depth.get() >= m_queueCapacity) {
+      m_rejectedCount.incrementAndGet();
+      request.m_future.completeExceptionally(
+        new RejectedExecutionException("Scoring queue is full"));
+      return request.m_future;
+    }
+    // the case is counted after it is queued and uncounted after it is
+    // taken off, so the first case queued after the flusher found the queue
+    // empty always sees a depth of at most 1 and wakes it
+    m_queue.offer(request);
+    int depth = m_depth.incrementAndGet();
+    int peak;
+    while (depth > (peak = m_peakDepth.get()) &&
+      !m_peakDepth.compareAndSet(peak, depth))
+      ;
+    // wake the flusher to start the deadline of a new batch or to flush a
+    // full one
+    if (depth <= 1 || depth >= m_maxBatchSize)
+      LockSupport.unpark(m_flusher);
+    // closed meanwhile: whoever takes the case off the queue fails it
+    if (m_closed && m_queue.remove(request)) {
+      m_depth.decrementAndGet();
+      request.m_future.completeExceptionally(
+        new RejectedExecutionException("Scorer is closed"));
+    }
+    return request.m_future;
+  }
+
+  private void flushLoop() {
+    Request[] batch = new Request[m_maxBatchSize];
+    int[] top = new int[m_maxBatchSize];
+    double[] x = new double[0];
+    double[] probabilities = new double[0];
+    while (true) {
+      Request first = m_queue.peek();
+      if (first == null) {
+        if (m_closed)
+          return;
+        LockSupport.park(this);
+        continue;
+      }
+      long wait = first.m_enqueuedNanos + m_maxDelayNanos - System.nanoTime();
+      if (!m_closed && wait > 0L && m_depth.get() < m_maxBatchSize) {
+        LockSupport.parkNanos(this, wait);
+        continue;
+      }
+      int rows = 0;
+      long now = System.nanoTime();
+      long waited = 0L;
+      Request request;
+      while (rows < m_maxBatchSize && (request = m_queue.poll()) != null) {
+        batch[rows] = request;
+        waited += now - request.m_enqueuedNanos;
+        rows++;
+      }
+      m_depth.addAndGet(-rows);
+      ModelRegistry.ModelVersion version = m_registry.acquire();
+      if (version == null) {
+        RejectedExecutionException noModel =
+          new RejectedExecutionException("No model is published");
+        for (int i = 0; i < rows; i++)
+          batch[i].m_future.completeExceptionally(noModel);
+      } else {
+        try {
+          ClusterScorer scorer = version.getScorer();
+          MinMaxNormalizer normalizer = scorer.getNormalizer();
+          int d = scorer.getAttributeCount();
+          int k = scorer.getNumberOfClusters();
+          if (x.length < m_maxBatchSize * d)
+            x = new double[m_maxBatchSize * d];
+          if (probabilities.length < m_maxBatchSize * k)
+            probabilities = new double[m_maxBatchSize * k];
+          // rows too short for this model are failed and left out
+          int scored = 0;
+          for (int i = 0; i < rows; i++) {
+            if (batch[i].m_row.length < d) {
+              batch[i].m_future.completeExceptionally(new IllegalArgumentException(
+                "A case needs " + d + " attribute values"));
+              continue;
+            }
+            System.arraycopy(batch[i].m_row, 0, x, scored * d, d);
+            if (normalizer != null)
+              normalizer.normalize(x, scored * d);
+            batch[scored++] = batch[i];
+          }
+          scorer.score(x, 0, scored, top, probabilities);
+          for (int i = 0; i < scored; i++) {
+            batch[i].m_future.complete(new Result(scorer.getClusterId(top[i]),
+              probabilities[i * k + top[i]], version.getVersion()));
+          }
+        } catch (RuntimeException scoringFailure) {
+          for (int i = 0; i < rows; i++)
+            batch[i].m_future.completeExceptionally(scoringFailure);
+        } finally {
+          version.release();
+        }
+      }
+      for (int i = 0; i < rows; i++)
+        batch[i] = null;
+      m_requestCount.addAndGet(rows);
+      m_batchCount.incrementAndGet();
+      m_totalWaitNanos.addAndGet(waited);
+    }
+  }
+
+  /**
+   * Scores the cases still queued and stops the flusher thread. Cases
+   * submitted afterwards are refused.
+   *
+   * @param timeoutMillis how long to wait for the queued cases
+   * @return whether the flusher stopped within the timeout
+   */
+  public boolean close(long timeoutMillis) {
+    m_closed = true;
+    LockSupport.unpark(m_flusher);
+    try {
+      m_flusher.join(timeoutMillis);
+    } catch (InterruptedException ie) {
+      Thread.currentThread().interrupt();
+    }
+    if (m_flusher.isAlive())
+      return false;
+    Request request;
+    while ((request = m_queue.poll()) != null) {
+      m_depth.decrementAndGet();
+      request.m_future.completeExceptionally(
+        new RejectedExecutionException("Scorer is closed"));
+    }
+    return true;
+  }
+
+  /**
+   * @return number of cases waiting to be scored
+   */
+  public int getQueueDepth() {
+    return Math.max(0, m_depth.get());
+  }
+
+  /**
+   * @return largest number of cases that waited at the same time
+   */
+  public int getPeakQueueDepth() {
+    return m_peakDepth.get();
+  }
+
+  /**
+   * @return number of cases scored
+   */
+  public long getRequestCount() {
+    return m_requestCount.get();
+  }
+
+  /**
+   * @return number of cases refused because the queue was full
+   */
+  public long getRejectedCount() {
+    return m_rejectedCount.get();
+  }
+
+  /**
+   * @return number of batches scored
+   */
+  public long getBatchCount() {
+    return m_batchCount.get();
+  }
+
+  /**
+   * @return mean number of cases per batch
+   */
+  public double getAverageBatchSize() {
+    long batches = m_batchCount.get();
+    return batches == 0 ? 0.0 : (double)m_requestCount.get() / batches;
+  }
+
+  /**
+   * @return mean time in microseconds a case waited in the queue
+   */
+  public double getAverageQueueWaitMicros() {
+    long requests = m_requestCount.get();
+    return requests == 0 ? 0.0 : m_totalWaitNanos.get() / 1000.0 / requests;
+  }
+}
@@ -0,0 +1,401 @@
+package clustering;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * This class is a min-max normalization definition computed in the Java VM,
+ * the in-process counterpart of the <code>OraNormalizeTransformImpl</code>
+ * min_max transformation of <code>DMKMDemo.prepareBuildData</code>. Every
+ * attribute has a shift, its minimum, and a scale, its range, both rounded
+ * to the given number of significant digits like the precision of the
+ * transformation; a value is normalized to (value - shift) / scale, so the
+ * build data falls in [0, 1]. Excluded attributes keep their values (shift
+ * 0, scale 1), and so does an attribute whose range is 0, where the mining
+ * engine would divide by zero.
+ *
+ *   <code>fit</code> finds the minimum and maximum of all attributes in
+ * one pass over the rows, split into blocks on the common
+ * <code>ForkJoinPool</code> for a <code>MiningDataset</code>. Compact
+ * datasets and row batch sources are fitted in one serial pass, and
+ * <code>normalizing</code> wraps a source so that a streaming build sees
+ * normalized rows. The definition is two arrays of one value per
+ * attribute, so it is kept with an in-process model (see
+ * <code>ModelFile</code>) and applied to each case while it is scored,
+ * instead of creating normalized views of the build and apply data.
+ * Instances are not modified after they are created and can be shared
+ * between threads.
+ */
+public class MinMaxNormalizer {
+  // blocks smaller than this are not worth a task of their own
+  private static final int MIN_BLOCK_ROWS = 4096;
+
+  private final String[] m_attributeNames;
+  private final double[] m_shift;
+  private final double[] m_scale;
+
+  /**
+   * @param attributeNames names of the attributes, in the order of the
+   *        values of a case
+   * @param shift shift of each attribute
+   * @param scale scale of each attribute; none may be 0
+   */
+  public MinMaxNormalizer(String[] attributeNames, double[] shift,
+    double[] scale)
+  {
+    int d = attributeNames.length;
+    if (shift.length != d || scale.length != d)
+      throw new IllegalArgumentException("Need a shift and a scale for each " +
+        "of the " + d + " attributes");
+    for (int j = 0; j < d; j++) {
+      if (scale[j] == 0.0)
+        throw new IllegalArgumentException("Scale of attribute " +
+          attributeNames[j] + " is 0");
+    }
+    m_attributeNames = attributeNames;
+    m_shift = shift;
+    m_scale = scale;
+  }
+
+  /**
+   * Computes the definition of the given data.
+   *
+   * @param data data to normalize, e.g. the build data
+   * @param excludeColumnList attributes to leave as they are, or null
+   * @param precision number of significant digits of shift and scale
+   * @return the definition, in the attribute order of <code>data</code>
+   */
+  public static MinMaxNormalizer fit(MiningDataset data,
+    String[] excludeColumnList, int precision)
+  {
+    int d = data.getAttributeCount();
+    int n = data.getRowCount();
+    double[] range;
+    if (n == 0) {
+      range = RangeTask.emptyRange(d);
+    } else {
+      ForkJoinPool pool = ForkJoinPool.commonPool();
+      int blocks = (int)Math.max(1L, Math.min(
+        (long)pool.getParallelism() * 4, n / MIN_BLOCK_ROWS));
+      range = pool.invoke(new RangeTask(data.getValues(), d, n, blocks, 0,
+        blocks));
+    }
+    return fromRange(data.getAttributeNames(), range, excludeColumnList,
+      precision);
+  }
+
+  /**
+   * Computes the definition of a compact dataset from its decoded values.
+   *
+   * @see #fit(MiningDataset, String[], int)
+   */
+  public static MinMaxNormalizer fit(CompactDataset data,
+    String[] excludeColumnList, int precision)
+  {
+    int d = data.getAttributeCount();
+    int n = data.getRowCount();
+    double[] range = RangeTask.emptyRange(d);
+    int tileRows = Math.max(1, MIN_BLOCK_ROWS / Math.max(1, d));
+    double[] tile = new double[tileRows * d];
+    for (int from = 0; from < n; from += tileRows) {
+      int rows = Math.min(tileRows, n - from);
+      data.decode(from, from + rows, tile);
+      RangeTask.updateRange(tile, rows, d, range);
+    }
+    return fromRange(data.getAttributeNames(), range, excludeColumnList,
+      precision);
+  }
+
+  /**
+   * Computes the definition of the rows of a source in one pass from its
+   * current position, and rewinds it.
+   *
+   * @param batchSize number of rows read at a time
+   * @exception IOException if the source could not be read
+   * @see #fit(MiningDataset, String[], int)
+   */
+  public static MinMaxNormalizer fit(RowBatchSource source,
+    String[] excludeColumnList, int precision, int batchSize)
+    throws IOException
+  {
+    int d = source.getAttributeNames().length;
+    double[] range = RangeTask.emptyRange(d);
+    double[] batch = new double[batchSize * Math.max(1, d)];
+    int rows;
+    while ((rows = source.nextBatch(batch, null)) > 0)
+      RangeTask.updateRange(batch, rows, d, range);
+    source.rewind();
+    return fromRange(source.getAttributeNames(), range, excludeColumnList,
+      precision);
+  }
+
+  /**
+   * @param range minima of the attributes followed by their maxima
+   */
+  private static MinMaxNormalizer fromRange(String[] attributeNames,
+    double[] range, String[] excludeColumnList, int precision)
+  {
+    int d = attributeNames.length;
+    MathContext digits = new MathContext(precision);
+    double[] shift = new double[d];
+    double[] scale = new double[d];
+    for (int j = 0; j < d; j++) {
+      double min = range[j];
+      double max = range[d + j];
+      if (isExcluded(attributeNames[j], excludeColumnList) ||
+          !(min <= max)) {
+        shift[j] = 0.0;
+        scale[j] = 1.0;
+        continue;
+      }
+      shift[j] = round(min, digits);
+      scale[j] = round(max - min, digits);
+      if (scale[j] == 0.0)
+        scale[j] = 1.0;
+    }
+    return new MinMaxNormalizer(attributeNames, shift, scale);
+  }
+
+  public int getAttributeCount() {
+    return m_attributeNames.length;
+  }
+
+  public String[] getAttributeNames() {
+    return m_attributeNames;
+  }
+
+  public double getShift(int attribute) {
+    return m_shift[attribute];
+  }
+
+  public double getScale(int attribute) {
+    return m_scale[attribute];
+  }
+
+  /**
+   * Returns the definition of the given attributes in the given order, e.g.
+   * the attributes of a model built from part of the normalized data.
+   *
+   * @exception IllegalArgumentException if an attribute is not defined
+   */
+  public MinMaxNormalizer forAttributes(String[] attributeNames) {
+    int d = attributeNames.length;
+    double[] shift = new double[d];
+    double[] scale = new double[d];
+    for (int j = 0; j < d; j++) {
+      int a = indexOf(attributeNames[j]);
+      if (a < 0)
+        throw new IllegalArgumentException("Normalization definition has no " +
+          "attribute " + attributeNames[j]);
+      shift[j] = m_shift[a];
+      scale[j] = m_scale[a];
+    }
+    return new MinMaxNormalizer(attributeNames, shift, scale);
+  }
+
+  /**
+   * Normalizes one case in place.
+   *
+   * @param x row-major values holding the case, in the attribute order of
+   *        this definition
+   * @param off offset of the case in <code>x</code>
+   */
+  public void normalize(double[] x, int off) {
+    for (int j = 0; j < m_shift.length; j++)
+      x[off + j] = (x[off + j] - m_shift[j]) / m_scale[j];
+  }
+
+  /**
+   * Normalizes all rows of a dataset in place.
+   *
+   * @exception IllegalArgumentException if the dataset has other
+   *            attributes than this definition
+   */
+  public void normalize(MiningDataset data) {
+    int d = m_attributeNames.length;
+    if (data.getAttributeCount() != d)
+      throw new IllegalArgumentException("Dataset has " +
+        data.getAttributeCount() + " attributes instead of " + d);
+    for (int j = 0; j < d; j++) {
+      if (!m_attributeNames[j].equals(data.getAttributeName(j)))
+        throw new IllegalArgumentException("Dataset has attribute " +
+          data.getAttributeName(j) + " instead of " + m_attributeNames[j]);
+    }
+    double[] x = data.getValues();
+    for (int i = 0; i < data.getRowCount(); i++)
+      normalize(x, i * d);
+  }
+
+  /**
+   * Normalizes all rows of a compact dataset in place (see
+   * <code>CompactDataset.normalize</code>).
+   *
+   * @exception IllegalArgumentException if the dataset has other
+   *            attributes than this definition
+   */
+  public void normalize(CompactDataset data) {
+    checkAttributes(data.getAttributeNames());
+    data.normalize(m_shift, m_scale);
+  }
+
+  /**
+   * Wraps a source so that every row it returns is normalized. The wrapper
+   * passes <code>rewind</code> and <code>close</code> on to the source.
+   *
+   * @param source rows to normalize, with the attributes of this
+   *        definition in any order
+   * @return the normalizing source
+   * @exception IllegalArgumentException if an attribute of the source is
+   *            not defined
+   */
+  public RowBatchSource normalizing(RowBatchSource source) {
+    return new NormalizingSource(source,
+      forAttributes(source.getAttributeNames()));
+  }
+
+  private void checkAttributes(String[] attributeNames) {
+    if (!Arrays.equals(m_attributeNames, attributeNames))
+      throw new IllegalArgumentException("Dataset has attributes " +
+        Arrays.toString(attributeNames) + " instead of " +
+        Arrays.toString(m_attributeNames));
+  }
+
+  private int indexOf(String attributeName) {
+    for (int j = 0; j < m_attributeNames.length; j++) {
+      if (m_attributeNames[j].equals(attributeName))
+        return j;
+    }
+    return -1;
+  }
+
+  private static boolean isExcluded(String attributeName,
+    String[] excludeColumnList)
+  {
+    for (int i = 0; excludeColumnList != null && i < excludeColumnList.length;
+      i++)
+    {
+      if (excludeColumnList[i].equalsIgnoreCase(attributeName))
+        return true;
+    }
+    return false;
+  }
+
+  private static double round(double value, MathContext digits) {
+    return new BigDecimal(value).round(digits).doubleValue();
+  }
+
+  /**
+   * Source of <code>normalizing</code>.
+   */
+  private static class NormalizingSource implements RowBatchSource {
+    private final RowBatchSource m_source;
+    private final MinMaxNormalizer m_normalizer;
+
+    NormalizingSource(RowBatchSource source, MinMaxNormalizer normalizer) {
+      m_source = source;
+      m_normalizer = normalizer;
+    }
+
+    public String[] getAttributeNames() {
+      return m_source.getAttributeNames();
+    }
+
+    public int nextBatch(double[] values, long[] caseIds) throws IOException {
+      int rows = m_source.nextBatch(values, caseIds);
+      int d = m_normalizer.getAttributeCount();
+      for (int i = 0; i < rows; i++)
+        m_normalizer.normalize(values, i * d);
+      return rows;
+    }
+
+    public void rewind() throws IOException {
+      m_source.rewind();
+    }
+
+    public void close() {
+      m_source.close();
+    }
+  }
+
+  /**
+   * Finds the minimum and maximum of every attribute in the row blocks
+   * [from, to); the result holds the minima followed by the maxima.
+   */
+  private static class RangeTask extends RecursiveTask<double[]> {
+    private static final long serialVersionUID = 1L;
+
+    private final double[] m_x;
+    private final int m_d;
+    private final int m_n;
+    private final int m_blocks;
+    private final int m_from;
+    private final int m_to;
+
+    RangeTask(double[] x, int d, int n, int blocks, int from, int to) {
+      m_x = x;
+      m_d = d;
+      m_n = n;
+      m_blocks = blocks;
+      m_from = from;
+      m_to = to;
+    }
+
+    static double[] emptyRange(int d) {
+      double[] range = new double[2 * d];
+      for (int j = 0; j < d; j++) {
+        range[j] = Double.POSITIVE_INFINITY;
+        range[d + j] = Double.NEGATIVE_INFINITY;
+      }
+      return range;
+    }
+
+    protected double[] compute() {
+      int d = m_d;
+      if (m_to - m_from > 1) {
+        int mid = (m_from + m_to) >>> 1;
+        RangeTask right = new RangeTask(m_x, d, m_n, m_blocks, mid, m_to);
+        right.fork();
+        double[] range = new RangeTask(m_x, d, m_n, m_blocks, m_from, mid)
+          .compute();
+        double[] other = right.join();
+        for (int j = 0; j < d; j++) {
+          range[j] = Math.min(range[j], other[j]);
+          range[d + j] = Math.max(range[d + j], other[d + j]);
+        }
+        return range;
+      }
+      double[] range = emptyRange(d);
+      int start = (int)((long)m_n * m_from / m_blocks);
+      int end = (int)((long)m_n * m_to / m_blocks);
+      updateRange(m_x, start, end, d, range);
+      return range;
+    }
+
+    static void updateRange(double[] x, int rows, int d, double[] range) {
+      updateRange(x, 0, rows, d, range);
+    }
+
+    /**
+     * Widens <code>range</code> to the rows [start, end) of <code>x</code>.
+     */
+    static void updateRange(double[] x, int start, int end, int d,
+      double[] range)
+    {
+      for (int i = start; i < end; i++) {
+        int off = i * d;
+        for (int j = 0; j < d; j++) {
+          double v = x[off + j];
+          // NaN compares false and is skipped
+          if (v < range[j])
+            range[j] = v;
+          if (v > range[d + j])
+            range[d + j] = v;
+        }
+      }
+    }
+  }
+}
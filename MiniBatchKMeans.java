@@ -0,0 +1,151 @@
+package clustering;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * This class builds a k-Means clustering model from a
+ * <code>RowBatchSource</code> with the mini-batch algorithm, so that the
+ * data never has to fit in memory: besides the centroids only one batch of
+ * rows is held at a time, i.e. memory is O(k x attributes + batchSize x
+ * attributes).
+ *
+ *   Every batch is assigned to the current centroids, then each centroid
+ * moves toward the cases it was given with a per-centroid learning rate of
+ * 1 / (cases seen so far by that centroid). The first centroids are picked
+ * from the first batch by the configured initialization.
+ *
+ *   The settings keep their <code>KMeansEngine</code> meaning, with one
+ * pass over the data (an epoch) counting as one iteration: the build stops
+ * after <code>maxNumberOfIterations</code> epochs, or earlier once an epoch
+ * improves the total squared error by less than
+ * <code>minErrorTolerance</code> relative to the previous epoch. A final
+ * pass assigns all cases to the final centroids for the cluster statistics.
+ */
+public class MiniBatchKMeans {
+  public static final int DEFAULT_BATCH_SIZE = 1024;
+
+  private final KMeansConfig m_config;
+  private final int m_batchSize;
+  private ProgressListener m_listener;
+
+  public MiniBatchKMeans(KMeansConfig config) {
+    this(config, DEFAULT_BATCH_SIZE);
+  }
+
+  /**
+   * @param batchSize number of rows read and assigned at a time
+   */
+  public MiniBatchKMeans(KMeansConfig config, int batchSize) {
+    if (batchSize < 1)
+      throw new IllegalArgumentException("batchSize must be >= 1");
+    m_config = config;
+    m_batchSize = batchSize;
+  }
+
+  public KMeansConfig getConfig() {
+    return m_config;
+  }
+
+  public int getBatchSize() {
+    return m_batchSize;
+  }
+
+  /**
+   * @param listener is told about every epoch and can end the build
+   *        early, or null
+   */
+  public void setProgressListener(ProgressListener listener) {
+    m_listener = listener;
+  }
+
+  /**
+   * Builds a model with one root cluster and one leaf per centroid. The
+   * source is left open.
+   *
+   * @param source build data
+   * @param modelName name given to the model
+   * @return the built model
+   * @exception IOException if the data could not be read
+   */
+  public LocalClusteringModel build(RowBatchSource source, String modelName)
+    throws IOException
+  {
+    String[] names = source.getAttributeNames();
+    int d = names.length;
+    double[] x = new double[m_batchSize * d];
+    int[] assignment = new int[m_batchSize];
+
+    int rows = source.nextBatch(x, null);
+    if (rows == 0)
+      throw new IllegalArgumentException("Build data " + modelName + " has no rows");
+    int k = Math.min(m_config.getNumberOfClusters(), rows);
+    KMeansEngine engine = new KMeansEngine(m_config);
+    engine.setProgressListener(m_listener);
+    double[] centroids = engine.initialCentroids(x, rows, d, k, null);
+    double[] sums = new double[k * d];
+    long[] batchCounts = new long[k];
+    long[] seen = new long[k];
+    double[] norms = new double[k];
+    double[] scratch = new double[DistanceKernel.SCRATCH_LENGTH];
+    DistanceKernel kernel = DistanceKernel.get();
+    double[] min = new double[d];
+    double[] max = new double[d];
+    Arrays.fill(min, Double.POSITIVE_INFINITY);
+    Arrays.fill(max, Double.NEGATIVE_INFINITY);
+
+    double previousError = Double.POSITIVE_INFINITY;
+    int epoch = 0;
+    while (epoch < m_config.getMaxNumberOfIterations()) {
+      source.rewind();
+      epoch++;
+      double error = 0.0;
+      while ((rows = source.nextBatch(x, null)) > 0) {
+        if (epoch == 1)
+          ClusterTreeBuilder.updateRanges(x, rows, d, min, max);
+        Arrays.fill(sums, 0.0);
+        Arrays.fill(batchCounts, 0L);
+        kernel.squaredNorms(centroids, k, d, norms);
+        error += KMeansEngine.assignAndAccumulate(x, 0, rows, d, centroids,
+          norms, k, assignment, sums, batchCounts, scratch);
+        moveCentroids(centroids, sums, batchCounts, seen, k, d);
+      }
+      boolean proceed = engine.reportIteration(epoch, previousError, error);
+      if (engine.hasConverged(previousError, error) || !proceed)
+        break;
+      previousError = error;
+    }
+
+    ClusterTreeBuilder tree = ClusterTreeBuilder.flat(names,
+      m_config.getNumberOfBins(), k);
+    tree.begin(centroids, min, max);
+    kernel.squaredNorms(centroids, k, d, norms);
+    source.rewind();
+    while ((rows = source.nextBatch(x, null)) > 0) {
+      kernel.nearest(x, 0, rows, d, centroids, norms, k, assignment, scratch);
+      tree.accumulate(x, 0, rows, assignment, 0);
+    }
+    return tree.finish(modelName, epoch);
+  }
+
+  /**
+   * Applies the per-case updates c = (1 - 1/n) c + x/n of one batch, where n
+   * counts the cases a centroid has seen. Summed over the batch this is
+   * c = (seen * c + sum of the batch cases) / (seen + batch count).
+   */
+  static void moveCentroids(double[] centroids, double[] sums, long[] batchCounts,
+    long[] seen, int k, int d)
+  {
+    for (int c = 0; c < k; c++) {
+      if (batchCounts[c] == 0)
+        continue;
+      long total = seen[c] + batchCounts[c];
+      double keep = (double)seen[c] / total;
+      double inv = 1.0 / total;
+      int off = c * d;
+      for (int j = 0; j < d; j++)
+        centroids[off + j] = centroids[off + j] * keep + sums[off + j] * inv;
+      seen[c] = total;
+    }
+  }
+}
@@ -0,0 +1,189 @@
+package clustering;
+
+import java.util.Iterator;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.datamining.JDMException;
+import javax.datamining.resource.Connection;
+import javax.datamining.resource.ConnectionFactory;
+import javax.datamining.resource.ConnectionSpec;
+
+import oracle.dmt.jdm.resource.OraConnectionFactory;
+
+/**
+ * This class keeps a bounded set of open Data Mining Engine connections,
+ * each with its factories already initialized, so that a clustering run
+ * does not pay for login and nine factory lookups every time.
+ *
+ *   At most <code>maxConnections</code> connections exist at any time.
+ * A connection taken from the idle set is validated before it is handed out
+ * and replaced when it no longer answers. A background thread closes
+ * connections that stayed idle longer than <code>maxIdleMillis</code>.
+ */
+public class MiningConnectionPool {
+  private static final int VALIDATION_TIMEOUT_SECONDS = 5;
+
+  private final String m_url;
+  private final String m_username;
+  private final String m_password;
+  private final long m_maxIdleMillis;
+  private final Semaphore m_permits;
+  // most recently released connection first, so that rarely used ones age out
+  private final LinkedBlockingDeque<PooledMiningConnection> m_idle =
+    new LinkedBlockingDeque<PooledMiningConnection>();
+  private final ScheduledExecutorService m_evictor;
+  private volatile boolean m_closed;
+
+  public MiningConnectionPool(String username, String password, String url,
+    int maxConnections, long maxIdleMillis)
+  {
+    if (maxConnections < 1)
+      throw new IllegalArgumentException("maxConnections must be >= 1");
+    m_url = url;
+    m_username = username;
+    m_password = password;
+    m_maxIdleMillis = maxIdleMillis;
+    m_permits = new Semaphore(maxConnections, true);
+    m_evictor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+      public Thread newThread(Runnable r) {
+        Thread t = new Thread(r, "mining-connection-evictor");
+        t.setDaemon(true);
+        return t;
+      }
+    });
+    long period = Math.max(1000L, maxIdleMillis / 2);
+    m_evictor.scheduleWithFixedDelay(new Runnable() {
+      public void run() {
+        evictIdleConnections();
+      }
+    }, period, period, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Takes a connection from the pool, opening a new one if no valid idle
+   * connection is available. Every borrowed connection must be given back
+   * with <code>release</code> or <code>invalidate</code>.
+   *
+   * @param timeoutMillis how long to wait when all connections are in use
+   * @exception JDMException if no connection became available in time or a
+   *            new connection could not be opened
+   */
+  public PooledMiningConnection borrow(long timeoutMillis) throws JDMException
+  {
+    if (m_closed)
+      throw new JDMException("Connection pool is closed");
+    try {
+      if (!m_permits.tryAcquire(timeoutMillis, TimeUnit.MILLISECONDS))
+        throw new JDMException("No Data Mining Engine connection available within " +
+          timeoutMillis + " ms");
+    } catch(InterruptedException ie) {
+      Thread.currentThread().interrupt();
+      throw new JDMException("Interrupted while waiting for a connection");
+    }
+    try {
+      PooledMiningConnection pooled;
+      while ((pooled = m_idle.pollFirst()) != null) {
+        if (pooled.isValid(VALIDATION_TIMEOUT_SECONDS))
+          return pooled;
+        System.out.println("Discarding invalid Data Mining Engine connection.");
+        pooled.close();
+      }
+      return open();
+    } catch(JDMException jdmExp) {
+      m_permits.release();
+      throw jdmExp;
+    } catch(RuntimeException anyExp) {
+      m_permits.release();
+      throw anyExp;
+    }
+  }
+
+  /**
+   * Gives a healthy connection back to the pool. A connection released
+   * after the pool was closed is closed instead, also when
+   * <code>close</code> runs at the same time.
+   */
+  public void release(PooledMiningConnection pooled) {
+    if (m_closed) {
+      pooled.close();
+    } else {
+      pooled.markReleased();
+      m_idle.offerFirst(pooled);
+      // close may have emptied the idle set before the offer
+      if (m_closed && m_idle.removeFirstOccurrence(pooled))
+        pooled.close();
+    }
+    m_permits.release();
+  }
+
+  /**
+   * Closes a connection that failed while in use instead of returning it
+   * to the pool (see <code>ClusteringContext.recordFailure</code>).
+   */
+  public void invalidate(PooledMiningConnection pooled) {
+    pooled.close();
+    m_permits.release();
+  }
+
+  /**
+   * @return number of open connections that are currently not borrowed
+   */
+  public int getIdleCount() {
+    return m_idle.size();
+  }
+
+  /**
+   * Stops the evictor and closes all idle connections. Connections that are
+   * still borrowed are closed when they are released.
+   */
+  public void close() {
+    m_closed = true;
+    m_evictor.shutdownNow();
+    PooledMiningConnection pooled;
+    while ((pooled = m_idle.pollFirst()) != null)
+      pooled.close();
+  }
+
+  /**
+   * Logs in to the Data Mining Engine.
+   *
+   * @exception JDMException if login failed
+   */
+  static Connection connect(String username, String password, String url)
+    throws JDMException
+  {
+    ConnectionFactory dmeConnFactory = new OraConnectionFactory();
+    ConnectionSpec connSpec = dmeConnFactory.getConnectionSpec();
+    connSpec.setURI(url);
+    connSpec.setName(username);
+    connSpec.setPassword(password);
+    return dmeConnFactory.getConnection(connSpec);
+  }
+
+  private PooledMiningConnection open() throws JDMException
+  {
+    Connection dmeConn = connect(m_username, m_password, m_url);
+    try {
+      return new PooledMiningConnection(dmeConn, new MiningFactories(dmeConn));
+    } catch(JDMException jdmExp) {
+      try {
+        dmeConn.close();
+      } catch(Exception anyExp) { }//Ignore
+      throw jdmExp;
+    }
+  }
+
+  private void evictIdleConnections() {
+    long expiry = System.currentTimeMillis() - m_maxIdleMillis;
+    for (Iterator<PooledMiningConnection> it = m_idle.iterator(); it.hasNext(); ) {
+      PooledMiningConnection pooled = it.next();
+      if (pooled.getLastReleasedAt() < expiry && m_idle.removeFirstOccurrence(pooled))
+        pooled.close();
+    }
+  }
+}
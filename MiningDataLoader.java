@@ -0,0 +1,254 @@
+package clustering;
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * This class extracts the numerical attributes of a table or view into a
+ * <code>MiningDataset</code> for in-process clustering.
+ *
+ *   Columns of non-numerical type and the columns in the exclude list are
+ * skipped. Missing values are replaced by the mean of their attribute, which
+ * is how the mining engine treats missing numerical values in k-Means.
+ *
+ *   <code>loadCompact</code> reads the values as floats instead of doubles
+ * and can then quantize them (see <code>CompactDataset</code>), so that at
+ * no point the data takes the memory of a double array.
+ */
+public class MiningDataLoader {
+  private static final int FETCH_SIZE = 1000;
+  private static final int INITIAL_ROW_CAPACITY = 1024;
+
+  private MiningDataLoader() {
+  }
+
+  /**
+   * @param dbConn database connection to read from
+   * @param dataURI name of the table or view, e.g. MINING_DATA_BUILD_V
+   * @param caseIdColumn name of the case identifier column, or null
+   * @param excludeColumnList columns that must not be used as attributes
+   * @return dataset with one row per table row
+   * @exception SQLException if the data could not be read
+   */
+  public static MiningDataset load(java.sql.Connection dbConn, String dataURI,
+    String caseIdColumn, String[] excludeColumnList) throws SQLException
+  {
+    Statement stmt = null;
+    ResultSet rs = null;
+    try {
+      stmt = dbConn.createStatement();
+      stmt.setFetchSize(FETCH_SIZE);
+      rs = stmt.executeQuery("SELECT * FROM " + dataURI);
+      ResultSetMetaData meta = rs.getMetaData();
+      int caseIdIndex = findColumn(meta, caseIdColumn);
+      List<String> names = new ArrayList<String>();
+      int[] columnIndex = selectAttributeColumns(meta, caseIdColumn,
+        excludeColumnList, names);
+      int cols = names.size();
+
+      int capacity = INITIAL_ROW_CAPACITY;
+      double[] values = new double[capacity * cols];
+      long[] caseIds = new long[capacity];
+      double[] columnSums = new double[cols];
+      long[] columnCounts = new long[cols];
+      int rows = 0;
+      while (rs.next()) {
+        if (rows == capacity) {
+          capacity *= 2;
+          values = Arrays.copyOf(values, capacity * cols);
+          caseIds = Arrays.copyOf(caseIds, capacity);
+        }
+        caseIds[rows] = caseIdIndex > 0 ? rs.getLong(caseIdIndex) : rows;
+        int offset = rows * cols;
+        for (int j = 0; j < cols; j++) {
+          double v = rs.getDouble(columnIndex[j]);
+          if (rs.wasNull()) {
+            v = Double.NaN;
+          } else {
+            columnSums[j] += v;
+            columnCounts[j]++;
+          }
+          values[offset + j] = v;
+        }
+        rows++;
+      }
+      replaceMissingValues(values, rows, cols, columnSums, columnCounts);
+      return new MiningDataset(names.toArray(new String[cols]),
+        caseIds, values, rows);
+    } finally {
+      try {
+        if (rs != null)
+          rs.close();
+      } catch(Exception anySqlExp) {}
+      try {
+        if (stmt != null)
+          stmt.close();
+      } catch(Exception anySqlExp) {}
+    }
+  }
+
+  /**
+   * Reads a table or view like <code>load</code> into a compact dataset.
+   *
+   * @param dbConn database connection to read from
+   * @param dataURI name of the table or view, e.g. MINING_DATA_BUILD_V
+   * @param caseIdColumn name of the case identifier column, or null
+   * @param excludeColumnList columns that must not be used as attributes
+   * @param encoding storage of the values
+   * @return dataset with one row per table row
+   * @exception SQLException if the data could not be read
+   */
+  public static CompactDataset loadCompact(java.sql.Connection dbConn,
+    String dataURI, String caseIdColumn, String[] excludeColumnList,
+    CompactDataset.Encoding encoding) throws SQLException
+  {
+    Statement stmt = null;
+    ResultSet rs = null;
+    try {
+      stmt = dbConn.createStatement();
+      stmt.setFetchSize(FETCH_SIZE);
+      rs = stmt.executeQuery("SELECT * FROM " + dataURI);
+      ResultSetMetaData meta = rs.getMetaData();
+      int caseIdIndex = findColumn(meta, caseIdColumn);
+      List<String> names = new ArrayList<String>();
+      int[] columnIndex = selectAttributeColumns(meta, caseIdColumn,
+        excludeColumnList, names);
+      int cols = names.size();
+
+      int capacity = INITIAL_ROW_CAPACITY;
+      float[] values = new float[capacity * cols];
+      long[] caseIds = new long[capacity];
+      double[] columnSums = new double[cols];
+      long[] columnCounts = new long[cols];
+      int rows = 0;
+      while (rs.next()) {
+        if (rows == capacity) {
+          capacity *= 2;
+          values = Arrays.copyOf(values, capacity * cols);
+          caseIds = Arrays.copyOf(caseIds, capacity);
+        }
+        caseIds[rows] = caseIdIndex > 0 ? rs.getLong(caseIdIndex) : rows;
+        int offset = rows * cols;
+        for (int j = 0; j < cols; j++) {
+          double v = rs.getDouble(columnIndex[j]);
+          if (rs.wasNull()) {
+            v = Double.NaN;
+          } else {
+            columnSums[j] += v;
+            columnCounts[j]++;
+          }
+          values[offset + j] = (float)v;
+        }
+        rows++;
+      }
+      for (int i = 0; i < rows; i++) {
+        int offset = i * cols;
+        for (int j = 0; j < cols; j++) {
+          if (Float.isNaN(values[offset + j]))
+            values[offset + j] = columnCounts[j] == 0 ? 0.0f :
+              (float)(columnSums[j] / columnCounts[j]);
+        }
+      }
+      if (encoding == CompactDataset.Encoding.FLOAT32)
+        values = Arrays.copyOf(values, rows * cols);
+      return CompactDataset.fromFloats(names.toArray(new String[cols]),
+        Arrays.copyOf(caseIds, rows), rows, encoding, values);
+    } finally {
+      try {
+        if (rs != null)
+          rs.close();
+      } catch(Exception anySqlExp) {}
+      try {
+        if (stmt != null)
+          stmt.close();
+      } catch(Exception anySqlExp) {}
+    }
+  }
+
+  /**
+   * Picks the numerical columns of a result that are neither the case
+   * identifier nor in the exclude list.
+   *
+   * @param names receives the upper case names of the picked columns
+   * @return JDBC indexes of the picked columns
+   */
+  static int[] selectAttributeColumns(ResultSetMetaData meta,
+    String caseIdColumn, String[] excludeColumnList, List<String> names)
+    throws SQLException
+  {
+    Set<String> excluded = new HashSet<String>();
+    if (excludeColumnList != null) {
+      for (int i = 0; i < excludeColumnList.length; i++)
+        excluded.add(excludeColumnList[i].toUpperCase(Locale.ENGLISH));
+    }
+    if (caseIdColumn != null)
+      excluded.add(caseIdColumn.toUpperCase(Locale.ENGLISH));
+    List<Integer> indexes = new ArrayList<Integer>();
+    for (int c = 1; c <= meta.getColumnCount(); c++) {
+      String name = meta.getColumnName(c).toUpperCase(Locale.ENGLISH);
+      if (!excluded.contains(name) && isNumerical(meta.getColumnType(c))) {
+        names.add(name);
+        indexes.add(Integer.valueOf(c));
+      }
+    }
+    int[] columnIndex = new int[indexes.size()];
+    for (int j = 0; j < columnIndex.length; j++)
+      columnIndex[j] = indexes.get(j).intValue();
+    return columnIndex;
+  }
+
+  /**
+   * @return JDBC index of the named column, or -1 if the name is null or
+   *         the column does not exist
+   */
+  static int findColumn(ResultSetMetaData meta, String columnName)
+    throws SQLException
+  {
+    if (columnName == null)
+      return -1;
+    for (int c = 1; c <= meta.getColumnCount(); c++) {
+      if (meta.getColumnName(c).equalsIgnoreCase(columnName))
+        return c;
+    }
+    return -1;
+  }
+
+  private static void replaceMissingValues(double[] values, int rows, int cols,
+    double[] columnSums, long[] columnCounts)
+  {
+    for (int i = 0; i < rows; i++) {
+      int offset = i * cols;
+      for (int j = 0; j < cols; j++) {
+        if (Double.isNaN(values[offset + j]))
+          values[offset + j] = columnCounts[j] == 0 ? 0.0 :
+            columnSums[j] / columnCounts[j];
+      }
+    }
+  }
+
+  private static boolean isNumerical(int sqlType) {
+    switch (sqlType) {
+      case Types.NUMERIC:
+      case Types.DECIMAL:
+      case Types.INTEGER:
+      case Types.SMALLINT:
+      case Types.TINYINT:
+      case Types.BIGINT:
+      case Types.FLOAT:
+      case Types.REAL:
+      case Types.DOUBLE:
+        return true;
+      default:
+        return false;
+    }
+  }
+}
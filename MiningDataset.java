@@ -0,0 +1,71 @@
+package clustering;
+
+/**
+ * This class holds mining data extracted from the database for in-process
+ * clustering. Attribute values are stored as one flat row-major array, so
+ * the value of attribute <code>j</code> of row <code>i</code> is
+ * <code>values[i * attributeCount + j]</code>.
+ */
+public class MiningDataset {
+  private final String[] m_attributeNames;
+  private final long[] m_caseIds;
+  private final double[] m_values;
+  private final int m_rowCount;
+
+  /**
+   * @param attributeNames names of the attributes, one per column
+   * @param caseIds case identifier of each row, or null
+   * @param values row-major attribute values; the array is not copied
+   * @param rowCount number of rows stored in <code>values</code>
+   */
+  public MiningDataset(String[] attributeNames, long[] caseIds, double[] values,
+    int rowCount)
+  {
+    if ((long)rowCount * attributeNames.length > values.length)
+      throw new IllegalArgumentException("values holds fewer than " + rowCount +
+        " rows of " + attributeNames.length + " attributes");
+    if (caseIds != null && caseIds.length < rowCount)
+      throw new IllegalArgumentException("caseIds holds fewer than " + rowCount +
+        " rows");
+    m_attributeNames = attributeNames;
+    m_caseIds = caseIds;
+    m_values = values;
+    m_rowCount = rowCount;
+  }
+
+  public int getRowCount() {
+    return m_rowCount;
+  }
+
+  public int getAttributeCount() {
+    return m_attributeNames.length;
+  }
+
+  public String[] getAttributeNames() {
+    return m_attributeNames;
+  }
+
+  public String getAttributeName(int attribute) {
+    return m_attributeNames[attribute];
+  }
+
+  /**
+   * @return case identifier of the given row, or the row index when the
+   *         dataset has no case identifiers
+   */
+  public long getCaseId(int row) {
+    return m_caseIds == null ? row : m_caseIds[row];
+  }
+
+  /**
+   * @return the backing row-major value array; it may be longer than
+   *         rowCount * attributeCount
+   */
+  public double[] getValues() {
+    return m_values;
+  }
+
+  public double getValue(int row, int attribute) {
+    return m_values[row * m_attributeNames.length + attribute];
+  }
+}
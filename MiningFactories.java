@@ -0,0 +1,115 @@
+package clustering;
+
+import javax.datamining.JDMException;
+import javax.datamining.algorithm.kmeans.KMeansSettingsFactory;
+import javax.datamining.clustering.ClusteringApplySettingsFactory;
+import javax.datamining.clustering.ClusteringSettingsFactory;
+import javax.datamining.data.PhysicalAttributeFactory;
+import javax.datamining.data.PhysicalDataSetFactory;
+import javax.datamining.resource.Connection;
+import javax.datamining.task.BuildTaskFactory;
+import javax.datamining.task.apply.DataSetApplyTaskFactory;
+
+import oracle.dmt.jdm.task.OraTransformationTaskFactory;
+import oracle.dmt.jdm.transform.normalize.OraNormalizeTransformFactory;
+import oracle.dmt.jdm.transform.text.OraTextTransformFactory;
+
+/**
+ * This class holds the mining object factories of one Data Mining Engine
+ * connection. The factories are looked up once when the holder is created
+ * and are only valid as long as the connection they came from is open.
+ */
+public class MiningFactories {
+  private final PhysicalDataSetFactory m_pdsFactory;
+  private final PhysicalAttributeFactory m_paFactory;
+  private final ClusteringSettingsFactory m_clusFactory;
+  private final KMeansSettingsFactory m_kmeansFactory;
+  private final BuildTaskFactory m_buildFactory;
+  private final DataSetApplyTaskFactory m_dsApplyFactory;
+  private final ClusteringApplySettingsFactory m_applySettingsFactory;
+  private final OraNormalizeTransformFactory m_normalizeXformFactory;
+  private final OraTransformationTaskFactory m_xformTaskFactory;
+  private final Connection m_dmeConn;
+  private volatile OraTextTransformFactory m_textXformFactory;
+
+  /**
+   * Initialize all object factories used by the clustering programs.
+   *
+   * @param dmeConn connection the factories are looked up from
+   * @exception JDMException if factory initalization failed
+   */
+  public MiningFactories(Connection dmeConn) throws JDMException
+  {
+    m_dmeConn = dmeConn;
+    m_pdsFactory = (PhysicalDataSetFactory)dmeConn.getFactory(
+      "javax.datamining.data.PhysicalDataSet");
+    m_paFactory = (PhysicalAttributeFactory)dmeConn.getFactory(
+      "javax.datamining.data.PhysicalAttribute");
+    m_clusFactory = (ClusteringSettingsFactory)dmeConn.getFactory(
+      "javax.datamining.clustering.ClusteringSettings");
+    m_kmeansFactory = (KMeansSettingsFactory)dmeConn.getFactory(
+      "javax.datamining.algorithm.kmeans.KMeansSettings");
+    m_buildFactory = (BuildTaskFactory)dmeConn.getFactory(
+      "javax.datamining.task.BuildTask");
+    m_dsApplyFactory = (DataSetApplyTaskFactory)dmeConn.getFactory(
+      "javax.datamining.task.apply.DataSetApplyTask");
+    m_applySettingsFactory = (ClusteringApplySettingsFactory)dmeConn.getFactory(
+      "javax.datamining.clustering.ClusteringApplySettings");
+    m_normalizeXformFactory = (OraNormalizeTransformFactory)dmeConn.getFactory(
+      "oracle.dmt.jdm.transform.normalize.OraNormalizeTransform");
+    m_xformTaskFactory = (OraTransformationTaskFactory)dmeConn.getFactory(
+      "oracle.dmt.jdm.task.OraTransformationTask");
+  }
+
+  public PhysicalDataSetFactory getPhysicalDataSetFactory() {
+    return m_pdsFactory;
+  }
+
+  public PhysicalAttributeFactory getPhysicalAttributeFactory() {
+    return m_paFactory;
+  }
+
+  public ClusteringSettingsFactory getClusteringSettingsFactory() {
+    return m_clusFactory;
+  }
+
+  public KMeansSettingsFactory getKMeansSettingsFactory() {
+    return m_kmeansFactory;
+  }
+
+  public BuildTaskFactory getBuildTaskFactory() {
+    return m_buildFactory;
+  }
+
+  public DataSetApplyTaskFactory getDataSetApplyTaskFactory() {
+    return m_dsApplyFactory;
+  }
+
+  public ClusteringApplySettingsFactory getApplySettingsFactory() {
+    return m_applySettingsFactory;
+  }
+
+  public OraNormalizeTransformFactory getNormalizeTransformFactory() {
+    return m_normalizeXformFactory;
+  }
+
+  public OraTransformationTaskFactory getTransformationTaskFactory() {
+    return m_xformTaskFactory;
+  }
+
+  /**
+   * The text transformation factory is only needed by the text mining path,
+   * so it is looked up on first use.
+   *
+   * @exception JDMException if factory lookup failed
+   */
+  public OraTextTransformFactory getTextTransformFactory() throws JDMException {
+    OraTextTransformFactory factory = m_textXformFactory;
+    if (factory == null) {
+      factory = (OraTextTransformFactory)m_dmeConn.getFactory(
+        "oracle.dmt.jdm.transform.text.OraTextTransform");
+      m_textXformFactory = factory;
+    }
+    return factory;
+  }
+}
@@ -0,0 +1,242 @@
+package clustering;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * This class keeps the results of finished clustering runs, so that a
+ * repeated request for the same application, algorithm and build settings
+ * is answered without preparing, building and applying the model again.
+ * The mining engine model of a run is dropped by <code>clean</code>; what
+ * is kept is the <code>ClusteringResult</code> it produced.
+ *
+ *   Every entry remembers the <code>Watermark</code> of the source data it
+ * was built from. A lookup with the current watermark of the data finds
+ * nothing if the watermark has changed since, e.g. because rows were
+ * added, deleted or updated, and the stale entry is dropped. Entries also
+ * expire <code>ttlMillis</code> after they were stored, which bounds how
+ * long changes the watermark cannot see (updates that leave the row count
+ * and the timestamps alone) are hidden. At most <code>maxEntries</code>
+ * entries are kept; beyond that the least recently used one is evicted.
+ *
+ *   All methods are synchronized; a lookup only touches a linked hash map,
+ * so holding the lock is short.
+ */
+public class ModelCache {
+  /**
+   * State of the source data a result was built from: its row counts and,
+   * if the data has a timestamp column, the latest timestamp.
+   */
+  public static class Watermark {
+    private final long m_buildRowCount;
+    private final long m_applyRowCount;
+    private final long m_maxTimestamp;
+
+    /**
+     * @param maxTimestamp latest timestamp in milliseconds, or
+     *        Long.MIN_VALUE if the data has no timestamp column
+     */
+    public Watermark(long buildRowCount, long applyRowCount, long maxTimestamp) {
+      m_buildRowCount = buildRowCount;
+      m_applyRowCount = applyRowCount;
+      m_maxTimestamp = maxTimestamp;
+    }
+
+    public long getBuildRowCount() {
+      return m_buildRowCount;
+    }
+
+    public long getApplyRowCount() {
+      return m_applyRowCount;
+    }
+
+    public long getMaxTimestamp() {
+      return m_maxTimestamp;
+    }
+
+    public boolean equals(Object other) {
+      if (!(other instanceof Watermark))
+        return false;
+      Watermark w = (Watermark)other;
+      return m_buildRowCount == w.m_buildRowCount &&
+        m_applyRowCount == w.m_applyRowCount &&
+        m_maxTimestamp == w.m_maxTimestamp;
+    }
+
+    public int hashCode() {
+      return (int)(m_buildRowCount * 31 + m_applyRowCount * 17 + m_maxTimestamp);
+    }
+
+    public String toString() {
+      return "rows=" + m_buildRowCount + "/" + m_applyRowCount +
+        (m_maxTimestamp == Long.MIN_VALUE ? "" : ",maxTimestamp=" + m_maxTimestamp);
+    }
+  }
+
+  private static class Entry {
+    final String m_application;
+    final Watermark m_watermark;
+    final ClusteringResult m_result;
+    final long m_storedAt;
+
+    Entry(String application, Watermark watermark, ClusteringResult result,
+      long storedAt)
+    {
+      m_application = application;
+      m_watermark = watermark;
+      m_result = result;
+      m_storedAt = storedAt;
+    }
+  }
+
+  private final int m_maxEntries;
+  private final long m_ttlMillis;
+  private final LinkedHashMap<String, Entry> m_entries;
+  private long m_hits;
+  private long m_misses;
+  private long m_evictions;
+  private long m_expirations;
+  private long m_invalidations;
+
+  /**
+   * @param maxEntries number of results kept at most
+   * @param ttlMillis how long a result is kept after it was stored
+   */
+  public ModelCache(final int maxEntries, long ttlMillis) {
+    if (maxEntries < 1)
+      throw new IllegalArgumentException("maxEntries must be >= 1");
+    if (ttlMillis <= 0L)
+      throw new IllegalArgumentException("ttlMillis must be > 0");
+    m_maxEntries = maxEntries;
+    m_ttlMillis = ttlMillis;
+    // access order: every get moves the entry to the end, so the eldest
+    // entry is the least recently used one
+    m_entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+      protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+        if (size() <= maxEntries)
+          return false;
+        m_evictions++;
+        return true;
+      }
+    };
+  }
+
+  /**
+   * @param settings description of the build settings, e.g.
+   *        <code>KMeansConfig.toString</code>
+   * @return key of the results of a run
+   */
+  public static String key(String application, String algorithm,
+    String settings)
+  {
+    return application + '\u0000' + algorithm + '\u0000' + settings;
+  }
+
+  /**
+   * @param key key made by <code>key</code>
+   * @param watermark current state of the source data
+   * @return the result stored under the key, or null if there is none, it
+   *         has expired or the data has changed since it was built
+   */
+  public synchronized ClusteringResult get(String key, Watermark watermark) {
+    Entry entry = m_entries.get(key);
+    if (entry == null) {
+      m_misses++;
+      return null;
+    }
+    if (System.currentTimeMillis() - entry.m_storedAt >= m_ttlMillis) {
+      m_entries.remove(key);
+      m_expirations++;
+      m_misses++;
+      return null;
+    }
+    if (!entry.m_watermark.equals(watermark)) {
+      m_entries.remove(key);
+      m_invalidations++;
+      m_misses++;
+      return null;
+    }
+    m_hits++;
+    return entry.m_result;
+  }
+
+  /**
+   * Stores the result of a run, replacing an older one under the same key.
+   *
+   * @param watermark state of the source data read before the run started
+   */
+  public synchronized void put(String key, String application,
+    Watermark watermark, ClusteringResult result)
+  {
+    m_entries.put(key, new Entry(application, watermark, result,
+      System.currentTimeMillis()));
+  }
+
+  /**
+   * Drops all results of an application, e.g. after its data was reloaded.
+   *
+   * @return number of results dropped
+   */
+  public synchronized int invalidate(String application) {
+    int dropped = 0;
+    for (Iterator<Entry> it = m_entries.values().iterator(); it.hasNext(); ) {
+      Entry entry = it.next();
+      if (application == null ? entry.m_application == null :
+        application.equals(entry.m_application))
+      {
+        it.remove();
+        dropped++;
+      }
+    }
+    m_invalidations += dropped;
+    return dropped;
+  }
+
+  public synchronized void clear() {
+    m_invalidations += m_entries.size();
+    m_entries.clear();
+  }
+
+  public synchronized int size() {
+    return m_entries.size();
+  }
+
+  public int getMaxEntries() {
+    return m_maxEntries;
+  }
+
+  public long getTtlMillis() {
+    return m_ttlMillis;
+  }
+
+  public synchronized long getHitCount() {
+    return m_hits;
+  }
+
+  public synchronized long getMissCount() {
+    return m_misses;
+  }
+
+  /**
+   * @return number of results dropped to make room for newer ones
+   */
+  public synchronized long getEvictionCount() {
+    return m_evictions;
+  }
+
+  /**
+   * @return number of results dropped because their time to live was over
+   */
+  public synchronized long getExpirationCount() {
+    return m_expirations;
+  }
+
+  /**
+   * @return number of results dropped because their data changed or they
+   *         were invalidated explicitly
+   */
+  public synchronized long getInvalidationCount() {
+    return m_invalidations;
+  }
+}
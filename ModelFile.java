@@ -0,0 +1,260 @@
+package clustering;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * This class saves a <code>LocalClusteringModel</code> to a compact binary
+ * file and loads it back, so that a scoring process can start from a file
+ * without connecting to the mining engine.
+ *
+ *   The file is big-endian and starts with a magic number, the format
+ * version and flags. The model summary (name, attributes, bins, build
+ * figures) follows, then every cluster in identifier order - parents come
+ * before their children - with its parent, leaf index, case count,
+ * dispersion and centroid, and its rule bounds and histograms when the
+ * model has statistics. A CRC32 of all preceding bytes ends the file.
+ *
+ *   Version 2 adds the shift and scale of every attribute after the bins
+ * when the model has a normalization definition (see
+ * <code>MinMaxNormalizer</code>); files of version 1 still load.
+ *
+ *   <code>load</code> memory-maps the file and reads the model from the
+ * mapping with bulk gets, so loading costs little more than the page
+ * faults. A file written by a newer version of the format is refused.
+ */
+public class ModelFile {
+  static final int MAGIC = 0x4B4D4D46;   // "KMMF"
+  static final int VERSION = 2;
+  private static final int FLAG_STATISTICS = 1;
+  private static final int FLAG_NORMALIZER = 2;
+
+  private ModelFile() {
+  }
+
+  /**
+   * @param model model to save
+   * @param file file to write; an existing file is replaced
+   * @exception IOException if the file could not be written
+   */
+  public static void write(LocalClusteringModel model, File file)
+    throws IOException
+  {
+    int d = model.getAttributeCount();
+    int bins = model.getNumberOfBins();
+    LocalCluster first = model.getCluster(1);
+    boolean statistics = first != null && first.getRule() != null;
+    MinMaxNormalizer normalizer = model.getNormalizer();
+    File tmp = new File(file.getPath() + ".tmp");
+    CRC32 crc = new CRC32();
+    DataOutputStream out = new DataOutputStream(new CheckedOutputStream(
+      new BufferedOutputStream(new FileOutputStream(tmp)), crc));
+    try {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeInt((statistics ? FLAG_STATISTICS : 0) |
+        (normalizer != null ? FLAG_NORMALIZER : 0));
+      writeString(out, model.getName());
+      out.writeInt(d);
+      for (int j = 0; j < d; j++)
+        writeString(out, model.getAttributeNames()[j]);
+      out.writeInt(bins);
+      out.writeInt(model.getIterations());
+      out.writeDouble(model.getError());
+      out.writeLong(model.getDistancesPerIteration());
+      long[] skipped = model.getSkippedDistances();
+      out.writeInt(skipped == null ? -1 : skipped.length);
+      for (int i = 0; skipped != null && i < skipped.length; i++)
+        out.writeLong(skipped[i]);
+      writeDoubles(out, model.getBinStart());
+      writeDoubles(out, model.getBinWidth());
+      if (normalizer != null) {
+        for (int j = 0; j < d; j++)
+          out.writeDouble(normalizer.getShift(j));
+        for (int j = 0; j < d; j++)
+          out.writeDouble(normalizer.getScale(j));
+      }
+
+      int clusters = model.getNumberOfClusters();
+      int[] leafIndex = new int[clusters + 1];
+      Arrays.fill(leafIndex, -1);
+      for (int c = 0; c < model.getNumberOfLeafClusters(); c++)
+        leafIndex[model.getLeafCluster(c).getClusterId()] = c;
+      out.writeInt(clusters);
+      out.writeInt(model.getNumberOfLeafClusters());
+      for (int id = 1; id <= clusters; id++) {
+        LocalCluster cluster = model.getCluster(id);
+        out.writeInt(cluster.isRoot() ? 0 : cluster.getParent().getClusterId());
+        out.writeInt(leafIndex[id]);
+        out.writeLong(cluster.getCaseCount());
+        out.writeDouble(cluster.getDispersion());
+        double[] centroid = cluster.getCentroid();
+        for (int j = 0; j < d; j++)
+          out.writeDouble(centroid[j]);
+        if (!statistics)
+          continue;
+        LocalClusterRule rule = cluster.getRule();
+        for (int j = 0; j < d; j++)
+          out.writeDouble(rule.getMinValue(j));
+        for (int j = 0; j < d; j++)
+          out.writeDouble(rule.getMaxValue(j));
+        for (int j = 0; j < d; j++) {
+          long[] histogram = cluster.getHistogram(j);
+          for (int b = 0; b < bins; b++)
+            out.writeLong(histogram[b]);
+        }
+      }
+      out.flush();
+      out.writeInt((int)crc.getValue());
+    } finally {
+      out.close();
+    }
+    if (file.exists() && !file.delete())
+      throw new IOException("Cannot replace model file " + file);
+    if (!tmp.renameTo(file))
+      throw new IOException("Cannot write model file " + file);
+  }
+
+  /**
+   * @param file model file written by <code>write</code>
+   * @return the model
+   * @exception IOException if the file could not be read, is damaged or
+   *            has an unsupported version
+   */
+  public static LocalClusteringModel load(File file) throws IOException {
+    RandomAccessFile raf = new RandomAccessFile(file, "r");
+    try {
+      FileChannel channel = raf.getChannel();
+      long size = channel.size();
+      if (size < 16 || size > Integer.MAX_VALUE)
+        throw new IOException(file + " is not a model file");
+      MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0L, size);
+      ByteBuffer body = buffer.duplicate();
+      body.limit((int)size - 4);
+      CRC32 crc = new CRC32();
+      crc.update(body);
+      if (buffer.getInt() != MAGIC)
+        throw new IOException(file + " is not a model file");
+      int version = buffer.getInt();
+      if (version > VERSION)
+        throw new IOException("Model file " + file + " has unsupported version " +
+          version);
+      if (buffer.getInt((int)size - 4) != (int)crc.getValue())
+        throw new IOException("Model file " + file + " is damaged");
+      return read(buffer);
+    } catch (BufferUnderflowException truncated) {
+      throw new IOException("Model file " + file + " is truncated");
+    } finally {
+      try {
+        raf.close();
+      } catch(IOException anyIoExp) {}
+    }
+  }
+
+  private static LocalClusteringModel read(ByteBuffer in) {
+    int flags = in.getInt();
+    boolean statistics = (flags & FLAG_STATISTICS) != 0;
+    String name = readString(in);
+    int d = in.getInt();
+    String[] names = new String[d];
+    for (int j = 0; j < d; j++)
+      names[j] = readString(in);
+    int bins = in.getInt();
+    int iterations = in.getInt();
+    double error = in.getDouble();
+    long distancesPerIteration = in.getLong();
+    int skippedLength = in.getInt();
+    long[] skipped = null;
+    if (skippedLength >= 0) {
+      skipped = new long[skippedLength];
+      in.asLongBuffer().get(skipped);
+      in.position(in.position() + 8 * skippedLength);
+    }
+    double[] binStart = readDoubles(in);
+    double[] binWidth = readDoubles(in);
+    MinMaxNormalizer normalizer = null;
+    if ((flags & FLAG_NORMALIZER) != 0) {
+      double[] shift = getDoubles(in, d);
+      normalizer = new MinMaxNormalizer(names, shift, getDoubles(in, d));
+    }
+
+    LocalClusteringModel model = new LocalClusteringModel(name, names, bins);
+    int clusters = in.getInt();
+    LocalCluster[] leaves = new LocalCluster[in.getInt()];
+    LocalCluster[] byId = new LocalCluster[clusters + 1];
+    for (int id = 1; id <= clusters; id++) {
+      int parent = in.getInt();
+      int leaf = in.getInt();
+      long caseCount = in.getLong();
+      double dispersion = in.getDouble();
+      double[] centroid = getDoubles(in, d);
+      double[] min = null;
+      double[] max = null;
+      long[] histogram = null;
+      if (statistics) {
+        min = getDoubles(in, d);
+        max = getDoubles(in, d);
+        histogram = new long[d * bins];
+        in.asLongBuffer().get(histogram);
+        in.position(in.position() + 8 * histogram.length);
+      }
+      byId[id] = model.addCluster(parent == 0 ? null : byId[parent]);
+      byId[id].setStatistics(caseCount, dispersion, centroid, min, max, histogram);
+      if (leaf >= 0)
+        leaves[leaf] = byId[id];
+    }
+    model.setLeaves(leaves);
+    model.setBins(binStart, binWidth);
+    model.setBuildSummary(iterations, error);
+    model.setNormalizer(normalizer);
+    if (skipped != null)
+      model.setSkippedDistances(distancesPerIteration, skipped);
+    return model;
+  }
+
+  private static void writeString(DataOutputStream out, String s)
+    throws IOException
+  {
+    byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  private static String readString(ByteBuffer in) {
+    byte[] bytes = new byte[in.getInt()];
+    in.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  private static void writeDoubles(DataOutputStream out, double[] values)
+    throws IOException
+  {
+    out.writeInt(values == null ? -1 : values.length);
+    for (int i = 0; values != null && i < values.length; i++)
+      out.writeDouble(values[i]);
+  }
+
+  private static double[] readDoubles(ByteBuffer in) {
+    int length = in.getInt();
+    return length < 0 ? null : getDoubles(in, length);
+  }
+
+  private static double[] getDoubles(ByteBuffer in, int length) {
+    double[] values = new double[length];
+    in.asDoubleBuffer().get(values);
+    in.position(in.position() + 8 * length);
+    return values;
+  }
+}
@@ -0,0 +1,171 @@
+package clustering;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * This class publishes the model that scoring uses, so that a rebuilt
+ * model can replace the current one while cases are being scored. The
+ * current version sits in an atomic reference: <code>publish</code> swaps
+ * in a new version without locking, readers <code>acquire</code> whatever
+ * version is current and <code>release</code> it when they are done.
+ *
+ *   Every version counts its readers, plus one for being current. A
+ * replaced version stays usable for the readers that acquired it before
+ * the swap; when the last of them releases it, the version is released
+ * and the release listener, if any, is told, e.g. to drop its model from
+ * the database. A reader can never acquire a version whose count has
+ * reached zero, so a released version is never used again.
+ */
+public class ModelRegistry {
+  /**
+   * Is told when a version is no longer current and has no readers.
+   */
+  public interface ReleaseListener {
+    void released(ModelVersion version);
+  }
+
+  /**
+   * One published model and its reader count.
+   */
+  public static class ModelVersion {
+    private final long m_version;
+    private final ClusterScorer m_scorer;
+    private final ModelRegistry m_registry;
+    // readers, plus 1 while the version is current
+    private final AtomicInteger m_references = new AtomicInteger(1);
+
+    ModelVersion(long version, ClusterScorer scorer, ModelRegistry registry) {
+      m_version = version;
+      m_scorer = scorer;
+      m_registry = registry;
+    }
+
+    /**
+     * @return version number; every publish gets a higher one
+     */
+    public long getVersion() {
+      return m_version;
+    }
+
+    public ClusterScorer getScorer() {
+      return m_scorer;
+    }
+
+    public LocalClusteringModel getModel() {
+      return m_scorer.getModel();
+    }
+
+    /**
+     * @return whether the version is neither current nor in use
+     */
+    public boolean isReleased() {
+      return m_references.get() == 0;
+    }
+
+    /**
+     * Ends a use started by <code>ModelRegistry.acquire</code>.
+     */
+    public void release() {
+      int references = m_references.decrementAndGet();
+      if (references == 0)
+        m_registry.released(this);
+      else if (references < 0)
+        throw new IllegalStateException("Model version " + m_version +
+          " released more often than acquired");
+    }
+
+    boolean tryRetain() {
+      int references;
+      do {
+        references = m_references.get();
+        if (references == 0)
+          return false;
+      } while (!m_references.compareAndSet(references, references + 1));
+      return true;
+    }
+  }
+
+  private final AtomicReference<ModelVersion> m_current =
+    new AtomicReference<ModelVersion>();
+  private final AtomicLong m_nextVersion = new AtomicLong(1L);
+  private final AtomicInteger m_liveVersions = new AtomicInteger();
+  private final ReleaseListener m_listener;
+
+  public ModelRegistry() {
+    this(null);
+  }
+
+  /**
+   * @param listener is told about every released version, or null
+   */
+  public ModelRegistry(ReleaseListener listener) {
+    m_listener = listener;
+  }
+
+  /**
+   * Makes a model the current one. Readers that hold the previous version
+   * keep using it until they release it.
+   *
+   * @param scorer scorer of the new model
+   * @return the new version
+   */
+  public ModelVersion publish(ClusterScorer scorer) {
+    ModelVersion version = new ModelVersion(m_nextVersion.getAndIncrement(),
+      scorer, this);
+    m_liveVersions.incrementAndGet();
+    ModelVersion previous = m_current.getAndSet(version);
+    if (previous != null)
+      previous.release();
+    return version;
+  }
+
+  /**
+   * Starts a use of the current version; every call that returns a version
+   * must be followed by one <code>ModelVersion.release</code>.
+   *
+   * @return the current version, or null if nothing was published
+   */
+  public ModelVersion acquire() {
+    while (true) {
+      ModelVersion version = m_current.get();
+      if (version == null)
+        return null;
+      // fails only if the version was replaced and released meanwhile
+      if (version.tryRetain())
+        return version;
+    }
+  }
+
+  /**
+   * @return the current version without acquiring it, e.g. for reports;
+   *         null if nothing was published
+   */
+  public ModelVersion getCurrent() {
+    return m_current.get();
+  }
+
+  /**
+   * @return number of versions that are current or still in use
+   */
+  public int getLiveVersionCount() {
+    return m_liveVersions.get();
+  }
+
+  /**
+   * Drops the current version; scoring has no model until the next
+   * publish.
+   */
+  public void clear() {
+    ModelVersion previous = m_current.getAndSet(null);
+    if (previous != null)
+      previous.release();
+  }
+
+  private void released(ModelVersion version) {
+    m_liveVersions.decrementAndGet();
+    if (m_listener != null)
+      m_listener.released(version);
+  }
+}
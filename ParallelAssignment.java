@@ -0,0 +1,195 @@
+package clustering;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * This class runs the assignment step of a k-Means iteration on a
+ * <code>ForkJoinPool</code>. The rows are split into a fixed number of
+ * blocks; every block owns its own centroid sums, counts and error, so the
+ * workers never write to shared state in the hot loop. The partial results
+ * are merged pairwise on the way back up the fork/join tree (a tree
+ * reduction), leaving the totals in the partials of block 0.
+ *
+ *   The task tree and all partial buffers are created once per build and
+ * reused by every iteration, so iterations allocate nothing. When the build
+ * is accelerated, the blocks assign their rows through the shared
+ * <code>HamerlyBounds</code>, whose per-case state is split the same way.
+ * Rows of a <code>CompactDataset</code> are decoded tile by tile into a
+ * buffer of the block.
+ */
+class ParallelAssignment {
+  // blocks smaller than this are not worth a task of their own
+  private static final int MIN_BLOCK_ROWS = 1024;
+  // more blocks than workers evens out blocks that run slower
+  private static final int BLOCKS_PER_WORKER = 4;
+
+  private final ForkJoinPool m_pool;
+  private final double[] m_x;
+  private final CompactDataset m_data;
+  private final int m_d;
+  private final int m_k;
+  private final int[] m_assignment;
+  private final int[] m_blockStart;
+  private final double[][] m_sums;
+  private final long[][] m_counts;
+  private final double[] m_errors;
+  private final long[] m_skipped;
+  private final double[][] m_scratch;
+  private final double[][] m_tiles;
+  private final HamerlyBounds m_bounds;
+  private final AssignTask m_root;
+  private double[] m_centroids;
+  private double[] m_norms;
+
+  /**
+   * @param bounds triangle inequality bounds of the accelerated build, or
+   *        null for plain Lloyd iterations
+   */
+  ParallelAssignment(ForkJoinPool pool, double[] x, int n, int d, int k,
+    int[] assignment, HamerlyBounds bounds)
+  {
+    this(pool, x, null, n, d, k, assignment, bounds);
+  }
+
+  /**
+   * Runs the plain Lloyd assignment over compact rows.
+   */
+  ParallelAssignment(ForkJoinPool pool, CompactDataset data, int k,
+    int[] assignment)
+  {
+    this(pool, null, data, data.getRowCount(), data.getAttributeCount(), k,
+      assignment, null);
+  }
+
+  private ParallelAssignment(ForkJoinPool pool, double[] x, CompactDataset data,
+    int n, int d, int k, int[] assignment, HamerlyBounds bounds)
+  {
+    m_pool = pool;
+    m_x = x;
+    m_data = data;
+    m_d = d;
+    m_k = k;
+    m_assignment = assignment;
+    int blocks = (int)Math.max(1L, Math.min(
+      (long)pool.getParallelism() * BLOCKS_PER_WORKER, n / MIN_BLOCK_ROWS));
+    m_blockStart = new int[blocks + 1];
+    for (int b = 0; b <= blocks; b++)
+      m_blockStart[b] = (int)((long)n * b / blocks);
+    m_sums = new double[blocks][k * d];
+    m_counts = new long[blocks][k];
+    m_errors = new double[blocks];
+    m_skipped = new long[blocks];
+    m_scratch = new double[blocks][Math.max(DistanceKernel.SCRATCH_LENGTH, k)];
+    m_tiles = data == null ? null : new double[blocks][DistanceKernel.TILE_ROWS * d];
+    m_bounds = bounds;
+    m_root = buildTree(0, blocks);
+  }
+
+  /**
+   * @return number of row blocks the work is split into
+   */
+  int getBlockCount() {
+    return m_errors.length;
+  }
+
+  /**
+   * Assigns all rows to their nearest centroid and collects the per-centroid
+   * sums and counts into <code>sums</code> and <code>counts</code>.
+   *
+   * @param norms squared norms of the centroids; not used by accelerated
+   *        builds, whose bounds keep their own
+   * @return sum of the squared distances of the rows to their centroid
+   */
+  double assign(double[] centroids, double[] norms, double[] sums, long[] counts) {
+    m_centroids = centroids;
+    m_norms = norms;
+    m_root.reinitializeTree();
+    m_pool.invoke(m_root);
+    System.arraycopy(m_sums[0], 0, sums, 0, sums.length);
+    System.arraycopy(m_counts[0], 0, counts, 0, counts.length);
+    return m_errors[0];
+  }
+
+  /**
+   * @return distance evaluations skipped by the bounds in the last
+   *         <code>assign</code>
+   */
+  long getSkipped() {
+    return m_skipped[0];
+  }
+
+  private AssignTask buildTree(int fromBlock, int toBlock) {
+    if (toBlock - fromBlock == 1)
+      return new AssignTask(fromBlock, toBlock, null, null);
+    int mid = (fromBlock + toBlock) >>> 1;
+    return new AssignTask(fromBlock, toBlock, buildTree(fromBlock, mid),
+      buildTree(mid, toBlock));
+  }
+
+  /**
+   * Handles the blocks [fromBlock, toBlock); the result ends up in the
+   * partials of fromBlock.
+   */
+  private class AssignTask extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+    private final int m_fromBlock;
+    private final int m_toBlock;
+    private final AssignTask m_left;
+    private final AssignTask m_right;
+
+    AssignTask(int fromBlock, int toBlock, AssignTask left, AssignTask right) {
+      m_fromBlock = fromBlock;
+      m_toBlock = toBlock;
+      m_left = left;
+      m_right = right;
+    }
+
+    void reinitializeTree() {
+      reinitialize();
+      if (m_left != null) {
+        m_left.reinitializeTree();
+        m_right.reinitializeTree();
+      }
+    }
+
+    protected void compute() {
+      if (m_left == null) {
+        int b = m_fromBlock;
+        Arrays.fill(m_sums[b], 0.0);
+        Arrays.fill(m_counts[b], 0L);
+        m_skipped[b] = 0L;
+        if (m_bounds != null)
+          m_errors[b] = m_bounds.assign(m_blockStart[b], m_blockStart[b + 1],
+            m_centroids, m_sums[b], m_counts[b], m_skipped, b, m_scratch[b]);
+        else if (m_data != null)
+          m_errors[b] = KMeansEngine.assignAndAccumulate(m_data, m_blockStart[b],
+            m_blockStart[b + 1], m_centroids, m_norms, m_k, m_assignment,
+            m_sums[b], m_counts[b], m_tiles[b], m_scratch[b]);
+        else
+          m_errors[b] = KMeansEngine.assignAndAccumulate(m_x, m_blockStart[b],
+            m_blockStart[b + 1], m_d, m_centroids, m_norms, m_k, m_assignment,
+            m_sums[b], m_counts[b], m_scratch[b]);
+        return;
+      }
+      m_right.fork();
+      m_left.compute();
+      m_right.join();
+      merge(m_left.m_fromBlock, m_right.m_fromBlock);
+    }
+
+    private void merge(int into, int from) {
+      double[] sums = m_sums[into];
+      double[] other = m_sums[from];
+      for (int i = 0; i < sums.length; i++)
+        sums[i] += other[i];
+      long[] counts = m_counts[into];
+      long[] otherCounts = m_counts[from];
+      for (int c = 0; c < counts.length; c++)
+        counts[c] += otherCounts[c];
+      m_errors[into] += m_errors[from];
+      m_skipped[into] += m_skipped[from];
+    }
+  }
+}
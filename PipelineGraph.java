@@ -0,0 +1,242 @@
+package clustering;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * This class runs the steps of a pipeline as a dependency graph: every
+ * step starts as soon as the steps it depends on have finished, so steps
+ * that do not depend on each other run at the same time. A step is added
+ * after the steps it depends on, which keeps the graph free of cycles.
+ *
+ *   When a step fails, the steps that depend on it are skipped, the other
+ * ones still run, and <code>run</code> throws the failure of the first
+ * failed step in the order they were added once all steps have ended.
+ * Every step records when it started and finished, and reports both to
+ * the progress channel given at construction, so a run shows which steps
+ * overlapped and where its time went.
+ *
+ *   A step that waits for work done elsewhere, e.g. a mining engine task,
+ * is added as an <code>AsyncStep</code>: it starts the work and returns a
+ * future of it, and the node ends when that future completes, so no thread
+ * of the executor waits for the work meanwhile.
+ */
+public class PipelineGraph {
+  /**
+   * Work of one node.
+   */
+  public interface Step {
+    void run() throws Exception;
+  }
+
+  /**
+   * Work of one node that ends when the returned future completes.
+   */
+  public interface AsyncStep {
+    CompletableFuture<?> start() throws Exception;
+  }
+
+  /**
+   * One step of the graph with its dependencies and timing.
+   */
+  public static class Node {
+    private final String m_name;
+    private final Step m_step;
+    private final AsyncStep m_asyncStep;
+    private final Node[] m_dependencies;
+    private CompletableFuture<Void> m_future;
+    private volatile long m_startedAt;
+    private volatile long m_finishedAt;
+    private volatile Exception m_failure;
+
+    Node(String name, Step step, AsyncStep asyncStep, Node[] dependencies) {
+      m_name = name;
+      m_step = step;
+      m_asyncStep = asyncStep;
+      m_dependencies = dependencies;
+    }
+
+    public String getName() {
+      return m_name;
+    }
+
+    /**
+     * @return when the step started, 0 if it did not run
+     */
+    public long getStartedAt() {
+      return m_startedAt;
+    }
+
+    /**
+     * @return how long the step ran in milliseconds, 0 if it did not run
+     */
+    public long getDurationMillis() {
+      return m_startedAt == 0L ? 0L : m_finishedAt - m_startedAt;
+    }
+
+    /**
+     * @return the failure of the step itself, or null if it succeeded, was
+     *         skipped or did not run yet
+     */
+    public Exception getFailure() {
+      return m_failure;
+    }
+  }
+
+  private final List<Node> m_nodes = new ArrayList<Node>();
+  private final ClusteringProgress m_progress;
+
+  /**
+   * @param progress channel to report the start and end of every step to,
+   *        or null
+   */
+  public PipelineGraph(ClusteringProgress progress) {
+    m_progress = progress;
+  }
+
+  /**
+   * @param name name of the step in reports
+   * @param step work of the step
+   * @param dependencies steps that must have succeeded before it starts
+   * @return the node, to be given as a dependency of later steps
+   */
+  public Node add(String name, Step step, Node... dependencies) {
+    return add(new Node(name, step, null, dependencies));
+  }
+
+  /**
+   * @param name name of the step in reports
+   * @param step starts the work of the step
+   * @param dependencies steps that must have succeeded before it starts
+   * @return the node, to be given as a dependency of later steps
+   */
+  public Node add(String name, AsyncStep step, Node... dependencies) {
+    return add(new Node(name, null, step, dependencies));
+  }
+
+  private Node add(Node node) {
+    for (int i = 0; i < node.m_dependencies.length; i++) {
+      if (!m_nodes.contains(node.m_dependencies[i]))
+        throw new IllegalArgumentException("Step " + node.m_name +
+          " depends on a step that is not in the graph");
+    }
+    m_nodes.add(node);
+    return node;
+  }
+
+  public List<Node> getNodes() {
+    return new ArrayList<Node>(m_nodes);
+  }
+
+  /**
+   * Runs all steps and waits for them to end.
+   *
+   * @param executor runs the steps; it needs as many threads as steps can
+   *        run at the same time, where an <code>AsyncStep</code> only counts
+   *        while it starts its work
+   * @exception Exception the failure of the first step that failed
+   */
+  public void run(Executor executor) throws Exception {
+    CompletableFuture<?>[] all = new CompletableFuture<?>[m_nodes.size()];
+    for (int i = 0; i < m_nodes.size(); i++) {
+      final Node node = m_nodes.get(i);
+      CompletableFuture<?>[] dependencies =
+        new CompletableFuture<?>[node.m_dependencies.length];
+      for (int j = 0; j < dependencies.length; j++)
+        dependencies[j] = node.m_dependencies[j].m_future;
+      CompletableFuture<Void> ready = dependencies.length == 0 ?
+        CompletableFuture.<Void>completedFuture(null) :
+        CompletableFuture.allOf(dependencies);
+      if (node.m_asyncStep == null) {
+        node.m_future = ready.thenRunAsync(new Runnable() {
+          public void run() {
+            execute(node);
+          }
+        }, executor);
+      } else {
+        node.m_future = ready.thenComposeAsync(
+          new Function<Void, CompletableFuture<Void>>() {
+            public CompletableFuture<Void> apply(Void ignored) {
+              return start(node);
+            }
+          }, executor);
+      }
+      all[i] = node.m_future;
+    }
+    // wait for every step, including the ones that still run after another
+    // step failed, before reporting
+    CompletionException failed = null;
+    try {
+      CompletableFuture.allOf(all).join();
+    } catch(CompletionException anyFailure) {
+      failed = anyFailure;
+    }
+    for (int i = 0; i < m_nodes.size(); i++) {
+      Exception failure = m_nodes.get(i).m_failure;
+      if (failure != null)
+        throw failure;
+    }
+    // a step ended with an Error
+    if (failed != null && failed.getCause() instanceof Error)
+      throw (Error)failed.getCause();
+    if (failed != null)
+      throw failed;
+  }
+
+  private void execute(Node node) {
+    begin(node);
+    boolean failed = true;
+    try {
+      node.m_step.run();
+      failed = false;
+    } catch(Exception anyExp) {
+      node.m_failure = anyExp;
+      throw new CompletionException(anyExp);
+    } finally {
+      end(node, failed);
+    }
+  }
+
+  private CompletableFuture<Void> start(final Node node) {
+    begin(node);
+    CompletableFuture<?> work;
+    try {
+      work = node.m_asyncStep.start();
+    } catch(Exception anyExp) {
+      node.m_failure = anyExp;
+      end(node, true);
+      throw new CompletionException(anyExp);
+    }
+    return work.handle(new BiFunction<Object, Throwable, Void>() {
+      public Void apply(Object ignored, Throwable failure) {
+        if (failure instanceof CompletionException && failure.getCause() != null)
+          failure = failure.getCause();
+        if (failure instanceof Exception)
+          node.m_failure = (Exception)failure;
+        end(node, failure != null);
+        if (failure != null)
+          throw failure instanceof CompletionException ?
+            (CompletionException)failure : new CompletionException(failure);
+        return null;
+      }
+    });
+  }
+
+  private void begin(Node node) {
+    node.m_startedAt = System.currentTimeMillis();
+    if (m_progress != null)
+      m_progress.heartbeat(node.m_name + " started");
+  }
+
+  private void end(Node node, boolean failed) {
+    node.m_finishedAt = System.currentTimeMillis();
+    if (m_progress != null)
+      m_progress.heartbeat(node.m_name + (failed ? " failed" : " finished") +
+        " after " + (node.m_finishedAt - node.m_startedAt) + " ms");
+  }
+}
@@ -0,0 +1,64 @@
+package clustering;
+
+import javax.datamining.resource.Connection;
+
+import oracle.dmt.jdm.resource.OraConnection;
+
+/**
+ * This class is one Data Mining Engine connection owned by a
+ * <code>MiningConnectionPool</code>, together with the factories that were
+ * looked up on it. The factories are created once with the connection and
+ * reused by every run that borrows it.
+ */
+public class PooledMiningConnection {
+  private final Connection m_dmeConn;
+  private final MiningFactories m_factories;
+  private final long m_createdAt;
+  private volatile long m_lastReleasedAt;
+
+  PooledMiningConnection(Connection dmeConn, MiningFactories factories) {
+    m_dmeConn = dmeConn;
+    m_factories = factories;
+    m_createdAt = System.currentTimeMillis();
+    m_lastReleasedAt = m_createdAt;
+  }
+
+  public Connection getConnection() {
+    return m_dmeConn;
+  }
+
+  public MiningFactories getFactories() {
+    return m_factories;
+  }
+
+  public long getCreatedAt() {
+    return m_createdAt;
+  }
+
+  long getLastReleasedAt() {
+    return m_lastReleasedAt;
+  }
+
+  void markReleased() {
+    m_lastReleasedAt = System.currentTimeMillis();
+  }
+
+  /**
+   * @return true if the underlying database connection answers within the
+   *         given time
+   */
+  boolean isValid(int timeoutSeconds) {
+    try {
+      java.sql.Connection dbConn = ((OraConnection)m_dmeConn).getDatabaseConnection();
+      return dbConn != null && dbConn.isValid(timeoutSeconds);
+    } catch(Exception anyExp) {
+      return false;
+    }
+  }
+
+  void close() {
+    try {
+      m_dmeConn.close();
+    } catch(Exception anyExp) { }//Ignore
+  }
+}
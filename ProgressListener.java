@@ -0,0 +1,22 @@
+package clustering;
+
+/**
+ * Is told about every iteration of an in-process build, and can stop the
+ * build early. See <code>KMeansEngine.setProgressListener</code> and
+ * <code>GaussianMixtureEM.setProgressListener</code>.
+ */
+public interface ProgressListener {
+  /**
+   * @param iteration number of the iteration, from 1
+   * @param error error after the iteration: the within-cluster squared
+   *        error of k-Means, the negative log-likelihood of EM
+   * @param improvement relative improvement of the error over the previous
+   *        iteration, NaN after the first one; the build converges once it
+   *        is below <code>tolerance</code>
+   * @param tolerance minimum error tolerance of the build
+   * @return false to stop the build after this iteration; the model is
+   *         built from the current centroids
+   */
+  boolean iterationFinished(int iteration, double error, double improvement,
+    double tolerance);
+}
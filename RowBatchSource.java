@@ -0,0 +1,41 @@
+package clustering;
+
+import java.io.IOException;
+
+/**
+ * This interface lets an in-process build read its data in batches of rows
+ * instead of holding the whole dataset in memory. A source is read in
+ * passes: <code>nextBatch</code> returns the rows in order until the end of
+ * the data, and <code>rewind</code> starts the next pass from the first row.
+ * Every pass returns the same rows in the same order.
+ */
+public interface RowBatchSource {
+  /**
+   * @return names of the attributes, one per column of a row
+   */
+  String[] getAttributeNames();
+
+  /**
+   * Reads the next rows of the current pass.
+   *
+   * @param values receives the attribute values as row-major rows; its
+   *        length must be a multiple of the attribute count
+   * @param caseIds receives the case identifier of each row, or null
+   * @return number of rows read; 0 at the end of the pass
+   * @exception IOException if the data could not be read
+   */
+  int nextBatch(double[] values, long[] caseIds) throws IOException;
+
+  /**
+   * Starts a new pass from the first row.
+   *
+   * @exception IOException if the data could not be read again
+   */
+  void rewind() throws IOException;
+
+  /**
+   * Releases the resources of the source. Calling it more than once has no
+   * effect.
+   */
+  void close();
+}
@@ -0,0 +1,58 @@
+package clustering;
+
+/**
+ * This class is the plain Java implementation of the distance kernels,
+ * used when the Vector API is not available.
+ */
+class ScalarDistanceKernel extends DistanceKernel {
+  public String getName() {
+    return "scalar";
+  }
+
+  public double dot(double[] a, int aOff, double[] b, int bOff, int d) {
+    double sum = 0.0;
+    for (int j = 0; j < d; j++)
+      sum += a[aOff + j] * b[bOff + j];
+    return sum;
+  }
+
+  public double squaredDistance(double[] a, int aOff, double[] b, int bOff, int d) {
+    double sum = 0.0;
+    for (int j = 0; j < d; j++) {
+      double diff = a[aOff + j] - b[bOff + j];
+      sum += diff * diff;
+    }
+    return sum;
+  }
+
+  public double weightedSquaredDistance(double[] a, int aOff, double[] b,
+    int bOff, double[] w, int wOff, int d)
+  {
+    double sum = 0.0;
+    for (int j = 0; j < d; j++) {
+      double diff = a[aOff + j] - b[bOff + j];
+      sum += diff * diff * w[wOff + j];
+    }
+    return sum;
+  }
+
+  void dot4(double[] x, int xOff, double[] c, int cOff, int d, double[] out,
+    int outOff)
+  {
+    double s0 = 0.0, s1 = 0.0, s2 = 0.0, s3 = 0.0;
+    int c1 = cOff + d;
+    int c2 = c1 + d;
+    int c3 = c2 + d;
+    for (int j = 0; j < d; j++) {
+      double v = x[xOff + j];
+      s0 += v * c[cOff + j];
+      s1 += v * c[c1 + j];
+      s2 += v * c[c2 + j];
+      s3 += v * c[c3 + j];
+    }
+    out[outOff] = s0;
+    out[outOff + 1] = s1;
+    out[outOff + 2] = s2;
+    out[outOff + 3] = s3;
+  }
+}
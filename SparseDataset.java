@@ -0,0 +1,120 @@
+package clustering;
+
+/**
+ * This class holds text mining data as sparse document vectors in
+ * compressed sparse row (CSR) form: the nonzero terms of row <code>i</code>
+ * are at positions <code>rowStart[i]</code> to <code>rowStart[i + 1] - 1</code>
+ * of <code>termIndexes</code> and <code>values</code>. Only nonzero values
+ * are stored, so memory grows with the number of terms used by the
+ * documents, not with the size of the vocabulary.
+ */
+public class SparseDataset {
+  private final String[] m_terms;
+  private final long[] m_caseIds;
+  private final int[] m_rowStart;
+  private final int[] m_termIndexes;
+  private final double[] m_values;
+  private final int m_rowCount;
+
+  /**
+   * @param terms vocabulary; term index <code>t</code> is
+   *        <code>terms[t]</code>
+   * @param caseIds case identifier of each row, or null
+   * @param rowStart rowCount + 1 offsets into termIndexes and values
+   * @param termIndexes term index of each stored value
+   * @param values nonzero values; the arrays are not copied
+   * @param rowCount number of rows
+   */
+  public SparseDataset(String[] terms, long[] caseIds, int[] rowStart,
+    int[] termIndexes, double[] values, int rowCount)
+  {
+    if (rowStart.length < rowCount + 1)
+      throw new IllegalArgumentException("rowStart holds fewer than " +
+        (rowCount + 1) + " offsets");
+    if (caseIds != null && caseIds.length < rowCount)
+      throw new IllegalArgumentException("caseIds holds fewer than " + rowCount +
+        " rows");
+    if (termIndexes.length < rowStart[rowCount] || values.length < rowStart[rowCount])
+      throw new IllegalArgumentException("termIndexes and values hold fewer than " +
+        rowStart[rowCount] + " values");
+    m_terms = terms;
+    m_caseIds = caseIds;
+    m_rowStart = rowStart;
+    m_termIndexes = termIndexes;
+    m_values = values;
+    m_rowCount = rowCount;
+  }
+
+  public int getRowCount() {
+    return m_rowCount;
+  }
+
+  public int getTermCount() {
+    return m_terms.length;
+  }
+
+  public String[] getTerms() {
+    return m_terms;
+  }
+
+  /**
+   * @return number of stored nonzero values
+   */
+  public int getNonZeroCount() {
+    return m_rowStart[m_rowCount];
+  }
+
+  /**
+   * @return case identifier of the given row, or the row index when the
+   *         dataset has no case identifiers
+   */
+  public long getCaseId(int row) {
+    return m_caseIds == null ? row : m_caseIds[row];
+  }
+
+  public int[] getRowStart() {
+    return m_rowStart;
+  }
+
+  public int[] getTermIndexes() {
+    return m_termIndexes;
+  }
+
+  public double[] getValues() {
+    return m_values;
+  }
+
+  /**
+   * Weights the values, taken as term frequencies, by the smoothed inverse
+   * document frequency log((1 + rows) / (1 + document frequency)) + 1 and
+   * scales every row to unit euclidean length.
+   *
+   * @return dataset sharing the structure of this one with new values
+   */
+  public SparseDataset toTfIdf() {
+    int nnz = getNonZeroCount();
+    int[] documentFrequency = new int[m_terms.length];
+    for (int p = 0; p < nnz; p++)
+      documentFrequency[m_termIndexes[p]]++;
+    double[] idf = new double[m_terms.length];
+    for (int t = 0; t < idf.length; t++)
+      idf[t] = Math.log((1.0 + m_rowCount) / (1.0 + documentFrequency[t])) + 1.0;
+
+    double[] weighted = new double[nnz];
+    for (int i = 0; i < m_rowCount; i++) {
+      double norm = 0.0;
+      for (int p = m_rowStart[i]; p < m_rowStart[i + 1]; p++) {
+        double v = m_values[p] * idf[m_termIndexes[p]];
+        weighted[p] = v;
+        norm += v * v;
+      }
+      if (norm > 0.0) {
+        double inv = 1.0 / Math.sqrt(norm);
+        for (int p = m_rowStart[i]; p < m_rowStart[i + 1]; p++)
+          weighted[p] *= inv;
+      }
+    }
+    return new SparseDataset(m_terms, m_caseIds, m_rowStart, m_termIndexes,
+      weighted, m_rowCount);
+  }
+}
@@ -0,0 +1,231 @@
+package clustering;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * This class builds a k-Means clustering model of text documents inside
+ * the Java VM with spherical k-Means: documents are TF-IDF vectors of unit
+ * length (see <code>SparseDataset.toTfIdf</code>), each document goes to the
+ * centroid of highest cosine similarity, and each centroid is the sum of
+ * its documents scaled to unit length.
+ *
+ *   Centroids are stored term-major, so scoring a document walks only its
+ * nonzero terms and reads the similarity contributions of all centroids
+ * for a term from one contiguous run; a build costs O(nonzeros x k) per
+ * iteration whatever the size of the vocabulary. The assignment step runs
+ * in row blocks on a <code>ForkJoinPool</code> when the parallelism is
+ * above 1; the centroid sums are collected on the calling thread, since
+ * per-block copies of k x vocabulary sums would not fit.
+ *
+ *   The iteration error is the sum over documents of (1 - cosine
+ * similarity to their centroid), and the settings keep their
+ * <code>KMeansEngine</code> meaning. Initial centroids are distinct random
+ * documents. The model is built without rules and histograms; the
+ * dispersion of a cluster is the mean squared euclidean distance of its
+ * documents to its centroid, i.e. 2 x (1 - mean cosine similarity).
+ */
+public class SphericalKMeans {
+  private static final int MIN_BLOCK_ROWS = 256;
+  private static final int BLOCKS_PER_WORKER = 4;
+
+  private final KMeansConfig m_config;
+
+  public SphericalKMeans(KMeansConfig config) {
+    m_config = config;
+  }
+
+  public KMeansConfig getConfig() {
+    return m_config;
+  }
+
+  /**
+   * Builds a model with one root cluster and one leaf per centroid.
+   *
+   * @param data documents as unit length TF-IDF vectors
+   * @param modelName name given to the model
+   * @return the built model; its attributes are the terms
+   */
+  public LocalClusteringModel build(SparseDataset data, String modelName) {
+    int n = data.getRowCount();
+    int d = data.getTermCount();
+    if (n == 0)
+      throw new IllegalArgumentException("Build data " + modelName + " has no rows");
+    int[] rowStart = data.getRowStart();
+    int[] terms = data.getTermIndexes();
+    double[] values = data.getValues();
+    KMeansEngine engine = new KMeansEngine(m_config);
+
+    double[] centroids = initialCentroids(data);
+    int k = centroids.length / Math.max(1, d);
+    int[] assignment = new int[n];
+    double[] sums = new double[d * k];
+    long[] counts = new long[k];
+    ForkJoinPool pool = m_config.getParallelism() > 1 ?
+      new ForkJoinPool(m_config.getParallelism()) : null;
+    int blockRows = Math.max(MIN_BLOCK_ROWS,
+      n / (m_config.getParallelism() * BLOCKS_PER_WORKER) + 1);
+
+    double previousError = Double.POSITIVE_INFINITY;
+    int iteration = 0;
+    try {
+      while (iteration < m_config.getMaxNumberOfIterations()) {
+        iteration++;
+        AssignTask assign = new AssignTask(rowStart, terms, values, centroids,
+          k, assignment, 0, n, blockRows);
+        double error = pool != null ? pool.invoke(assign).doubleValue() :
+          assign.compute().doubleValue();
+
+        Arrays.fill(sums, 0.0);
+        Arrays.fill(counts, 0L);
+        for (int i = 0; i < n; i++) {
+          int c = assignment[i];
+          counts[c]++;
+          for (int p = rowStart[i]; p < rowStart[i + 1]; p++)
+            sums[terms[p] * k + c] += values[p];
+        }
+        updateCentroids(centroids, sums, counts, k, d);
+        if (engine.hasConverged(previousError, error))
+          break;
+        previousError = error;
+      }
+    } finally {
+      if (pool != null)
+        pool.shutdown();
+    }
+
+    double[] leafCentroids = new double[k * d];
+    for (int t = 0; t < d; t++) {
+      for (int c = 0; c < k; c++)
+        leafCentroids[c * d + t] = centroids[t * k + c];
+    }
+    ClusterTreeBuilder tree = new ClusterTreeBuilder(data.getTerms(),
+      m_config.getNumberOfBins(), false);
+    int root = tree.addNode(-1);
+    for (int c = 0; c < k; c++)
+      tree.setLeaf(tree.addNode(root), c);
+    tree.begin(leafCentroids, new double[d], new double[d]);
+    tree.accumulateSparse(rowStart, terms, values, 0, n, assignment, 0);
+    return tree.finish(modelName, iteration);
+  }
+
+  /**
+   * Picks distinct random documents with at least one term as the initial
+   * centroids.
+   *
+   * @return term-major d x k centroids
+   */
+  double[] initialCentroids(SparseDataset data) {
+    int n = data.getRowCount();
+    int d = data.getTermCount();
+    int[] rowStart = data.getRowStart();
+    Random random = new Random(m_config.getRandomSeed());
+    int[] rows = new int[n];
+    int candidates = 0;
+    for (int i = 0; i < n; i++) {
+      if (rowStart[i + 1] > rowStart[i])
+        rows[candidates++] = i;
+    }
+    int k = Math.min(m_config.getNumberOfClusters(), Math.max(1, candidates));
+    double[] centroids = new double[d * k];
+    for (int c = 0; c < k && c < candidates; c++) {
+      int pick = c + random.nextInt(candidates - c);
+      int row = rows[pick];
+      rows[pick] = rows[c];
+      rows[c] = row;
+      for (int p = rowStart[row]; p < rowStart[row + 1]; p++)
+        centroids[data.getTermIndexes()[p] * k + c] = data.getValues()[p];
+    }
+    return centroids;
+  }
+
+  /**
+   * Scales every centroid with at least one document to the unit length
+   * direction of the sum of its documents.
+   */
+  static void updateCentroids(double[] centroids, double[] sums, long[] counts,
+    int k, int d)
+  {
+    double[] norms = new double[k];
+    for (int t = 0; t < d; t++) {
+      int off = t * k;
+      for (int c = 0; c < k; c++)
+        norms[c] += sums[off + c] * sums[off + c];
+    }
+    for (int c = 0; c < k; c++)
+      norms[c] = counts[c] == 0 || norms[c] == 0.0 ? 0.0 : 1.0 / Math.sqrt(norms[c]);
+    for (int t = 0; t < d; t++) {
+      int off = t * k;
+      for (int c = 0; c < k; c++) {
+        if (norms[c] != 0.0)
+          centroids[off + c] = sums[off + c] * norms[c];
+      }
+    }
+  }
+
+  /**
+   * Assigns the rows [from, to) to the centroid of highest cosine
+   * similarity, splitting the range until it has at most blockRows rows.
+   * Returns the sum of (1 - similarity).
+   */
+  private static class AssignTask extends RecursiveTask<Double> {
+    private static final long serialVersionUID = 1L;
+    private final int[] m_rowStart;
+    private final int[] m_terms;
+    private final double[] m_values;
+    private final double[] m_centroids;
+    private final int m_k;
+    private final int[] m_assignment;
+    private final int m_from;
+    private final int m_to;
+    private final int m_blockRows;
+
+    AssignTask(int[] rowStart, int[] terms, double[] values, double[] centroids,
+      int k, int[] assignment, int from, int to, int blockRows)
+    {
+      m_rowStart = rowStart;
+      m_terms = terms;
+      m_values = values;
+      m_centroids = centroids;
+      m_k = k;
+      m_assignment = assignment;
+      m_from = from;
+      m_to = to;
+      m_blockRows = blockRows;
+    }
+
+    protected Double compute() {
+      if (m_to - m_from > m_blockRows) {
+        int mid = (m_from + m_to) >>> 1;
+        AssignTask right = new AssignTask(m_rowStart, m_terms, m_values,
+          m_centroids, m_k, m_assignment, mid, m_to, m_blockRows);
+        right.fork();
+        double left = new AssignTask(m_rowStart, m_terms, m_values, m_centroids,
+          m_k, m_assignment, m_from, mid, m_blockRows).compute().doubleValue();
+        return Double.valueOf(left + right.join().doubleValue());
+      }
+      int k = m_k;
+      double[] similarity = new double[k];
+      double error = 0.0;
+      for (int i = m_from; i < m_to; i++) {
+        Arrays.fill(similarity, 0.0);
+        for (int p = m_rowStart[i]; p < m_rowStart[i + 1]; p++) {
+          double v = m_values[p];
+          int off = m_terms[p] * k;
+          for (int c = 0; c < k; c++)
+            similarity[c] += v * m_centroids[off + c];
+        }
+        int best = 0;
+        for (int c = 1; c < k; c++) {
+          if (similarity[c] > similarity[best])
+            best = c;
+        }
+        m_assignment[i] = best;
+        error += 1.0 - similarity[best];
+      }
+      return Double.valueOf(error);
+    }
+  }
+}
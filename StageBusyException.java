@@ -0,0 +1,27 @@
+package clustering;
+
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Thrown when a run cannot enter a stage of the pipeline because all
+ * permits of the stage (see <code>AdmissionController</code>) are taken.
+ * The run has done no work of that stage, so it can be retried later as
+ * it is; <code>ClusteringJobManager</code> puts its job back in the wait
+ * queue.
+ */
+public class StageBusyException extends RejectedExecutionException {
+  private static final long serialVersionUID = 1L;
+
+  private final AdmissionController.Stage m_stage;
+
+  public StageBusyException(AdmissionController.Stage stage,
+    long timeoutMillis)
+  {
+    super("No " + stage + " capacity within " + timeoutMillis + " ms");
+    m_stage = stage;
+  }
+
+  public AdmissionController.Stage getStage() {
+    return m_stage;
+  }
+}
@@ -0,0 +1,234 @@
+package clustering;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+
+import javax.datamining.ExecutionHandle;
+import javax.datamining.ExecutionState;
+import javax.datamining.ExecutionStatus;
+import javax.datamining.JDMException;
+
+/**
+ * This class waits for mining engine tasks without a thread per task. A
+ * task is handed over as its <code>ExecutionHandle</code> and gets a
+ * <code>CompletableFuture</code> that completes with the final status of
+ * the task; a few scheduler threads poll the latest status of all
+ * outstanding tasks. A task is first polled after
+ * <code>INITIAL_POLL_MILLIS</code>, and the interval doubles after every
+ * poll up to <code>MAX_POLL_MILLIS</code>, so short tasks are noticed soon
+ * and long ones cost few polls.
+ *
+ *   A task is terminated on the engine when its deadline has passed, when
+ * a stop is requested on its progress channel, or when its future is
+ * cancelled. After a deadline the future completes with a
+ * <code>TimeoutException</code> once the engine has ended the task, after
+ * a stop with the final status, e.g. terminated. A stop and the deadline
+ * are noticed at the next poll, so at most <code>MAX_POLL_MILLIS</code>
+ * late. Every poll of a running task is reported as a heartbeat to its
+ * progress channel.
+ */
+public class TaskMonitor {
+  public static final long INITIAL_POLL_MILLIS = 100L;
+  public static final long MAX_POLL_MILLIS = 5000L;
+  // how long a terminated task may take to reach a final state before its
+  // future fails anyway
+  private static final long TERMINATE_GRACE_MILLIS = 60L * 1000L;
+
+  private final ScheduledThreadPoolExecutor m_scheduler;
+  private final AtomicInteger m_outstandingCount = new AtomicInteger();
+  private final AtomicLong m_pollCount = new AtomicLong();
+  private final AtomicLong m_timedOutCount = new AtomicLong();
+  private final AtomicLong m_terminatedCount = new AtomicLong();
+
+  /**
+   * @param threads number of threads polling the tasks; each poll is one
+   *        round trip to the database
+   */
+  public TaskMonitor(int threads) {
+    if (threads < 1)
+      throw new IllegalArgumentException("threads must be positive");
+    m_scheduler = new ScheduledThreadPoolExecutor(threads, new ThreadFactory() {
+      private final AtomicLong threadNumber = new AtomicLong();
+      public Thread newThread(Runnable r) {
+        Thread t = new Thread(r, "mining-task-monitor-" + threadNumber.incrementAndGet());
+        t.setDaemon(true);
+        return t;
+      }
+    });
+  }
+
+  /**
+   * Starts watching a task that was started with <code>execute</code>.
+   *
+   * @param taskName name of the task in reports
+   * @param handle handle of the running task
+   * @param timeoutMillis how long the task may run before it is terminated,
+   *        0 for no limit
+   * @param progress channel to report to and to take stop requests from,
+   *        or null
+   * @return future of the final status of the task; cancelling it
+   *         terminates the task
+   */
+  public CompletableFuture<ExecutionStatus> watch(String taskName,
+    ExecutionHandle handle, long timeoutMillis, ClusteringProgress progress)
+  {
+    final Watch watch = new Watch(taskName, handle, timeoutMillis, progress);
+    m_outstandingCount.incrementAndGet();
+    watch.m_future.whenComplete(new BiConsumer<ExecutionStatus, Throwable>() {
+      public void accept(ExecutionStatus status, Throwable failure) {
+        m_outstandingCount.decrementAndGet();
+        if (watch.m_future.isCancelled() && !watch.m_terminating)
+          terminateLater(watch);
+      }
+    });
+    watch.schedule(INITIAL_POLL_MILLIS);
+    return watch.m_future;
+  }
+
+  /**
+   * @return number of tasks being watched
+   */
+  public int getOutstandingCount() {
+    return m_outstandingCount.get();
+  }
+
+  public long getPollCount() {
+    return m_pollCount.get();
+  }
+
+  /**
+   * @return number of tasks terminated because their deadline passed
+   */
+  public long getTimedOutCount() {
+    return m_timedOutCount.get();
+  }
+
+  /**
+   * @return number of tasks terminated for any reason
+   */
+  public long getTerminatedCount() {
+    return m_terminatedCount.get();
+  }
+
+  /**
+   * Stops polling; the futures of outstanding tasks are left incomplete.
+   */
+  public void shutdown() {
+    m_scheduler.shutdownNow();
+  }
+
+  private void terminateLater(final Watch watch) {
+    try {
+      m_scheduler.execute(new Runnable() {
+        public void run() {
+          watch.terminate(" is cancelled");
+        }
+      });
+    } catch(RejectedExecutionException shutDown) { }//Ignore
+  }
+
+  private static boolean isFinalState(ExecutionState state) {
+    return state.equals(ExecutionState.success) ||
+      state.equals(ExecutionState.error) ||
+      state.equals(ExecutionState.terminated);
+  }
+
+  /**
+   * One watched task; polls are scheduled one after the other, so a watch
+   * is never polled by two threads at the same time.
+   */
+  private class Watch implements Runnable {
+    private final String m_taskName;
+    private final ExecutionHandle m_handle;
+    private final long m_timeoutMillis;
+    private final long m_deadline;
+    private final ClusteringProgress m_progress;
+    private final CompletableFuture<ExecutionStatus> m_future =
+      new CompletableFuture<ExecutionStatus>();
+    private long m_intervalMillis = INITIAL_POLL_MILLIS;
+    private volatile boolean m_terminating;
+    private long m_terminatedAt;
+    private boolean m_timedOut;
+
+    Watch(String taskName, ExecutionHandle handle, long timeoutMillis,
+      ClusteringProgress progress)
+    {
+      m_taskName = taskName;
+      m_handle = handle;
+      m_timeoutMillis = timeoutMillis;
+      m_deadline = timeoutMillis > 0L ?
+        System.currentTimeMillis() + timeoutMillis : Long.MAX_VALUE;
+      m_progress = progress;
+    }
+
+    public void run() {
+      if (m_future.isDone())
+        return;
+      m_pollCount.incrementAndGet();
+      try {
+        ExecutionStatus status = m_handle.getLatestStatus();
+        if (isFinalState(status.getState())) {
+          if (m_timedOut)
+            m_future.completeExceptionally(new TimeoutException(m_taskName +
+              " did not finish within " + m_timeoutMillis + " ms"));
+          else
+            m_future.complete(status);
+          return;
+        }
+        long now = System.currentTimeMillis();
+        if (m_terminating) {
+          if (now - m_terminatedAt > TERMINATE_GRACE_MILLIS) {
+            m_future.completeExceptionally(new TimeoutException(m_taskName +
+              " did not end within " + TERMINATE_GRACE_MILLIS +
+              " ms after it was terminated"));
+            return;
+          }
+        } else if (m_progress != null && m_progress.isStopRequested()) {
+          terminate(" is terminated");
+        } else if (now >= m_deadline) {
+          m_timedOut = true;
+          m_timedOutCount.incrementAndGet();
+          terminate(" is terminated after " + m_timeoutMillis + " ms");
+        } else if (m_progress != null) {
+          m_progress.heartbeat(m_taskName + " is running");
+        }
+        schedule(m_intervalMillis);
+        m_intervalMillis = Math.min(2L * m_intervalMillis, MAX_POLL_MILLIS);
+      } catch(JDMException jdmExp) {
+        m_future.completeExceptionally(jdmExp);
+      } catch(RuntimeException anyExp) {
+        m_future.completeExceptionally(anyExp);
+      }
+    }
+
+    void schedule(long delayMillis) {
+      try {
+        m_scheduler.schedule(this, delayMillis, TimeUnit.MILLISECONDS);
+      } catch(RejectedExecutionException shutDown) {
+        m_future.completeExceptionally(shutDown);
+      }
+    }
+
+    void terminate(String message) {
+      m_terminating = true;
+      m_terminatedAt = System.currentTimeMillis();
+      // the engine ends the task soon, poll again at the initial rate
+      m_intervalMillis = INITIAL_POLL_MILLIS;
+      m_terminatedCount.incrementAndGet();
+      try {
+        m_handle.terminate();
+      } catch(JDMException jdmExp) {
+        System.out.println("Cannot terminate " + m_taskName + ": " + jdmExp);
+      }
+      if (m_progress != null)
+        m_progress.heartbeat(m_taskName + message);
+    }
+  }
+}
@@ -1,26 +1,276 @@
 package servlet;
 
+import java.io.File;
 import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
 import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import util.DBUtil;
+import clustering.AdmissionController;
+import clustering.ClusterScorer;
+import clustering.ClusteringJob;
+import clustering.ClusteringJobManager;
+import clustering.ClusteringOptions;
+import clustering.ClusteringProgress;
+import clustering.ClusteringResult;
 import clustering.DMKMDemo;
+import clustering.MicroBatchScorer;
+import clustering.MiningConnectionPool;
+import clustering.ModelCache;
+import clustering.ModelFile;
+import clustering.ModelRegistry;
 
 
 /**
+ * Accepts clustering requests and runs them as asynchronous jobs.
+ * 
+ * POST (or GET without a jobId) submits a run and answers 202 with the job
+ * id. GET with a jobId parameter returns the job status, and additionally
+ * the scoring results when action=result is given.
+ * 
+ * When the init parameter modelFile names a model saved with ModelFile,
+ * action=score scores the single case given by the values parameter (the
+ * attribute values in model order, separated by commas; raw values when
+ * the model carries its normalization definition, see MinMaxNormalizer)
+ * and answers its top cluster and probability. Concurrent cases are scored together in
+ * micro-batches (see MicroBatchScorer) whose size, delay and queue capacity
+ * are set by the scoreBatchSize, scoreMaxDelayMicros and scoreQueueCapacity
+ * init parameters; action=scoringMetrics shows the queue depth and batch
+ * figures. action=reloadModel reads the model file again and publishes it
+ * (see ModelRegistry): cases already being scored finish with the previous
+ * model and new cases use the new one, so a rebuild does not stop scoring.
+ * With the init parameter saveModelFile=true, every run of an in-process
+ * kmeans algorithm saves its model to the modelFile when it is built, and
+ * the file need not exist when the servlet starts; action=reloadModel then
+ * serves the model of the latest run.
+ * 
+ * The algorithm parameter is one of the choices of demo.jsp: kmeans builds
+ * and applies the model in the mining engine, bayesian and kmeans-inprocess
+ * build and apply it in the Java VM from the raw views, normalized there
+ * without views of their own. The inProcessBuild init parameter selects
+ * how kmeans-inprocess builds its model (see ClusteringOptions.InProcessBuild):
+ * memory (the default), bisecting, streaming, compact or columnar.
+ * 
+ * Results of finished runs are cached per application, algorithm and build
+ * settings (see ModelCache): a repeated request whose source data has the
+ * same row counts (and latest value of the sourceTimestampColumn init
+ * parameter, if given) is answered from the cache by its job instead of a
+ * run; the job looks the result up on its worker, not on the request
+ * thread, and its status then shows cached=true. The
+ * modelCacheSize and modelCacheTtlSeconds init parameters bound the cache,
+ * a modelCacheSize of 0 disables it. refresh=true runs the request anyway;
+ * action=invalidateCache drops the results of the given application, or
+ * all of them, and action=cacheMetrics shows the hit and eviction counts.
+ * 
+ * A request for the same application and algorithm as a job that is still
+ * queued or running joins that job and gets its jobId instead of starting
+ * another run; sharedBy tells how many requests the job answers. A job
+ * that is being stopped is not joined.
+ * 
+ * Runs wait for one of jobThreads workers in a queue of jobQueueCapacity
+ * places, ordered by the priority parameter (high, normal or low). When
+ * the queue is full the request is refused with 429 and a Retry-After
+ * header estimated from the mean run time. The buildConcurrency,
+ * applyConcurrency and scoringConcurrency init parameters limit how many
+ * runs may build and apply, and how many score requests may wait, at the
+ * same time (see AdmissionController); a score request over the limit is
+ * refused with 429 at once. A job whose run finds the build stage full is
+ * not failed but queued again (its status shows requeued and how often).
+ * action=admissionMetrics shows the queue wait times and the use of each
+ * stage.
+ * 
+ * GET with a jobId and action=progress streams the progress of the job as
+ * Server-Sent Events (see ClusteringProgress): its phase, the elapsed time
+ * and, for bayesian and kmeans-inprocess unless it builds bisecting,
+ * every iteration with its error and the improvement
+ * against the MinErrorTolerance. A kmeans job builds in the mining engine,
+ * which reports no iterations, so its stream shows a heartbeat while each
+ * engine task runs. The stream is served asynchronously and holds no
+ * container thread between events (the servlet is async-supported, see
+ * web.xml), and is written with the non-blocking output of Servlet 3.1,
+ * so a client that reads slowly delays no other stream; one that reads
+ * nothing for twice the keepalive interval is disconnected.
+ * 
+ * The answer to a submitted request carries its request number within the
+ * job. POST with action=stop, a jobId and that number as the request
+ * parameter withdraws the request; the request parameter may be left out
+ * while the job answers only one request. The run is stopped early once
+ * every request of the job has withdrawn, and the job then ends with
+ * status CANCELLED; until then the others keep waiting for the result, and
+ * the status shows how many are still attached.
+ * 
+ * A mining engine task that runs longer than the taskTimeoutSeconds init
+ * parameter (default one hour, 0 for no limit) is terminated and its job
+ * fails.
+ * 
  * @author Sanjeev Kulkarni
  */
 
 public class TextClusteringServlet extends javax.servlet.http.HttpServlet
   	implements javax.servlet.Servlet {
 
+	private static final int DEFAULT_JOB_THREADS = 2;
+	private static final int DEFAULT_JOB_QUEUE_CAPACITY = 16;
+	private static final long DEFAULT_JOB_RETENTION_MILLIS = 60L * 60L * 1000L;
+	private static final int DEFAULT_POOL_SIZE = 4;
+	private static final long DEFAULT_POOL_MAX_IDLE_MILLIS = 10L * 60L * 1000L;
+	private static final long DEFAULT_CONNECTION_TIMEOUT_MILLIS = 30L * 1000L;
+	private static final long SCORE_TIMEOUT_MILLIS = 1000L;
+	private static final int DEFAULT_MODEL_CACHE_SIZE = 16;
+	private static final int DEFAULT_MODEL_CACHE_TTL_SECONDS = 60 * 60;
+	private static final int DEFAULT_SCORING_CONCURRENCY = 256;
+	private static final int DEFAULT_TASK_TIMEOUT_SECONDS = 60 * 60;
+	// not defined by the servlet API
+	private static final int SC_TOO_MANY_REQUESTS = 429;
+	private static final long PROGRESS_KEEPALIVE_MILLIS = 15L * 1000L;
+	// a progress stream is closed after this long; the client reconnects
+	// with Last-Event-ID and continues where it stopped
+	private static final long PROGRESS_STREAM_MAX_MILLIS = 10L * 60L * 1000L;
+	// a progress stream whose client has taken no output for this long is
+	// closed
+	private static final long PROGRESS_STALL_MILLIS = 2L * PROGRESS_KEEPALIVE_MILLIS;
+	// write the events and keepalives of all progress streams, never
+	// blocking on a client
+	private static final int PROGRESS_STREAM_THREADS = 2;
+
+	private MiningConnectionPool connectionPool;
+	private ClusteringJobManager jobManager;
+	private AdmissionController admission;
+	private ModelRegistry modelRegistry;
+	private MicroBatchScorer scorer;
+	private File modelFile;
+	private ScheduledExecutorService progressExecutor;
+
 	public TextClusteringServlet() {
 		super();
 	}
 
+	public void init() throws ServletException {
+		super.init();
+		connectionPool = new MiningConnectionPool(DBUtil.getUsername(),
+				DBUtil.getPassword(), DBUtil.formedURI(),
+				intInitParameter("connectionPoolSize", DEFAULT_POOL_SIZE),
+				DEFAULT_POOL_MAX_IDLE_MILLIS);
+		int modelCacheSize = intInitParameter("modelCacheSize",
+				DEFAULT_MODEL_CACHE_SIZE);
+		ModelCache modelCache = null;
+		if (modelCacheSize > 0) {
+			modelCache = new ModelCache(modelCacheSize, 1000L * intInitParameter(
+					"modelCacheTtlSeconds", DEFAULT_MODEL_CACHE_TTL_SECONDS));
+		}
+		int jobThreads = intInitParameter("jobThreads", DEFAULT_JOB_THREADS);
+		admission = new AdmissionController(
+				intInitParameter("buildConcurrency", jobThreads),
+				intInitParameter("applyConcurrency", jobThreads),
+				intInitParameter("scoringConcurrency",
+						DEFAULT_SCORING_CONCURRENCY));
+		jobManager = new ClusteringJobManager(connectionPool,
+				DEFAULT_CONNECTION_TIMEOUT_MILLIS, jobThreads,
+				intInitParameter("jobQueueCapacity", DEFAULT_JOB_QUEUE_CAPACITY),
+				DEFAULT_JOB_RETENTION_MILLIS, modelCache,
+				getInitParameter("sourceTimestampColumn"), admission);
+		jobManager.setTaskTimeoutMillis(1000L * intInitParameter(
+				"taskTimeoutSeconds", DEFAULT_TASK_TIMEOUT_SECONDS));
+		String inProcessBuild = getInitParameter("inProcessBuild");
+		if (inProcessBuild != null) {
+			try {
+				jobManager.setInProcessBuild(ClusteringOptions.InProcessBuild
+						.valueOf(inProcessBuild.trim().toUpperCase()));
+			} catch (IllegalArgumentException iae) {
+				sop("Ignoring invalid init parameter inProcessBuild="
+						+ inProcessBuild);
+			}
+		}
+		progressExecutor = Executors.newScheduledThreadPool(
+				PROGRESS_STREAM_THREADS, new ThreadFactory() {
+					private final AtomicLong threadNumber = new AtomicLong();
+
+					public Thread newThread(Runnable r) {
+						Thread t = new Thread(r, "progress-stream-"
+								+ threadNumber.incrementAndGet());
+						t.setDaemon(true);
+						return t;
+					}
+				});
+		String modelFileName = getInitParameter("modelFile");
+		if (modelFileName != null) {
+			modelFile = new File(modelFileName.trim());
+			boolean saveModelFile = "true".equalsIgnoreCase(
+					getInitParameter("saveModelFile"));
+			if (saveModelFile) {
+				jobManager.setModelFile(modelFile);
+			}
+			modelRegistry = new ModelRegistry(new ModelRegistry.ReleaseListener() {
+				public void released(ModelRegistry.ModelVersion version) {
+					sop("Released scoring model version " + version.getVersion());
+				}
+			});
+			try {
+				if (saveModelFile && !modelFile.exists()) {
+					sop("No scoring model yet, " + modelFile
+							+ " is written by the next in-process run");
+				} else {
+					publishModel();
+				}
+			} catch (IOException ioExp) {
+				throw new ServletException("Cannot load scoring model "
+						+ modelFile, ioExp);
+			}
+			scorer = new MicroBatchScorer(modelRegistry,
+					intInitParameter("scoreBatchSize",
+							MicroBatchScorer.DEFAULT_MAX_BATCH_SIZE),
+					intInitParameter("scoreMaxDelayMicros",
+							(int) MicroBatchScorer.DEFAULT_MAX_DELAY_MICROS),
+					intInitParameter("scoreQueueCapacity",
+							64 * MicroBatchScorer.DEFAULT_MAX_BATCH_SIZE));
+		}
+	}
+
+	private ModelRegistry.ModelVersion publishModel() throws IOException {
+		ModelRegistry.ModelVersion version = modelRegistry.publish(
+				new ClusterScorer(ModelFile.load(modelFile)));
+		sop("Published scoring model " + version.getModel().getName()
+				+ " as version " + version.getVersion());
+		return version;
+	}
+
+	public void destroy() {
+		if (scorer != null) {
+			scorer.close(5000L);
+		}
+		if (jobManager != null) {
+			jobManager.shutdown(30000L);
+		}
+		if (progressExecutor != null) {
+			progressExecutor.shutdownNow();
+		}
+		if (connectionPool != null) {
+			connectionPool.close();
+		}
+		super.destroy();
+	}
+
 	/*
 	 * (non-Java-doc)
 	 * 
@@ -29,7 +279,27 @@ public class TextClusteringServlet extends javax.servlet.http.HttpServlet
 	 */
 	protected void doGet(HttpServletRequest request,
 			HttpServletResponse response) throws ServletException, IOException {
-		doPost(request, response);
+		String jobId = request.getParameter("jobId");
+		if (jobId == null) {
+			doPost(request, response);
+			return;
+		}
+		ClusteringJob job = jobManager.getJob(jobId);
+		if (job == null) {
+			response.sendError(HttpServletResponse.SC_NOT_FOUND,
+					"Unknown clustering job " + jobId);
+			return;
+		}
+		if ("progress".equals(request.getParameter("action"))) {
+			doProgress(request, response, job);
+			return;
+		}
+		response.setContentType("text/plain");
+		PrintWriter out = response.getWriter();
+		writeStatus(out, job);
+		if ("result".equals(request.getParameter("action"))) {
+			writeResult(out, job.getResult());
+		}
 	}
 
 	/*
@@ -40,31 +310,617 @@ public class TextClusteringServlet extends javax.servlet.http.HttpServlet
 	 */
 	protected void doPost(HttpServletRequest request,
 			HttpServletResponse response) throws ServletException, IOException {
-		// TODO Auto-generated method stub
-
-		String username = request.getParameter("username");
-		String password = request.getParameter("password");
+		String action = request.getParameter("action");
+		if ("score".equals(action)) {
+			doScore(request, response);
+			return;
+		}
+		if ("scoringMetrics".equals(action)) {
+			doScoringMetrics(response);
+			return;
+		}
+		if ("reloadModel".equals(action)) {
+			doReloadModel(response);
+			return;
+		}
+		if ("stop".equals(action)) {
+			doStop(request, response);
+			return;
+		}
+		if ("admissionMetrics".equals(action)) {
+			doAdmissionMetrics(response);
+			return;
+		}
+		if ("cacheMetrics".equals(action)) {
+			doCacheMetrics(response);
+			return;
+		}
+		if ("invalidateCache".equals(action)) {
+			doInvalidateCache(request, response);
+			return;
+		}
 		String application = request.getParameter("application");
 		String algorithmToBeUsed = request.getParameter("algorithm");
 		
 		sop("Entered application" + application);
 
-		initConnection(username, password, application, algorithmToBeUsed);
-		sop("**** After initConnection() is invoked ***");
-		// Close the connection to the MBean server
+		if (!DMKMDemo.isSupportedAlgorithm(algorithmToBeUsed)) {
+			response.sendError(HttpServletResponse.SC_BAD_REQUEST,
+					"Unknown algorithm: " + algorithmToBeUsed);
+			return;
 		}
+		ClusteringJob.Priority priority = ClusteringJob.Priority.NORMAL;
+		String priorityName = request.getParameter("priority");
+		if (priorityName != null) {
+			try {
+				priority = ClusteringJob.Priority.valueOf(priorityName
+						.trim().toUpperCase());
+			} catch (IllegalArgumentException badPriority) {
+				response.sendError(HttpServletResponse.SC_BAD_REQUEST,
+						"Unknown priority: " + priorityName);
+				return;
+			}
+		}
+		ClusteringJobManager.JobRequest submitted;
+		try {
+			submitted = jobManager.submitRequest(application, algorithmToBeUsed,
+					"true".equals(request.getParameter("refresh")), priority);
+		} catch (RejectedExecutionException rejected) {
+			response.setHeader("Retry-After",
+					Long.toString(jobManager.getRetryAfterSeconds()));
+			response.sendError(SC_TOO_MANY_REQUESTS,
+					"Too many clustering jobs, please retry later");
+			return;
+		}
+		ClusteringJob job = submitted.getJob();
+		sop("**** Submitted clustering job " + job.getJobId() + " ***");
 
-	private void initConnection(String url, String username, String password,
-			String application) throws IOException {
-		sop("*** Inside initConnection");
+		// a joined job may already have its result from the cache
+		response.setStatus(job.isCached() ? HttpServletResponse.SC_OK
+				: HttpServletResponse.SC_ACCEPTED);
+		response.setContentType("text/plain");
+		PrintWriter out = response.getWriter();
+		out.println("request=" + submitted.getRequest());
+		writeStatus(out, job);
+	}
 
+	private void doScore(HttpServletRequest request,
+			HttpServletResponse response) throws IOException {
+		if (scorer == null) {
+			response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE,
+					"No scoring model is loaded");
+			return;
+		}
+		ModelRegistry.ModelVersion current = modelRegistry.getCurrent();
+		if (current == null) {
+			response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE,
+					"No scoring model is loaded");
+			return;
+		}
+		double[] row;
+		try {
+			row = parseRow(request.getParameter("values"),
+					current.getScorer().getAttributeCount());
+		} catch (IllegalArgumentException badValues) {
+			response.sendError(HttpServletResponse.SC_BAD_REQUEST,
+					badValues.getMessage());
+			return;
+		}
+		// refuse at once rather than queue behind a full scoring stage
+		boolean admitted;
+		try {
+			admitted = admission.tryAcquire(AdmissionController.Stage.SCORING,
+					0L);
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+			admitted = false;
+		}
+		if (!admitted) {
+			response.setHeader("Retry-After", "1");
+			response.sendError(SC_TOO_MANY_REQUESTS,
+					"Too many scoring requests, please retry later");
+			return;
+		}
+		MicroBatchScorer.Result result;
+		try {
+			result = scorer.submit(row).get(SCORE_TIMEOUT_MILLIS,
+					TimeUnit.MILLISECONDS);
+		} catch (TimeoutException timeout) {
+			response.sendError(HttpServletResponse.SC_GATEWAY_TIMEOUT,
+					"Scoring timed out");
+			return;
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+			response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE,
+					"Scoring was interrupted");
+			return;
+		} catch (ExecutionException failed) {
+			if (failed.getCause() instanceof RejectedExecutionException) {
+				response.setHeader("Retry-After", "1");
+				response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE,
+						"Too many scoring requests, please retry later");
+			} else {
+				response.sendError(
+						HttpServletResponse.SC_INTERNAL_SERVER_ERROR,
+						"Scoring failed: " + failed.getCause());
+			}
+			return;
+		} finally {
+			admission.release(AdmissionController.Stage.SCORING);
+		}
+		response.setContentType("text/plain");
+		PrintWriter out = response.getWriter();
+		out.println("clusterId=" + result.getClusterId());
+		out.println("probability=" + result.getProbability());
+		out.println("modelVersion=" + result.getModelVersion());
+	}
 
-		url = DBUtil.formedURI();
-		username = DBUtil.getUsername();
-		password = DBUtil.getPassword();
-		
-		new DMKMDemo().dummy( username, password, url, application);
-		
+	private void doReloadModel(HttpServletResponse response)
+			throws IOException {
+		if (scorer == null) {
+			response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE,
+					"No scoring model is configured");
+			return;
+		}
+		ModelRegistry.ModelVersion version;
+		try {
+			version = publishModel();
+		} catch (IOException ioExp) {
+			// the previous model stays published
+			response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR,
+					"Cannot load scoring model: " + ioExp.getMessage());
+			return;
+		}
+		response.setContentType("text/plain");
+		response.getWriter().println("modelVersion=" + version.getVersion());
+	}
+
+	private void doScoringMetrics(HttpServletResponse response)
+			throws IOException {
+		if (scorer == null) {
+			response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE,
+					"No scoring model is loaded");
+			return;
+		}
+		response.setContentType("text/plain");
+		PrintWriter out = response.getWriter();
+		ModelRegistry.ModelVersion current = modelRegistry.getCurrent();
+		if (current != null) {
+			out.println("scoring.modelVersion=" + current.getVersion());
+		}
+		out.println("scoring.liveModelVersions="
+				+ modelRegistry.getLiveVersionCount());
+		out.println("scoring.queueDepth=" + scorer.getQueueDepth());
+		out.println("scoring.peakQueueDepth=" + scorer.getPeakQueueDepth());
+		out.println("scoring.requests=" + scorer.getRequestCount());
+		out.println("scoring.rejected=" + scorer.getRejectedCount());
+		out.println("scoring.batches=" + scorer.getBatchCount());
+		out.println("scoring.averageBatchSize=" + scorer.getAverageBatchSize());
+		out.println("scoring.averageQueueWaitMicros="
+				+ scorer.getAverageQueueWaitMicros());
+	}
+
+	/**
+	 * Streams the progress events of a job as Server-Sent Events until the
+	 * job has finished. Every event carries its sequence number as id, so a
+	 * client that reconnects with Last-Event-ID gets the events it missed.
+	 * The last event of a job is of type done.
+	 */
+	private void doProgress(HttpServletRequest request,
+			HttpServletResponse response, ClusteringJob job)
+			throws IOException {
+		long lastSeen = 0L;
+		String lastEventId = request.getHeader("Last-Event-ID");
+		if (lastEventId != null) {
+			try {
+				lastSeen = Long.parseLong(lastEventId.trim());
+			} catch (NumberFormatException nfe) {
+				// start from the oldest event kept
+			}
+		}
+		response.setContentType("text/event-stream");
+		response.setCharacterEncoding("UTF-8");
+		response.setHeader("Cache-Control", "no-cache");
+		// the events are written by progressExecutor as the run reports
+		// them, and by the container when a slow client takes more, so no
+		// thread waits for the run or the client
+		AsyncContext async = request.startAsync();
+		async.setTimeout(PROGRESS_STREAM_MAX_MILLIS);
+		ProgressStream stream = new ProgressStream(async,
+				response.getOutputStream(), job.getProgress(), lastSeen);
+		async.addListener(stream);
+		stream.start();
+	}
+
+	/**
+	 * One Server-Sent Events stream of the progress of a job. It writes with
+	 * the non-blocking output of the response (see WriteListener), so a
+	 * client that reads slowly holds neither a progressExecutor thread nor
+	 * a container thread. Each time the run reports, and when a keepalive
+	 * comment is due every PROGRESS_KEEPALIVE_MILLIS, the stream writes on
+	 * progressExecutor as much as the output takes without blocking; the
+	 * container calls onWritePossible when it takes more. Events are only
+	 * formatted once they can be written, so a stream holds at most one
+	 * batch of them, and a client that has taken no output for
+	 * PROGRESS_STALL_MILLIS is disconnected, to reconnect with
+	 * Last-Event-ID. The stream ends once the run has finished and all its
+	 * events are written, when the client goes away, or at the async
+	 * timeout.
+	 */
+	private class ProgressStream implements ClusteringProgress.Listener,
+			AsyncListener, WriteListener, Runnable {
+		private final AsyncContext async;
+		private final ServletOutputStream out;
+		private final ClusteringProgress progress;
+		private final AtomicBoolean writeScheduled = new AtomicBoolean();
+		private long lastSeen;
+		// formatted output the stream could not write yet
+		private byte[] pending;
+		private boolean keepaliveDue;
+		// when the output last refused more, 0 while it takes everything
+		private long blockedSince;
+		private boolean closed;
+		private ScheduledFuture<?> keepalive;
+
+		ProgressStream(AsyncContext async, ServletOutputStream out,
+				ClusteringProgress progress, long lastSeen) {
+			this.async = async;
+			this.out = out;
+			this.progress = progress;
+			this.lastSeen = lastSeen;
+		}
+
+		synchronized void start() {
+			progress.addListener(this);
+			try {
+				keepalive = progressExecutor.scheduleWithFixedDelay(
+						new Runnable() {
+							public void run() {
+								keepalive();
+							}
+						}, PROGRESS_KEEPALIVE_MILLIS,
+						PROGRESS_KEEPALIVE_MILLIS, TimeUnit.MILLISECONDS);
+			} catch (RejectedExecutionException shutDown) {
+				close(true);
+				return;
+			}
+			// the container calls onWritePossible once the output is
+			// ready, which writes the events so far
+			out.setWriteListener(this);
+		}
+
+		public void eventsAdded(ClusteringProgress progress) {
+			// called on the thread of the run; only schedule the write
+			if (writeScheduled.compareAndSet(false, true)) {
+				try {
+					progressExecutor.execute(this);
+				} catch (RejectedExecutionException shutDown) {
+					close(true);
+				}
+			}
+		}
+
+		public void run() {
+			writeScheduled.set(false);
+			write();
+		}
+
+		public void onWritePossible() {
+			write();
+		}
+
+		public void onError(Throwable failure) {
+			close(true);
+		}
+
+		private synchronized void write() {
+			if (closed) {
+				return;
+			}
+			try {
+				while (out.isReady()) {
+					blockedSince = 0L;
+					if (pending == null) {
+						pending = nextChunk();
+					}
+					if (pending == null) {
+						out.flush();
+						if (progress.isFinished()
+								&& progress.getLatestEvent().getSequence() <= lastSeen) {
+							close(true);
+						}
+						return;
+					}
+					out.write(pending);
+					pending = null;
+				}
+				if (blockedSince == 0L) {
+					blockedSince = System.currentTimeMillis();
+				}
+			} catch (IOException clientGone) {
+				close(true);
+			}
+		}
+
+		/**
+		 * @return the events not yet written, or a keepalive comment if one
+		 *         is due and there are none, or null
+		 */
+		private byte[] nextChunk() {
+			List<ClusteringProgress.Event> events = progress
+					.getEventsAfter(lastSeen);
+			if (events.isEmpty() && !keepaliveDue) {
+				return null;
+			}
+			keepaliveDue = false;
+			if (events.isEmpty()) {
+				// keeps proxies from closing an idle stream
+				return ": keepalive\n\n".getBytes(StandardCharsets.UTF_8);
+			}
+			StringBuilder chunk = new StringBuilder();
+			for (Iterator<ClusteringProgress.Event> it = events.iterator(); it
+					.hasNext();) {
+				ClusteringProgress.Event event = it.next();
+				boolean done = ClusteringProgress.PHASE_DONE.equals(event
+						.getPhase());
+				chunk.append("id: " + event.getSequence() + "\n");
+				chunk.append("event: " + (done ? "done" : "progress") + "\n");
+				chunk.append("data: " + event.toJson() + "\n\n");
+				lastSeen = event.getSequence();
+			}
+			return chunk.toString().getBytes(StandardCharsets.UTF_8);
+		}
+
+		private synchronized void keepalive() {
+			if (closed) {
+				return;
+			}
+			if (blockedSince != 0L && System.currentTimeMillis()
+					- blockedSince > PROGRESS_STALL_MILLIS) {
+				sop("Closing progress stream of a client that reads no more");
+				close(true);
+				return;
+			}
+			keepaliveDue = true;
+			write();
+		}
+
+		private synchronized void close(boolean complete) {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			pending = null;
+			progress.removeListener(this);
+			if (keepalive != null) {
+				keepalive.cancel(false);
+			}
+			if (complete) {
+				try {
+					async.complete();
+				} catch (IllegalStateException alreadyCompleted) {
+					// the container ended the request meanwhile
+				}
+			}
+		}
+
+		public void onComplete(AsyncEvent event) {
+			close(false);
+		}
+
+		public void onTimeout(AsyncEvent event) {
+			// the client reconnects with Last-Event-ID
+			close(true);
+		}
+
+		public void onError(AsyncEvent event) {
+			close(true);
+		}
+
+		public void onStartAsync(AsyncEvent event) {
+		}
+	}
+
+	private void doStop(HttpServletRequest request,
+			HttpServletResponse response) throws IOException {
+		String jobId = request.getParameter("jobId");
+		ClusteringJob job = jobManager.getJob(jobId);
+		if (job == null) {
+			response.sendError(HttpServletResponse.SC_NOT_FOUND,
+					"Unknown clustering job " + jobId);
+			return;
+		}
+		if (job.isDone()) {
+			response.sendError(HttpServletResponse.SC_CONFLICT,
+					"Clustering job " + jobId + " has already finished");
+			return;
+		}
+		int requestNumber;
+		try {
+			String requestName = request.getParameter("request");
+			requestNumber = requestName == null ? 0 : Integer
+					.parseInt(requestName.trim());
+		} catch (NumberFormatException nfe) {
+			response.sendError(HttpServletResponse.SC_BAD_REQUEST,
+					"Invalid request number " + request.getParameter("request"));
+			return;
+		}
+		int attached;
+		try {
+			attached = job.withdraw(requestNumber);
+		} catch (IllegalArgumentException unknownRequest) {
+			response.sendError(HttpServletResponse.SC_BAD_REQUEST,
+					unknownRequest.getMessage());
+			return;
+		} catch (IllegalStateException shared) {
+			// others still wait for the result
+			response.sendError(HttpServletResponse.SC_CONFLICT,
+					shared.getMessage() + ", give the request number to withdraw");
+			return;
+		}
+		if (attached == 0) {
+			sop("**** Stop requested for clustering job " + jobId + " ***");
+		} else {
+			sop("**** Request withdrawn from clustering job " + jobId + ", "
+					+ attached + " still attached ***");
+		}
+		response.setStatus(HttpServletResponse.SC_ACCEPTED);
+		response.setContentType("text/plain");
+		writeStatus(response.getWriter(), job);
+	}
+
+	private void doAdmissionMetrics(HttpServletResponse response)
+			throws IOException {
+		response.setContentType("text/plain");
+		PrintWriter out = response.getWriter();
+		out.println("jobs.queued=" + jobManager.getQueuedCount());
+		out.println("jobs.running=" + jobManager.getRunningCount());
+		out.println("jobs.rejected=" + jobManager.getRejectedCount());
+		out.println("jobs.coalesced=" + jobManager.getCoalescedCount());
+		out.println("jobs.averageQueueWaitMillis="
+				+ jobManager.getAverageQueueWaitMillis());
+		out.println("jobs.maxQueueWaitMillis="
+				+ jobManager.getMaxQueueWaitMillis());
+		out.println("jobs.averageRunMillis=" + jobManager.getAverageRunMillis());
+		out.println("jobs.retryAfterSeconds="
+				+ jobManager.getRetryAfterSeconds());
+		AdmissionController.Stage[] stages = AdmissionController.Stage.values();
+		for (int i = 0; i < stages.length; i++) {
+			String prefix = "stage." + stages[i].name().toLowerCase() + ".";
+			out.println(prefix + "limit=" + admission.getLimit(stages[i]));
+			out.println(prefix + "active=" + admission.getActiveCount(stages[i]));
+			out.println(prefix + "waiting="
+					+ admission.getWaitingCount(stages[i]));
+			out.println(prefix + "admitted="
+					+ admission.getAdmittedCount(stages[i]));
+			out.println(prefix + "rejected="
+					+ admission.getRejectedCount(stages[i]));
+			out.println(prefix + "averageWaitMillis="
+					+ admission.getAverageWaitMillis(stages[i]));
+		}
+	}
+
+	private void doCacheMetrics(HttpServletResponse response)
+			throws IOException {
+		ModelCache cache = jobManager.getCache();
+		if (cache == null) {
+			response.sendError(HttpServletResponse.SC_NOT_FOUND,
+					"The model cache is disabled");
+			return;
+		}
+		response.setContentType("text/plain");
+		PrintWriter out = response.getWriter();
+		out.println("cache.size=" + cache.size());
+		out.println("cache.maxEntries=" + cache.getMaxEntries());
+		out.println("cache.ttlMillis=" + cache.getTtlMillis());
+		out.println("cache.hits=" + cache.getHitCount());
+		out.println("cache.misses=" + cache.getMissCount());
+		out.println("cache.evictions=" + cache.getEvictionCount());
+		out.println("cache.expirations=" + cache.getExpirationCount());
+		out.println("cache.invalidations=" + cache.getInvalidationCount());
+	}
+
+	private void doInvalidateCache(HttpServletRequest request,
+			HttpServletResponse response) throws IOException {
+		ModelCache cache = jobManager.getCache();
+		if (cache == null) {
+			response.sendError(HttpServletResponse.SC_NOT_FOUND,
+					"The model cache is disabled");
+			return;
+		}
+		String application = request.getParameter("application");
+		int dropped;
+		if (application == null) {
+			dropped = cache.size();
+			cache.clear();
+		} else {
+			dropped = cache.invalidate(application);
+		}
+		sop("Dropped " + dropped + " cached results");
+		response.setContentType("text/plain");
+		response.getWriter().println("cache.dropped=" + dropped);
+	}
+
+	/**
+	 * @return the comma separated values as a case of the given number of
+	 *         attributes
+	 * @exception IllegalArgumentException if the values are missing, not
+	 *            numbers or not as many as the attributes
+	 */
+	private static double[] parseRow(String values, int attributeCount) {
+		if (values == null) {
+			throw new IllegalArgumentException("Missing values parameter");
+		}
+		String[] fields = values.split(",");
+		if (fields.length != attributeCount) {
+			throw new IllegalArgumentException("Expected " + attributeCount
+					+ " values but got " + fields.length);
+		}
+		double[] row = new double[attributeCount];
+		for (int j = 0; j < attributeCount; j++) {
+			row[j] = Double.parseDouble(fields[j].trim());
+		}
+		return row;
+	}
+
+	private static void writeStatus(PrintWriter out, ClusteringJob job) {
+		out.println("jobId=" + job.getJobId());
+		out.println("application=" + job.getApplication());
+		out.println("algorithm=" + job.getAlgorithm());
+		out.println("status=" + job.getStatus());
+		ClusteringProgress.Event latest = job.getProgress().getLatestEvent();
+		out.println("phase=" + latest.getPhase());
+		out.println("elapsedMillis=" + latest.getElapsedMillis());
+		if (latest.getIteration() > 0) {
+			out.println("iteration=" + latest.getIteration());
+			out.println("error=" + latest.getError());
+		}
+		if (job.isCached()) {
+			out.println("cached=true");
+		}
+		if (job.getRequestCount() > 1) {
+			out.println("sharedBy=" + job.getRequestCount());
+		}
+		if (job.getAttachedCount() < job.getRequestCount()) {
+			out.println("attached=" + job.getAttachedCount());
+		}
+		if (job.getRequeueCount() > 0) {
+			out.println("requeued=" + job.getRequeueCount());
+		}
+		if (job.getFailureDescription() != null) {
+			out.println("failure=" + job.getFailureDescription());
+		}
+	}
+
+	private static void writeResult(PrintWriter out, ClusteringResult result) {
+		if (result == null) {
+			return;
+		}
+		for (Iterator<ClusteringResult.ClusterCount> it =
+				result.getClusterCounts().iterator(); it.hasNext();) {
+			ClusteringResult.ClusterCount count = it.next();
+			out.println("cluster." + count.getClusterId() + ".count="
+					+ count.getCount());
+		}
+		for (Iterator<ClusteringResult.RepresentativeCase> it =
+				result.getRepresentativeCases().iterator(); it.hasNext();) {
+			ClusteringResult.RepresentativeCase rc = it.next();
+			out.println("cluster.2.case." + rc.getCaseId() + ".probability="
+					+ rc.getProbability());
+		}
+	}
+
+	private int intInitParameter(String name, int defaultValue) {
+		String value = getInitParameter(name);
+		if (value == null) {
+			return defaultValue;
+		}
+		try {
+			return Integer.parseInt(value.trim());
+		} catch (NumberFormatException nfe) {
+			sop("Ignoring invalid init parameter " + name + "=" + value);
+			return defaultValue;
+		}
 	}
 	
 
@@ -0,0 +1,98 @@
+package clustering;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This class extracts the term tables produced by the text transformation
+ * (see <code>TextMiningDemo.prepareData</code>) into a
+ * <code>SparseDataset</code> for in-process text clustering. Each case has
+ * a nested table column of (ATTRIBUTE_NAME, VALUE) rows, one per term of
+ * its text; a term becomes a column of the dataset the first time it is
+ * seen.
+ */
+public class TextDataLoader {
+  private static final int FETCH_SIZE = 1000;
+  private static final int INITIAL_CAPACITY = 4096;
+
+  private TextDataLoader() {
+  }
+
+  /**
+   * @param dbConn database connection to read from
+   * @param dataURI name of the table holding the term tables, e.g.
+   *        NESTED_TABLE_BUILD_TEXT
+   * @param caseIdColumn name of the case identifier column
+   * @param nestedColumn name of the nested term table column, e.g. COMMENTS
+   * @return dataset with one row per case that has at least one term
+   * @exception SQLException if the data could not be read
+   */
+  public static SparseDataset load(java.sql.Connection dbConn, String dataURI,
+    String caseIdColumn, String nestedColumn) throws SQLException
+  {
+    Statement stmt = null;
+    ResultSet rs = null;
+    try {
+      stmt = dbConn.createStatement();
+      stmt.setFetchSize(FETCH_SIZE);
+      rs = stmt.executeQuery("SELECT t." + caseIdColumn + ", n.ATTRIBUTE_NAME, n.VALUE" +
+        " FROM " + dataURI + " t, TABLE(t." + nestedColumn + ") n" +
+        " ORDER BY t." + caseIdColumn);
+      Map<String, Integer> vocabulary = new HashMap<String, Integer>();
+      List<String> terms = new ArrayList<String>();
+      long[] caseIds = new long[INITIAL_CAPACITY];
+      int[] rowStart = new int[INITIAL_CAPACITY + 1];
+      int[] termIndexes = new int[INITIAL_CAPACITY];
+      double[] values = new double[INITIAL_CAPACITY];
+      int rows = 0;
+      int nnz = 0;
+      while (rs.next()) {
+        long caseId = rs.getLong(1);
+        String term = rs.getString(2);
+        double v = rs.getDouble(3);
+        if (term == null || rs.wasNull() || v == 0.0)
+          continue;
+        if (rows == 0 || caseIds[rows - 1] != caseId) {
+          if (rows == caseIds.length) {
+            caseIds = Arrays.copyOf(caseIds, rows * 2);
+            rowStart = Arrays.copyOf(rowStart, rows * 2 + 1);
+          }
+          caseIds[rows] = caseId;
+          rowStart[rows] = nnz;
+          rows++;
+        }
+        Integer index = vocabulary.get(term);
+        if (index == null) {
+          index = Integer.valueOf(terms.size());
+          vocabulary.put(term, index);
+          terms.add(term);
+        }
+        if (nnz == values.length) {
+          termIndexes = Arrays.copyOf(termIndexes, nnz * 2);
+          values = Arrays.copyOf(values, nnz * 2);
+        }
+        termIndexes[nnz] = index.intValue();
+        values[nnz] = v;
+        nnz++;
+      }
+      rowStart[rows] = nnz;
+      return new SparseDataset(terms.toArray(new String[terms.size()]),
+        caseIds, rowStart, termIndexes, values, rows);
+    } finally {
+      try {
+        if (rs != null)
+          rs.close();
+      } catch(Exception anySqlExp) {}
+      try {
+        if (stmt != null)
+          stmt.close();
+      } catch(Exception anySqlExp) {}
+    }
+  }
+}
@@ -69,67 +69,40 @@ import javax.datamining.ExecutionStatus;
 import javax.datamining.JDMException;
 import javax.datamining.NamedObject;
 import javax.datamining.algorithm.kmeans.ClusteringDistanceFunction;
-import javax.datamining.algorithm.kmeans.KMeansSettingsFactory;
 import javax.datamining.base.Task;
 import javax.datamining.clustering.Cluster;
 import javax.datamining.clustering.ClusteringApplySettings;
-import javax.datamining.clustering.ClusteringApplySettingsFactory;
 import javax.datamining.clustering.ClusteringModel;
 import javax.datamining.clustering.ClusteringSettings;
-import javax.datamining.clustering.ClusteringSettingsFactory;
 import javax.datamining.data.AttributeDataType;
 import javax.datamining.data.AttributeType;
 import javax.datamining.data.Interval;
 import javax.datamining.data.IntervalClosure;
 import javax.datamining.data.ModelSignature;
 import javax.datamining.data.PhysicalAttribute;
-import javax.datamining.data.PhysicalAttributeFactory;
 import javax.datamining.data.PhysicalAttributeRole;
 import javax.datamining.data.PhysicalDataSet;
-import javax.datamining.data.PhysicalDataSetFactory;
 import javax.datamining.data.SignatureAttribute;
-import javax.datamining.resource.ConnectionSpec;
 import javax.datamining.rule.CompoundPredicate;
 import javax.datamining.rule.Rule;
 import javax.datamining.rule.SimplePredicate;
 import javax.datamining.statistics.AttributeStatisticsSet;
 import javax.datamining.statistics.UnivariateStatistics;
 import javax.datamining.task.BuildTask;
-import javax.datamining.task.BuildTaskFactory;
 import javax.datamining.task.apply.DataSetApplyTask;
-import javax.datamining.task.apply.DataSetApplyTaskFactory;
 // Oracle Java Data Mining (JDM) implemented api imports
 import oracle.dmt.jdm.OraPLSQLMappings;
 import oracle.dmt.jdm.algorithm.kmeans.OraKMeansSettings;
 import oracle.dmt.jdm.algorithm.kmeans.OraSplitCriterion;
 import oracle.dmt.jdm.clustering.OraCluster;
-import oracle.dmt.jdm.resource.OraConnection;
-import oracle.dmt.jdm.resource.OraConnectionFactory;
 import oracle.dmt.jdm.rule.OraSimplePredicate;
 import oracle.dmt.jdm.task.OraTransformationTask;
-import oracle.dmt.jdm.task.OraTransformationTaskFactory;
-import oracle.dmt.jdm.transform.normalize.OraNormalizeTransformFactory;
 import oracle.dmt.jdm.transform.normalize.OraNormalizeTransformImpl;
 import oracle.dmt.jdm.transform.normalize.OraNormalizeType;
 import oracle.dmt.jdm.transform.text.OraTextTransform;
-import oracle.dmt.jdm.transform.text.OraTextTransformFactory;
 import oracle.dmt.jdm.transform.text.OraTextTransformImpl;
 
 public class TextMiningDemo extends Object{
-  //Connection related data members
-  private static javax.datamining.resource.Connection m_dmeConn;
-  private static javax.datamining.resource.ConnectionFactory m_dmeConnFactory;
-  //Object factories used in this demo program
-  private static PhysicalDataSetFactory m_pdsFactory;
-  private static PhysicalAttributeFactory m_paFactory;
-  private static ClusteringSettingsFactory m_clusFactory;
-  private static KMeansSettingsFactory m_kmeansFactory;
-  private static BuildTaskFactory m_buildFactory;
-  private static DataSetApplyTaskFactory m_dsApplyFactory;
-  private static ClusteringApplySettingsFactory m_applySettingsFactory;
-  private static OraNormalizeTransformFactory m_normalizeXformFactory;
-  private static OraTransformationTaskFactory m_xformTaskFactory;
-  private static OraTextTransformFactory m_textXformFactory;
   // Global constants used for formatting output
   private static String TAB = "    ";
   private static String CR = "\n";
@@ -141,72 +114,54 @@ public class TextMiningDemo extends Object{
   private static String RULES_CLUSTERS_HIERARCHY_HEADER = "*     Printing clusters hierarchy   *";
   
   public static void main( String args[] ) { 
+    ClusteringContext ctx = null;
     try {      
-        if (( args.length != 0 ) & ( args.length != 3 )) {
-          System.out.println("Usage: java dmkmdemo ");
-          System.out.println("   or: java dmkmdemo <Host name>:<Port>:<SID> <User Name> <Password>");
+        if (( args.length != 0 ) & ( args.length != 1 ) & 
+            ( args.length != 3 ) & ( args.length != 4 )) {
+          System.out.println("Usage: java dmkmdemo [<Algorithm>]");
+          System.out.println("   or: java dmkmdemo <Host name>:<Port>:<SID> <User Name> <Password> [<Algorithm>]");
+          System.out.println("Algorithm: " + DMKMDemo.ALGORITHM_KMEANS + 
+            " (default) or " + DMKMDemo.ALGORITHM_KMEANS_INPROCESS);
           return;
         }
         //String uri = args[0];
         //String name =  args[1];
         //String password = args[2];
+        String algorithm = args.length % 3 == 1 ? args[args.length - 1] : null;
+        if ( algorithm != null && !DMKMDemo.ALGORITHM_KMEANS.equals(algorithm) && 
+             !DMKMDemo.isInProcessAlgorithm(algorithm) ) {
+          System.out.println("Unsupported algorithm for text mining: " + algorithm);
+          return;
+        }
         
-        //1. Login to the Data Mining Engine
-        m_dmeConnFactory = new OraConnectionFactory();
-        ConnectionSpec connSpec = m_dmeConnFactory.getConnectionSpec();
-        connSpec.setURI("jdbc:oracle:thin:@"+dbconfig.formedURI()); 
-        connSpec.setName(dbconfig.getUsername()); 
-        connSpec.setPassword(dbconfig.getPassword());
-        m_dmeConn = m_dmeConnFactory.getConnection(connSpec); 
-        // 2. Clean up all previuosly created demo objects
-        clean();
-        // 3. Initialize factories for mining objects
-        initFactories();
-        // 4. Prepare data
-        prepareData();
-        // 5. Build a model
-        buildModel();
-        // 6. Apply the model
-        applyModel();
+        //1. Login to the Data Mining Engine and initialize factories
+        ctx = ClusteringContext.open(dbconfig.getUsername(), 
+          dbconfig.getPassword(), "jdbc:oracle:thin:@"+dbconfig.formedURI());
+        ctx.getOptions().setAlgorithm(algorithm);
+        // 2. Prepare data
+        prepareData(ctx);
+        // 3. Build a model, in the Java VM for the in-process algorithm
+        if ( DMKMDemo.isInProcessAlgorithm(ctx.getOptions().getAlgorithm()) ) {
+          buildModelInProcess(ctx);
+          // 4. The in-process model has no apply task in the mining engine
+          System.out.println("Apply is skipped for the in-process model.");
+          return;
+        }
+        buildModel(ctx);
+        // 4. Apply the model
+        applyModel(ctx);
     } catch(Exception anyExp) {
       anyExp.printStackTrace(System.out);
     } finally {
-      try {
-        // 7. Logout from the Data Mining Engine
-        m_dmeConn.close();
-      } catch(Exception anyExp1) { }//Ignore
+      if ( ctx != null ) {
+        // 5. Clean up the objects created by this run
+        clean(ctx);
+        // 6. Logout from the Data Mining Engine
+        ctx.close();
+      }
     }
   }
 
-  /**
-   * Initialize all object factories used in the demo program.
-   * 
-   * @exception JDMException if factory initalization failed
-   */
-  public static void initFactories() throws JDMException
-  {
-    m_pdsFactory = (PhysicalDataSetFactory)m_dmeConn.getFactory(
-      "javax.datamining.data.PhysicalDataSet");
-    m_paFactory = (PhysicalAttributeFactory)m_dmeConn.getFactory(
-      "javax.datamining.data.PhysicalAttribute");
-    m_clusFactory = (ClusteringSettingsFactory)m_dmeConn.getFactory(
-      "javax.datamining.clustering.ClusteringSettings");
-    m_kmeansFactory = (KMeansSettingsFactory)m_dmeConn.getFactory(
-      "javax.datamining.algorithm.kmeans.KMeansSettings");
-    m_buildFactory = (BuildTaskFactory)m_dmeConn.getFactory(
-      "javax.datamining.task.BuildTask");
-    m_dsApplyFactory = (DataSetApplyTaskFactory)m_dmeConn.getFactory(
-      "javax.datamining.task.apply.DataSetApplyTask");
-    m_applySettingsFactory = (ClusteringApplySettingsFactory)m_dmeConn.getFactory(
-      "javax.datamining.clustering.ClusteringApplySettings");
-    m_normalizeXformFactory = (OraNormalizeTransformFactory)m_dmeConn.getFactory(
-      "oracle.dmt.jdm.transform.normalize.OraNormalizeTransform");
-    m_textXformFactory = (OraTextTransformFactory)m_dmeConn.getFactory(
-    "oracle.dmt.jdm.transform.text.OraTextTransform");
-    m_xformTaskFactory = (OraTransformationTaskFactory)m_dmeConn.getFactory(
-      "oracle.dmt.jdm.task.OraTransformationTask");
-  }
-
   /**
    *   This method illustrates preparation of the data for the build and apply 
    * operations by using normalization transformation. 
@@ -219,12 +174,13 @@ public class TextMiningDemo extends Object{
    * 
    *   Unprepared Data        --->  Normalized Data
    *   ---------------------        ---------------------------
-   *   MINING_DATA_BUILD_V          KM_NORM_DATA_BUILD_JDM
-   *   MINING_DATA_TEST_V           KM_NORM_DATA_APPLY_JDM
+   *   MINING_DATA_BUILD_V          KM_NORM_DATA_BUILD_JDM_<run tag>
+   *   MINING_DATA_TEST_V           KM_NORM_DATA_APPLY_JDM_<run tag>
    *   
+   * @param ctx context of the current run
    * @exception JDMException if data normalization failed
    */
-  public static void prepareData() throws JDMException 
+  public static void prepareData(ClusteringContext ctx) throws JDMException 
   {
 	  System.out.println("---------------------------------------------------");    
       System.out.println("--- Prepare Data                                ---");
@@ -235,10 +191,10 @@ public class TextMiningDemo extends Object{
      
       // 1. Prepare build data
       inputDataURI = "MINING_BUILD_TEXT";
-      outputDataURI = "NESTED_TABLE_BUILD_TEXT";     
+      outputDataURI = ctx.objectName("NESTED_TABLE_BUILD_TEXT");     
 
       // Create OraTextTransform
-      OraTextTransform txtXform = (OraTextTransformImpl)m_textXformFactory.create(
+      OraTextTransform txtXform = (OraTextTransformImpl)ctx.getFactories().getTextTransformFactory().create(
     		  						inputDataURI, // name of the input data set
     		  						outputDataURI, // name of the transformation result
 								      "CUST_ID", // Case id column
@@ -246,14 +202,14 @@ public class TextMiningDemo extends Object{
      
 // Create transformation task
       System.out.println("sanku *** JDM transformation");
-      xformTask = m_xformTaskFactory.create(txtXform);
+      xformTask = ctx.getFactories().getTransformationTaskFactory().create(txtXform);
       txtXform.setTextColumnList( new String[] { "COMMENTS" }); // for nested column list
-      //executeTask(xformTask, "JDM_TEXTXFORM_TASK");
+      //executeTask(ctx, xformTask, ctx.objectName("JDM_TEXTXFORM_TASK"));
 // Save transformation task object
-      m_dmeConn.saveObject("JDM_TEXTXFORM_TASK", xformTask, true);
+      ctx.getConnection().saveObject(ctx.objectName("JDM_TEXTXFORM_TASK"), xformTask, true);
 // Execute transformation task asynchronously in the database
       System.out.println("sanku *** getting execHandle JDM transformation");
-      ExecutionHandle execHandle = m_dmeConn.execute("JDM_TEXTXFORM_TASK");
+      ExecutionHandle execHandle = ctx.getConnection().execute(ctx.objectName("JDM_TEXTXFORM_TASK"));
      
 // Wait for completion of the task
       ExecutionStatus execStatus = execHandle.waitForCompletion
@@ -262,36 +218,66 @@ public class TextMiningDemo extends Object{
       // 2. Prepare apply data
      /* isOutputAsView = true;
       inputDataURI = "MINING_DATA_APPLY_V";
-      outputDataURI = "KM_NORM_DATA_APPLY_JDM";
+      outputDataURI = ctx.objectName("KM_NORM_DATA_APPLY_JDM");
       inputNormalizationDefinitionTable = buildDataXform.getNormalizationDefinitionTable();
       OraNormalizeTransformImpl applyDataXform = 
-          (OraNormalizeTransformImpl)m_normalizeXformFactory.create(
+          (OraNormalizeTransformImpl)ctx.getFactories().getNormalizeTransformFactory().create(
                               inputDataURI, outputDataURI, isOutputAsView, 
                               inputNormalizationDefinitionTable);
-      xformTask = m_xformTaskFactory.create(applyDataXform);
-      executeTask(xformTask, "kmcPrepareApplyTask_jdm");  */
+      xformTask = ctx.getFactories().getTransformationTaskFactory().create(applyDataXform);
+      executeTask(ctx, xformTask, ctx.objectName("kmcPrepareApplyTask_jdm"));  */
   }
 
   /**
    *   This method illustrates how to build a mining model using 
    * "KM_NORM_DATA_BUILD_JDM" dataset with the kMeans algorithm.
    * 
-   * After completing the build task, the model named "kmModel_jdm" will 
-   * be created.
+   * After completing the build task, the model named "kmModel_jdm_<run tag>" 
+   * will be created.
    * 
+   * @param ctx context of the current run
    * @exception JDMException if model build failed
    */
-  public static void buildModel() throws JDMException 
+  public static void buildModel(ClusteringContext ctx) throws JDMException 
   {
       // 1. Create & save PhysicalDataSpecification      
-      PhysicalDataSet buildData = m_pdsFactory.create("KM_NORM_DATA_BUILD_JDM", false);
-      PhysicalAttribute pa = m_paFactory.create("cust_id", 
+      PhysicalDataSet buildData = ctx.getFactories().getPhysicalDataSetFactory().create(ctx.objectName("KM_NORM_DATA_BUILD_JDM"), false);
+      PhysicalAttribute pa = ctx.getFactories().getPhysicalAttributeFactory().create("cust_id", 
         AttributeDataType.integerType, PhysicalAttributeRole.caseId );
       buildData.addAttribute(pa);
-      m_dmeConn.saveObject("kmBuildData_jdm", buildData, true);
+      ctx.getConnection().saveObject(ctx.objectName("kmBuildData_jdm"), buildData, true);
       // 2. Create & save Mining Function Settings
+      ClusteringSettings buildSettings = createBuildSettings(ctx);
+      System.out.println("sanku *** clusters  " + buildSettings.getMaxNumberOfClusters());
+      ctx.getConnection().saveObject(ctx.objectName("kmBuildSettings_jdm"), buildSettings, true);
+      // 3. Create, save & execute Build Task      
+      BuildTask buildTask = ctx.getFactories().getBuildTaskFactory().create(
+                     ctx.objectName("kmBuildData_jdm"), //Build data specification
+                     ctx.objectName("kmBuildSettings_jdm"), //Mining function settings name
+                     ctx.objectName("kmModel_jdm") //Mining model name
+                     );                          
+      buildTask.setDescription(ctx.objectName("kmBuildTask_jdm"));
+      executeTask(ctx, buildTask, ctx.objectName("kmBuildTask_jdm")); 
+      // 4. Restore the model from the DME and explore the details of the model
+      ClusteringModel model = (ClusteringModel)
+        ctx.getConnection().retrieveObject(ctx.objectName("kmModel_jdm"), NamedObject.model);
+      displayKMModelDetails(model);
+  }        
+
+  /**
+   * Creates the clustering settings with the kMeans algorithm settings used 
+   * by both the mining engine build and the in-process build of the text 
+   * model.
+   * 
+   * @param ctx context of the current run
+   * @return clustering settings holding the kMeans algorithm settings
+   * @exception JDMException if the settings could not be created
+   */
+  public static ClusteringSettings createBuildSettings(ClusteringContext ctx) 
+    throws JDMException 
+  {
       // Create kMeans algorithm settings
-      OraKMeansSettings kmAlgo = (OraKMeansSettings)m_kmeansFactory.create();
+      OraKMeansSettings kmAlgo = (OraKMeansSettings)ctx.getFactories().getKMeansSettingsFactory().create();
       kmAlgo.setDistanceFunction(ClusteringDistanceFunction.euclidean);
       kmAlgo.setMaxNumberOfIterations(20); // == no of clusters
       kmAlgo.setMinErrorTolerance(0.01);
@@ -300,57 +286,128 @@ public class TextMiningDemo extends Object{
       kmAlgo.setBlockGrowth(2); // 1 < value < 6
       kmAlgo.setMinPercentageAtrrSupport(0.1);
       
-      // 3. Create ClusteringSettings
-      ClusteringSettings buildSettings = m_clusFactory.create();
+      // Create ClusteringSettings
+      ClusteringSettings buildSettings = ctx.getFactories().getClusteringSettingsFactory().create();
       buildSettings.setAlgorithmSettings(kmAlgo);
-      int clusters = 10;
-      System.out.println("sanku *** clusters  " + clusters);
-      buildSettings.setMaxNumberOfClusters(clusters); //
-      m_dmeConn.saveObject("kmBuildSettings_jdm", buildSettings, true);
-      // 4. Create, save & execute Build Task      
-      BuildTask buildTask = m_buildFactory.create(
-                     "kmBuildData_jdm", //Build data specification
-                     "kmBuildSettings_jdm", //Mining function settings name
-                     "kmModel_jdm" //Mining model name
-                     );                          
-      buildTask.setDescription("kmBuildTask_jdm");
-      executeTask(buildTask, "kmBuildTask_jdm"); 
-      // 5. Restore the model from the DME and explore the details of the model
-      ClusteringModel model = (ClusteringModel)
-        m_dmeConn.retrieveObject("kmModel_jdm", NamedObject.model);
-      displayKMModelDetails(model);
-  }        
+      buildSettings.setMaxNumberOfClusters(10);
+      return buildSettings;
+  }
+
+  /**
+   * Creates the configuration of the in-process text build from the 
+   * settings of <code>createBuildSettings</code>.
+   * 
+   * @param ctx context of the current run
+   * @return configuration with the cluster count, iterations and error 
+   *         tolerance of the kMeans build settings
+   * @exception JDMException if the settings could not be created
+   */
+  public static KMeansConfig createBuildConfig(ClusteringContext ctx) 
+    throws JDMException 
+  {
+      ClusteringSettings buildSettings = createBuildSettings(ctx);
+      return KMeansConfig.fromSettings(
+        (OraKMeansSettings)buildSettings.getAlgorithmSettings(), buildSettings);
+  }
+
+  /**
+   *   This method clusters the term tables "NESTED_TABLE_BUILD_TEXT" built by 
+   * <code>prepareData</code> inside the Java VM instead of the mining engine. 
+   * The COMMENTS terms of each case are read as a sparse TF-IDF vector and 
+   * clustered by cosine similarity with <code>SphericalKMeans</code>, using 
+   * the cluster count, iterations and error tolerance of 
+   * <code>createBuildSettings</code>, as <code>buildModel</code> does. No model object is created in the database.
+   * 
+   * @param ctx context of the current run
+   * @return the model built in-process
+   * @exception JDMException if the settings could not be created
+   * @exception SQLException if the term tables could not be read
+   */
+  public static LocalClusteringModel buildModelInProcess(ClusteringContext ctx) 
+    throws JDMException, SQLException 
+  {
+      KMeansConfig config = createBuildConfig(ctx);
+      // 1. Extract the term tables as TF-IDF document vectors
+      SparseDataset buildData = TextDataLoader.load(ctx.getDatabaseConnection(), 
+        ctx.objectName("NESTED_TABLE_BUILD_TEXT"), "CUST_ID", "COMMENTS").toTfIdf();
+      System.out.println("Documents: " + buildData.getRowCount() + 
+        ", terms: " + buildData.getTermCount());
+      // 2. Build the model and explore its details
+      LocalClusteringModel model = new SphericalKMeans(config).build(buildData, 
+        ctx.objectName("kmModel_jdm"));
+      DMKMDemo.displayKMModelDetails(model);
+      displayTopTerms(model, 10);
+      return model;
+  }
+
+  /**
+   * This method shows the terms of highest centroid weight of each leaf 
+   * cluster of a text model built in-process.
+   * 
+   * @param model model being presented
+   * @param count number of terms shown per cluster
+   */
+  public static void displayTopTerms(LocalClusteringModel model, int count)
+  {
+    String[] terms = model.getAttributeNames();
+    for ( int c = 0; c < model.getNumberOfLeafClusters(); c++ ) {
+      LocalCluster cluster = model.getLeafCluster(c);
+      double[] centroid = cluster.getCentroid();
+      // partial selection of the count largest weights
+      int[] top = new int[Math.min(count, centroid.length)];
+      int found = 0;
+      for ( int t = 0; t < centroid.length; t++ ) {
+        if ( centroid[t] <= 0.0 )
+          continue;
+        int pos = found < top.length ? found++ : top.length;
+        while ( pos > 0 && centroid[top[pos - 1]] < centroid[t] ) {
+          if ( pos < top.length )
+            top[pos] = top[pos - 1];
+          pos--;
+        }
+        if ( pos < top.length )
+          top[pos] = t;
+      }
+      StringBuffer sb = new StringBuffer(TAB + "Cluster Id: " + 
+        cluster.getClusterId() + " terms:");
+      for ( int i = 0; i < found; i++ )
+        sb.append(" " + terms[top[i]]);
+      System.out.println(sb.toString());
+    }
+  }
   
   /**
    * 
    *    For a descriptive mining function like Clustering, "Scoring" involves
    *  providing the probability values for each cluster.
    *    After completing the apply task, an apply output table 
-   * "km_apply_output_jdm" will be created at the user specfied location.
+   * "km_apply_output_jdm_<run tag>" will be created at the user specfied 
+   * location.
    * 
+   * @param ctx context of the current run
    * @exception JDMException if model apply failed
    */
-  public static void applyModel() throws JDMException
+  public static void applyModel(ClusteringContext ctx) throws JDMException
   {    
       //1. Create & save PhysicalDataSpecification      
-      PhysicalDataSet applyData = m_pdsFactory.create(
-        "KM_NORM_DATA_APPLY_JDM", false );
-      PhysicalAttribute pa = m_paFactory.create("cust_id", 
+      PhysicalDataSet applyData = ctx.getFactories().getPhysicalDataSetFactory().create(
+        ctx.objectName("KM_NORM_DATA_APPLY_JDM"), false );
+      PhysicalAttribute pa = ctx.getFactories().getPhysicalAttributeFactory().create("cust_id", 
         AttributeDataType.integerType, PhysicalAttributeRole.caseId );
       applyData.addAttribute( pa );
-      m_dmeConn.saveObject( "kmApplyData_jdm", applyData, true );
+      ctx.getConnection().saveObject( ctx.objectName("kmApplyData_jdm"), applyData, true );
       //2. Create & save ClassificationApplySettings
-      ClusteringApplySettings clusAS = m_applySettingsFactory.create();
-      m_dmeConn.saveObject( "kmApplySettings_jdm", clusAS, true);
+      ClusteringApplySettings clusAS = ctx.getFactories().getApplySettingsFactory().create();
+      ctx.getConnection().saveObject( ctx.objectName("kmApplySettings_jdm"), clusAS, true);
             
       //3. Create, store & execute apply Task
-      DataSetApplyTask applyTask = m_dsApplyFactory.create(
-          "kmApplyData_jdm", 
-          "kmModel_jdm", 
-          "kmApplySettings_jdm", "km_apply_output_jdm");
-      executeTask(applyTask, "kmApplyTask_jdm");
+      DataSetApplyTask applyTask = ctx.getFactories().getDataSetApplyTaskFactory().create(
+          ctx.objectName("kmApplyData_jdm"), 
+          ctx.objectName("kmModel_jdm"), 
+          ctx.objectName("kmApplySettings_jdm"), ctx.objectName("km_apply_output_jdm"));
+      executeTask(ctx, applyTask, ctx.objectName("kmApplyTask_jdm"));
       //4. Display results
-      displayScoringResults();
+      displayScoringResults(ctx);
   } 
 
   /**
@@ -359,9 +416,12 @@ public class TextMiningDemo extends Object{
    * dataset have been grouped. 
    *   BUSINESS CASE 2: List ten most representative (based on likelihood) 
    * customers of cluster 2.
+   * 
+   * @param ctx context of the current run
    */
-  public static void displayScoringResults()
+  public static void displayScoringResults(ClusteringContext ctx)
   {
+      String applyOutputTable = ctx.objectName("km_apply_output_jdm");
       // BUSINESS CASE 1: List the clusters into which the customers in this
       // dataset have been grouped. 
       String sqlCase1 = 
@@ -369,15 +429,14 @@ public class TextMiningDemo extends Object{
         " (SELECT cluster_id CLUS, " +
         "   ROW_NUMBER() OVER " +
         "          (PARTITION BY CUST_ID ORDER BY PROBABILITY DESC) CLUS_RNK " +
-        " FROM km_apply_output_jdm) " +
+        " FROM " + applyOutputTable + ") " +
         "WHERE CLUS_RNK = 1 " +
         "GROUP BY CLUS ORDER BY CNT DESC";
     
 
       Statement stmt = null;
       ResultSet rs = null;
-      java.sql.Connection dbConn = 
-        ((OraConnection)m_dmeConn).getDatabaseConnection();
+      java.sql.Connection dbConn = ctx.getDatabaseConnection();
       try {
         stmt = dbConn.createStatement();
         rs = stmt.executeQuery(sqlCase1); 
@@ -403,12 +462,12 @@ public class TextMiningDemo extends Object{
      
      /* String sqlCase2 = 
         "SELECT * from " + 
-        " (SELECT cust_id, probability from km_apply_output_jdm " +
+        " (SELECT cust_id, probability from " + applyOutputTable + " " +
         " WHERE CLUSTER_ID = 2 ORDER BY probability DESC) " +
         "WHERE ROWNUM < 11";*/
       String sqlCase2 = 
           "SELECT * from " + 
-          " (SELECT * from km_apply_output_jdm " +
+          " (SELECT * from " + applyOutputTable + " " +
           " WHERE CLUSTER_ID = 2 ORDER BY probability DESC) " +
           "WHERE ROWNUM < 11";
       
@@ -448,18 +507,19 @@ public class TextMiningDemo extends Object{
    * completing the task successfully it returns true. If there is a task 
    * failure, then it prints the error description and returns false.
    * 
+   * @param ctx context of the current run
    * @param taskObj task object
    * @param taskName name of the task
    * 
    * @return boolean returns true when the task is successful
    * @exception JDMException if task execution failed
    */
-  public static boolean executeTask(Task taskObj, String taskName)
-    throws JDMException 
+  public static boolean executeTask(ClusteringContext ctx, Task taskObj, 
+    String taskName) throws JDMException 
   {
     boolean isTaskSuccess = false;
-    m_dmeConn.saveObject(taskName, taskObj, true);
-    ExecutionHandle execHandle = m_dmeConn.execute(taskName);
+    ctx.getConnection().saveObject(taskName, taskObj, true);
+    ExecutionHandle execHandle = ctx.getConnection().execute(taskName);
     System.out.print(taskName + " is started, please wait. ");
     //Wait for completion of the task
     ExecutionStatus status = execHandle.waitForCompletion(Integer.MAX_VALUE);    
@@ -903,51 +963,19 @@ public class TextMiningDemo extends Object{
     }
   }
   
-  private static void clean() 
+  /**
+   * Drops all objects created by the run of the given context, including the 
+   * text transformation output. 
+   * 
+   * @param ctx context of the run to clean up
+   */
+  private static void clean(ClusteringContext ctx) 
   {
-	  
-	  System.out.println("inside clean");
-    //Drop the model
+    DMKMDemo.clean(ctx);
     try {
-      m_dmeConn.removeObject("kmModel_jdm", NamedObject.model);
+      ctx.getConnection().removeObject(ctx.objectName("JDM_TEXTXFORM_TASK"), NamedObject.task);
     } catch(JDMException jdmExp) {}
-    //Drop apply output table
-    java.sql.Connection dbConn = 
-      ((OraConnection)m_dmeConn).getDatabaseConnection();
-    Statement stmt = null;
-    try 
-    {
-      stmt = dbConn.createStatement();
-      stmt.executeUpdate("DROP VIEW KM_NORM_DATA_BUILD_JDM");   
-    } catch(SQLException anySqlExp) {}//Ignore
-    finally{
-      try {
-        stmt.close();
-      }
-      catch(Exception anySqlExp){}
-    }
-    try 
-    {
-      stmt = dbConn.createStatement();
-      stmt.executeUpdate("DROP VIEW KM_NORM_DATA_APPLY_JDM"); 
-    } catch(SQLException anySqlExp) {}//Ignore
-    finally{
-      try {
-        stmt.close();
-      }
-      catch(Exception anySqlExp){}
-    }
-    try 
-    {
-      stmt = dbConn.createStatement();
-      stmt.executeUpdate("DROP TABLE KM_APPLY_OUTPUT_JDM");      
-    } catch(SQLException anySqlExp) {}//Ignore
-    finally{
-      try {
-        stmt.close();
-      }
-      catch(Exception anySqlExp){}
-    }
+    DMKMDemo.dropDatabaseObject(ctx, "DROP TABLE " + ctx.objectName("NESTED_TABLE_BUILD_TEXT"));
   }
 }
 
@@ -0,0 +1,113 @@
+package clustering;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * This class implements the distance kernels with the SIMD instructions of
+ * the machine through the jdk.incubator.vector API, at the widest vector
+ * shape the machine supports (e.g. 4 doubles with AVX2, 8 with AVX-512).
+ * The tail of a row that does not fill a vector is handled in scalar code.
+ *
+ *   It is only loaded by <code>DistanceKernel</code> through reflection, so
+ * the rest of the package runs without the incubator module.
+ */
+class VectorDistanceKernel extends DistanceKernel {
+  private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+  public String getName() {
+    return "vector" + SPECIES.length();
+  }
+
+  boolean isSupported() {
+    return SPECIES.length() >= 2;
+  }
+
+  public double dot(double[] a, int aOff, double[] b, int bOff, int d) {
+    DoubleVector acc = DoubleVector.zero(SPECIES);
+    int upper = SPECIES.loopBound(d);
+    int j = 0;
+    for (; j < upper; j += SPECIES.length()) {
+      DoubleVector va = DoubleVector.fromArray(SPECIES, a, aOff + j);
+      DoubleVector vb = DoubleVector.fromArray(SPECIES, b, bOff + j);
+      acc = va.fma(vb, acc);
+    }
+    double sum = acc.reduceLanes(VectorOperators.ADD);
+    for (; j < d; j++)
+      sum += a[aOff + j] * b[bOff + j];
+    return sum;
+  }
+
+  public double squaredDistance(double[] a, int aOff, double[] b, int bOff, int d) {
+    DoubleVector acc = DoubleVector.zero(SPECIES);
+    int upper = SPECIES.loopBound(d);
+    int j = 0;
+    for (; j < upper; j += SPECIES.length()) {
+      DoubleVector diff = DoubleVector.fromArray(SPECIES, a, aOff + j)
+        .sub(DoubleVector.fromArray(SPECIES, b, bOff + j));
+      acc = diff.fma(diff, acc);
+    }
+    double sum = acc.reduceLanes(VectorOperators.ADD);
+    for (; j < d; j++) {
+      double diff = a[aOff + j] - b[bOff + j];
+      sum += diff * diff;
+    }
+    return sum;
+  }
+
+  public double weightedSquaredDistance(double[] a, int aOff, double[] b,
+    int bOff, double[] w, int wOff, int d)
+  {
+    DoubleVector acc = DoubleVector.zero(SPECIES);
+    int upper = SPECIES.loopBound(d);
+    int j = 0;
+    for (; j < upper; j += SPECIES.length()) {
+      DoubleVector diff = DoubleVector.fromArray(SPECIES, a, aOff + j)
+        .sub(DoubleVector.fromArray(SPECIES, b, bOff + j));
+      acc = diff.mul(diff).fma(DoubleVector.fromArray(SPECIES, w, wOff + j), acc);
+    }
+    double sum = acc.reduceLanes(VectorOperators.ADD);
+    for (; j < d; j++) {
+      double diff = a[aOff + j] - b[bOff + j];
+      sum += diff * diff * w[wOff + j];
+    }
+    return sum;
+  }
+
+  void dot4(double[] x, int xOff, double[] c, int cOff, int d, double[] out,
+    int outOff)
+  {
+    DoubleVector acc0 = DoubleVector.zero(SPECIES);
+    DoubleVector acc1 = acc0;
+    DoubleVector acc2 = acc0;
+    DoubleVector acc3 = acc0;
+    int c1 = cOff + d;
+    int c2 = c1 + d;
+    int c3 = c2 + d;
+    int upper = SPECIES.loopBound(d);
+    int j = 0;
+    for (; j < upper; j += SPECIES.length()) {
+      DoubleVector v = DoubleVector.fromArray(SPECIES, x, xOff + j);
+      acc0 = v.fma(DoubleVector.fromArray(SPECIES, c, cOff + j), acc0);
+      acc1 = v.fma(DoubleVector.fromArray(SPECIES, c, c1 + j), acc1);
+      acc2 = v.fma(DoubleVector.fromArray(SPECIES, c, c2 + j), acc2);
+      acc3 = v.fma(DoubleVector.fromArray(SPECIES, c, c3 + j), acc3);
+    }
+    double s0 = acc0.reduceLanes(VectorOperators.ADD);
+    double s1 = acc1.reduceLanes(VectorOperators.ADD);
+    double s2 = acc2.reduceLanes(VectorOperators.ADD);
+    double s3 = acc3.reduceLanes(VectorOperators.ADD);
+    for (; j < d; j++) {
+      double v = x[xOff + j];
+      s0 += v * c[cOff + j];
+      s1 += v * c[c1 + j];
+      s2 += v * c[c2 + j];
+      s3 += v * c[c3 + j];
+    }
+    out[outOff] = s0;
+    out[outOff + 1] = s1;
+    out[outOff + 2] = s2;
+    out[outOff + 3] = s3;
+  }
+}
@@ -31,6 +31,7 @@
          <td nowrap="nowrap"><select name="algorithm">
          <option value="kmeans">kmeans</option>
          <option value="bayesian">Bayesian</option>
+         <option value="kmeans-inprocess">kmeans (in-process)</option>
          </select></td>
     </tr>
     <tr>
@@ -0,0 +1,44 @@
+package clustering;
+
+/**
+ * This class runs the unit tests of the in-process engines. Each test is a
+ * class whose <code>main</code> throws an <code>AssertionError</code> or
+ * another exception when a check fails. The tests need the sources, the JDM
+ * API jar (for <code>KMeansConfig</code>) and the vector module:
+ *
+ *   javac --add-modules jdk.incubator.vector -cp jdm.jar -d out *.java test/*.java
+ *   java --add-modules jdk.incubator.vector -cp out:jdm.jar clustering.AllTests
+ *
+ * The exit status is the number of failed tests.
+ */
+public class AllTests {
+  private static final String[] TESTS = {
+    "clustering.HamerlyBoundsTest",
+    "clustering.ParallelAssignmentTest",
+    "clustering.DistanceKernelTest",
+    "clustering.KMeansParallelSeederTest",
+    "clustering.GaussianMixtureEMTest",
+    "clustering.CompactDatasetTest",
+    "clustering.ModelFileTest",
+    "clustering.ModelRegistryTest",
+    "clustering.MicroBatchScorerTest",
+  };
+
+  public static void main(String[] args) throws Exception {
+    int failed = 0;
+    for (int i = 0; i < TESTS.length; i++) {
+      try {
+        Class.forName(TESTS[i]).getMethod("main", String[].class)
+          .invoke(null, (Object)new String[0]);
+        System.out.println("PASS " + TESTS[i]);
+      } catch (java.lang.reflect.InvocationTargetException e) {
+        failed++;
+        System.out.println("FAIL " + TESTS[i]);
+        e.getCause().printStackTrace(System.out);
+      }
+    }
+    System.out.println((TESTS.length - failed) + " of " + TESTS.length +
+      " tests passed");
+    System.exit(failed);
+  }
+}
@@ -0,0 +1,69 @@
+package clustering;
+
+/**
+ * Checks that every value decoded from a <code>CompactDataset</code> is
+ * within the error it states: half a grid step per attribute for codes, one
+ * float rounding for floats, also after the data is normalized in place.
+ * An attribute of a single value is stored exactly.
+ */
+public class CompactDatasetTest {
+  public static void main(String[] args) {
+    MiningDataset data = withConstantAttribute(TestData.blobs(2000, 4, 5, 13L));
+    CompactDataset.Encoding[] encodings = CompactDataset.Encoding.values();
+    for (int e = 0; e < encodings.length; e++) {
+      CompactDataset compact = CompactDataset.encode(data, encodings[e]);
+      withinStatedError(data, compact, null, null);
+      double[] shift = { 0.5, -1.0, 2.0, 0.25, 7.0 };
+      double[] scale = { 2.0, 0.5, 3.0, 0.125, 1.0 };
+      compact.normalize(shift, scale);
+      withinStatedError(data, compact, shift, scale);
+    }
+  }
+
+  private static MiningDataset withConstantAttribute(MiningDataset data) {
+    int n = data.getRowCount();
+    int d = data.getAttributeCount();
+    double[] values = new double[n * (d + 1)];
+    long[] caseIds = new long[n];
+    String[] names = new String[d + 1];
+    System.arraycopy(data.getAttributeNames(), 0, names, 0, d);
+    names[d] = "CONSTANT";
+    for (int i = 0; i < n; i++) {
+      System.arraycopy(data.getValues(), i * d, values, i * (d + 1), d);
+      values[i * (d + 1) + d] = 7.0;
+      caseIds[i] = data.getCaseId(i);
+    }
+    return new MiningDataset(names, caseIds, values, n);
+  }
+
+  private static void withinStatedError(MiningDataset data,
+    CompactDataset compact, double[] shift, double[] scale)
+  {
+    int n = data.getRowCount();
+    int d = data.getAttributeCount();
+    String what = compact.getEncoding() + (shift == null ? "" : " normalized");
+    double[] decoded = new double[n * d];
+    compact.decode(0, n, decoded);
+    for (int j = 0; j < d; j++) {
+      double maxError = compact.getMaxError(j);
+      if (j == d - 1)
+        TestData.check(maxError == 0.0, what + ": constant attribute has an error");
+      for (int i = 0; i < n; i++) {
+        double raw = data.getValue(i, j);
+        double factor = shift == null ? 1.0 : 1.0 / scale[j];
+        double expected = shift == null ? raw : (raw - shift[j]) * factor;
+        double actual = decoded[i * d + j];
+        TestData.check(actual == compact.getValue(i, j),
+          what + ": decode and getValue differ at row " + i);
+        // a float is within half an ulp of the raw value, and normalized
+        // floats are rounded once more
+        double tolerance = compact.getEncoding() == CompactDataset.Encoding.FLOAT32 ?
+          0.5 * Math.ulp((float)raw) * factor +
+            (shift == null ? 0.0 : Math.ulp((float)expected)) :
+          maxError * (1.0 + 1e-9) + 1e-12;
+        TestData.checkClose(expected, actual, tolerance,
+          what + ": row " + i + ", attribute " + j);
+      }
+    }
+  }
+}
@@ -0,0 +1,81 @@
+package clustering;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Checks that <code>VectorDistanceKernel</code> agrees with
+ * <code>ScalarDistanceKernel</code>: every kernel for row lengths that do
+ * and do not fill whole vectors, at offsets into the arrays, and the
+ * nearest centroid search over a data set.
+ */
+public class DistanceKernelTest {
+  public static void main(String[] args) {
+    DistanceKernel scalar = new ScalarDistanceKernel();
+    DistanceKernel vector = new VectorDistanceKernel();
+    if (!vector.isSupported()) {
+      System.out.println("Vector kernel not supported on this machine");
+      return;
+    }
+    Random random = new Random(17L);
+    for (int d = 1; d <= 19; d++)
+      sameKernels(scalar, vector, d, random);
+    sameNearest(scalar, vector);
+  }
+
+  private static void sameKernels(DistanceKernel scalar, DistanceKernel vector,
+    int d, Random random)
+  {
+    int aOff = 3;
+    int bOff = 5;
+    double[] a = values(random, aOff + d);
+    double[] b = values(random, bOff + 4 * d);
+    double[] w = values(random, d);
+    check("dot", d, scalar.dot(a, aOff, b, bOff, d), vector.dot(a, aOff, b, bOff, d));
+    check("squaredDistance", d, scalar.squaredDistance(a, aOff, b, bOff, d),
+      vector.squaredDistance(a, aOff, b, bOff, d));
+    check("weightedSquaredDistance", d,
+      scalar.weightedSquaredDistance(a, aOff, b, bOff, w, 0, d),
+      vector.weightedSquaredDistance(a, aOff, b, bOff, w, 0, d));
+    double[] expected = new double[6];
+    double[] actual = new double[6];
+    scalar.dot4(a, aOff, b, bOff, d, expected, 2);
+    vector.dot4(a, aOff, b, bOff, d, actual, 2);
+    for (int q = 2; q < 6; q++)
+      check("dot4[" + (q - 2) + "]", d, expected[q], actual[q]);
+  }
+
+  private static void sameNearest(DistanceKernel scalar, DistanceKernel vector) {
+    MiningDataset data = TestData.blobs(3000, 13, 9, 23L);
+    int n = data.getRowCount();
+    int d = data.getAttributeCount();
+    int k = 9;
+    double[] centroids = TestData.spreadRows(data, k);
+    double[] norms = new double[k];
+    scalar.squaredNorms(centroids, k, d, norms);
+    double[] scratch = new double[DistanceKernel.SCRATCH_LENGTH];
+    int[] expected = new int[n];
+    int[] actual = new int[n];
+    scalar.nearest(data.getValues(), 0, n, d, centroids, norms, k, expected,
+      scratch);
+    vector.nearest(data.getValues(), 0, n, d, centroids, norms, k, actual,
+      scratch);
+    TestData.check(Arrays.equals(expected, actual),
+      "nearest centroids differ between the kernels");
+  }
+
+  private static double[] values(Random random, int length) {
+    double[] values = new double[length];
+    for (int i = 0; i < length; i++)
+      values[i] = random.nextDouble() * 2.0 - 1.0;
+    return values;
+  }
+
+  private static void check(String kernel, int d, double expected,
+    double actual)
+  {
+    // the vector kernel only adds in another order
+    TestData.checkClose(expected, actual, 1e-12 * Math.max(1.0, d),
+      kernel + " with d=" + d);
+  }
+}
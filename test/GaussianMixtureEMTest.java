@@ -0,0 +1,55 @@
+package clustering;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Checks that the log-likelihood of an EM build never decreases from one
+ * iteration to the next, on one thread and on several, and that the model
+ * keeps the log-likelihood of its last iteration.
+ */
+public class GaussianMixtureEMTest {
+  public static void main(String[] args) {
+    MiningDataset data = TestData.blobs(6000, 3, 4, 31L);
+    for (int parallelism = 1; parallelism <= 4; parallelism *= 4)
+      neverDecreases(data, parallelism);
+  }
+
+  private static void neverDecreases(MiningDataset data, int parallelism) {
+    KMeansConfig config = new KMeansConfig();
+    // more components than centers, so that EM has work left after the
+    // k-Means start
+    config.setNumberOfClusters(6);
+    config.setMaxNumberOfIterations(40);
+    config.setMinErrorTolerance(0.0);
+    config.setRandomSeed(3L);
+    config.setParallelism(parallelism);
+    final List<Double> logLikelihoods = new ArrayList<Double>();
+    GaussianMixtureEM em = new GaussianMixtureEM(config);
+    em.setProgressListener(new ProgressListener() {
+      public boolean iterationFinished(int iteration, double error,
+        double improvement, double tolerance)
+      {
+        logLikelihoods.add(Double.valueOf(-error));
+        return true;
+      }
+    });
+    GaussianMixtureModel model = em.build(data, "gmm");
+    String where = " with parallelism " + parallelism;
+    TestData.check(logLikelihoods.size() == model.getIterations(),
+      "listener missed iterations" + where);
+    TestData.check(logLikelihoods.size() > 1, "EM stopped after one iteration" +
+      where);
+    for (int it = 1; it < logLikelihoods.size(); it++) {
+      double previous = logLikelihoods.get(it - 1).doubleValue();
+      double current = logLikelihoods.get(it).doubleValue();
+      // allow for rounding in the sums of the E-step
+      TestData.check(current >= previous - 1e-9 * Math.abs(previous),
+        "log-likelihood fell from " + previous + " to " + current +
+        " in iteration " + (it + 1) + where);
+    }
+    TestData.checkClose(logLikelihoods.get(logLikelihoods.size() - 1)
+      .doubleValue(), model.getLogLikelihood(), 0.0,
+      "log-likelihood of the model" + where);
+  }
+}
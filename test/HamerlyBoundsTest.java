@@ -0,0 +1,83 @@
+package clustering;
+
+import java.util.Arrays;
+
+/**
+ * Checks that the assignment through <code>HamerlyBounds</code> is the
+ * assignment of a plain Lloyd iteration in every iteration, and that an
+ * accelerated build ends with the model of an unaccelerated one.
+ */
+public class HamerlyBoundsTest {
+  public static void main(String[] args) {
+    sameAssignmentEveryIteration();
+    sameModel();
+  }
+
+  private static void sameAssignmentEveryIteration() {
+    MiningDataset data = TestData.blobs(5000, 6, 8, 7L);
+    int n = data.getRowCount();
+    int d = data.getAttributeCount();
+    int k = 8;
+    double[] x = data.getValues();
+    double[] centroids = TestData.spreadRows(data, k);
+    double[] scratch = new double[Math.max(DistanceKernel.SCRATCH_LENGTH, k)];
+    double[] norms = new double[k];
+    int[] lloyd = new int[n];
+    int[] hamerly = new int[n];
+    HamerlyBounds bounds = new HamerlyBounds(x, n, d, k, hamerly);
+    long[] skipped = new long[20];
+    for (int it = 0; it < skipped.length; it++) {
+      double[] sums = new double[k * d];
+      long[] counts = new long[k];
+      DistanceKernel.get().squaredNorms(centroids, k, d, norms);
+      double error = KMeansEngine.assignAndAccumulate(x, 0, n, d, centroids,
+        norms, k, lloyd, sums, counts, scratch);
+
+      double[] boundedSums = new double[k * d];
+      long[] boundedCounts = new long[k];
+      bounds.prepare(centroids);
+      double boundedError = bounds.assign(0, n, centroids, boundedSums,
+        boundedCounts, skipped, it, scratch);
+
+      TestData.check(Arrays.equals(lloyd, hamerly),
+        "assignments differ in iteration " + (it + 1));
+      TestData.check(Arrays.equals(counts, boundedCounts),
+        "counts differ in iteration " + (it + 1));
+      TestData.checkClose(error, boundedError, 1e-9 * error,
+        "error of iteration " + (it + 1));
+      KMeansEngine.updateCentroids(centroids, sums, counts, k, d);
+    }
+    TestData.check(skipped[0] == 0L, "the first iteration has no bounds");
+    TestData.check(skipped[skipped.length - 1] > 0L,
+      "no distance evaluations skipped once the centroids settled");
+  }
+
+  private static void sameModel() {
+    MiningDataset data = TestData.blobs(4000, 5, 6, 11L);
+    LocalClusteringModel plain = build(data, false);
+    LocalClusteringModel accelerated = build(data, true);
+    TestData.check(plain.getIterations() == accelerated.getIterations(),
+      "iterations differ");
+    double[] expected = plain.getLeafCentroids();
+    double[] actual = accelerated.getLeafCentroids();
+    for (int i = 0; i < expected.length; i++)
+      TestData.checkClose(expected[i], actual[i], 1e-12, "centroid value " + i);
+    for (int c = 0; c < plain.getNumberOfLeafClusters(); c++)
+      TestData.check(plain.getLeafCluster(c).getCaseCount() ==
+        accelerated.getLeafCluster(c).getCaseCount(),
+        "case count of leaf " + c + " differs");
+    TestData.check(accelerated.getSkippedDistances() != null,
+      "accelerated build reports no skipped distances");
+  }
+
+  private static LocalClusteringModel build(MiningDataset data,
+    boolean accelerated)
+  {
+    KMeansConfig config = new KMeansConfig();
+    config.setNumberOfClusters(6);
+    config.setMaxNumberOfIterations(30);
+    config.setRandomSeed(5L);
+    config.setAccelerated(accelerated);
+    return new KMeansEngine(config).build(data, "m");
+  }
+}
@@ -0,0 +1,56 @@
+package clustering;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Checks that the k-means|| seeder is deterministic: the same seed gives
+ * the same centroids again, with or without a pool of any size, and every
+ * centroid is one of the cases.
+ */
+public class KMeansParallelSeederTest {
+  private static final int K = 10;
+  private static final long SEED = 42L;
+
+  public static void main(String[] args) {
+    MiningDataset data = TestData.blobs(12000, 4, K, 9L);
+    double[] x = data.getValues();
+    int n = data.getRowCount();
+    int d = data.getAttributeCount();
+    double[] expected = seed(x, n, d, null, SEED);
+    TestData.check(expected.length == K * d, "wrong number of centroid values");
+    TestData.check(Arrays.equals(expected, seed(x, n, d, null, SEED)),
+      "same seed gave other centroids");
+    for (int workers = 2; workers <= 8; workers *= 2) {
+      ForkJoinPool pool = new ForkJoinPool(workers);
+      try {
+        TestData.check(Arrays.equals(expected, seed(x, n, d, pool, SEED)),
+          "centroids differ with " + workers + " workers");
+      } finally {
+        pool.shutdown();
+      }
+    }
+    TestData.check(!Arrays.equals(expected, seed(x, n, d, null, SEED + 1)),
+      "another seed gave the same centroids");
+    for (int c = 0; c < K; c++)
+      TestData.check(isRow(x, n, d, expected, c * d),
+        "centroid " + c + " is not a case");
+  }
+
+  private static double[] seed(double[] x, int n, int d, ForkJoinPool pool,
+    long seed)
+  {
+    return new KMeansParallelSeeder(x, n, d, pool).seed(K,
+      KMeansParallelSeeder.DEFAULT_ROUNDS, seed);
+  }
+
+  private static boolean isRow(double[] x, int n, int d, double[] centroids,
+    int off)
+  {
+    for (int i = 0; i < n; i++) {
+      if (Arrays.equals(x, i * d, i * d + d, centroids, off, off + d))
+        return true;
+    }
+    return false;
+  }
+}
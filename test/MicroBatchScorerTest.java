@@ -0,0 +1,103 @@
+package clustering;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Checks that <code>MicroBatchScorer</code> flushes a batch as soon as it
+ * is full, flushes a partial batch once its oldest case has waited the
+ * delay and not before, scores cases like <code>ClusterScorer</code>, and
+ * scores the cases still queued when it is closed.
+ */
+public class MicroBatchScorerTest {
+  private static final int BATCH = 16;
+
+  public static void main(String[] args) throws Exception {
+    MiningDataset data = TestData.blobs(1000, 3, 4, 29L);
+    ClusterScorer scorer = TestData.scorer(data, 4);
+    flushesBySize(data, scorer);
+    flushesByDeadline(data, scorer);
+  }
+
+  private static void flushesBySize(MiningDataset data, ClusterScorer scorer)
+    throws Exception
+  {
+    ModelRegistry registry = new ModelRegistry();
+    registry.publish(scorer);
+    // a delay no test run waits for: only a full batch is flushed
+    MicroBatchScorer batcher = new MicroBatchScorer(registry, BATCH,
+      TimeUnit.SECONDS.toMicros(60L), 4 * BATCH);
+    try {
+      CompletableFuture<MicroBatchScorer.Result>[] full = submit(batcher, data,
+        0, BATCH);
+      for (int i = 0; i < BATCH; i++)
+        sameCluster(scorer, data, i, full[i].get(5L, TimeUnit.SECONDS));
+      TestData.check(batcher.getBatchCount() == 1L,
+        "a full batch took " + batcher.getBatchCount() + " flushes");
+
+      CompletableFuture<MicroBatchScorer.Result>[] partial = submit(batcher,
+        data, BATCH, 5);
+      Thread.sleep(200L);
+      for (int i = 0; i < partial.length; i++)
+        TestData.check(!partial[i].isDone(),
+          "a partial batch was flushed before its delay");
+      TestData.check(batcher.close(5000L), "flusher did not stop");
+      for (int i = 0; i < partial.length; i++)
+        sameCluster(scorer, data, BATCH + i, partial[i].getNow(null));
+      TestData.check(batcher.getBatchCount() == 2L,
+        "close took " + (batcher.getBatchCount() - 1) + " flushes");
+    } finally {
+      batcher.close(5000L);
+    }
+  }
+
+  private static void flushesByDeadline(MiningDataset data,
+    ClusterScorer scorer) throws Exception
+  {
+    ModelRegistry registry = new ModelRegistry();
+    registry.publish(scorer);
+    long delayMicros = TimeUnit.MILLISECONDS.toMicros(100L);
+    MicroBatchScorer batcher = new MicroBatchScorer(registry, BATCH,
+      delayMicros, 4 * BATCH);
+    try {
+      long start = System.nanoTime();
+      CompletableFuture<MicroBatchScorer.Result>[] partial = submit(batcher,
+        data, 0, 3);
+      for (int i = 0; i < partial.length; i++)
+        sameCluster(scorer, data, i, partial[i].get(5L, TimeUnit.SECONDS));
+      long waitedMicros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start);
+      TestData.check(waitedMicros >= delayMicros,
+        "a partial batch was flushed after " + waitedMicros + " us");
+      TestData.check(batcher.getBatchCount() == 1L,
+        "a partial batch took " + batcher.getBatchCount() + " flushes");
+    } finally {
+      batcher.close(5000L);
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private static CompletableFuture<MicroBatchScorer.Result>[] submit(
+    MicroBatchScorer batcher, MiningDataset data, int from, int count)
+  {
+    int d = data.getAttributeCount();
+    CompletableFuture<MicroBatchScorer.Result>[] futures =
+      new CompletableFuture[count];
+    for (int i = 0; i < count; i++) {
+      double[] row = new double[d];
+      System.arraycopy(data.getValues(), (from + i) * d, row, 0, d);
+      futures[i] = batcher.submit(row);
+    }
+    return futures;
+  }
+
+  private static void sameCluster(ClusterScorer scorer, MiningDataset data,
+    int row, MicroBatchScorer.Result result)
+  {
+    TestData.check(result != null, "case " + row + " was not scored");
+    int expected = scorer.getClusterId(scorer.score(data.getValues(),
+      row * data.getAttributeCount()));
+    TestData.check(result.getClusterId() == expected,
+      "case " + row + " scored cluster " + result.getClusterId() +
+      " instead of " + expected);
+  }
+}
@@ -0,0 +1,148 @@
+package clustering;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+
+/**
+ * Checks that a model written by <code>ModelFile</code> loads back with
+ * the same summary, cluster tree, statistics and normalization, and that a
+ * damaged or truncated file is refused.
+ */
+public class ModelFileTest {
+  public static void main(String[] args) throws IOException {
+    MiningDataset data = TestData.blobs(3000, 4, 6, 19L);
+    File file = File.createTempFile("model", ".kmm");
+    try {
+      LocalClusteringModel bisecting = new BisectingKMeans(config(false))
+        .build(data, "bisecting");
+      TestData.check(bisecting.getNumberOfLevels() > 2 &&
+        bisecting.getCluster(1).getRule() != null,
+        "bisecting model has no tree or no statistics to write");
+      roundTrip(bisecting, file);
+
+      LocalClusteringModel flat = new KMeansEngine(config(true)).build(data,
+        "flat");
+      String[] names = data.getAttributeNames();
+      flat.setNormalizer(new MinMaxNormalizer(names,
+        new double[] { 0.0, 0.5, -1.0, 2.0 },
+        new double[] { 1.0, 2.0, 0.25, 8.0 }));
+      roundTrip(flat, file);
+
+      refused(file, "damaged", new Damage() {
+        public void apply(RandomAccessFile raf) throws IOException {
+          raf.seek(raf.length() / 2);
+          int b = raf.read();
+          raf.seek(raf.length() / 2);
+          raf.write(b ^ 0x10);
+        }
+      });
+      ModelFile.write(flat, file);
+      refused(file, "truncated", new Damage() {
+        public void apply(RandomAccessFile raf) throws IOException {
+          raf.setLength(raf.length() - 9);
+        }
+      });
+    } finally {
+      file.delete();
+    }
+  }
+
+  private static KMeansConfig config(boolean accelerated) {
+    KMeansConfig config = new KMeansConfig();
+    config.setNumberOfClusters(6);
+    config.setRandomSeed(2L);
+    config.setAccelerated(accelerated);
+    return config;
+  }
+
+  private static void roundTrip(LocalClusteringModel model, File file)
+    throws IOException
+  {
+    ModelFile.write(model, file);
+    LocalClusteringModel loaded = ModelFile.load(file);
+    String what = model.getName() + ": ";
+    TestData.check(model.getName().equals(loaded.getName()), what + "name");
+    TestData.check(Arrays.equals(model.getAttributeNames(),
+      loaded.getAttributeNames()), what + "attribute names");
+    TestData.check(model.getNumberOfBins() == loaded.getNumberOfBins(),
+      what + "bins");
+    TestData.check(model.getIterations() == loaded.getIterations(),
+      what + "iterations");
+    TestData.check(model.getError() == loaded.getError(), what + "error");
+    TestData.check(model.getDistancesPerIteration() ==
+      loaded.getDistancesPerIteration(), what + "distances per iteration");
+    TestData.check(Arrays.equals(model.getSkippedDistances(),
+      loaded.getSkippedDistances()), what + "skipped distances");
+    TestData.check(Arrays.equals(model.getBinStart(), loaded.getBinStart()),
+      what + "bin start");
+    TestData.check(Arrays.equals(model.getBinWidth(), loaded.getBinWidth()),
+      what + "bin width");
+    TestData.check(model.getNumberOfClusters() == loaded.getNumberOfClusters(),
+      what + "number of clusters");
+    TestData.check(Arrays.equals(model.getLeafCentroids(),
+      loaded.getLeafCentroids()), what + "leaf centroids");
+    for (int id = 1; id <= model.getNumberOfClusters(); id++)
+      sameCluster(what, model.getCluster(id), loaded.getCluster(id),
+        model.getAttributeCount());
+    MinMaxNormalizer normalizer = model.getNormalizer();
+    MinMaxNormalizer loadedNormalizer = loaded.getNormalizer();
+    TestData.check((normalizer == null) == (loadedNormalizer == null),
+      what + "normalizer");
+    for (int j = 0; normalizer != null && j < model.getAttributeCount(); j++) {
+      TestData.check(normalizer.getShift(j) == loadedNormalizer.getShift(j),
+        what + "shift of attribute " + j);
+      TestData.check(normalizer.getScale(j) == loadedNormalizer.getScale(j),
+        what + "scale of attribute " + j);
+    }
+  }
+
+  private static void sameCluster(String what, LocalCluster cluster,
+    LocalCluster loaded, int d)
+  {
+    what = what + "cluster " + cluster.getClusterId() + ": ";
+    TestData.check(cluster.getClusterId() == loaded.getClusterId(), what + "id");
+    TestData.check(cluster.isRoot() == loaded.isRoot(), what + "root");
+    TestData.check(cluster.isRoot() || cluster.getParent().getClusterId() ==
+      loaded.getParent().getClusterId(), what + "parent");
+    TestData.check(cluster.isLeaf() == loaded.isLeaf(), what + "leaf");
+    TestData.check(cluster.getLevel() == loaded.getLevel(), what + "level");
+    TestData.check(cluster.getCaseCount() == loaded.getCaseCount(),
+      what + "case count");
+    TestData.check(cluster.getDispersion() == loaded.getDispersion(),
+      what + "dispersion");
+    TestData.check(Arrays.equals(cluster.getCentroid(), loaded.getCentroid()),
+      what + "centroid");
+    LocalClusterRule rule = cluster.getRule();
+    TestData.check((rule == null) == (loaded.getRule() == null), what + "rule");
+    for (int j = 0; rule != null && j < d; j++) {
+      TestData.check(rule.getMinValue(j) == loaded.getRule().getMinValue(j) &&
+        rule.getMaxValue(j) == loaded.getRule().getMaxValue(j),
+        what + "rule bounds of attribute " + j);
+      TestData.check(Arrays.equals(cluster.getHistogram(j),
+        loaded.getHistogram(j)), what + "histogram of attribute " + j);
+    }
+  }
+
+  private interface Damage {
+    void apply(RandomAccessFile raf) throws IOException;
+  }
+
+  private static void refused(File file, String what, Damage damage)
+    throws IOException
+  {
+    RandomAccessFile raf = new RandomAccessFile(file, "rw");
+    try {
+      damage.apply(raf);
+    } finally {
+      raf.close();
+    }
+    try {
+      ModelFile.load(file);
+    } catch (IOException expected) {
+      return;
+    }
+    throw new AssertionError("a " + what + " model file was loaded");
+  }
+}
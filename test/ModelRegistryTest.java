@@ -0,0 +1,94 @@
+package clustering;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Stresses <code>ModelRegistry</code> with readers that acquire and release
+ * the current version while another thread keeps publishing new ones.
+ * No reader may hold a released version, every version must be released
+ * exactly once, and once the registry is cleared every reference count
+ * must have reached zero.
+ */
+public class ModelRegistryTest {
+  private static final int READERS = 8;
+  private static final int PUBLISHES = 2000;
+
+  public static void main(String[] args) throws InterruptedException {
+    final ClusterScorer scorer = TestData.scorer(
+      TestData.blobs(500, 3, 3, 5L), 3);
+    final ConcurrentHashMap<Long, AtomicInteger> releases =
+      new ConcurrentHashMap<Long, AtomicInteger>();
+    final ModelRegistry registry = new ModelRegistry(
+      new ModelRegistry.ReleaseListener() {
+        public void released(ModelRegistry.ModelVersion version) {
+          AtomicInteger count = releases.putIfAbsent(
+            Long.valueOf(version.getVersion()), new AtomicInteger(1));
+          if (count != null)
+            count.incrementAndGet();
+        }
+      });
+    registry.publish(scorer);
+
+    final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+    final AtomicInteger acquired = new AtomicInteger();
+    final CountDownLatch start = new CountDownLatch(1);
+    final CountDownLatch publisherDone = new CountDownLatch(1);
+    Thread[] readers = new Thread[READERS];
+    for (int r = 0; r < READERS; r++) {
+      readers[r] = new Thread(new Runnable() {
+        public void run() {
+          try {
+            start.await();
+            while (publisherDone.getCount() > 0) {
+              ModelRegistry.ModelVersion version = registry.acquire();
+              if (version.isReleased())
+                throw new AssertionError("acquired released version " +
+                  version.getVersion());
+              Thread.yield();
+              if (version.isReleased())
+                throw new AssertionError("version " + version.getVersion() +
+                  " released while in use");
+              version.release();
+              acquired.incrementAndGet();
+            }
+          } catch (Throwable t) {
+            failure.compareAndSet(null, t);
+          }
+        }
+      }, "reader-" + r);
+      readers[r].start();
+    }
+    start.countDown();
+    for (int p = 0; p < PUBLISHES; p++)
+      registry.publish(scorer);
+    publisherDone.countDown();
+    for (int r = 0; r < READERS; r++)
+      readers[r].join();
+    if (failure.get() != null)
+      throw new AssertionError("reader failed", failure.get());
+    TestData.check(acquired.get() > 0, "no reader acquired a version");
+
+    ModelRegistry.ModelVersion last = registry.getCurrent();
+    TestData.check(last.getVersion() == PUBLISHES + 1, "versions were skipped");
+    TestData.check(registry.getLiveVersionCount() == 1,
+      "replaced versions still live: " + (registry.getLiveVersionCount() - 1));
+    registry.clear();
+    TestData.check(last.isReleased(), "cleared version not released");
+    TestData.check(registry.getLiveVersionCount() == 0,
+      "live versions after clear: " + registry.getLiveVersionCount());
+    TestData.check(registry.acquire() == null, "acquired after clear");
+    TestData.check(releases.size() == PUBLISHES + 1,
+      "released " + releases.size() + " of " + (PUBLISHES + 1) + " versions");
+    for (AtomicInteger count : releases.values())
+      TestData.check(count.get() == 1, "a version was released twice");
+    try {
+      last.release();
+    } catch (IllegalStateException expected) {
+      return;
+    }
+    throw new AssertionError("extra release was not refused");
+  }
+}
@@ -0,0 +1,91 @@
+package clustering;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Checks that the tree reduction of <code>ParallelAssignment</code> gives
+ * the assignment, counts, sums and error of a serial pass over all rows,
+ * for dense and compact rows and across reused iterations.
+ */
+public class ParallelAssignmentTest {
+  private static final int K = 7;
+
+  public static void main(String[] args) {
+    MiningDataset data = TestData.blobs(20000, 5, K, 3L);
+    ForkJoinPool pool = new ForkJoinPool(4);
+    try {
+      dense(data, pool);
+      compact(data, pool);
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  private static void dense(MiningDataset data, ForkJoinPool pool) {
+    int n = data.getRowCount();
+    int d = data.getAttributeCount();
+    double[] x = data.getValues();
+    int[] parallelAssignment = new int[n];
+    ParallelAssignment parallel = new ParallelAssignment(pool, x, n, d, K,
+      parallelAssignment, null);
+    TestData.check(parallel.getBlockCount() > 1, "rows were not split");
+    double[] centroids = TestData.spreadRows(data, K);
+    double[] scratch = new double[Math.max(DistanceKernel.SCRATCH_LENGTH, K)];
+    int[] serialAssignment = new int[n];
+    for (int it = 0; it < 3; it++) {
+      double[] norms = new double[K];
+      DistanceKernel.get().squaredNorms(centroids, K, d, norms);
+      double[] serialSums = new double[K * d];
+      long[] serialCounts = new long[K];
+      double serialError = KMeansEngine.assignAndAccumulate(x, 0, n, d,
+        centroids, norms, K, serialAssignment, serialSums, serialCounts, scratch);
+      double[] sums = new double[K * d];
+      long[] counts = new long[K];
+      double error = parallel.assign(centroids, norms, sums, counts);
+      compare("dense iteration " + (it + 1), serialAssignment,
+        parallelAssignment, serialCounts, counts, serialSums, sums, serialError,
+        error);
+      KMeansEngine.updateCentroids(centroids, serialSums, serialCounts, K, d);
+    }
+  }
+
+  private static void compact(MiningDataset data, ForkJoinPool pool) {
+    CompactDataset compact = CompactDataset.encode(data,
+      CompactDataset.Encoding.UINT16);
+    int n = compact.getRowCount();
+    int d = compact.getAttributeCount();
+    int[] parallelAssignment = new int[n];
+    ParallelAssignment parallel = new ParallelAssignment(pool, compact, K,
+      parallelAssignment);
+    double[] centroids = TestData.spreadRows(data, K);
+    double[] norms = new double[K];
+    DistanceKernel.get().squaredNorms(centroids, K, d, norms);
+    int[] serialAssignment = new int[n];
+    double[] serialSums = new double[K * d];
+    long[] serialCounts = new long[K];
+    double serialError = KMeansEngine.assignAndAccumulate(compact, 0, n,
+      centroids, norms, K, serialAssignment, serialSums, serialCounts,
+      new double[DistanceKernel.TILE_ROWS * d],
+      new double[Math.max(DistanceKernel.SCRATCH_LENGTH, K)]);
+    double[] sums = new double[K * d];
+    long[] counts = new long[K];
+    double error = parallel.assign(centroids, norms, sums, counts);
+    compare("compact", serialAssignment, parallelAssignment, serialCounts,
+      counts, serialSums, sums, serialError, error);
+  }
+
+  private static void compare(String what, int[] serialAssignment,
+    int[] assignment, long[] serialCounts, long[] counts, double[] serialSums,
+    double[] sums, double serialError, double error)
+  {
+    TestData.check(Arrays.equals(serialAssignment, assignment),
+      what + ": assignments differ");
+    TestData.check(Arrays.equals(serialCounts, counts), what + ": counts differ");
+    // only the summation order differs
+    for (int i = 0; i < sums.length; i++)
+      TestData.checkClose(serialSums[i], sums[i],
+        1e-9 * Math.max(1.0, Math.abs(serialSums[i])), what + ": sum " + i);
+    TestData.checkClose(serialError, error, 1e-9 * serialError, what + ": error");
+  }
+}
@@ -0,0 +1,75 @@
+package clustering;
+
+import java.util.Random;
+
+/**
+ * This class makes the data sets the unit tests cluster: cases spread
+ * around a few centers, with a fixed seed so that every run of a test sees
+ * the same rows.
+ */
+class TestData {
+  private TestData() {
+  }
+
+  /**
+   * @param n number of cases
+   * @param d number of attributes
+   * @param k number of centers the cases are spread around
+   * @param seed seed of the random values
+   * @return cases with values around centers drawn from [0, 1)
+   */
+  static MiningDataset blobs(int n, int d, int k, long seed) {
+    Random random = new Random(seed);
+    double[] centers = new double[k * d];
+    for (int i = 0; i < centers.length; i++)
+      centers[i] = random.nextDouble();
+    double[] values = new double[n * d];
+    long[] caseIds = new long[n];
+    for (int i = 0; i < n; i++) {
+      caseIds[i] = 1000 + i;
+      int c = random.nextInt(k);
+      for (int j = 0; j < d; j++)
+        values[i * d + j] = centers[c * d + j] + 0.03 * random.nextGaussian();
+    }
+    String[] names = new String[d];
+    for (int j = 0; j < d; j++)
+      names[j] = "A" + j;
+    return new MiningDataset(names, caseIds, values, n);
+  }
+
+  /**
+   * @return k rows of <code>data</code> spread over the data set, as
+   *         starting centroids
+   */
+  static double[] spreadRows(MiningDataset data, int k) {
+    int d = data.getAttributeCount();
+    int step = data.getRowCount() / k;
+    double[] centroids = new double[k * d];
+    for (int c = 0; c < k; c++)
+      System.arraycopy(data.getValues(), c * step * d, centroids, c * d, d);
+    return centroids;
+  }
+
+  /**
+   * @return a scorer of a small flat model of <code>data</code>
+   */
+  static ClusterScorer scorer(MiningDataset data, int k) {
+    KMeansConfig config = new KMeansConfig();
+    config.setNumberOfClusters(k);
+    config.setRandomSeed(1L);
+    return new ClusterScorer(new KMeansEngine(config).build(data, "scored"));
+  }
+
+  static void check(boolean condition, String message) {
+    if (!condition)
+      throw new AssertionError(message);
+  }
+
+  static void checkClose(double expected, double actual, double tolerance,
+    String message)
+  {
+    if (!(Math.abs(expected - actual) <= tolerance))
+      throw new AssertionError(message + ": expected " + expected + " but was " +
+        actual);
+  }
+}